@@ -1,6 +1,7 @@
 package bancodoo;
 
 import bancodoo.banco.Banco;
+import bancodoo.banco.RendimentoMensal;
 import bancodoo.cliente.Cliente;
 import bancodoo.cliente.PessoaFisica;
 import bancodoo.cliente.PessoaJuridica;
@@ -13,7 +14,11 @@ import bancodoo.exceptions.InputInvalidoException;
 import bancodoo.exceptions.LimiteExcedidoException;
 import bancodoo.exceptions.SaldoInsuficienteException;
 import bancodoo.exceptions.ValorInvalidoException;
+import bancodoo.servidor.ServidorBanco;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Classe que representa a interface do programa com o usuario
@@ -34,9 +39,19 @@ public class Main {
     /**
      * Loop principal do programa
      * 
-     * @param args
+     * @param args vazio para o menu do terminal ou "servidor [porta]" para
+     * atender as operacoes por HTTP (ver ServidorBanco)
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("servidor")) {
+            try {
+                ServidorBanco.main(Arrays.copyOfRange(args, 1, args.length));
+            } catch (IOException e) {
+                System.out.println("Erro -> " + e.getMessage());
+            }
+            return;
+        }
+
         System.out.print("===== Banco =====");
         boolean running = true;
 
@@ -70,8 +85,9 @@ public class Main {
                         System.out.println("Transferencia realizada com sucesso >>>");
                     }
                     case 7 -> {
-                        banco.aplicarRendimento();
-                        System.out.println("Rendimento aplicado >>>");
+                        RendimentoMensal rendimento = new RendimentoMensal(banco);
+                        rendimento.setProgresso(RendimentoMensal.IMPRIMIR, 1, TimeUnit.SECONDS);
+                        System.out.println(rendimento.executar() + " >>>");
                     }
                     case 8 -> {
                         System.out.println("Encerrando...");
@@ -162,7 +178,7 @@ public class Main {
 
         switch (tipo) {
             case 1 -> {
-                System.out.print("Limite da conta corrente: ");
+                System.out.print("Limite de retiradas em 24 horas da conta corrente: ");
                 double limite = Double.parseDouble(input.nextLine());
 
                 return new Corrente(limite, saldo);
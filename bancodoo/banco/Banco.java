@@ -5,19 +5,66 @@ import bancodoo.cliente.PessoaFisica;
 import bancodoo.cliente.PessoaJuridica;
 import bancodoo.conta.Conta;
 import bancodoo.conta.Corrente;
+import bancodoo.conta.Dinheiro;
 import bancodoo.conta.Poupanca;
+import bancodoo.conta.ResultadoOperacao;
 import bancodoo.exceptions.ClienteNotFoundException;
 import bancodoo.exceptions.ContaNotFoundException;
 import bancodoo.exceptions.InputInvalidoException;
 import bancodoo.exceptions.LimiteExcedidoException;
 import bancodoo.exceptions.SaldoInsuficienteException;
 import bancodoo.exceptions.ValorInvalidoException;
-import java.util.LinkedList;
+import bancodoo.movimentacao.FiltroMovimentacao;
+import bancodoo.movimentacao.Movimentacao;
+import bancodoo.movimentacao.PaginaMovimentacoes;
+import bancodoo.persistencia.ArmazemClientes;
+import bancodoo.persistencia.Diario;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Classe que tem a funcao de manipular contas e clientes 
  * 
+ * Obs: o banco pode ser usado por varias threads ao mesmo tempo (ex: varios
+ * caixas). Os indices possuem sua propria trava, saques e depositos atualizam
+ * o saldo sem travas (compare-and-set, ver Conta.debitar) e as transferencias
+ * travam apenas as duas contas envolvidas, sempre na ordem crescente de id,
+ * evitando deadlocks entre transferencias opostas
+ * 
+ * Obs2: os clientes sao divididos em particoes (shards) pelo hash do
+ * documento. Cada particao possui seus proprios indices e trava, e os ids das
+ * contas sao distribuidos em blocos por particao (ver GeradorIds), de forma
+ * que operacoes sobre clientes de particoes diferentes nao disputam a mesma
+ * trava
+ * 
+ * Obs3: se um Diario for associado ao banco (ver setDiario), toda operacao
+ * que altera o estado e registrada nele e so retorna depois que o registro
+ * estiver gravado em disco. Nesse modo, saques e depositos tambem travam a
+ * conta, para que a ordem dos registros seja a mesma ordem em que as
+ * operacoes foram aplicadas
+ * 
+ * Obs4: as operacoes sem excecoes aceitam uma chave de idempotencia (ex:
+ * tentarTransferir(..., chave)). O reenvio de uma operacao com a mesma chave
+ * devolve o resultado original em vez de executa-la de novo
+ * 
+ * Obs5: com um ArmazemClientes (ver usarArmazem), apenas os clientes mais
+ * usados ficam em memoria (ver CacheClientes) e os demais sao lidos do
+ * armazem quando buscados. Nesse modo as operacoes sempre travam a conta, e
+ * as listagens (getClientes, listarPoupancas etc.) mostram apenas os clientes
+ * em memoria
+ * 
  * Exigencias do trabalho implementadas por essa classe: 
  * - Polimorfismo (Overloading)
  * - Collections
@@ -25,14 +72,30 @@ import java.util.List;
  * @author Vinicius Corbellini
  */
 public class Banco {
+    //Mensagem da ContaNotFoundException quando a conta e removida do armazem
+    //entre a busca e a operacao
+    private static final String CONTA_REMOVIDA = "a conta foi removida durante a operacao";
+
     //Numero de contas cadastradas no banco
-    private int num_contas;
+    private final LongAdder num_contas;
     
     //Atributo para a criacao de identificadores para as contas
-    private Long ids;
+    private final GeradorIds ids;
+
+    //Particoes do banco, cada uma com os indices de clientes (por documento)
+    //e contas (por identificador) dos seus clientes
+    private final Indice[] particoes;
+
+    //Diario das operacoes (write-ahead log) ou null se o banco for apenas em
+    //memoria
+    private volatile Diario diario;
 
-    //Lista de clientes do banco
-    private List<Cliente> clientes;
+    //Resultados das operacoes enviadas com chave de idempotencia
+    private volatile ChavesIdempotencia idempotencia;
+
+    //Clientes em memoria quando os clientes ficam em um armazem em disco ou
+    //null se todos os clientes ficarem em memoria
+    private volatile CacheClientes cache;
 
     //===== Operacoes envolvendo clientes
     /**
@@ -47,10 +110,56 @@ public class Banco {
      */
     public boolean adicionarCliente(Cliente c) throws InputInvalidoException {
         validarCliente(c);
+        if (!indexarNovo(c)) {
+            throw new InputInvalidoException("O documento ja existe no sistema!");
+        }
         if (c.getContas() != null) {
-            num_contas += c.getContas().size();
+            num_contas.add(c.getContas().size());
+        }
+        aguardarDiario(registrarCliente(c));
+        return true;
+    }
+
+    /**
+     * adiciona um lote de clientes em uma unica passada. Todos os clientes sao
+     * validados antes da insercao, de forma que, se algum for invalido, nenhum
+     * cliente do lote e adicionado
+     *
+     * @param lote clientes a serem inseridos
+     *
+     * @return true se todos os clientes forem corretamente adicionados
+     *
+     * @throws InputInvalidoException caso algum cliente possuir informacoes
+     * invalidas ou se houver documentos repetidos no lote ou no sistema
+     */
+    public boolean adicionarClientes(Collection<Cliente> lote) throws InputInvalidoException {
+        Set<String> documentos = new HashSet<>(lote.size() * 2);
+        for (Cliente c : lote) {
+            validarCliente(c);
+            if (!documentos.add(Indice.normalizarDocumento(c.getDocumento()))) {
+                throw new InputInvalidoException("O documento " + c.getDocumento() + " esta repetido no lote!");
+            }
+        }
+
+        List<Cliente> inseridos = new ArrayList<>(lote.size());
+        for (Cliente c : lote) {
+            if (!indexarNovo(c)) {
+                //outro caixa cadastrou o documento durante a insercao do lote
+                inseridos.forEach(this::desindexar);
+                throw new InputInvalidoException("O documento " + c.getDocumento() + " ja existe no sistema!");
+            }
+            inseridos.add(c);
+        }
+
+        long lsn = 0;
+        for (Cliente c : inseridos) {
+            if (c.getContas() != null) {
+                num_contas.add(c.getContas().size());
+            }
+            lsn = registrarCliente(c);
         }
-        return clientes.add(c);
+        aguardarDiario(lsn);
+        return true;
     }
 
     /**
@@ -61,10 +170,18 @@ public class Banco {
      * @return true se o cliente for corretamente removido
      */
     public boolean removerCliente(Cliente c) {
-        if (c.getContas() != null) {
-            num_contas -= c.getContas().size();
+        Cliente removido = desindexar(c);
+        if (removido == null) {
+            return false;
         }
-        return clientes.remove(c);
+        if (removido.getContas() != null) {
+            num_contas.add(-removido.getContas().size());
+        }
+        Diario d = diario;
+        if (d != null) {
+            d.aguardar(d.registrarRemocaoCliente(c.getDocumento(), removido.getContas()));
+        }
+        return true;
     }
 
     /**
@@ -82,6 +199,88 @@ public class Banco {
         return removerCliente(c);
     }
 
+    /**
+     * verifica se existe um cliente com o documento informado
+     *
+     * @param documento documento do cliente
+     *
+     * @return true se o cliente existir
+     */
+    public boolean existeCliente(String documento) {
+        CacheClientes cc = cache;
+        return particao(documento).contemDocumento(documento)
+                || (cc != null && cc.getArmazem().contem(documento));
+    }
+
+    /**
+     * indexa um cliente novo se o documento ainda nao existir. Com o armazem,
+     * o cliente tambem e gravado nele e passa a ser residente
+     *
+     * @return true se o cliente foi indexado
+     */
+    private boolean indexarNovo(Cliente c) {
+        Indice particao = particao(c.getDocumento());
+        CacheClientes cc = cache;
+        if (cc == null) {
+            return particao.adicionarClienteSeAusente(c);
+        }
+
+        cc.travar(particao);
+        try {
+            ArmazemClientes armazem = cc.getArmazem();
+            if (armazem.contem(c.getDocumento()) || !particao.adicionarClienteSeAusente(c)) {
+                return false;
+            }
+            try {
+                for (Conta conta : c.getContas()) {
+                    armazem.prepararHistorico(conta);
+                }
+                armazem.gravar(c);
+            } catch (IOException e) {
+                particao.removerCliente(c);
+                throw new UncheckedIOException("Falha ao gravar o cliente no armazem", e);
+            }
+            cc.admitir(c, particao);
+            return true;
+        } finally {
+            cc.destravar(particao);
+        }
+    }
+
+    /**
+     * retira um cliente dos indices. Com o armazem, o cliente e identificado
+     * pelo documento (o objeto informado pode ja ter sido descartado da
+     * memoria) e tambem e removido do armazem
+     *
+     * @return o cliente removido ou null se ele nao estava cadastrado
+     */
+    private Cliente desindexar(Cliente c) {
+        Indice particao = particao(c.getDocumento());
+        CacheClientes cc = cache;
+        if (cc == null) {
+            return particao.removerCliente(c) ? c : null;
+        }
+
+        cc.travar(particao);
+        try {
+            Cliente atual = cc.carregar(c.getDocumento(), particao);
+            if (atual == null || !particao.removerCliente(atual)) {
+                return null;
+            }
+            cc.esquecer(atual, particao);
+            for (Conta conta : atual.getContas()) {
+                //operacoes em andamento nas contas passam a nao encontra-las
+                conta.marcarDescarregada();
+            }
+            cc.getArmazem().remover(atual.getDocumento());
+            return atual;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Falha ao remover o cliente do armazem", e);
+        } finally {
+            cc.destravar(particao);
+        }
+    }
+
     /**
      * procura um cliente com base na String documento
      *
@@ -94,18 +293,11 @@ public class Banco {
      * documento
      */
     public Cliente procurarCliente(String documento) throws ClienteNotFoundException {
-        for (Cliente c : clientes) {
-            if (c instanceof PessoaFisica pf
-                    && pf.getDocumento().equalsIgnoreCase(documento)) {
-                return c;
-            }
-
-            if (c instanceof PessoaJuridica pj
-                    && pj.getDocumento().equalsIgnoreCase(documento)) {
-                return c;
-            }
+        Cliente c = buscarCliente(documento);
+        if (c == null) {
+            throw new ClienteNotFoundException();
         }
-        throw new ClienteNotFoundException();
+        return c;
     }
 
     /**
@@ -113,7 +305,7 @@ public class Banco {
      * lista de clientes
      */
     public void listarClientes() {
-        for (Cliente cliente : clientes) {
+        for (Cliente cliente : getClientes()) {
             System.out.println(cliente.toString());
         }
     }
@@ -148,8 +340,8 @@ public class Banco {
      * @param ct conta na qual as movimentacoes ocorreram
      */
     public void listarMovimentacoes(Conta ct) {
-        ct.getMovimentacoes().forEach(mov -> System.out.println(mov.toString()));
-
+        //o historico e percorrido por posicao, sem copia
+        ct.consultarMovimentacoes(FiltroMovimentacao.todas()).forEach(mov -> System.out.println(mov.toString()));
     }
 
     /**
@@ -166,22 +358,145 @@ public class Banco {
      */
     public void listarMovimentacoes(String doc, Long id) throws ClienteNotFoundException, ContaNotFoundException {
         Cliente c = procurarCliente(doc);
-        Conta ct = c.procurarConta(id);
+        Conta ct = procurarConta(c, id);
         listarMovimentacoes(ct);
     }
 
+    /**
+     * consulta as movimentacoes de uma conta de um determinado cliente que
+     * atendem a um filtro (ex: extrato de um periodo)
+     *
+     * @param doc documento do cliente
+     *
+     * @param id identificador da conta do cliente
+     *
+     * @param filtro filtro da consulta
+     *
+     * @return stream preguicosa das movimentacoes, em ordem de registro
+     *
+     * @throws ClienteNotFoundException caso nao houver um cliente com tal
+     * documento
+     *
+     * @throws ContaNotFoundException caso nao houver uma conta com tal id
+     */
+    public Stream<Movimentacao> consultarMovimentacoes(String doc, Long id, FiltroMovimentacao filtro) throws ClienteNotFoundException, ContaNotFoundException {
+        Cliente c = procurarCliente(doc);
+        return procurarConta(c, id).consultarMovimentacoes(filtro);
+    }
+
+    /**
+     * consulta uma pagina das movimentacoes de uma conta de um determinado
+     * cliente que atendem a um filtro
+     *
+     * @param doc documento do cliente
+     *
+     * @param id identificador da conta do cliente
+     *
+     * @param filtro filtro da consulta
+     *
+     * @param cursor cursor devolvido pela pagina anterior (0 na primeira
+     * pagina)
+     *
+     * @param limite quantidade maxima de movimentacoes da pagina
+     *
+     * @return pagina com as movimentacoes e o cursor da proxima pagina
+     *
+     * @throws ClienteNotFoundException caso nao houver um cliente com tal
+     * documento
+     *
+     * @throws ContaNotFoundException caso nao houver uma conta com tal id
+     */
+    public PaginaMovimentacoes consultarMovimentacoes(String doc, Long id, FiltroMovimentacao filtro, int cursor, int limite) throws ClienteNotFoundException, ContaNotFoundException {
+        Cliente c = procurarCliente(doc);
+        return procurarConta(c, id).consultarMovimentacoes(filtro, cursor, limite);
+    }
+
     //===== Operacoes envolvendo contas
     /**
-     * aplica o rendimento em todas as contas de todos os clientes
+     * aplica o rendimento em todas as contas poupanca do banco, em paralelo
+     * (ver RendimentoMensal)
      */
     public void aplicarRendimento() {
-        for (Cliente cliente : clientes) {
-            for (Conta c : cliente.getContas()) {
-                if (c instanceof Poupanca p) {
-                    p.aplicarRendimento();
-                }
+        new RendimentoMensal(this).executar();
+    }
+
+    /**
+     * aplica o rendimento em uma poupanca e, se houver diario, registra a
+     * operacao sob a trava da conta
+     *
+     * @param p poupanca que recebera o rendimento
+     *
+     * @return lsn do registro no diario (0 se nao houver diario)
+     */
+    long aplicarRendimento(Poupanca p) {
+        Diario d = diario;
+        CacheClientes cc = cache;
+        if (d == null && cc == null) {
+            p.aplicarRendimento();
+            return 0;
+        }
+        Conta conta = travarResidente(p, cc);
+        if (conta == null) {
+            return 0;
+        }
+        p = (Poupanca) conta;
+        try {
+            long antes = p.getSaldoCentavos();
+            p.aplicarRendimento();
+            if (d == null) {
+                return 0;
             }
+            long lsn = d.registrarRendimento(p.getId(), p.getSaldoCentavos() - antes, p.getSaldoCentavos());
+            p.setLsn(lsn);
+            return lsn;
+        } finally {
+            p.getTrava().unlock();
+        }
+    }
+
+    /**
+     * @return lista com todas as contas poupanca do banco (copiada dos
+     * registros por tipo das particoes, sem percorrer as demais contas)
+     */
+    public List<Poupanca> listarPoupancas() {
+        List<Poupanca> poupancas = new ArrayList<>();
+        for (Indice particao : particoes) {
+            particao.coletarPoupancas(poupancas);
+        }
+        return poupancas;
+    }
+
+    /**
+     * @return lista com todas as contas correntes do banco
+     */
+    public List<Corrente> listarCorrentes() {
+        List<Corrente> correntes = new ArrayList<>();
+        for (Indice particao : particoes) {
+            particao.coletarCorrentes(correntes);
+        }
+        return correntes;
+    }
+
+    /**
+     * @return lista com todos os clientes pessoa fisica do banco
+     */
+    public List<PessoaFisica> listarPessoasFisicas() {
+        List<PessoaFisica> clientes = new ArrayList<>();
+        for (Indice particao : particoes) {
+            particao.coletarPessoasFisicas(clientes);
+        }
+        return clientes;
+    }
+
+    /**
+     * @return lista com todos os clientes pessoa juridica do banco
+     */
+    public List<PessoaJuridica> listarPessoasJuridicas() {
+        List<PessoaJuridica> clientes = new ArrayList<>();
+        for (Indice particao : particoes) {
+            particao.coletarPessoasJuridicas(clientes);
         }
+        return clientes;
     }
 
     /**
@@ -200,15 +515,90 @@ public class Banco {
      * @throws InputInvalidoException caso nao houver uma conta com tal id
      */
     public boolean adicionarConta(String doc, Conta c) throws ClienteNotFoundException, InputInvalidoException {
-        Cliente cliente = procurarCliente(doc);
-        c.setTitular(cliente);
+        Indice particao = particao(doc);
+        CacheClientes cc = cache;
+        long lsn = 0;
+        if (cc != null) {
+            cc.travar(particao);
+        }
+        try {
+            Cliente cliente = procurarCliente(doc);
+            c.setTitular(cliente);
+
+            validarConta(c);
+            num_contas.increment();
+            c.setId(particao.gerarId());
+
+            Diario d = diario;
+            if (d == null) {
+                cliente.adicionarConta(c);
+                particao.adicionarConta(c);
+            } else {
+                //a conta fica travada ate ser registrada, para que nenhuma
+                //operacao sobre ela seja registrada no diario antes da sua criacao
+                c.getTrava().lock();
+                try {
+                    cliente.adicionarConta(c);
+                    particao.adicionarConta(c);
+                    lsn = d.registrarConta(cliente.getDocumento(), c);
+                    c.setLsn(lsn);
+                } finally {
+                    c.getTrava().unlock();
+                }
+            }
+            gravarNoArmazem(cc, cliente, c);
+        } finally {
+            if (cc != null) {
+                cc.destravar(particao);
+            }
+        }
+        aguardarDiario(lsn);
+        return true;
+    }
 
-        validarConta(c);
-        ids++;
-        num_contas++;
-        c.setId(this.ids);
+    /**
+     * adiciona uma conta que ja possui identificador (ex: conta reconstruida a
+     * partir do diario) mantendo o seu id
+     *
+     * @param doc documento do cliente
+     *
+     * @param c conta a ser inserida, com o id ja definido
+     *
+     * @return true se a conta for corretamente adicionada
+     *
+     * @throws ClienteNotFoundException caso nao houver um cliente com tal
+     * documento
+     *
+     * @throws InputInvalidoException caso a conta nao possua id, o id ja
+     * exista ou algum atributo for invalido
+     */
+    public boolean restaurarConta(String doc, Conta c) throws ClienteNotFoundException, InputInvalidoException {
+        if (c.getId() == null) {
+            throw new InputInvalidoException("A conta restaurada precisa de um id!");
+        }
+        if (buscarConta(c.getId()) != null) {
+            throw new InputInvalidoException("Ja existe uma conta com id " + c.getId() + "!");
+        }
+        Indice particao = particao(doc);
+        CacheClientes cc = cache;
+        if (cc != null) {
+            cc.travar(particao);
+        }
+        try {
+            Cliente cliente = procurarCliente(doc);
+            c.setTitular(cliente);
 
-        return cliente.adicionarConta(c);
+            validarConta(c);
+            num_contas.increment();
+            cliente.adicionarConta(c);
+            particao.adicionarConta(c);
+            gravarNoArmazem(cc, cliente, c);
+            return true;
+        } finally {
+            if (cc != null) {
+                cc.destravar(particao);
+            }
+        }
     }
 
     /**
@@ -227,7 +617,7 @@ public class Banco {
      */
     public boolean removerConta(String documento, Long id) throws ClienteNotFoundException, ContaNotFoundException {
         Cliente cliente = procurarCliente(documento);
-        Conta c = procurarConta(id);
+        Conta c = procurarConta(cliente, id);
         return removerConta(cliente, c);
     }
 
@@ -244,11 +634,59 @@ public class Banco {
      * @throws ContaNotFoundException se a conta nao existir
      */
     public boolean removerConta(Cliente cliente, Conta c) throws ContaNotFoundException {
-        cliente.removerConta(c.getId());
-        num_contas--;
+        Indice particao = particao(cliente.getDocumento());
+        CacheClientes cc = cache;
+        if (cc == null) {
+            cliente.removerConta(c.getId());
+            particao.removerConta(c);
+        } else {
+            cc.travar(particao);
+            try {
+                //o cliente e a conta informados podem ja ter sido descartados
+                //da memoria
+                cliente = buscarCliente(cliente.getDocumento());
+                c = cliente == null ? null : buscarConta(cliente, c.getId());
+                if (c == null) {
+                    throw new ContaNotFoundException();
+                }
+                cliente.removerConta(c.getId());
+                particao.removerConta(c);
+                c.marcarDescarregada();
+                gravarNoArmazem(cc, cliente, null);
+            } finally {
+                cc.destravar(particao);
+            }
+        }
+        num_contas.decrement();
+
+        Diario d = diario;
+        if (d != null) {
+            d.aguardar(d.registrarRemocaoConta(c.getId()));
+        }
         return true;
     }
 
+    /**
+     * com o armazem, grava a nova estrutura de um cliente (inclusao ou
+     * remocao de conta) e prepara o historico da conta incluida. Chamado com o
+     * segmento do cliente travado (ver CacheClientes.travar)
+     *
+     * @param nova conta incluida ou null
+     */
+    private static void gravarNoArmazem(CacheClientes cc, Cliente cliente, Conta nova) {
+        if (cc == null) {
+            return;
+        }
+        try {
+            if (nova != null) {
+                cc.getArmazem().prepararHistorico(nova);
+            }
+            cc.getArmazem().gravar(cliente);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Falha ao gravar o cliente no armazem", e);
+        }
+    }
+
     /**
      * procura uma conta na lista de clientes do banco com base em um
      * determinado identificador
@@ -260,21 +698,187 @@ public class Banco {
      * @throws ContaNotFoundException se o id nao for encontrado
      */
     public Conta procurarConta(Long id) throws ContaNotFoundException {
-        for (Cliente cliente : clientes) {
-            for (Conta c : cliente.getContas()) {
-                if (c.getId().equals(id)) {
-                    return c;
-                }
+        Conta c = buscarConta(id);
+        if (c == null) {
+            throw new ContaNotFoundException();
+        }
+        return c;
+    }
+
+    /**
+     * verifica se existe uma conta com o identificador informado
+     *
+     * @param id identificador da conta
+     *
+     * @return true se a conta existir
+     */
+    public boolean existeConta(Long id) {
+        return buscarConta(id) != null;
+    }
+
+    /**
+     * procura uma conta com base em um determinado identificador e verifica se
+     * ela pertence ao cliente informado
+     *
+     * @param cliente cliente dono da conta
+     *
+     * @param id identificador a ser procurado
+     *
+     * @return c Objeto conta se o id existir e pertencer ao cliente
+     *
+     * @throws ContaNotFoundException se o id nao for encontrado ou se a conta
+     * for de outro cliente
+     */
+    public Conta procurarConta(Cliente cliente, Long id) throws ContaNotFoundException {
+        Conta c = buscarConta(cliente, id);
+        if (c == null) {
+            throw new ContaNotFoundException("o cliente " + cliente.getNome() + " nao possui nenhuma conta com id " + id);
+        }
+        return c;
+    }
+
+    /**
+     * busca uma conta na particao dona do seu id. Se o id nao tiver sido
+     * gerado pelo banco (ex: conta cadastrada junto com o cliente), todas as
+     * particoes sao consultadas
+     *
+     * @param id identificador a ser procurado
+     *
+     * @return a conta ou null se o id nao existir
+     */
+    private Conta buscarConta(Long id) {
+        Conta c = buscarContaResidente(id);
+        CacheClientes cc = cache;
+        if (cc == null || id == null) {
+            return c;
+        }
+        Cliente titular = c == null ? null : c.getTitular();
+        if (titular != null) {
+            cc.usar(titular, particao(titular.getDocumento()));
+            return c;
+        }
+
+        //conta fora da memoria: carrega o cliente dono dela
+        String doc;
+        try {
+            doc = cc.getArmazem().procurarDocumento(id);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Falha ao ler o armazem", e);
+        }
+        Cliente cliente = doc == null ? null : cc.carregar(doc, particao(doc));
+        if (cliente == null) {
+            return null;
+        }
+        //o cliente pode sair da memoria logo depois de carregado, entao a
+        //conta e procurada nele e nao nos indices
+        for (Conta conta : cliente.getContas()) {
+            if (id.equals(conta.getId())) {
+                return conta;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * busca uma conta apenas nos indices (contas em memoria)
+     *
+     * @return a conta ou null se o id nao estiver nos indices
+     */
+    private Conta buscarContaResidente(Long id) {
+        if (id == null) {
+            return null;
+        }
+
+        Integer numero = ids.procurarParticao(id);
+        if (numero != null) {
+            Conta c = particoes[numero].procurarConta(id);
+            if (c != null) {
+                return c;
+            }
+        }
+
+        for (Indice particao : particoes) {
+            Conta c = particao.procurarConta(id);
+            if (c != null) {
+                return c;
             }
         }
-        throw new ContaNotFoundException();
+        return null;
+    }
+
+    /**
+     * busca uma conta e verifica se ela pertence ao cliente informado
+     *
+     * @return a conta ou null se o id nao existir ou for de outro cliente
+     */
+    Conta buscarConta(Cliente cliente, Long id) {
+        Conta c = buscarContaResidente(id);
+        if (c == null && cache != null) {
+            c = buscarConta(id);
+        }
+        return c == null || !pertence(c, cliente) ? null : c;
+    }
+
+    /**
+     * verifica se uma conta e do cliente informado. Com o armazem, o cliente
+     * pode ter sido descartado e carregado de novo entre as buscas, entao os
+     * documentos sao comparados
+     */
+    private boolean pertence(Conta c, Cliente cliente) {
+        Cliente titular = c.getTitular();
+        if (titular == cliente) {
+            return true;
+        }
+        return cache != null && titular != null && cliente != null
+                && Indice.normalizarDocumento(titular.getDocumento()).equals(Indice.normalizarDocumento(cliente.getDocumento()));
+    }
+
+    /**
+     * busca um cliente sem lancar excecoes. Com o armazem, o cliente que nao
+     * estiver em memoria e lido do armazem
+     *
+     * @return o cliente ou null se o documento nao existir
+     */
+    Cliente buscarCliente(String documento) {
+        Indice particao = particao(documento);
+        Cliente c = particao.procurarCliente(documento);
+        CacheClientes cc = cache;
+        if (cc == null) {
+            return c;
+        }
+        if (c != null) {
+            cc.usar(c, particao);
+            return c;
+        }
+        return cc.carregar(documento, particao);
+    }
+
+    /**
+     * escolhe a particao de um cliente a partir do hash do seu documento.
+     *
+     * Obs: o hash e embaralhado antes de escolher a particao. O HashMap do
+     * Indice escolhe o balde pelos bits baixos do mesmo hash (o hashCode do
+     * documento normalizado); escolhendo a particao tambem pelos bits baixos,
+     * todos os documentos de uma particao teriam os mesmos bits baixos e
+     * ocupariam apenas 1 / num_particoes dos baldes, que virariam arvores com
+     * muitas colisoes. A particao vem da parte alta de hash * num_particoes
+     * (os 32 bits do hash embaralhado, sem o vies de um modulo sobre parte
+     * do hash e para qualquer numero de particoes)
+     *
+     * @param documento documento do cliente
+     *
+     * @return particao responsavel pelo documento
+     */
+    private Indice particao(String documento) {
+        long h = (Indice.hashDocumento(documento) * 0x9E3779B9) & 0xFFFFFFFFL;
+        return particoes[(int) ((h * particoes.length) >>> 32)];
     }
 
     /**
      * lista todas as contas de todos os clientes na lista de clientes do banco
      */
     public void listarTodasAsContas() {
-        for (Cliente c : clientes) {
+        for (Cliente c : getClientes()) {
             listarContas(c);
         }
     }
@@ -303,15 +907,14 @@ public class Banco {
      * @throws LimiteExcedidoException se o param amount for maior que o limite
      * da conta
      */
-    public void sacar(String document, Long id, Double amount)
+    public void sacar(String document, Long id, double amount)
             throws ClienteNotFoundException, ContaNotFoundException,
             SaldoInsuficienteException, ValorInvalidoException,
             LimiteExcedidoException {
 
         Cliente cliente = procurarCliente(document);
-        Conta conta = cliente.procurarConta(id);
-
-        conta.sacar(amount);
+        Conta conta = procurarConta(cliente, id);
+        lancarSeFalhou(executarSaque(conta, Dinheiro.valorDaOperacao(amount)), "saque bloqueado!");
     }
 
     /**
@@ -331,14 +934,23 @@ public class Banco {
      *
      * @throws ValorInvalidoException se o param amount for invalido
      */
-    public void depositar(String document, Long id, Double amount)
+    public void depositar(String document, Long id, double amount)
             throws ClienteNotFoundException, ContaNotFoundException,
             ValorInvalidoException {
 
         Cliente cliente = procurarCliente(document);
-        Conta conta = cliente.procurarConta(id);
-
-        conta.depositar(amount);
+        Conta conta = procurarConta(cliente, id);
+        ResultadoOperacao r = executarDeposito(conta, Dinheiro.valorDaOperacao(amount));
+        switch (r) {
+            case SUCESSO -> {
+            }
+            case CONTA_NAO_ENCONTRADA ->
+                throw new ContaNotFoundException(CONTA_REMOVIDA);
+            case VALOR_INVALIDO ->
+                throw new ValorInvalidoException("menor ou igual a zero!");
+            default ->
+                throw new IllegalStateException("Resultado inesperado em um deposito: " + r);
+        }
     }
 
     /**
@@ -370,40 +982,676 @@ public class Banco {
      *
      * @throws LimiteExcedidoException se o limite do remetente for excedido
      */
-    public void transferir(String doc_remet, String doc_dest, Long id_remet, Long id_dest, Double amount)
+    public void transferir(String doc_remet, String doc_dest, Long id_remet, Long id_dest, double amount)
             throws ClienteNotFoundException, ContaNotFoundException,
             SaldoInsuficienteException, ValorInvalidoException, LimiteExcedidoException {
 
         Cliente c_remet = procurarCliente(doc_remet);
         Cliente c_dest = procurarCliente(doc_dest);
 
-        Conta remetente = c_remet.procurarConta(id_remet);
-        Conta destinatario = c_dest.procurarConta(id_dest);
+        Conta remetente = procurarConta(c_remet, id_remet);
+        Conta destinatario = procurarConta(c_dest, id_dest);
 
-        remetente.transferir(destinatario, amount);
+        lancarSeFalhou(executarTransferencia(remetente, destinatario, Dinheiro.valorDaOperacao(amount)),
+                "transferencia bloqueada!");
     }
 
-    //===== Validacoes
     /**
-     * valida um objeto cliente de acordo com sua classe e atributos
+     * lanca a excecao correspondente ao resultado de uma operacao (ver
+     * ResultadoOperacao.lancarSeFalhou). Com o armazem, a conta pode ser
+     * removida entre a busca e a trava: nesse caso o resultado e
+     * CONTA_NAO_ENCONTRADA
      *
-     * @throws InputInvalidoException caso o documento do cliente ja exista na
-     * lista de clientes ou se algum atributo do cliente for invalido (vazio ou
-     * em branco)
+     * @throws ContaNotFoundException se o resultado for CONTA_NAO_ENCONTRADA
      */
-    private void validarCliente(Cliente c) throws InputInvalidoException {
-        for (Cliente cliente : clientes) {
-            if (cliente.getDocumento().equalsIgnoreCase(c.getDocumento())) {
-                throw new InputInvalidoException("O documento ja existe no sistema!");
-            }
-        }
-        if (c.getNome().isBlank()) {
-            throw new InputInvalidoException("Nome invalido!");
+    private static void lancarSeFalhou(ResultadoOperacao r, String bloqueio)
+            throws ContaNotFoundException, SaldoInsuficienteException,
+            ValorInvalidoException, LimiteExcedidoException {
+        if (r == ResultadoOperacao.CONTA_NAO_ENCONTRADA) {
+            throw new ContaNotFoundException(CONTA_REMOVIDA);
         }
-        if (c.getEmail().isBlank()) {
-            throw new InputInvalidoException("Email invalido!");
+        r.lancarSeFalhou(bloqueio);
+    }
+
+    //===== Operacoes sem excecoes
+    /**
+     * mesmo que sacar, mas devolve o resultado da operacao em vez de lancar
+     * excecoes (recomendado quando as falhas sao frequentes, ex: saldo
+     * insuficiente em sistemas com muitas requisicoes)
+     *
+     * @param document documento do cliente
+     *
+     * @param id identificador da conta
+     *
+     * @param amount valor a ser sacado
+     *
+     * @return SUCESSO ou o motivo da falha
+     */
+    public ResultadoOperacao tentarSacar(String document, Long id, double amount) {
+        Cliente cliente = buscarCliente(document);
+        if (cliente == null) {
+            return ResultadoOperacao.CLIENTE_NAO_ENCONTRADO;
+        }
+        Conta conta = buscarConta(cliente, id);
+        if (conta == null) {
+            return ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+        }
+        return executarSaque(conta, Dinheiro.valorDaOperacao(amount));
+    }
+
+    /**
+     * mesmo que depositar, mas devolve o resultado da operacao em vez de
+     * lancar excecoes
+     *
+     * @param document documento do cliente
+     *
+     * @param id identificador da conta
+     *
+     * @param amount valor a ser depositado
+     *
+     * @return SUCESSO ou o motivo da falha
+     */
+    public ResultadoOperacao tentarDepositar(String document, Long id, double amount) {
+        Cliente cliente = buscarCliente(document);
+        if (cliente == null) {
+            return ResultadoOperacao.CLIENTE_NAO_ENCONTRADO;
+        }
+        Conta conta = buscarConta(cliente, id);
+        if (conta == null) {
+            return ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+        }
+        return executarDeposito(conta, Dinheiro.valorDaOperacao(amount));
+    }
+
+    /**
+     * mesmo que transferir, mas devolve o resultado da operacao em vez de
+     * lancar excecoes
+     *
+     * @param doc_remet documento do remetente
+     *
+     * @param doc_dest documento do destinatario
+     *
+     * @param id_remet identificador do remetente
+     *
+     * @param id_dest identificador do destinatario
+     *
+     * @param amount valor a ser transferido
+     *
+     * @return SUCESSO ou o motivo da falha
+     */
+    public ResultadoOperacao tentarTransferir(String doc_remet, String doc_dest, Long id_remet, Long id_dest, double amount) {
+        Cliente c_remet = buscarCliente(doc_remet);
+        Cliente c_dest = buscarCliente(doc_dest);
+        if (c_remet == null || c_dest == null) {
+            return ResultadoOperacao.CLIENTE_NAO_ENCONTRADO;
+        }
+
+        Conta remetente = buscarConta(c_remet, id_remet);
+        Conta destinatario = buscarConta(c_dest, id_dest);
+        if (remetente == null || destinatario == null) {
+            return ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+        }
+        return executarTransferencia(remetente, destinatario, Dinheiro.valorDaOperacao(amount));
+    }
+
+    /**
+     * mesmo que tentarSacar, mas com uma chave de idempotencia: se um saque
+     * com a mesma chave (do mesmo cliente) ja tiver sido executado, devolve o
+     * resultado original sem sacar de novo (ver ChavesIdempotencia)
+     *
+     * @param document documento do cliente
+     *
+     * @param id identificador da conta
+     *
+     * @param amount valor a ser sacado
+     *
+     * @param chave chave de idempotencia ou null para executar sempre
+     *
+     * @return SUCESSO, o motivo da falha ou EM_ANDAMENTO se a operacao
+     * original ainda nao terminou
+     */
+    public ResultadoOperacao tentarSacar(String document, Long id, double amount, String chave) {
+        return comChave(document, chave, () -> tentarSacar(document, id, amount));
+    }
+
+    /**
+     * mesmo que tentarDepositar, mas com uma chave de idempotencia (ver
+     * tentarSacar)
+     *
+     * @param document documento do cliente
+     *
+     * @param id identificador da conta
+     *
+     * @param amount valor a ser depositado
+     *
+     * @param chave chave de idempotencia ou null para executar sempre
+     *
+     * @return SUCESSO, o motivo da falha ou EM_ANDAMENTO
+     */
+    public ResultadoOperacao tentarDepositar(String document, Long id, double amount, String chave) {
+        return comChave(document, chave, () -> tentarDepositar(document, id, amount));
+    }
+
+    /**
+     * mesmo que tentarTransferir, mas com uma chave de idempotencia do
+     * remetente (ver tentarSacar). Um reenvio apos um timeout nao debita o
+     * remetente duas vezes
+     *
+     * @param doc_remet documento do remetente
+     *
+     * @param doc_dest documento do destinatario
+     *
+     * @param id_remet identificador do remetente
+     *
+     * @param id_dest identificador do destinatario
+     *
+     * @param amount valor a ser transferido
+     *
+     * @param chave chave de idempotencia ou null para executar sempre
+     *
+     * @return SUCESSO, o motivo da falha ou EM_ANDAMENTO
+     */
+    public ResultadoOperacao tentarTransferir(String doc_remet, String doc_dest, Long id_remet, Long id_dest, double amount, String chave) {
+        return comChave(doc_remet, chave, () -> tentarTransferir(doc_remet, doc_dest, id_remet, id_dest, amount));
+    }
+
+    /**
+     * executa uma operacao apenas se a chave ainda nao tiver sido usada pelo
+     * cliente. Se a operacao lancar uma excecao, a chave e liberada para que o
+     * reenvio tente de novo
+     */
+    private ResultadoOperacao comChave(String documento, String chave, Supplier<ResultadoOperacao> operacao) {
+        if (chave == null || documento == null) {
+            return operacao.get();
+        }
+        ChavesIdempotencia chaves = idempotencia;
+        long hash = ChavesIdempotencia.calcular(documento, chave);
+        ResultadoOperacao anterior = chaves.reservar(hash);
+        if (anterior != null) {
+            return anterior;
+        }
+
+        ResultadoOperacao r = null;
+        try {
+            r = operacao.get();
+            return r;
+        } finally {
+            if (r != null) {
+                chaves.concluir(hash, r);
+            } else {
+                chaves.liberar(hash);
+            }
+        }
+    }
+
+    /**
+     * saca um valor de uma conta ja encontrada e, se houver diario, registra a
+     * operacao sob a trava da conta e espera a gravacao em disco
+     *
+     * @return resultado do saque
+     */
+    private ResultadoOperacao executarSaque(Conta conta, long valor) {
+        Diario d = diario;
+        CacheClientes cc = cache;
+        if (d == null && cc == null) {
+            return conta.tentarSacar(valor);
+        }
+
+        long lsn;
+        conta = travarResidente(conta, cc);
+        if (conta == null) {
+            return ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+        }
+        try {
+            ResultadoOperacao r = conta.tentarSacar(valor);
+            if (!r.isSucesso() || d == null) {
+                return r;
+            }
+            lsn = d.registrarSaque(conta.getId(), valor, conta.getSaldoCentavos());
+            conta.setLsn(lsn);
+        } finally {
+            conta.getTrava().unlock();
+        }
+        d.aguardar(lsn);
+        return ResultadoOperacao.SUCESSO;
+    }
+
+    /**
+     * deposita um valor em uma conta ja encontrada (ver executarSaque)
+     *
+     * @return resultado do deposito
+     */
+    private ResultadoOperacao executarDeposito(Conta conta, long valor) {
+        Diario d = diario;
+        CacheClientes cc = cache;
+        if (d == null && cc == null) {
+            return conta.tentarDepositar(valor);
+        }
+
+        long lsn;
+        conta = travarResidente(conta, cc);
+        if (conta == null) {
+            return ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+        }
+        try {
+            ResultadoOperacao r = conta.tentarDepositar(valor);
+            if (!r.isSucesso() || d == null) {
+                return r;
+            }
+            lsn = d.registrarDeposito(conta.getId(), valor, conta.getSaldoCentavos());
+            conta.setLsn(lsn);
+        } finally {
+            conta.getTrava().unlock();
+        }
+        d.aguardar(lsn);
+        return ResultadoOperacao.SUCESSO;
+    }
+
+    /**
+     * transfere um valor entre duas contas ja encontradas, com as travas das
+     * duas contas, e registra a operacao no diario (se houver)
+     *
+     * @return resultado da transferencia
+     */
+    private ResultadoOperacao executarTransferencia(Conta remetente, Conta destinatario, long valor) {
+        Diario d = diario;
+        CacheClientes cc = cache;
+        long lsn = 0;
+        ResultadoOperacao r;
+        if (cc == null) {
+            travar(remetente, destinatario);
+        } else {
+            Conta[] par = travarResidentes(remetente, destinatario);
+            if (par == null) {
+                return ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+            }
+            remetente = par[0];
+            destinatario = par[1];
+        }
+        try {
+            r = remetente.tentarTransferir(destinatario, valor);
+            if (r.isSucesso() && d != null) {
+                lsn = d.registrarTransferencia(remetente.getId(), destinatario.getId(), valor,
+                        remetente.getSaldoCentavos(), destinatario.getSaldoCentavos());
+                remetente.setLsn(lsn);
+                destinatario.setLsn(lsn);
+            }
+        } finally {
+            destravar(remetente, destinatario);
+        }
+        aguardarDiario(lsn);
+        return r;
+    }
+
+    //===== Operacoes em lote
+    /**
+     * executa um lote de operacoes (depositos, saques e transferencias) e
+     * devolve o resultado de cada uma, na mesma ordem do lote, sem lancar
+     * excecoes pelas operacoes que falharem.
+     *
+     * Cada cliente e conta e buscado uma unica vez por lote. Os depositos e
+     * saques sao agrupados por conta e aplicados com uma unica aquisicao da
+     * trava da conta por grupo, mantendo a ordem do lote dentro de cada conta.
+     * Uma transferencia e uma barreira para as suas duas contas: os grupos
+     * pendentes da origem e do destino sao aplicados antes dela, de forma que
+     * o resultado de cada operacao e o mesmo da execucao uma a uma, na ordem
+     * do lote. Se houver diario, o metodo espera a gravacao em disco apenas
+     * uma vez, no final.
+     *
+     * @param operacoes operacoes a serem executadas
+     *
+     * @return resultado de cada operacao (mesmo indice do lote)
+     */
+    public ResultadoOperacao[] executarLote(List<Operacao> operacoes) {
+        int n = operacoes.size();
+        ResultadoOperacao[] resultados = new ResultadoOperacao[n];
+
+        //buscas feitas uma unica vez por lote
+        Map<String, Cliente> clientes = new HashMap<>();
+        Map<Long, Conta> contas = new HashMap<>();
+
+        //cada conta recebe um numero de grupo com a lista (encadeada por
+        //proximo) dos seus depositos e saques ainda nao aplicados
+        Map<Conta, Integer> grupos = new IdentityHashMap<>();
+        Conta[] contas_grupo = new Conta[n];
+        int[] primeiro = new int[n];
+        int[] ultimo = new int[n];
+        int[] proximo = new int[n];
+
+        Diario d = diario;
+        CacheClientes cc = cache;
+        long lsn = 0;
+        for (int i = 0; i < n; i++) {
+            Operacao op = operacoes.get(i);
+            if (op.getValorCentavos() <= 0) {
+                resultados[i] = ResultadoOperacao.VALOR_INVALIDO;
+                continue;
+            }
+            Conta origem = resolverConta(op.getDocumento(), op.getId(), clientes, contas, resultados, i);
+            if (origem == null) {
+                continue;
+            }
+
+            if (op.getTipo() == Operacao.Tipo.TRANSFERENCIA) {
+                Conta destino = resolverConta(op.getDocumento_destino(), op.getId_destino(), clientes, contas, resultados, i);
+                if (destino == null) {
+                    continue;
+                }
+                //aplica o que estiver pendente nas duas contas antes da
+                //transferencia
+                for (int lado = 0; lado < 2; lado++) {
+                    Integer g = grupos.get(lado == 0 ? origem : destino);
+                    if (g != null && primeiro[g] >= 0) {
+                        lsn = Math.max(lsn, aplicarGrupo(operacoes, contas_grupo[g], primeiro[g], proximo, d, cc, resultados));
+                        primeiro[g] = -1;
+                    }
+                }
+                lsn = Math.max(lsn, aplicarTransferenciaNoLote(op, origem, destino, d, cc, resultados, i));
+                continue;
+            }
+
+            Integer grupo = grupos.get(origem);
+            if (grupo == null) {
+                grupo = grupos.size();
+                grupos.put(origem, grupo);
+                contas_grupo[grupo] = origem;
+                primeiro[grupo] = -1;
+            }
+            proximo[i] = -1;
+            if (primeiro[grupo] < 0) {
+                primeiro[grupo] = i;
+            } else {
+                proximo[ultimo[grupo]] = i;
+            }
+            ultimo[grupo] = i;
+        }
+
+        for (int g = 0; g < grupos.size(); g++) {
+            if (primeiro[g] >= 0) {
+                lsn = Math.max(lsn, aplicarGrupo(operacoes, contas_grupo[g], primeiro[g], proximo, d, cc, resultados));
+            }
+        }
+
+        aguardarDiario(lsn);
+        return resultados;
+    }
+
+    /**
+     * aplica os depositos e saques pendentes de uma conta do lote, na ordem do
+     * lote, com uma unica aquisicao da trava da conta
+     *
+     * @param primeiro indice da primeira operacao do grupo (as seguintes sao
+     * encadeadas por proximo, terminando em -1)
+     *
+     * @return maior lsn registrado no diario (0 se nao houver)
+     */
+    private long aplicarGrupo(List<Operacao> operacoes, Conta conta, int primeiro, int[] proximo,
+            Diario d, CacheClientes cc, ResultadoOperacao[] resultados) {
+        conta = travarResidente(conta, cc);
+        if (conta == null) {
+            //conta removida depois de ser buscada
+            for (int i = primeiro; i >= 0; i = proximo[i]) {
+                resultados[i] = ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+            }
+            return 0;
+        }
+        long lsn = 0;
+        try {
+            for (int i = primeiro; i >= 0; i = proximo[i]) {
+                lsn = Math.max(lsn, aplicarNoLote(operacoes.get(i), conta, null, d, resultados, i));
+            }
+        } finally {
+            conta.getTrava().unlock();
+        }
+        return lsn;
+    }
+
+    /**
+     * aplica uma transferencia do lote com as travas das duas contas
+     *
+     * @return lsn do registro no diario (0 se nao houver)
+     */
+    private long aplicarTransferenciaNoLote(Operacao op, Conta origem, Conta destino,
+            Diario d, CacheClientes cc, ResultadoOperacao[] resultados, int i) {
+        if (cc == null) {
+            travar(origem, destino);
+        } else {
+            Conta[] par = travarResidentes(origem, destino);
+            if (par == null) {
+                resultados[i] = ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+                return 0;
+            }
+            origem = par[0];
+            destino = par[1];
+        }
+        try {
+            return aplicarNoLote(op, origem, destino, d, resultados, i);
+        } finally {
+            destravar(origem, destino);
         }
-        if (c.getDocumento().isBlank()) {
+    }
+
+    /**
+     * busca a conta de um cliente usando (e preenchendo) os caches do lote.
+     * Se o cliente ou a conta nao existir, registra a falha no resultado
+     *
+     * @return conta encontrada ou null
+     */
+    private Conta resolverConta(String documento, Long id, Map<String, Cliente> clientes,
+            Map<Long, Conta> contas, ResultadoOperacao[] resultados, int i) {
+        Cliente cliente;
+        if (clientes.containsKey(documento)) {
+            cliente = clientes.get(documento);
+        } else {
+            cliente = buscarCliente(documento);
+            clientes.put(documento, cliente);
+        }
+        if (cliente == null) {
+            resultados[i] = ResultadoOperacao.CLIENTE_NAO_ENCONTRADO;
+            return null;
+        }
+
+        Conta conta = null;
+        if (id != null) {
+            conta = contas.get(id);
+            if (conta == null) {
+                conta = buscarConta(id);
+                if (conta != null) {
+                    contas.put(id, conta);
+                }
+            }
+        }
+        if (conta == null || !pertence(conta, cliente)) {
+            resultados[i] = ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+            return null;
+        }
+        return conta;
+    }
+
+    /**
+     * aplica uma operacao do lote com as travas das contas ja obtidas e
+     * registra o resultado (e a operacao no diario, se houver)
+     *
+     * @return lsn do registro no diario (0 se nao houver diario ou se a
+     * operacao falhar)
+     */
+    private long aplicarNoLote(Operacao op, Conta conta, Conta destino, Diario d, ResultadoOperacao[] resultados, int i) {
+        long valor = op.getValorCentavos();
+        ResultadoOperacao r = switch (op.getTipo()) {
+            case DEPOSITO ->
+                conta.tentarDepositar(valor);
+            case SAQUE ->
+                conta.tentarSacar(valor);
+            case TRANSFERENCIA ->
+                conta.tentarTransferir(destino, valor);
+        };
+        resultados[i] = r;
+        if (!r.isSucesso()) {
+            return 0;
+        }
+
+        if (d == null) {
+            return 0;
+        }
+        long lsn = switch (op.getTipo()) {
+            case DEPOSITO ->
+                d.registrarDeposito(conta.getId(), valor, conta.getSaldoCentavos());
+            case SAQUE ->
+                d.registrarSaque(conta.getId(), valor, conta.getSaldoCentavos());
+            case TRANSFERENCIA ->
+                d.registrarTransferencia(conta.getId(), destino.getId(), valor,
+                conta.getSaldoCentavos(), destino.getSaldoCentavos());
+        };
+        conta.setLsn(lsn);
+        if (destino != null) {
+            destino.setLsn(lsn);
+        }
+        return lsn;
+    }
+
+    /**
+     * registra no diario a inclusao de um cliente e das contas que ele ja
+     * possuir
+     *
+     * @return lsn do ultimo registro ou 0 se nao houver diario
+     */
+    private long registrarCliente(Cliente c) {
+        Diario d = diario;
+        if (d == null) {
+            return 0;
+        }
+        long lsn = d.registrarCliente(c);
+        if (c.getContas() != null) {
+            for (Conta conta : c.getContas()) {
+                if (conta.getId() != null) {
+                    lsn = d.registrarConta(c.getDocumento(), conta);
+                }
+            }
+        }
+        return lsn;
+    }
+
+    /**
+     * espera o registro de lsn informado ser gravado em disco (nao faz nada se
+     * nao houver diario ou se nenhum registro foi feito)
+     */
+    void aguardarDiario(long lsn) {
+        Diario d = diario;
+        if (d != null && lsn > 0) {
+            d.aguardar(lsn);
+        }
+    }
+
+    /**
+     * trava duas contas sempre na ordem crescente de id, de forma que duas
+     * transferencias em sentidos opostos (a -> b e b -> a) nunca fiquem
+     * esperando uma pela outra (deadlock)
+     *
+     * @param a primeira conta
+     *
+     * @param b segunda conta
+     */
+    private static void travar(Conta a, Conta b) {
+        if (a.getId() <= b.getId()) {
+            a.getTrava().lock();
+            b.getTrava().lock();
+        } else {
+            b.getTrava().lock();
+            a.getTrava().lock();
+        }
+    }
+
+    /**
+     * libera as travas obtidas por travar(a, b)
+     */
+    private static void destravar(Conta a, Conta b) {
+        a.getTrava().unlock();
+        b.getTrava().unlock();
+    }
+
+    /**
+     * trava uma conta e, com o armazem, garante que ela ainda esta em memoria:
+     * se a conta foi descartada entre a busca e a trava (ver
+     * CacheClientes), ela e buscada de novo
+     *
+     * @param conta conta encontrada
+     *
+     * @param cc cache do banco ou null
+     *
+     * @return a conta travada (a mesma ou a carregada de novo) ou null se ela
+     * nao existir mais (nenhuma trava fica obtida)
+     */
+    private Conta travarResidente(Conta conta, CacheClientes cc) {
+        conta.getTrava().lock();
+        while (cc != null && conta.isDescarregada()) {
+            conta.getTrava().unlock();
+            conta = buscarConta(conta.getId());
+            if (conta == null) {
+                return null;
+            }
+            conta.getTrava().lock();
+        }
+        return conta;
+    }
+
+    /**
+     * mesmo que travarResidente, mas para as duas contas de uma transferencia
+     * (travadas com travar(a, b))
+     *
+     * @return as duas contas travadas ou null se alguma nao existir mais
+     */
+    private Conta[] travarResidentes(Conta a, Conta b) {
+        travar(a, b);
+        while (a.isDescarregada() || b.isDescarregada()) {
+            destravar(a, b);
+            a = buscarConta(a.getId());
+            b = buscarConta(b.getId());
+            if (a == null || b == null) {
+                return null;
+            }
+            travar(a, b);
+        }
+        return new Conta[]{a, b};
+    }
+
+    //===== Validacoes
+    /**
+     * valida um objeto cliente de acordo com sua classe e atributos
+     *
+     * @throws InputInvalidoException caso o documento do cliente ja exista na
+     * lista de clientes ou se algum atributo do cliente for invalido (vazio ou
+     * em branco)
+     */
+    private void validarCliente(Cliente c) throws InputInvalidoException {
+        if (existeCliente(c.getDocumento())) {
+            throw new InputInvalidoException("O documento ja existe no sistema!");
+        }
+        validarAtributos(c);
+        if (cache != null) {
+            //o armazem indexa as contas pelo id
+            for (Conta conta : c.getContas()) {
+                if (conta.getId() == null) {
+                    throw new InputInvalidoException("Com o armazem, as contas do cliente precisam de id (ver adicionarConta)!");
+                }
+            }
+        }
+    }
+
+    /**
+     * valida os atributos de um objeto cliente de acordo com sua classe, sem
+     * verificar se o documento ja existe no sistema
+     *
+     * @throws InputInvalidoException se algum atributo do cliente for invalido
+     * (vazio, em branco ou grande demais para o diario)
+     */
+    private void validarAtributos(Cliente c) throws InputInvalidoException {
+        if (c.getNome().isBlank()) {
+            throw new InputInvalidoException("Nome invalido!");
+        }
+        if (c.getEmail().isBlank()) {
+            throw new InputInvalidoException("Email invalido!");
+        }
+        if (Indice.normalizarDocumento(c.getDocumento()).isEmpty()) {
             throw new InputInvalidoException("Documento invalido!");
         }
         if (c instanceof PessoaFisica pf && pf.getTelefone().isBlank()) {
@@ -412,6 +1660,12 @@ public class Banco {
         if (c instanceof PessoaJuridica pj && pj.getRazaoSocial().isBlank()) {
             throw new InputInvalidoException("Razao social invalida!");
         }
+        String extra = c instanceof PessoaFisica pf ? pf.getTelefone() : ((PessoaJuridica) c).getRazaoSocial();
+        for (String texto : new String[]{c.getDocumento(), c.getNome(), c.getEmail(), extra}) {
+            if (!Diario.textoCabe(texto)) {
+                throw new InputInvalidoException("Texto com mais de " + Diario.TAMANHO_MAXIMO_TEXTO + " bytes!");
+            }
+        }
     }
 
     /**
@@ -424,40 +1678,218 @@ public class Banco {
         if (c.getTitular() == null) {
             throw new InputInvalidoException("O titular nao pode ser nulo!");
         }
-        if (c.getSaldo() < 0) {
+        if (c.getSaldoCentavos() < 0) {
             throw new InputInvalidoException("Saldo inicial nao pode ser negativo!");
         }
-        if (c instanceof Poupanca p && p.getRendimento_mensal() <= 0) {
+        if (c instanceof Poupanca p && p.getRendimentoMilionesimos() <= 0) {
             throw new InputInvalidoException("Rendimento menor ou igual a zero!");
         }
         if (c instanceof Poupanca p && p.getLimite_operacoes() < 0) {
             throw new InputInvalidoException("O limite de operacoes nao pode ser negativo!");
         }
-        if (c instanceof Corrente corr && corr.getLimite() < 0) {
+        if (c instanceof Corrente corr && corr.getLimiteCentavos() < 0) {
             throw new InputInvalidoException("Limite nao pode ser negativo!");
         }
     }
 
     //===== Construtor, getters e setters
     public Banco() {
-        this.clientes = new LinkedList<>();
-        this.num_contas = 0;
-        this.ids = 0L;
+        this(1);
+    }
+
+    /**
+     * cria um banco dividido em particoes
+     *
+     * @param num_particoes numero de particoes (ex: numero de nucleos da
+     * maquina)
+     */
+    public Banco(int num_particoes) {
+        if (num_particoes < 1) {
+            throw new IllegalArgumentException("O banco precisa de pelo menos uma particao!");
+        }
+        this.num_contas = new LongAdder();
+        this.ids = new GeradorIds();
+        this.idempotencia = new ChavesIdempotencia();
+        this.particoes = new Indice[num_particoes];
+        for (int i = 0; i < num_particoes; i++) {
+            this.particoes[i] = new Indice(i, ids);
+        }
     }
 
+    /**
+     * @return clientes em memoria (com o armazem, apenas os residentes; ver
+     * paraCadaCliente)
+     */
     public List<Cliente> getClientes() {
+        List<Cliente> clientes = new ArrayList<>();
+        for (Indice particao : particoes) {
+            clientes.addAll(particao.getClientes());
+        }
         return clientes;
     }
 
+    /**
+     * percorre todos os clientes do banco. Com o armazem, os clientes fora da
+     * memoria sao entregues como copias lidas do armazem, uma por vez, sem
+     * serem carregados no cache (ex: gravacao de um snapshot)
+     *
+     * @param acao acao executada para cada cliente
+     *
+     * @throws UncheckedIOException se o armazem nao puder ser lido
+     */
+    public void paraCadaCliente(Consumer<Cliente> acao) {
+        CacheClientes cc = cache;
+        if (cc == null) {
+            getClientes().forEach(acao);
+            return;
+        }
+        try {
+            cc.getArmazem().paraCadaDocumento(doc -> {
+                Cliente c = cc.residenteOuCopia(doc, particao(doc));
+                if (c != null) {
+                    acao.accept(c);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Falha ao ler o armazem", e);
+        }
+    }
+
+    /**
+     * percorre todas as poupancas do banco. Com o armazem, cada cliente e
+     * carregado no cache (os clientes mais usados dao lugar aos percorridos)
+     *
+     * @param acao acao executada para cada poupanca
+     *
+     * @throws UncheckedIOException se o armazem nao puder ser lido
+     */
+    public void paraCadaPoupanca(Consumer<Poupanca> acao) {
+        CacheClientes cc = cache;
+        if (cc == null) {
+            listarPoupancas().forEach(acao);
+            return;
+        }
+        try {
+            cc.getArmazem().paraCadaDocumento(doc -> {
+                Cliente c = buscarCliente(doc);
+                if (c != null) {
+                    for (Conta conta : c.getContas()) {
+                        if (conta instanceof Poupanca p) {
+                            acao.accept(p);
+                        }
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Falha ao ler o armazem", e);
+        }
+    }
+
     public int getNum_clientes() {
-        return this.clientes.size();
+        CacheClientes cc = cache;
+        if (cc != null) {
+            return cc.getArmazem().getNum_clientes();
+        }
+        int total = 0;
+        for (Indice particao : particoes) {
+            total += particao.getNum_clientes();
+        }
+        return total;
     }
 
     public int getNum_contas() {
-        return num_contas;
+        return num_contas.intValue();
     }
 
     public Long getIds() {
-        return ids;
+        return ids.getMaiorId();
+    }
+
+    /**
+     * garante que os proximos ids de conta serao maiores que o informado (ex:
+     * ao restaurar um snapshot)
+     *
+     * @param maior_id maior id ja utilizado pelo banco
+     */
+    public void restaurarIds(long maior_id) {
+        ids.avancarPara(maior_id);
+    }
+
+    public int getNum_particoes() {
+        return particoes.length;
+    }
+
+    public Diario getDiario() {
+        return diario;
+    }
+
+    /**
+     * associa um diario ao banco. A partir desse momento todas as operacoes
+     * que alteram o estado do banco sao registradas nele
+     *
+     * @param diario diario aberto (ver Recuperacao.recuperar) ou null para
+     * voltar a operar apenas em memoria
+     */
+    public void setDiario(Diario diario) {
+        this.diario = diario;
+    }
+
+    public ChavesIdempotencia getIdempotencia() {
+        return idempotencia;
+    }
+
+    /**
+     * troca as chaves de idempotencia do banco (ex: para usar outra
+     * capacidade ou validade). As chaves lembradas ate entao sao esquecidas
+     *
+     * @param idempotencia novas chaves
+     */
+    public void setIdempotencia(ChavesIdempotencia idempotencia) {
+        if (idempotencia == null) {
+            throw new IllegalArgumentException("As chaves de idempotencia nao podem ser nulas!");
+        }
+        this.idempotencia = idempotencia;
+    }
+
+    public CacheClientes getCache() {
+        return cache;
+    }
+
+    /**
+     * passa a guardar os clientes em um armazem em disco, mantendo em memoria
+     * apenas os mais usados (ver CacheClientes). Os clientes ja gravados no
+     * armazem ficam disponiveis para o banco. Deve ser chamado com o banco
+     * vazio, antes de cadastrar clientes ou carregar um snapshot
+     *
+     * @param armazem armazem aberto
+     *
+     * @param capacidade quantidade maxima de clientes em memoria (ex:
+     * CacheClientes.CAPACIDADE_PADRAO)
+     *
+     * @throws IllegalStateException se o banco ja possuir clientes ou armazem
+     */
+    public void usarArmazem(ArmazemClientes armazem, int capacidade) {
+        if (cache != null || getNum_clientes() > 0) {
+            throw new IllegalStateException("O armazem deve ser associado a um banco vazio!");
+        }
+        this.cache = new CacheClientes(armazem, capacidade, particoes.length);
+        num_contas.add(armazem.getNum_contas());
+        ids.avancarPara(armazem.getMaiorId());
+    }
+
+    /**
+     * grava no armazem o estado atual dos clientes em memoria e forca a
+     * gravacao em disco (ex: antes de fechar o armazem). Nao faz nada se o
+     * banco nao usar armazem
+     *
+     * @throws IOException se o armazem nao puder ser gravado
+     */
+    public void sincronizarArmazem() throws IOException {
+        CacheClientes cc = cache;
+        if (cc == null) {
+            return;
+        }
+        cc.gravarResidentes();
+        cc.getArmazem().forcar();
     }
 }
@@ -0,0 +1,339 @@
+package bancodoo.banco;
+
+import bancodoo.cliente.Cliente;
+import bancodoo.conta.Conta;
+import bancodoo.persistencia.ArmazemClientes;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Classe que mantem em memoria apenas os clientes (e suas contas) mais usados
+ * de um banco cujos clientes ficam em um ArmazemClientes (ver
+ * Banco.usarArmazem). Os clientes em memoria (residentes) continuam nos
+ * indices das particoes; quem nao esta nos indices e lido do armazem na
+ * primeira busca e passa a ser residente. Quando a quantidade de residentes
+ * passa da capacidade, os clientes usados ha mais tempo (LRU) sao gravados no
+ * armazem e retirados dos indices.
+ *
+ * O cliente e as suas contas sao carregados e descartados sempre juntos, pois
+ * se referenciam (Cliente.getContas e Conta.getTitular).
+ *
+ * A ordem de uso e mantida por SEGMENTO, um por particao, cada um com a sua
+ * trava e capacidade / numero de particoes residentes. As buscas que
+ * encontram o cliente em memoria apenas tentam atualizar a ordem de uso: se o
+ * segmento estiver travado por outra thread, o uso nao e registrado (a ordem
+ * fica aproximada, mas as buscas nunca esperam por um carregamento).
+ *
+ * Para descartar um cliente, as travas de todas as suas contas sao obtidas
+ * (sem esperar), o cliente e gravado e as contas sao marcadas como
+ * descarregadas (ver Conta.isDescarregada). As operacoes do banco verificam a
+ * marca depois de travar a conta e, se ela tiver sido descarregada, buscam a
+ * conta de novo. Clientes com alguma conta travada sao pulados.
+ *
+ * Obs: o cliente e sempre gravado ao ser descartado (nao ha controle de
+ * clientes alterados), entao descartar um cliente que so foi lido custa uma
+ * gravacao no armazem
+ *
+ * @author Vinicius Corbellini
+ */
+public class CacheClientes {
+
+    //Quantidade padrao de clientes em memoria
+    public static final int CAPACIDADE_PADRAO = 100_000;
+
+    private final ArmazemClientes armazem;
+    private final Segmento[] segmentos;
+    private final int capacidade;
+
+    //Buscas que encontraram o cliente em memoria
+    private final LongAdder acertos = new LongAdder();
+
+    //Buscas que precisaram ler o armazem (inclusive de documentos ausentes)
+    private final LongAdder falhas = new LongAdder();
+
+    //Clientes gravados no armazem e retirados da memoria
+    private final LongAdder descartes = new LongAdder();
+
+    /**
+     * Clientes residentes de uma particao em ordem de uso (do menos recente
+     * para o mais recente)
+     */
+    private static final class Segmento {
+
+        private final ReentrantLock trava = new ReentrantLock();
+        private final LinkedHashMap<Cliente, Boolean> clientes = new LinkedHashMap<>(16, 0.75f, true);
+        private final int capacidade;
+
+        Segmento(int capacidade) {
+            this.capacidade = capacidade;
+        }
+    }
+
+    //===== Buscas
+    /**
+     * registra o uso de um cliente encontrado em memoria
+     *
+     * @param c cliente residente
+     *
+     * @param particao particao do cliente
+     */
+    void usar(Cliente c, Indice particao) {
+        acertos.increment();
+        Segmento s = segmentos[particao.getNumero()];
+        if (s.trava.tryLock()) {
+            try {
+                s.clientes.get(c);
+            } finally {
+                s.trava.unlock();
+            }
+        }
+    }
+
+    /**
+     * busca um cliente que nao foi encontrado nos indices, lendo-o do armazem
+     * e tornando-o residente (outra thread pode ter carregado o cliente antes,
+     * entao os indices sao consultados de novo sob a trava do segmento)
+     *
+     * @param documento documento do cliente
+     *
+     * @param particao particao do documento
+     *
+     * @return o cliente residente ou null se o documento nao existir
+     *
+     * @throws UncheckedIOException se o armazem nao puder ser lido
+     */
+    Cliente carregar(String documento, Indice particao) {
+        Segmento s = segmentos[particao.getNumero()];
+        s.trava.lock();
+        try {
+            Cliente c = particao.procurarCliente(documento);
+            if (c != null) {
+                s.clientes.get(c);
+                acertos.increment();
+                return c;
+            }
+            falhas.increment();
+            c = armazem.ler(documento);
+            if (c == null) {
+                return null;
+            }
+            particao.adicionarCliente(c);
+            s.clientes.put(c, Boolean.TRUE);
+            descartarExcedentes(s, particao, c);
+            return c;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Falha ao ler o armazem", e);
+        } finally {
+            s.trava.unlock();
+        }
+    }
+
+    /**
+     * devolve o cliente residente ou, se ele nao estiver em memoria, uma
+     * copia lida do armazem sem torna-la residente (ex: gravacao de um
+     * snapshot, que percorre todos os clientes)
+     *
+     * @return o cliente ou null se o documento nao existir mais
+     *
+     * @throws IOException se o armazem nao puder ser lido
+     */
+    Cliente residenteOuCopia(String documento, Indice particao) throws IOException {
+        Segmento s = segmentos[particao.getNumero()];
+        s.trava.lock();
+        try {
+            Cliente c = particao.procurarCliente(documento);
+            return c != null ? c : armazem.ler(documento, false);
+        } finally {
+            s.trava.unlock();
+        }
+    }
+
+    //===== Alteracoes
+    /**
+     * trava o segmento de uma particao, para alterar a estrutura de um
+     * cliente (inclusao ou remocao do cliente ou das suas contas) sem que ele
+     * seja descartado no meio da alteracao. A trava e reentrante, entao
+     * carregar pode ser chamado com o segmento travado
+     *
+     * @param particao particao do cliente
+     */
+    void travar(Indice particao) {
+        segmentos[particao.getNumero()].trava.lock();
+    }
+
+    /**
+     * libera a trava obtida por travar(particao)
+     */
+    void destravar(Indice particao) {
+        segmentos[particao.getNumero()].trava.unlock();
+    }
+
+    /**
+     * registra um cliente novo (ja indexado e gravado no armazem) como
+     * residente. Deve ser chamado com o segmento travado
+     */
+    void admitir(Cliente c, Indice particao) {
+        Segmento s = segmentos[particao.getNumero()];
+        s.clientes.put(c, Boolean.TRUE);
+        descartarExcedentes(s, particao, c);
+    }
+
+    /**
+     * retira um cliente removido do banco da ordem de uso. Deve ser chamado
+     * com o segmento travado
+     */
+    void esquecer(Cliente c, Indice particao) {
+        segmentos[particao.getNumero()].clientes.remove(c);
+    }
+
+    /**
+     * grava no armazem todos os clientes residentes (sem retira-los da
+     * memoria), com o estado de cada conta lido sob a sua trava. Cada
+     * segmento fica travado enquanto os seus clientes sao gravados
+     *
+     * @throws IOException se algum cliente nao puder ser gravado
+     */
+    void gravarResidentes() throws IOException {
+        for (Segmento s : segmentos) {
+            s.trava.lock();
+            try {
+                for (Cliente c : s.clientes.keySet()) {
+                    //travas na ordem crescente de id (ver Banco.travar)
+                    Conta[] contas = c.getContas().toArray(new Conta[0]);
+                    Arrays.sort(contas, Comparator.comparing(Conta::getId));
+                    for (Conta conta : contas) {
+                        conta.getTrava().lock();
+                    }
+                    try {
+                        armazem.gravar(c);
+                    } finally {
+                        for (Conta conta : contas) {
+                            conta.getTrava().unlock();
+                        }
+                    }
+                }
+            } finally {
+                s.trava.unlock();
+            }
+        }
+    }
+
+    /**
+     * descarta os clientes menos usados do segmento ate que ele volte a
+     * capacidade, sem descartar o cliente que acabou de entrar (quem o
+     * carregou ainda vai usa-lo). Se a gravacao falhar, os clientes ficam em
+     * memoria e o segmento passa da capacidade ate a proxima tentativa
+     */
+    private void descartarExcedentes(Segmento s, Indice particao, Cliente novo) {
+        Iterator<Cliente> it = s.clientes.keySet().iterator();
+        while (s.clientes.size() > s.capacidade && it.hasNext()) {
+            Cliente c = it.next();
+            if (c == novo) {
+                break;
+            }
+            Conta[] contas = c.getContas().toArray(new Conta[0]);
+            int travadas = 0;
+            while (travadas < contas.length && contas[travadas].getTrava().tryLock()) {
+                travadas++;
+            }
+            try {
+                if (travadas < contas.length) {
+                    //alguma conta esta em uso
+                    continue;
+                }
+                armazem.gravar(c);
+                for (Conta conta : contas) {
+                    conta.marcarDescarregada();
+                }
+                particao.removerCliente(c);
+                it.remove();
+                descartes.increment();
+            } catch (IOException e) {
+                System.out.println("Erro ao gravar cliente no armazem -> " + e.getMessage());
+                return;
+            } finally {
+                for (int i = 0; i < travadas; i++) {
+                    contas[i].getTrava().unlock();
+                }
+            }
+        }
+    }
+
+    //===== Construtor e getters
+    /**
+     * @param armazem armazem dos clientes
+     *
+     * @param capacidade quantidade maxima de clientes em memoria, dividida
+     * igualmente entre as particoes
+     *
+     * @param num_particoes numero de particoes do banco
+     */
+    CacheClientes(ArmazemClientes armazem, int capacidade, int num_particoes) {
+        if (capacidade < num_particoes) {
+            throw new IllegalArgumentException("A capacidade deve ser de pelo menos um cliente por particao!");
+        }
+        this.armazem = armazem;
+        this.capacidade = capacidade;
+        this.segmentos = new Segmento[num_particoes];
+        for (int i = 0; i < num_particoes; i++) {
+            segmentos[i] = new Segmento(capacidade / num_particoes);
+        }
+    }
+
+    public ArmazemClientes getArmazem() {
+        return armazem;
+    }
+
+    public int getCapacidade() {
+        return capacidade;
+    }
+
+    public long getAcertos() {
+        return acertos.sum();
+    }
+
+    public long getFalhas() {
+        return falhas.sum();
+    }
+
+    public long getDescartes() {
+        return descartes.sum();
+    }
+
+    /**
+     * @return fracao das buscas atendidas pela memoria (0 se nao houve buscas)
+     */
+    public double getTaxaAcertos() {
+        long a = acertos.sum();
+        long total = a + falhas.sum();
+        return total == 0 ? 0 : (double) a / total;
+    }
+
+    /**
+     * @return quantidade de clientes em memoria
+     */
+    public int getResidentes() {
+        int total = 0;
+        for (Segmento s : segmentos) {
+            s.trava.lock();
+            try {
+                total += s.clientes.size();
+            } finally {
+                s.trava.unlock();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Cache: %d residentes (capacidade %d) | acertos: %d | falhas: %d (%.1f%% de acertos) | descartes: %d",
+                getResidentes(), capacidade, getAcertos(), getFalhas(), getTaxaAcertos() * 100, getDescartes());
+    }
+}
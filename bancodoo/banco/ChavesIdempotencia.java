@@ -0,0 +1,313 @@
+package bancodoo.banco;
+
+import bancodoo.conta.ResultadoOperacao;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Classe que lembra o resultado das operacoes enviadas com uma chave de
+ * idempotencia (ver Banco.tentarTransferir(..., chave)), para que o reenvio de
+ * uma operacao (ex: cliente que repete a requisicao apos um timeout) devolva o
+ * resultado original em vez de executa-la de novo.
+ *
+ * As chaves sao guardadas como um hash de 64 bits do documento do cliente e da
+ * chave informada, em tabelas de enderecamento aberto com vetores de long (sem
+ * objetos por entrada, cerca de 16 bytes por posicao). As tabelas sao
+ * divididas em SEGMENTOS, cada um com sua propria trava, e cada segmento
+ * possui duas geracoes: as chaves novas entram na geracao atual e, quando ela
+ * enche ou fica mais velha que a validade, a geracao anterior e descartada e a
+ * atual passa a ser a anterior. Assim a memoria fica limitada pela capacidade
+ * e as chaves vencidas sao descartadas sem varrer a tabela a cada operacao.
+ *
+ * Obs: uma chave e lembrada enquanto estiver dentro da validade e nao tiver
+ * sido descartada por falta de espaco (em cada segmento, pelo menos as
+ * ultimas capacidade / 128 chaves sao lembradas). As chaves ficam apenas em
+ * memoria e nao sobrevivem a um reinicio do banco
+ *
+ * Obs2: duas chaves diferentes com o mesmo hash de 64 bits seriam tratadas
+ * como a mesma operacao. Com um milhao de chaves lembradas a chance de isso
+ * acontecer e de aproximadamente 1 em 37 milhoes
+ *
+ * @author Vinicius Corbellini
+ */
+public class ChavesIdempotencia {
+
+    //Quantidade padrao de chaves lembradas
+    public static final int CAPACIDADE_PADRAO = 1 << 16;
+
+    //Validade padrao de uma chave
+    public static final long VALIDADE_PADRAO_MS = TimeUnit.HOURS.toMillis(24);
+
+    //Numero de segmentos (potencia de 2), cada um com sua propria trava
+    private static final int SEGMENTOS = 64;
+
+    //Codigo de uma chave liberada (operacao interrompida por uma excecao)
+    private static final int LIVRE = 0xFF;
+
+    private static final ResultadoOperacao[] RESULTADOS = ResultadoOperacao.values();
+
+    private final Segmento[] segmentos;
+    private final long validade_ms;
+
+    //Operacoes que encontraram a chave ja registrada (reenvios)
+    private final LongAdder reenvios = new LongAdder();
+
+    //Operacoes com chaves novas
+    private final LongAdder novas = new LongAdder();
+
+    /**
+     * reserva uma chave para uma operacao que vai ser executada
+     *
+     * @param chave hash da chave (ver calcular)
+     *
+     * @return null se a chave for nova (a operacao deve ser executada e depois
+     * concluida), o resultado original se a chave ja tiver sido concluida ou
+     * EM_ANDAMENTO se a operacao original ainda nao terminou
+     */
+    public ResultadoOperacao reservar(long chave) {
+        ResultadoOperacao r = segmento(chave).reservar(chave, System.currentTimeMillis(), validade_ms);
+        if (r == null) {
+            novas.increment();
+        } else {
+            reenvios.increment();
+        }
+        return r;
+    }
+
+    /**
+     * registra o resultado de uma operacao reservada
+     *
+     * @param chave hash da chave
+     *
+     * @param resultado resultado devolvido nos proximos reenvios
+     */
+    public void concluir(long chave, ResultadoOperacao resultado) {
+        segmento(chave).atualizar(chave, resultado.ordinal());
+    }
+
+    /**
+     * libera uma chave reservada cuja operacao terminou com uma excecao, para
+     * que o reenvio execute a operacao novamente
+     *
+     * @param chave hash da chave
+     */
+    public void liberar(long chave) {
+        segmento(chave).atualizar(chave, LIVRE);
+    }
+
+    /**
+     * calcula o hash de 64 bits de uma chave de idempotencia. A chave vale
+     * apenas para o cliente que a enviou (o mesmo texto enviado por clientes
+     * diferentes sao chaves diferentes)
+     *
+     * @param documento documento do cliente (normalizado ou nao)
+     *
+     * @param chave chave informada pelo cliente
+     *
+     * @return hash diferente de zero
+     */
+    public static long calcular(String documento, String chave) {
+        //FNV-1a sobre o documento normalizado (ver Indice.hashDocumento), um
+        //separador e a chave, seguido da mistura final do MurmurHash3
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < documento.length(); i++) {
+            char ch = documento.charAt(i);
+            if (Character.isLetterOrDigit(ch)) {
+                h = (h ^ Character.toLowerCase(ch)) * 0x100000001b3L;
+            }
+        }
+        h = (h ^ 0xFFFF) * 0x100000001b3L;
+        for (int i = 0; i < chave.length(); i++) {
+            h = (h ^ chave.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    private Segmento segmento(long chave) {
+        //bits altos escolhem o segmento, os baixos a posicao na tabela
+        return segmentos[(int) (chave >>> 58) & (SEGMENTOS - 1)];
+    }
+
+    /**
+     * Tabela de enderecamento aberto (sondagem linear) com as chaves e, para
+     * cada chave, o instante do registro e o codigo do resultado (ordinal de
+     * ResultadoOperacao ou LIVRE) em um unico long: instante << 8 | codigo
+     */
+    private static final class Geracao {
+
+        private final long[] chaves;
+        private final long[] valores;
+        private int ocupadas;
+        private long inicio;
+
+        Geracao(int tamanho) {
+            this.chaves = new long[tamanho];
+            this.valores = new long[tamanho];
+        }
+
+        /**
+         * @return posicao da chave ou, se ausente, -(posicao livre + 1)
+         */
+        int procurar(long chave) {
+            int mascara = chaves.length - 1;
+            int i = (int) chave & mascara;
+            while (chaves[i] != 0) {
+                if (chaves[i] == chave) {
+                    return i;
+                }
+                i = (i + 1) & mascara;
+            }
+            return -(i + 1);
+        }
+
+        void inserir(int livre, long chave, long valor) {
+            chaves[livre] = chave;
+            valores[livre] = valor;
+            ocupadas++;
+        }
+
+        void limpar(long agora) {
+            Arrays.fill(chaves, 0);
+            ocupadas = 0;
+            inicio = agora;
+        }
+    }
+
+    private static final class Segmento {
+
+        //Chaves por geracao
+        private final int limite;
+        private final int tamanho;
+
+        //Criadas no primeiro uso do segmento
+        private Geracao atual;
+        private Geracao anterior;
+
+        Segmento(int limite) {
+            this.limite = limite;
+            //tamanho da tabela com no maximo 75% das posicoes ocupadas
+            this.tamanho = Integer.highestOneBit(limite + limite / 3) << 1;
+        }
+
+        synchronized ResultadoOperacao reservar(long chave, long agora, long validade) {
+            if (atual == null) {
+                atual = new Geracao(tamanho);
+                anterior = new Geracao(tamanho);
+                atual.inicio = agora;
+            } else if (agora - atual.inicio >= validade) {
+                //todas as chaves da geracao anterior ja venceram
+                girar(agora);
+            }
+
+            Geracao g = atual;
+            int i = atual.procurar(chave);
+            if (i < 0) {
+                g = anterior;
+                i = anterior.procurar(chave);
+            }
+            if (i >= 0) {
+                long v = g.valores[i];
+                int codigo = (int) (v & 0xFF);
+                if (codigo != LIVRE && agora - (v >>> 8) < validade) {
+                    return RESULTADOS[codigo];
+                }
+                //chave vencida ou liberada: a operacao sera executada de novo
+                if (g == atual) {
+                    g.valores[i] = agora << 8 | ResultadoOperacao.EM_ANDAMENTO.ordinal();
+                    return null;
+                }
+                g.valores[i] = (v & ~0xFFL) | LIVRE;
+            }
+
+            if (atual.ocupadas >= limite) {
+                girar(agora);
+            }
+            atual.inserir(-atual.procurar(chave) - 1, chave, agora << 8 | ResultadoOperacao.EM_ANDAMENTO.ordinal());
+            return null;
+        }
+
+        synchronized void atualizar(long chave, int codigo) {
+            if (atual == null) {
+                return;
+            }
+            Geracao g = atual;
+            int i = atual.procurar(chave);
+            if (i < 0) {
+                g = anterior;
+                i = anterior.procurar(chave);
+            }
+            if (i >= 0) {
+                g.valores[i] = (g.valores[i] & ~0xFFL) | codigo;
+            }
+        }
+
+        /**
+         * descarta a geracao anterior e inicia uma nova geracao atual. As
+         * operacoes ainda em andamento da geracao descartada sao mantidas, para
+         * que seus reenvios nao sejam executados em paralelo com elas
+         */
+        private void girar(long agora) {
+            Geracao descartada = anterior;
+            long[] em_andamento = new long[0];
+            int n = 0;
+            for (int i = 0; i < descartada.chaves.length; i++) {
+                if (descartada.chaves[i] != 0
+                        && (descartada.valores[i] & 0xFF) == ResultadoOperacao.EM_ANDAMENTO.ordinal()) {
+                    if (n == em_andamento.length) {
+                        em_andamento = Arrays.copyOf(em_andamento, Math.max(8, n * 2));
+                    }
+                    em_andamento[n++] = descartada.chaves[i];
+                    em_andamento[n++] = descartada.valores[i];
+                }
+            }
+
+            anterior = atual;
+            atual = descartada;
+            atual.limpar(agora);
+            for (int i = 0; i < n; i += 2) {
+                atual.inserir(-atual.procurar(em_andamento[i]) - 1, em_andamento[i], em_andamento[i + 1]);
+            }
+        }
+    }
+
+    //===== Construtores e getters
+    /**
+     * @param capacidade quantidade maxima de chaves lembradas (a memoria
+     * ocupada e de 21 a 43 bytes por chave, alocada conforme o uso)
+     *
+     * @param validade_ms tempo em que uma chave e lembrada
+     */
+    public ChavesIdempotencia(int capacidade, long validade_ms) {
+        if (capacidade < 1 || validade_ms < 1) {
+            throw new IllegalArgumentException("Capacidade e validade devem ser positivas!");
+        }
+        this.validade_ms = validade_ms;
+        this.segmentos = new Segmento[SEGMENTOS];
+        int limite = Math.max(8, capacidade / SEGMENTOS / 2);
+        for (int i = 0; i < SEGMENTOS; i++) {
+            segmentos[i] = new Segmento(limite);
+        }
+    }
+
+    public ChavesIdempotencia() {
+        this(CAPACIDADE_PADRAO, VALIDADE_PADRAO_MS);
+    }
+
+    public long getValidade_ms() {
+        return validade_ms;
+    }
+
+    public long getReenvios() {
+        return reenvios.sum();
+    }
+
+    public long getNovas() {
+        return novas.sum();
+    }
+}
@@ -0,0 +1,97 @@
+package bancodoo.banco;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classe que gera os identificadores das contas em blocos. Cada particao
+ * (shard) do banco reserva um bloco de TAMANHO_BLOCO ids de uma vez e os
+ * distribui localmente, de forma que o contador global so e acessado uma vez a
+ * cada bloco. O gerador tambem lembra qual particao e dona de cada bloco, o que
+ * permite encontrar a particao de uma conta apenas pelo seu id
+ *
+ * @author Vinicius Corbellini
+ */
+public class GeradorIds {
+
+    //Quantidade de ids reservados por vez por uma particao
+    public static final int TAMANHO_BLOCO = 1024;
+
+    //Numero do proximo bloco livre. O bloco b contem os ids
+    //[b * TAMANHO_BLOCO + 1, (b + 1) * TAMANHO_BLOCO]
+    private final AtomicLong proximo_bloco;
+
+    //Particao dona de cada bloco ja reservado
+    private final Map<Long, Integer> donos;
+
+    /**
+     * reserva um novo bloco de ids para uma particao
+     *
+     * @param particao numero da particao que recebera o bloco
+     *
+     * @return primeiro id do bloco reservado
+     */
+    public long reservarBloco(int particao) {
+        long bloco = proximo_bloco.getAndIncrement();
+        donos.put(bloco, particao);
+        return bloco * TAMANHO_BLOCO + 1;
+    }
+
+    /**
+     * registra que um id (criado por outro meio, ex: restauracao de um
+     * snapshot) pertence a uma particao e garante que o bloco nao sera
+     * reservado novamente
+     *
+     * @param id identificador da conta
+     *
+     * @param particao numero da particao dona da conta
+     */
+    public void registrar(long id, int particao) {
+        long bloco = bloco(id);
+        donos.putIfAbsent(bloco, particao);
+        proximo_bloco.accumulateAndGet(bloco + 1, Math::max);
+    }
+
+    /**
+     * garante que nenhum id menor ou igual ao informado sera distribuido (ex:
+     * ao restaurar um snapshot, ids de contas ja removidas nao sao reutilizados)
+     *
+     * @param maior_id maior id ja utilizado
+     */
+    public void avancarPara(long maior_id) {
+        if (maior_id > 0) {
+            proximo_bloco.accumulateAndGet(bloco(maior_id) + 1, Math::max);
+        }
+    }
+
+    /**
+     * busca a particao dona de um id
+     *
+     * @param id identificador da conta
+     *
+     * @return numero da particao ou null se o id nao foi gerado por este
+     * gerador
+     */
+    public Integer procurarParticao(long id) {
+        return donos.get(bloco(id));
+    }
+
+    private static long bloco(long id) {
+        return (id - 1) / TAMANHO_BLOCO;
+    }
+
+    //===== Construtor e getters
+    public GeradorIds() {
+        this.proximo_bloco = new AtomicLong();
+        this.donos = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return maior id que ja pode ter sido distribuido (fim do ultimo bloco
+     * reservado)
+     */
+    public long getMaiorId() {
+        return proximo_bloco.get() * TAMANHO_BLOCO;
+    }
+}
@@ -0,0 +1,426 @@
+package bancodoo.banco;
+
+import bancodoo.cliente.Cliente;
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.cliente.PessoaJuridica;
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.conta.Poupanca;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Classe que mantem os indices de uma particao (shard) do banco: clientes
+ * indexados pelo documento normalizado e contas indexadas pelo identificador,
+ * de forma que as buscas sejam feitas em tempo constante. Cada particao tambem
+ * distribui os ids das contas dos seus clientes a partir de blocos reservados
+ * no GeradorIds
+ *
+ * Obs: os indices sao protegidos por uma trava de leitura/escrita, de forma
+ * que varias buscas podem ocorrer em paralelo enquanto as alteracoes sao
+ * exclusivas
+ *
+ * Exigencias do trabalho implementadas por essa classe:
+ * - Collections
+ *
+ * @author Vinicius Corbellini
+ */
+public class Indice {
+
+    //Clientes indexados pelo documento normalizado (mantem a ordem de insercao)
+    private final Map<String, Cliente> clientes;
+
+    //Contas de todos os clientes indexadas pelo identificador
+    private final Map<Long, Conta> contas;
+
+    //Registros por tipo, para que os processamentos em lote (ex: rendimento)
+    //percorram apenas os objetos do tipo desejado
+    private final Registro<PessoaFisica> pessoas_fisicas;
+    private final Registro<PessoaJuridica> pessoas_juridicas;
+    private final Registro<Corrente> correntes;
+    private final Registro<Poupanca> poupancas;
+
+    //Trava que protege os dois mapas e o bloco de ids
+    private final ReadWriteLock trava;
+
+    //Numero da particao no banco
+    private final int numero;
+
+    //Gerador global de blocos de ids
+    private final GeradorIds gerador;
+
+    //Proximo id a ser distribuido e fim (exclusivo) do bloco atual
+    private long proximo_id;
+    private long fim_bloco;
+
+    /**
+     * normaliza um documento (CPF ou CNPJ) removendo pontuacao e espacos e
+     * ignorando maiusculas/minusculas, para que "123.456.789-00" e
+     * "12345678900" sejam considerados o mesmo documento
+     *
+     * @param documento documento a ser normalizado
+     *
+     * @return documento normalizado ou uma String vazia se o documento for nulo
+     */
+    public static String normalizarDocumento(String documento) {
+        if (documento == null) {
+            return "";
+        }
+
+        StringBuilder sb = new StringBuilder(documento.length());
+        for (int i = 0; i < documento.length(); i++) {
+            char ch = documento.charAt(i);
+            if (Character.isLetterOrDigit(ch)) {
+                sb.append(Character.toLowerCase(ch));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * calcula o hash de um documento como se ele estivesse normalizado, sem
+     * criar a String normalizada. Usado para escolher a particao do cliente
+     *
+     * @param documento documento (normalizado ou nao)
+     *
+     * @return hash do documento normalizado
+     */
+    public static int hashDocumento(String documento) {
+        int h = 0;
+        if (documento != null) {
+            for (int i = 0; i < documento.length(); i++) {
+                char ch = documento.charAt(i);
+                if (Character.isLetterOrDigit(ch)) {
+                    h = 31 * h + Character.toLowerCase(ch);
+                }
+            }
+        }
+        return h ^ (h >>> 16);
+    }
+
+    //===== Operacoes envolvendo clientes
+    /**
+     * indexa um cliente e todas as contas (com identificador) que ele ja
+     * possuir
+     *
+     * @param c cliente a ser indexado
+     */
+    public void adicionarCliente(Cliente c) {
+        String doc = normalizarDocumento(c.getDocumento());
+        trava.writeLock().lock();
+        try {
+            Cliente anterior = clientes.put(doc, c);
+            if (anterior != null && anterior != c) {
+                removerDoRegistro(anterior);
+            }
+            adicionarAoRegistro(c);
+            if (c.getContas() != null) {
+                for (Conta conta : c.getContas()) {
+                    adicionarConta(conta);
+                }
+            }
+        } finally {
+            trava.writeLock().unlock();
+        }
+    }
+
+    /**
+     * indexa um cliente somente se o documento ainda nao estiver cadastrado,
+     * fazendo a verificacao e a insercao de forma atomica
+     *
+     * @param c cliente a ser indexado
+     *
+     * @return true se o cliente foi indexado, false se o documento ja existia
+     */
+    public boolean adicionarClienteSeAusente(Cliente c) {
+        String doc = normalizarDocumento(c.getDocumento());
+        trava.writeLock().lock();
+        try {
+            if (clientes.containsKey(doc)) {
+                return false;
+            }
+            adicionarCliente(c);
+            return true;
+        } finally {
+            trava.writeLock().unlock();
+        }
+    }
+
+    /**
+     * remove um cliente e todas as suas contas dos indices
+     *
+     * @param c cliente a ser removido
+     *
+     * @return true se o cliente estava indexado
+     */
+    public boolean removerCliente(Cliente c) {
+        String doc = normalizarDocumento(c.getDocumento());
+        trava.writeLock().lock();
+        try {
+            if (clientes.get(doc) != c) {
+                return false;
+            }
+
+            clientes.remove(doc);
+            removerDoRegistro(c);
+            if (c.getContas() != null) {
+                for (Conta conta : c.getContas()) {
+                    removerConta(conta);
+                }
+            }
+            return true;
+        } finally {
+            trava.writeLock().unlock();
+        }
+    }
+
+    /**
+     * busca um cliente pelo documento
+     *
+     * @param documento documento do cliente (normalizado ou nao)
+     *
+     * @return o cliente ou null se nao houver cliente com tal documento
+     */
+    public Cliente procurarCliente(String documento) {
+        String doc = normalizarDocumento(documento);
+        trava.readLock().lock();
+        try {
+            return clientes.get(doc);
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    /**
+     * verifica se ja existe um cliente com o documento informado, comparando
+     * os documentos normalizados
+     *
+     * @param documento documento a ser verificado (normalizado ou nao)
+     *
+     * @return true se o documento ja estiver cadastrado
+     */
+    public boolean contemDocumento(String documento) {
+        String doc = normalizarDocumento(documento);
+        trava.readLock().lock();
+        try {
+            return clientes.containsKey(doc);
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    //===== Operacoes envolvendo contas
+    /**
+     * gera o proximo id de conta desta particao, reservando um novo bloco no
+     * gerador global quando o bloco atual acabar
+     *
+     * @return id da nova conta
+     */
+    public Long gerarId() {
+        trava.writeLock().lock();
+        try {
+            if (proximo_id == fim_bloco) {
+                proximo_id = gerador.reservarBloco(numero);
+                fim_bloco = proximo_id + GeradorIds.TAMANHO_BLOCO;
+            }
+            return proximo_id++;
+        } finally {
+            trava.writeLock().unlock();
+        }
+    }
+
+    /**
+     * indexa uma conta pelo seu identificador. Contas sem identificador (ainda
+     * nao cadastradas no banco) sao ignoradas
+     *
+     * @param c conta a ser indexada
+     */
+    public void adicionarConta(Conta c) {
+        if (c.getId() == null) {
+            return;
+        }
+        trava.writeLock().lock();
+        try {
+            Conta anterior = contas.put(c.getId(), c);
+            if (anterior != null && anterior != c) {
+                removerDoRegistro(anterior);
+            }
+            adicionarAoRegistro(c);
+            if (gerador.procurarParticao(c.getId()) == null) {
+                gerador.registrar(c.getId(), numero);
+            }
+        } finally {
+            trava.writeLock().unlock();
+        }
+    }
+
+    /**
+     * remove uma conta do indice
+     *
+     * @param c conta a ser removida
+     */
+    public void removerConta(Conta c) {
+        if (c.getId() == null) {
+            return;
+        }
+        trava.writeLock().lock();
+        try {
+            if (contas.remove(c.getId(), c)) {
+                removerDoRegistro(c);
+            }
+        } finally {
+            trava.writeLock().unlock();
+        }
+    }
+
+    /**
+     * busca uma conta pelo identificador
+     *
+     * @param id identificador da conta
+     *
+     * @return a conta ou null se nao houver conta com tal id
+     */
+    public Conta procurarConta(Long id) {
+        trava.readLock().lock();
+        try {
+            return contas.get(id);
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    //===== Registros por tipo
+    /**
+     * acrescenta a uma lista todas as poupancas desta particao
+     *
+     * @param destino lista que recebera as poupancas
+     */
+    public void coletarPoupancas(List<? super Poupanca> destino) {
+        coletar(poupancas, destino);
+    }
+
+    /**
+     * acrescenta a uma lista todas as contas correntes desta particao
+     *
+     * @param destino lista que recebera as contas correntes
+     */
+    public void coletarCorrentes(List<? super Corrente> destino) {
+        coletar(correntes, destino);
+    }
+
+    /**
+     * acrescenta a uma lista todos os clientes pessoa fisica desta particao
+     *
+     * @param destino lista que recebera os clientes
+     */
+    public void coletarPessoasFisicas(List<? super PessoaFisica> destino) {
+        coletar(pessoas_fisicas, destino);
+    }
+
+    /**
+     * acrescenta a uma lista todos os clientes pessoa juridica desta particao
+     *
+     * @param destino lista que recebera os clientes
+     */
+    public void coletarPessoasJuridicas(List<? super PessoaJuridica> destino) {
+        coletar(pessoas_juridicas, destino);
+    }
+
+    private <T> void coletar(Registro<T> registro, List<? super T> destino) {
+        trava.readLock().lock();
+        try {
+            registro.copiarPara(destino);
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    /**
+     * inclui um cliente ou conta no registro do seu tipo (chamado com a trava
+     * de escrita)
+     */
+    private void adicionarAoRegistro(Object o) {
+        if (o instanceof Poupanca p) {
+            poupancas.adicionar(p);
+        } else if (o instanceof Corrente c) {
+            correntes.adicionar(c);
+        } else if (o instanceof PessoaFisica pf) {
+            pessoas_fisicas.adicionar(pf);
+        } else if (o instanceof PessoaJuridica pj) {
+            pessoas_juridicas.adicionar(pj);
+        }
+    }
+
+    /**
+     * retira um cliente ou conta do registro do seu tipo (chamado com a trava
+     * de escrita)
+     */
+    private void removerDoRegistro(Object o) {
+        if (o instanceof Poupanca p) {
+            poupancas.remover(p);
+        } else if (o instanceof Corrente c) {
+            correntes.remover(c);
+        } else if (o instanceof PessoaFisica pf) {
+            pessoas_fisicas.remover(pf);
+        } else if (o instanceof PessoaJuridica pj) {
+            pessoas_juridicas.remover(pj);
+        }
+    }
+
+    //===== Construtor e getters
+    public Indice(int numero, GeradorIds gerador) {
+        this.clientes = new LinkedHashMap<>();
+        this.contas = new HashMap<>();
+        this.pessoas_fisicas = new Registro<>();
+        this.pessoas_juridicas = new Registro<>();
+        this.correntes = new Registro<>();
+        this.poupancas = new Registro<>();
+        this.trava = new ReentrantReadWriteLock();
+        this.numero = numero;
+        this.gerador = gerador;
+        this.proximo_id = 0;
+        this.fim_bloco = 0;
+    }
+
+    /**
+     * @return copia da lista de clientes indexados, na ordem de insercao
+     */
+    public List<Cliente> getClientes() {
+        trava.readLock().lock();
+        try {
+            return new ArrayList<>(clientes.values());
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return copia da lista de contas indexadas
+     */
+    public List<Conta> getContas() {
+        trava.readLock().lock();
+        try {
+            return new ArrayList<>(contas.values());
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    public int getNumero() {
+        return numero;
+    }
+
+    public int getNum_clientes() {
+        trava.readLock().lock();
+        try {
+            return clientes.size();
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package bancodoo.banco;
+
+import bancodoo.cliente.Cliente;
+import bancodoo.conta.Conta;
+import bancodoo.conta.ResultadoOperacao;
+import bancodoo.persistencia.Diario;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Classe que executa as operacoes de deposito, saque e transferencia do banco
+ * em uma unica thread (single writer), como alternativa as travas das contas.
+ * As operacoes sao colocadas em um anel (ring buffer) pre-alocado e passam
+ * por tres etapas, cada uma na sua propria thread:
+ *
+ * - negocio: aplica as operacoes nas contas, uma de cada vez, na ordem do
+ * anel. Como so essa thread altera os saldos, nenhuma trava e usada e o
+ * resultado depende apenas da ordem das operacoes (deterministico)
+ * - diario: registra no diario do banco (se houver) as operacoes aplicadas,
+ * na mesma ordem, sem esperar a gravacao em disco
+ * - resposta: espera a gravacao do lote no diario (um unico aguardar por
+ * lote) e completa os futuros das operacoes
+ *
+ * As etapas trabalham em paralelo sobre posicoes diferentes do anel: enquanto
+ * a thread de negocio aplica as operacoes mais recentes, o diario registra as
+ * anteriores e a resposta conclui as que ja estao no disco. Cada etapa
+ * processa de uma vez todas as posicoes liberadas pela etapa anterior (lote)
+ * e so publica a sua sequencia no final do lote. Uma posicao so e reutilizada
+ * depois que a resposta a conclui.
+ *
+ * Obs: as contas operadas pelo motor devem ser alteradas apenas por ele
+ * (os metodos sacar, depositar e transferir do Banco usam as travas, que o
+ * motor ignora). Snapshots devem ser gravados com o motor fechado
+ *
+ * Obs2: close deve ser chamado depois que os produtores pararem de enviar
+ * operacoes
+ *
+ * @author Vinicius Corbellini
+ */
+public class MotorSequencial implements AutoCloseable {
+
+    //Capacidade padrao do anel (potencia de 2)
+    public static final int CAPACIDADE_PADRAO = 1 << 16;
+
+    //Tentativas de espera ativa e de yield antes de dormir
+    private static final int TENTATIVAS_ATIVAS = 100;
+    private static final int TENTATIVAS_YIELD = 200;
+
+    //Tempo de cada pausa de uma etapa sem trabalho, em nanossegundos
+    private static final long PAUSA_NS = 50_000;
+
+    private static final VarHandle PUBLICADOS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final Banco banco;
+    private final Diario diario;
+
+    //Anel de comandos e sequencia publicada em cada posicao
+    private final Comando[] anel;
+    private final long[] publicados;
+    private final int mascara;
+
+    //Ultima sequencia reservada pelos produtores
+    private final AtomicLong proximo = new AtomicLong(-1);
+
+    //Ultima sequencia concluida por cada etapa
+    private volatile long seq_negocio = -1;
+    private volatile long seq_diario = -1;
+    private volatile long seq_resposta = -1;
+
+    private volatile boolean fechado;
+    private volatile boolean ativo = true;
+
+    private final Thread negocio;
+    private final Thread registro;
+    private final Thread resposta;
+
+    /**
+     * Posicao do anel. Os campos sao preenchidos pelo produtor (operacao e
+     * futuro), pela etapa de negocio (contas, saldos e resultado) e pela
+     * etapa de diario (lsn)
+     */
+    private static final class Comando {
+
+        Operacao operacao;
+        CompletableFuture<ResultadoOperacao> futuro;
+        Conta origem;
+        Conta destino;
+        long saldo_origem;
+        long saldo_destino;
+        ResultadoOperacao resultado;
+        RuntimeException erro;
+        long lsn;
+    }
+
+    //===== Envio das operacoes
+    /**
+     * envia uma operacao para o motor
+     *
+     * @param op operacao (ver Operacao.saque, deposito e transferencia)
+     *
+     * @return futuro completado com o resultado, depois que a operacao estiver
+     * gravada no diario (se houver)
+     *
+     * @throws IllegalStateException se o motor estiver fechado
+     */
+    public CompletableFuture<ResultadoOperacao> executar(Operacao op) {
+        CompletableFuture<ResultadoOperacao> f = new CompletableFuture<>();
+        publicar(op, f);
+        return f;
+    }
+
+    /**
+     * envia uma operacao sem futuro (ex: cargas em lote, em que apenas a
+     * conclusao da ultima operacao e esperada, ver aguardar)
+     *
+     * @param op operacao
+     *
+     * @return sequencia da operacao no motor
+     *
+     * @throws IllegalStateException se o motor estiver fechado
+     */
+    public long publicar(Operacao op) {
+        return publicar(op, null);
+    }
+
+    private long publicar(Operacao op, CompletableFuture<ResultadoOperacao> f) {
+        if (fechado) {
+            throw new IllegalStateException("O motor ja foi fechado!");
+        }
+        long seq = proximo.incrementAndGet();
+
+        //espera a posicao ser liberada pela etapa de resposta
+        for (int t = 0; seq - anel.length > seq_resposta; t++) {
+            esperar(t);
+        }
+
+        Comando c = anel[(int) seq & mascara];
+        c.operacao = op;
+        c.futuro = f;
+        PUBLICADOS.setRelease(publicados, (int) seq & mascara, seq);
+        return seq;
+    }
+
+    /**
+     * espera a conclusao de todas as operacoes ate uma sequencia
+     *
+     * @param seq sequencia devolvida por publicar
+     */
+    public void aguardar(long seq) {
+        for (int t = 0; seq_resposta < seq; t++) {
+            esperar(t);
+        }
+    }
+
+    //===== Etapas
+    /**
+     * laco da etapa de negocio: aplica as operacoes publicadas, em ordem
+     */
+    private void executarNegocio() {
+        long proxima = 0;
+        for (int t = 0;; t++) {
+            long ate = proxima - 1;
+            while (ate - proxima + 1 < anel.length
+                    && (long) PUBLICADOS.getAcquire(publicados, (int) (ate + 1) & mascara) == ate + 1) {
+                ate++;
+            }
+            if (ate < proxima) {
+                if (!ativo) {
+                    return;
+                }
+                esperar(t);
+                continue;
+            }
+
+            for (long s = proxima; s <= ate; s++) {
+                aplicar(anel[(int) s & mascara]);
+            }
+            seq_negocio = ate;
+            proxima = ate + 1;
+            t = 0;
+        }
+    }
+
+    /**
+     * aplica uma operacao nas contas (apenas a thread de negocio altera os
+     * saldos, por isso as travas das contas nao sao usadas)
+     */
+    private void aplicar(Comando c) {
+        Operacao op = c.operacao;
+        c.origem = null;
+        c.destino = null;
+        c.erro = null;
+        try {
+            c.origem = localizar(op.getDocumento(), op.getId(), c);
+            if (c.origem == null) {
+                return;
+            }
+            switch (op.getTipo()) {
+                case DEPOSITO -> c.resultado = c.origem.tentarDepositar(op.getValorCentavos());
+                case SAQUE -> c.resultado = c.origem.tentarSacar(op.getValorCentavos());
+                case TRANSFERENCIA -> {
+                    c.destino = localizar(op.getDocumento_destino(), op.getId_destino(), c);
+                    if (c.destino == null) {
+                        return;
+                    }
+                    c.resultado = c.origem.tentarTransferir(c.destino, op.getValorCentavos());
+                    c.saldo_destino = c.destino.getSaldoCentavos();
+                }
+            }
+            c.saldo_origem = c.origem.getSaldoCentavos();
+        } catch (RuntimeException e) {
+            c.erro = e;
+        }
+    }
+
+    /**
+     * busca a conta de um cliente, registrando no comando o motivo da falha
+     *
+     * @return conta encontrada ou null
+     */
+    private Conta localizar(String documento, Long id, Comando c) {
+        Cliente cliente = banco.buscarCliente(documento);
+        if (cliente == null) {
+            c.resultado = ResultadoOperacao.CLIENTE_NAO_ENCONTRADO;
+            return null;
+        }
+        Conta conta = banco.buscarConta(cliente, id);
+        if (conta == null) {
+            c.resultado = ResultadoOperacao.CONTA_NAO_ENCONTRADA;
+        }
+        return conta;
+    }
+
+    /**
+     * laco da etapa de diario: registra as operacoes aplicadas com sucesso,
+     * na ordem em que foram aplicadas
+     */
+    private void executarDiario() {
+        long proxima = 0;
+        for (int t = 0;; t++) {
+            long ate = seq_negocio;
+            if (ate < proxima) {
+                if (!ativo && seq_negocio < proxima) {
+                    return;
+                }
+                esperar(t);
+                continue;
+            }
+
+            for (long s = proxima; s <= ate; s++) {
+                Comando c = anel[(int) s & mascara];
+                c.lsn = 0;
+                if (c.erro == null && c.resultado.isSucesso()) {
+                    try {
+                        c.lsn = registrar(c);
+                    } catch (RuntimeException e) {
+                        c.erro = e;
+                    }
+                }
+            }
+            seq_diario = ate;
+            proxima = ate + 1;
+            t = 0;
+        }
+    }
+
+    private long registrar(Comando c) {
+        long valor = c.operacao.getValorCentavos();
+        long lsn = switch (c.operacao.getTipo()) {
+            case DEPOSITO -> diario.registrarDeposito(c.origem.getId(), valor, c.saldo_origem);
+            case SAQUE -> diario.registrarSaque(c.origem.getId(), valor, c.saldo_origem);
+            case TRANSFERENCIA -> diario.registrarTransferencia(c.origem.getId(), c.destino.getId(),
+                    valor, c.saldo_origem, c.saldo_destino);
+        };
+        c.origem.setLsn(lsn);
+        if (c.destino != null) {
+            c.destino.setLsn(lsn);
+        }
+        return lsn;
+    }
+
+    /**
+     * laco da etapa de resposta: espera o lote estar no disco, completa os
+     * futuros e libera as posicoes para os produtores
+     */
+    private void executarResposta() {
+        long proxima = 0;
+        for (int t = 0;; t++) {
+            long ate = diario == null ? seq_negocio : seq_diario;
+            if (ate < proxima) {
+                if (!ativo && (diario == null ? seq_negocio : seq_diario) < proxima) {
+                    return;
+                }
+                esperar(t);
+                continue;
+            }
+
+            if (diario != null) {
+                long lsn = 0;
+                for (long s = proxima; s <= ate; s++) {
+                    lsn = Math.max(lsn, anel[(int) s & mascara].lsn);
+                }
+                if (lsn > 0) {
+                    try {
+                        diario.aguardar(lsn);
+                    } catch (RuntimeException e) {
+                        //nenhuma operacao do lote pode ser confirmada
+                        for (long s = proxima; s <= ate; s++) {
+                            Comando c = anel[(int) s & mascara];
+                            if (c.lsn > 0) {
+                                c.erro = e;
+                            }
+                        }
+                    }
+                }
+            }
+
+            for (long s = proxima; s <= ate; s++) {
+                Comando c = anel[(int) s & mascara];
+                CompletableFuture<ResultadoOperacao> f = c.futuro;
+                if (f != null) {
+                    if (c.erro != null) {
+                        f.completeExceptionally(c.erro);
+                    } else {
+                        f.complete(c.resultado);
+                    }
+                }
+                c.operacao = null;
+                c.futuro = null;
+                c.origem = null;
+                c.destino = null;
+                c.erro = null;
+            }
+            seq_resposta = ate;
+            proxima = ate + 1;
+            t = 0;
+        }
+    }
+
+    /**
+     * espera progressiva de uma etapa ou produtor sem trabalho: espera ativa,
+     * depois yield e por fim pausas curtas
+     *
+     * @param tentativa tentativas ja feitas sem trabalho
+     */
+    private static void esperar(int tentativa) {
+        if (tentativa < TENTATIVAS_ATIVAS) {
+            Thread.onSpinWait();
+        } else if (tentativa < TENTATIVAS_YIELD) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PAUSA_NS);
+        }
+    }
+
+    /**
+     * @return ultima sequencia concluida (respondida)
+     */
+    public long getSequencia_concluida() {
+        return seq_resposta;
+    }
+
+    public int getCapacidade() {
+        return anel.length;
+    }
+
+    /**
+     * para de aceitar operacoes, espera a conclusao das operacoes ja enviadas
+     * e encerra as threads das etapas
+     */
+    @Override
+    public void close() {
+        fechado = true;
+        aguardar(proximo.get());
+        ativo = false;
+        try {
+            negocio.join();
+            registro.join();
+            resposta.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //===== Construtores
+    /**
+     * inicia o motor de um banco. Se o banco tiver diario, as operacoes sao
+     * registradas nele
+     *
+     * @param banco banco das operacoes
+     *
+     * @param capacidade quantidade de posicoes do anel (potencia de 2)
+     *
+     * @throws IllegalArgumentException se a capacidade nao for potencia de 2
+     *
+     * @throws IllegalStateException se o banco usar um armazem (o motor altera
+     * as contas sem as travas, entao nao percebe quando elas saem da memoria)
+     */
+    public MotorSequencial(Banco banco, int capacidade) {
+        if (capacidade < 2 || Integer.bitCount(capacidade) != 1) {
+            throw new IllegalArgumentException("A capacidade do motor deve ser uma potencia de 2!");
+        }
+        if (banco.getCache() != null) {
+            throw new IllegalStateException("O motor nao pode ser usado com um banco com armazem!");
+        }
+        this.banco = banco;
+        this.diario = banco.getDiario();
+        this.anel = new Comando[capacidade];
+        for (int i = 0; i < capacidade; i++) {
+            anel[i] = new Comando();
+        }
+        this.publicados = new long[capacidade];
+        Arrays.fill(publicados, -1);
+        this.mascara = capacidade - 1;
+
+        this.negocio = iniciar(this::executarNegocio, "motor-negocio");
+        this.registro = iniciar(diario == null ? () -> { } : this::executarDiario, "motor-diario");
+        this.resposta = iniciar(this::executarResposta, "motor-resposta");
+    }
+
+    public MotorSequencial(Banco banco) {
+        this(banco, CAPACIDADE_PADRAO);
+    }
+
+    private static Thread iniciar(Runnable etapa, String nome) {
+        Thread t = new Thread(etapa, nome);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+}
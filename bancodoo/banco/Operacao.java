@@ -0,0 +1,129 @@
+package bancodoo.banco;
+
+import bancodoo.conta.Dinheiro;
+
+/**
+ * Classe que representa uma operacao (deposito, saque ou transferencia) a ser
+ * executada em lote pelo Banco (ver Banco.executarLote)
+ *
+ * @author Vinicius Corbellini
+ */
+public class Operacao {
+
+    /**
+     * Tipos de operacao aceitos no lote
+     */
+    public enum Tipo {
+        DEPOSITO,
+        SAQUE,
+        TRANSFERENCIA
+    }
+
+    //Tipo da operacao
+    private final Tipo tipo;
+
+    //Documento do cliente e id da conta (remetente em uma transferencia)
+    private final String documento;
+    private final Long id;
+
+    //Documento e id do destinatario (apenas em transferencias)
+    private final String documento_destino;
+    private final Long id_destino;
+
+    //Valor da operacao em centavos
+    private final long valor;
+
+    /**
+     * cria um deposito
+     *
+     * @param documento documento do cliente
+     *
+     * @param id identificador da conta
+     *
+     * @param amount valor a ser depositado
+     *
+     * @return operacao de deposito
+     */
+    public static Operacao deposito(String documento, Long id, double amount) {
+        return new Operacao(Tipo.DEPOSITO, documento, id, null, null, Dinheiro.valorDaOperacao(amount));
+    }
+
+    /**
+     * cria um saque
+     *
+     * @param documento documento do cliente
+     *
+     * @param id identificador da conta
+     *
+     * @param amount valor a ser sacado
+     *
+     * @return operacao de saque
+     */
+    public static Operacao saque(String documento, Long id, double amount) {
+        return new Operacao(Tipo.SAQUE, documento, id, null, null, Dinheiro.valorDaOperacao(amount));
+    }
+
+    /**
+     * cria uma transferencia
+     *
+     * @param doc_remet documento do remetente
+     *
+     * @param doc_dest documento do destinatario
+     *
+     * @param id_remet identificador da conta do remetente
+     *
+     * @param id_dest identificador da conta do destinatario
+     *
+     * @param amount valor a ser transferido
+     *
+     * @return operacao de transferencia
+     */
+    public static Operacao transferencia(String doc_remet, String doc_dest, Long id_remet, Long id_dest, double amount) {
+        return new Operacao(Tipo.TRANSFERENCIA, doc_remet, id_remet, doc_dest, id_dest, Dinheiro.valorDaOperacao(amount));
+    }
+
+    //===== Construtor, getters e toString
+    public Operacao(Tipo tipo, String documento, Long id, String documento_destino, Long id_destino, long valor) {
+        this.tipo = tipo;
+        this.documento = documento;
+        this.id = id;
+        this.documento_destino = documento_destino;
+        this.id_destino = id_destino;
+        this.valor = valor;
+    }
+
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    public String getDocumento() {
+        return documento;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getDocumento_destino() {
+        return documento_destino;
+    }
+
+    public Long getId_destino() {
+        return id_destino;
+    }
+
+    public long getValorCentavos() {
+        return valor;
+    }
+
+    @Override
+    public String toString() {
+        return "Operacao{"
+                + "tipo: " + tipo
+                + ", documento: " + documento
+                + ", id: " + id
+                + (tipo == Tipo.TRANSFERENCIA ? ", documento_destino: " + documento_destino + ", id_destino: " + id_destino : "")
+                + ", valor: " + Dinheiro.formatar(valor)
+                + '}';
+    }
+}
@@ -0,0 +1,87 @@
+package bancodoo.banco;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Classe que guarda um conjunto de objetos de um mesmo tipo (ex: todas as
+ * poupancas de uma particao) em um vetor denso, de forma que os processamentos
+ * em lote percorrem apenas os objetos do tipo desejado, em posicoes contiguas
+ * da memoria. A insercao e a remocao sao feitas em tempo constante: o objeto
+ * removido e substituido pelo ultimo elemento do vetor.
+ *
+ * Obs: a classe nao e thread-safe; o acesso e protegido pela trava do Indice
+ *
+ * @author Vinicius Corbellini
+ */
+final class Registro<T> {
+
+    //Elementos nas posicoes [0, tamanho)
+    private Object[] elementos;
+    private int tamanho;
+
+    //Posicao de cada elemento no vetor (comparado por identidade)
+    private final Map<T, Integer> posicoes;
+
+    /**
+     * adiciona um elemento (nao faz nada se ele ja estiver no registro)
+     *
+     * @param elemento elemento a ser adicionado
+     */
+    void adicionar(T elemento) {
+        if (posicoes.containsKey(elemento)) {
+            return;
+        }
+        if (tamanho == elementos.length) {
+            elementos = Arrays.copyOf(elementos, tamanho * 2);
+        }
+        elementos[tamanho] = elemento;
+        posicoes.put(elemento, tamanho++);
+    }
+
+    /**
+     * remove um elemento, movendo o ultimo elemento para a sua posicao
+     *
+     * @param elemento elemento a ser removido
+     *
+     * @return true se o elemento estava no registro
+     */
+    @SuppressWarnings("unchecked")
+    boolean remover(T elemento) {
+        Integer posicao = posicoes.remove(elemento);
+        if (posicao == null) {
+            return false;
+        }
+
+        int ultimo = --tamanho;
+        if (posicao != ultimo) {
+            T movido = (T) elementos[ultimo];
+            elementos[posicao] = movido;
+            posicoes.put(movido, posicao);
+        }
+        elementos[ultimo] = null;
+        return true;
+    }
+
+    /**
+     * copia todos os elementos para uma colecao
+     *
+     * @param destino colecao que recebera os elementos
+     */
+    @SuppressWarnings("unchecked")
+    void copiarPara(Collection<? super T> destino) {
+        destino.addAll((Collection<T>) Arrays.asList(Arrays.copyOf(elementos, tamanho)));
+    }
+
+    int tamanho() {
+        return tamanho;
+    }
+
+    //===== Construtor
+    Registro() {
+        this.elementos = new Object[16];
+        this.posicoes = new IdentityHashMap<>();
+    }
+}
@@ -0,0 +1,234 @@
+package bancodoo.banco;
+
+import bancodoo.conta.Poupanca;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classe que aplica o rendimento mensal em todas as poupancas do banco em
+ * paralelo. A lista de poupancas e montada uma unica vez no inicio e dividida
+ * em lotes processados por um ForkJoinPool (por padrao o pool comum, com uma
+ * thread por nucleo).
+ *
+ * O rendimento de cada conta e aplicado por compare-and-set (ou sob a trava da
+ * conta, se o banco tiver diario), de forma que saques, depositos e
+ * transferencias dos clientes podem continuar ocorrendo durante o processamento.
+ * Se houver diario, o metodo executar so retorna depois que todos os registros
+ * de rendimento estiverem gravados em disco.
+ *
+ * @author Vinicius Corbellini
+ */
+public class RendimentoMensal {
+
+    //Quantidade maxima de contas processadas por uma tarefa sem dividi-la
+    public static final int TAMANHO_LOTE = 1024;
+
+    /**
+     * Recebe o andamento do processamento. Pode ser chamado por qualquer uma
+     * das threads do pool, mas nunca por duas ao mesmo tempo
+     */
+    @FunctionalInterface
+    public interface Progresso {
+
+        /**
+         * @param processadas contas ja processadas
+         *
+         * @param total total de contas do processamento
+         *
+         * @param contas_por_segundo vazao media desde o inicio
+         */
+        void informar(long processadas, long total, double contas_por_segundo);
+    }
+
+    //Progresso que imprime o andamento no terminal (sysout)
+    public static final Progresso IMPRIMIR = (processadas, total, vazao)
+            -> System.out.printf("Rendimento: %d/%d contas (%.1f%%) - %.0f contas/s%n",
+                    processadas, total, total == 0 ? 100.0 : processadas * 100.0 / total, vazao);
+
+    private final Banco banco;
+    private final ForkJoinPool pool;
+    private Progresso progresso;
+    private long intervalo_ns;
+
+    /**
+     * Resultado de um processamento
+     */
+    public static class Resultado {
+
+        private final long contas;
+        private final long duracao_ns;
+
+        Resultado(long contas, long duracao_ns) {
+            this.contas = contas;
+            this.duracao_ns = duracao_ns;
+        }
+
+        public long getContas() {
+            return contas;
+        }
+
+        public long getDuracaoNanos() {
+            return duracao_ns;
+        }
+
+        public double getContasPorSegundo() {
+            return duracao_ns == 0 ? 0 : contas * 1e9 / duracao_ns;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Rendimento aplicado em %d contas em %.1f ms (%.0f contas/s)",
+                    contas, duracao_ns / 1e6, getContasPorSegundo());
+        }
+    }
+
+    /**
+     * aplica o rendimento em todas as poupancas do banco
+     *
+     * @return quantidade de contas processadas, duracao e vazao
+     */
+    public Resultado executar() {
+        long inicio = System.nanoTime();
+        if (banco.getCache() != null) {
+            return executarNoArmazem(inicio);
+        }
+        List<Poupanca> poupancas = banco.listarPoupancas();
+        Poupanca[] contas = poupancas.toArray(new Poupanca[0]);
+
+        Andamento andamento = new Andamento(contas.length, inicio);
+        long lsn = pool.invoke(new Lote(contas, 0, contas.length, andamento));
+        banco.aguardarDiario(lsn);
+
+        long duracao = System.nanoTime() - inicio;
+        if (progresso != null) {
+            progresso.informar(contas.length, contas.length, contas.length * 1e9 / Math.max(duracao, 1));
+        }
+        return new Resultado(contas.length, duracao);
+    }
+
+    /**
+     * aplica o rendimento em um banco com armazem, percorrendo as poupancas
+     * de um cliente por vez (ver Banco.paraCadaPoupanca), ja que nem todas
+     * estao em memoria. O processamento e sequencial e o andamento e
+     * informado apenas no final
+     */
+    private Resultado executarNoArmazem(long inicio) {
+        long[] contas = new long[1];
+        long[] lsn = new long[1];
+        banco.paraCadaPoupanca(p -> {
+            lsn[0] = Math.max(lsn[0], banco.aplicarRendimento(p));
+            contas[0]++;
+        });
+        banco.aguardarDiario(lsn[0]);
+
+        long duracao = System.nanoTime() - inicio;
+        if (progresso != null) {
+            progresso.informar(contas[0], contas[0], contas[0] * 1e9 / Math.max(duracao, 1));
+        }
+        return new Resultado(contas[0], duracao);
+    }
+
+    /**
+     * Contador de contas processadas, compartilhado pelos lotes, que informa o
+     * progresso no maximo uma vez a cada intervalo
+     */
+    private final class Andamento {
+
+        private final long total;
+        private final long inicio;
+        private final AtomicLong processadas = new AtomicLong();
+        private final AtomicLong proximo_relatorio;
+
+        Andamento(long total, long inicio) {
+            this.total = total;
+            this.inicio = inicio;
+            this.proximo_relatorio = new AtomicLong(inicio + intervalo_ns);
+        }
+
+        void concluir(int contas) {
+            long feitas = processadas.addAndGet(contas);
+            if (progresso == null || feitas == total) {
+                return;
+            }
+            long agora = System.nanoTime();
+            long previsto = proximo_relatorio.get();
+            //apenas a thread que avancar o horario do proximo relatorio informa
+            if (agora >= previsto && proximo_relatorio.compareAndSet(previsto, agora + intervalo_ns)) {
+                progresso.informar(feitas, total, feitas * 1e9 / Math.max(agora - inicio, 1));
+            }
+        }
+    }
+
+    /**
+     * Tarefa que processa um intervalo da lista de poupancas, dividindo-o ao
+     * meio enquanto for maior que TAMANHO_LOTE. Devolve o maior lsn registrado
+     * no diario pelo intervalo. Nunca e serializada
+     */
+    @SuppressWarnings("serial")
+    private final class Lote extends RecursiveTask<Long> {
+
+        private final Poupanca[] contas;
+        private final int inicio;
+        private final int fim;
+        private final Andamento andamento;
+
+        Lote(Poupanca[] contas, int inicio, int fim, Andamento andamento) {
+            this.contas = contas;
+            this.inicio = inicio;
+            this.fim = fim;
+            this.andamento = andamento;
+        }
+
+        @Override
+        protected Long compute() {
+            if (fim - inicio > TAMANHO_LOTE) {
+                int meio = (inicio + fim) >>> 1;
+                Lote esquerda = new Lote(contas, inicio, meio, andamento);
+                esquerda.fork();
+                long direita = new Lote(contas, meio, fim, andamento).compute();
+                return Math.max(direita, esquerda.join());
+            }
+
+            long lsn = 0;
+            for (int i = inicio; i < fim; i++) {
+                lsn = Math.max(lsn, banco.aplicarRendimento(contas[i]));
+            }
+            andamento.concluir(fim - inicio);
+            return lsn;
+        }
+    }
+
+    //===== Construtores e setters
+    public RendimentoMensal(Banco banco) {
+        this(banco, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param banco banco cujas poupancas receberao o rendimento
+     *
+     * @param pool pool que executara o processamento (ex: new
+     * ForkJoinPool(4) para limitar o numero de threads)
+     */
+    public RendimentoMensal(Banco banco, ForkJoinPool pool) {
+        this.banco = banco;
+        this.pool = pool;
+    }
+
+    /**
+     * define quem recebera o andamento do processamento
+     *
+     * @param progresso receptor do andamento (ex: RendimentoMensal.IMPRIMIR)
+     * ou null para nao informar
+     *
+     * @param intervalo intervalo minimo entre dois relatorios
+     *
+     * @param unidade unidade do intervalo
+     */
+    public void setProgresso(Progresso progresso, long intervalo, TimeUnit unidade) {
+        this.progresso = progresso;
+        this.intervalo_ns = unidade.toNanos(intervalo);
+    }
+}
@@ -2,8 +2,8 @@ package bancodoo.cliente;
 
 import bancodoo.conta.Conta;
 import bancodoo.exceptions.ContaNotFoundException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Classe abstrata (Conceito exigido para o trabalho) que define os atributos e
@@ -25,6 +25,8 @@ public abstract class Cliente {
     protected String email;
 
     //Lista de contas de um cliente, sendo que: Cliente 1:n Contas
+    //Obs: CopyOnWriteArrayList pois as contas sao lidas com muito mais
+    //frequencia do que alteradas e podem ser percorridas por varias threads
     protected List<Conta> contas;
 
     /**
@@ -93,7 +95,7 @@ public abstract class Cliente {
     public Cliente(String nome, String email) {
         this.nome = nome;
         this.email = email;
-        this.contas = new ArrayList<>();
+        this.contas = new CopyOnWriteArrayList<>();
     }
 
     @Override
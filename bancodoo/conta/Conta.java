@@ -4,9 +4,25 @@ import bancodoo.cliente.Cliente;
 import bancodoo.exceptions.LimiteExcedidoException;
 import bancodoo.exceptions.SaldoInsuficienteException;
 import bancodoo.exceptions.ValorInvalidoException;
+import bancodoo.movimentacao.Agregados;
+import bancodoo.movimentacao.ConsultaMovimentacoes;
+import bancodoo.movimentacao.FiltroMovimentacao;
+import bancodoo.movimentacao.Historico;
+import bancodoo.movimentacao.HistoricoArquivo;
+import bancodoo.movimentacao.HistoricoCircular;
+import bancodoo.movimentacao.HistoricoMapeado;
 import bancodoo.movimentacao.Movimentacao;
+import bancodoo.movimentacao.PaginaMovimentacoes;
+import bancodoo.movimentacao.TipoMovimentacao;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
 
 /**
  * Classe abstrata que implementa a interface Transacao e define os atributos e
@@ -27,16 +43,51 @@ public abstract class Conta implements Transacao {
     //O cliente dono da conta, sendo que: cliente 1:n contas
     protected Cliente titular;
 
-    //Atributo basico de todas as contas
-    protected Double saldo;
+    //Atributo basico de todas as contas, em centavos (ver classe Dinheiro)
+    //Obs: so deve ser alterado pelos metodos creditar, debitar e
+    //compararETrocarSaldo, que fazem a atualizacao de forma atomica
+    protected volatile long saldo;
 
-    //Movimentacoes da conta
+    //Movimentacoes da conta (lista sincronizada, pois depositos e saques podem
+    //ocorrer em paralelo sem a trava da conta)
+    //Obs: novas movimentacoes devem ser incluidas por registrarMovimentacao
     protected List<Movimentacao> movimentacoes;
 
+    //Historico mapeado ou circular (null se as movimentacoes ficam na lista
+    //acima)
+    private volatile Historico historico;
+
+    //Totais das movimentacoes por dia e por mes (atualizados por
+    //registrarMovimentacao)
+    private final Agregados agregados = new Agregados();
+
+    //Trava da conta, usada pelo Banco para serializar as transferencias
+    private final ReentrantLock trava = new ReentrantLock();
+
+    //lsn do ultimo registro do diario aplicado a conta (0 se nenhum). Usado na
+    //recuperacao para saber quais registros ja estao refletidos no snapshot
+    private volatile long lsn;
+
+    //true depois que a conta foi retirada da memoria pelo cache do banco
+    //(ver CacheClientes). A partir dai o objeto nao deve mais ser alterado:
+    //o estado atual fica no armazem e uma nova copia e carregada dele
+    private volatile boolean descarregada;
+
+    //Acesso atomico (compare-and-set) ao atributo saldo
+    private static final VarHandle SALDO;
+
+    static {
+        try {
+            SALDO = MethodHandles.lookup().findVarHandle(Conta.class, "saldo", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     /**
      * retirada de dinheiro da conta
      *
-     * @param valor: valor a ser sacado
+     * @param valor: valor a ser sacado (em centavos)
      * 
      * @throws bancodoo.exceptions.SaldoInsuficienteException
      *
@@ -45,24 +96,30 @@ public abstract class Conta implements Transacao {
      * @throws bancodoo.exceptions.LimiteExcedidoException
      */
     @Override
-    public abstract void sacar(Double valor) throws SaldoInsuficienteException, ValorInvalidoException, LimiteExcedidoException;
+    public void sacar(long valor) throws SaldoInsuficienteException, ValorInvalidoException, LimiteExcedidoException {
+        tentarSacar(valor).lancarSeFalhou("saque bloqueado!");
+    }
 
     /**
      * insercao de dinheiro na conta
      *
-     * @param valor: valor a ser depositado
+     * @param valor: valor a ser depositado (em centavos)
      * 
      * @throws bancodoo.exceptions.ValorInvalidoException
      */
     @Override
-    public abstract void depositar(Double valor) throws ValorInvalidoException;
+    public void depositar(long valor) throws ValorInvalidoException {
+        if (!tentarDepositar(valor).isSucesso()) {
+            throw new ValorInvalidoException("menor ou igual a zero!");
+        }
+    }
 
     /**
      * transferencia de dinheiro de uma conta para outra
      *
      * @param c conta de destino da transferencia
      *
-     * @param valor valor a ser transferido
+     * @param valor valor a ser transferido (em centavos)
      *
      * @throws bancodoo.exceptions.SaldoInsuficienteException
      *
@@ -71,7 +128,273 @@ public abstract class Conta implements Transacao {
      * @throws bancodoo.exceptions.LimiteExcedidoException
      */
     @Override
-    public abstract void transferir(Conta c, Double valor) throws SaldoInsuficienteException, ValorInvalidoException, LimiteExcedidoException;
+    public void transferir(Conta c, long valor) throws SaldoInsuficienteException, ValorInvalidoException, LimiteExcedidoException {
+        tentarTransferir(c, valor).lancarSeFalhou("transferencia bloqueada!");
+    }
+
+    //===== Operacoes sem excecoes
+    //Mesmas regras de sacar, depositar e transferir, mas a falha e devolvida
+    //como um ResultadoOperacao, sem criar nenhuma excecao
+
+    /**
+     * retirada de dinheiro da conta
+     *
+     * @param valor valor a ser sacado (em centavos)
+     *
+     * @return SUCESSO, VALOR_INVALIDO, VALOR_ACIMA_DO_LIMITE,
+     * SALDO_INSUFICIENTE ou LIMITE_EXCEDIDO
+     */
+    public abstract ResultadoOperacao tentarSacar(long valor);
+
+    /**
+     * insercao de dinheiro na conta
+     *
+     * @param valor valor a ser depositado (em centavos)
+     *
+     * @return SUCESSO ou VALOR_INVALIDO
+     */
+    public ResultadoOperacao tentarDepositar(long valor) {
+        if (valor <= 0) {
+            return ResultadoOperacao.VALOR_INVALIDO;
+        }
+
+        long saldo_atual = creditar(valor);
+        registrarMovimentacao(TipoMovimentacao.DEPOSITO, valor, null, saldo_atual);
+        return ResultadoOperacao.SUCESSO;
+    }
+
+    /**
+     * transferencia de dinheiro de uma conta para outra
+     *
+     * @param c conta de destino da transferencia
+     *
+     * @param valor valor a ser transferido (em centavos)
+     *
+     * @return SUCESSO, VALOR_INVALIDO, VALOR_ACIMA_DO_LIMITE,
+     * SALDO_INSUFICIENTE ou LIMITE_EXCEDIDO
+     */
+    public abstract ResultadoOperacao tentarTransferir(Conta c, long valor);
+
+    /**
+     * credita o valor de uma transferencia ja debitada desta conta na conta de
+     * destino e registra as movimentacoes das duas contas
+     *
+     * @param c conta de destino
+     *
+     * @param valor valor transferido (em centavos)
+     *
+     * @param saldo_atual saldo desta conta apos o debito
+     */
+    protected final void concluirTransferencia(Conta c, long valor, long saldo_atual) {
+        long saldo_dest = c.creditar(valor);
+
+        c.registrarMovimentacao(TipoMovimentacao.RECEBIMENTO_TRANSFERENCIA, valor, this, saldo_dest);
+        registrarMovimentacao(TipoMovimentacao.TRANSFERENCIA, valor, c, saldo_atual);
+    }
+
+    /**
+     * adiciona um valor ao saldo de forma atomica, sem travas
+     *
+     * @param valor valor a ser creditado (em centavos)
+     *
+     * @return saldo apos o credito
+     */
+    protected final long creditar(long valor) {
+        return (long) SALDO.getAndAdd(this, valor) + valor;
+    }
+
+    /**
+     * retira um valor do saldo de forma atomica, sem travas. O saldo e lido e
+     * atualizado em um laco de compare-and-set, garantindo que nunca fique
+     * negativo mesmo com varios saques simultaneos
+     *
+     * @param valor valor a ser debitado (em centavos, maior que zero)
+     *
+     * @return saldo apos o debito ou -1 se o valor for maior que o saldo
+     */
+    protected final long tentarDebitar(long valor) {
+        long atual;
+        do {
+            atual = saldo;
+            if (atual < valor) {
+                return -1;
+            }
+        } while (!SALDO.compareAndSet(this, atual, atual - valor));
+        return atual - valor;
+    }
+
+    /**
+     * troca o saldo pelo novo valor somente se ele ainda for igual ao esperado
+     *
+     * @param esperado saldo lido anteriormente (em centavos)
+     *
+     * @param novo novo saldo (em centavos)
+     *
+     * @return true se o saldo foi alterado
+     */
+    protected final boolean compararETrocarSaldo(long esperado, long novo) {
+        return SALDO.compareAndSet(this, esperado, novo);
+    }
+
+    /**
+     * registra uma movimentacao da conta, no historico mapeado ou circular (se
+     * houver) ou na lista de movimentacoes. As movimentacoes ficam sempre em
+     * ordem de data: se duas forem registradas ao mesmo tempo fora de ordem, a
+     * mais recente recebe a data da anterior
+     *
+     * @param tipo tipo da movimentacao
+     *
+     * @param valor valor em centavos
+     *
+     * @param contraparte outra conta de uma transferencia (destino em uma
+     * transferencia e origem em um recebimento) ou null
+     *
+     * @param saldo_atual saldo da conta apos a movimentacao, em centavos
+     */
+    public void registrarMovimentacao(TipoMovimentacao tipo, long valor, Conta contraparte, long saldo_atual) {
+        registrarMovimentacao(tipo, valor, System.currentTimeMillis(), contraparte, saldo_atual);
+    }
+
+    /**
+     * registra uma movimentacao ocorrida em uma data e hora especifica (ex:
+     * movimentacao reaplicada a partir do diario)
+     *
+     * @param tipo tipo da movimentacao
+     *
+     * @param valor valor em centavos
+     *
+     * @param dt_hora data e hora em milissegundos desde 1970-01-01 UTC
+     *
+     * @param contraparte outra conta de uma transferencia ou null
+     *
+     * @param saldo_atual saldo da conta apos a movimentacao, em centavos
+     */
+    public void registrarMovimentacao(TipoMovimentacao tipo, long valor, long dt_hora, Conta contraparte, long saldo_atual) {
+        //em um recebimento, a conta de origem e a contraparte
+        Conta origem = tipo == TipoMovimentacao.RECEBIMENTO_TRANSFERENCIA ? contraparte : this;
+        registrarMovimentacao(tipo, valor, dt_hora,
+                contraparte == null || contraparte.id == null ? 0 : contraparte.id,
+                origem instanceof Poupanca,
+                saldo_atual);
+    }
+
+    /**
+     * registra uma movimentacao cuja contraparte e conhecida apenas pelo id
+     * (ex: transferencia reaplicada a partir do diario com uma conta que ja
+     * foi removida)
+     *
+     * @param tipo tipo da movimentacao
+     *
+     * @param valor valor em centavos
+     *
+     * @param dt_hora data e hora em milissegundos desde 1970-01-01 UTC
+     *
+     * @param id_contraparte id da outra conta de uma transferencia ou 0
+     *
+     * @param origem_poupanca true se a conta de origem do dinheiro for uma
+     * poupanca
+     *
+     * @param saldo_atual saldo da conta apos a movimentacao, em centavos
+     */
+    public void registrarMovimentacao(TipoMovimentacao tipo, long valor, long dt_hora, long id_contraparte, boolean origem_poupanca, long saldo_atual) {
+        Historico h = historico;
+        if (h != null) {
+            //os agregados usam a data gravada (ajustada pelo historico)
+            dt_hora = h.acrescentar(tipo, valor, dt_hora, id_contraparte, origem_poupanca, saldo_atual);
+            agregados.registrar(tipo, valor, dt_hora);
+            return;
+        }
+        List<Movimentacao> lista = movimentacoes;
+        synchronized (lista) {
+            //mantem as datas em ordem para a busca binaria (ver
+            //Historico.procurarData)
+            if (!lista.isEmpty()) {
+                dt_hora = Math.max(dt_hora, lista.get(lista.size() - 1).getDt_hora());
+            }
+            lista.add(
+                    new Movimentacao(tipo,
+                            valor,
+                            dt_hora,
+                            id == null ? 0 : id,
+                            id_contraparte,
+                            origem_poupanca,
+                            titular,
+                            saldo_atual
+                    ));
+            agregados.registrar(tipo, valor, dt_hora);
+        }
+    }
+
+    /**
+     * passa a guardar as movimentacoes da conta em um historico mapeado em
+     * memoria (fora do heap), recomendado para contas com muitas
+     * movimentacoes. A partir dai, getMovimentacoes() devolve uma visao
+     * somente leitura desse historico. Se o diretorio ja possuir um historico,
+     * ele e reaberto
+     *
+     * @param diretorio diretorio exclusivo do historico desta conta
+     *
+     * @throws IOException se os arquivos nao puderem ser abertos
+     *
+     * @throws IllegalStateException se a conta ja possuir movimentacoes na
+     * lista em memoria
+     */
+    public synchronized void usarHistoricoMapeado(Path diretorio) throws IOException {
+        verificarHistoricoVazio();
+        usarHistorico(new HistoricoMapeado(diretorio, this));
+    }
+
+    /**
+     * passa a manter em memoria apenas as ultimas movimentacoes da conta, em
+     * um buffer circular; as mais antigas sao transferidas para um arquivo em
+     * disco (ver HistoricoCircular). A partir dai, getMovimentacoes() devolve
+     * uma visao somente leitura que percorre o arquivo e o buffer
+     *
+     * @param diretorio diretorio exclusivo do arquivo desta conta
+     *
+     * @param capacidade quantidade maxima de movimentacoes em memoria
+     *
+     * @throws IOException se o arquivo nao puder ser aberto
+     *
+     * @throws IllegalStateException se a conta ja possuir movimentacoes na
+     * lista em memoria
+     */
+    public synchronized void usarHistoricoCircular(Path diretorio, int capacidade) throws IOException {
+        verificarHistoricoVazio();
+        usarHistorico(new HistoricoCircular(diretorio, this, capacidade));
+    }
+
+    /**
+     * passa a guardar as movimentacoes da conta em um unico arquivo, sem
+     * mapeamento em memoria (ver HistoricoArquivo). Usado pelas contas que
+     * entram e saem da memoria (ver ArmazemClientes). Se o arquivo ja existir,
+     * o historico e reaberto
+     *
+     * @param arquivo arquivo exclusivo do historico desta conta
+     *
+     * @throws IOException se o diretorio do arquivo nao puder ser criado
+     *
+     * @throws IllegalStateException se a conta ja possuir movimentacoes na
+     * lista em memoria
+     */
+    public synchronized void usarHistoricoArquivo(Path arquivo) throws IOException {
+        verificarHistoricoVazio();
+        usarHistorico(new HistoricoArquivo(arquivo, this));
+    }
+
+    private void verificarHistoricoVazio() {
+        if (historico != null || !movimentacoes.isEmpty()) {
+            throw new IllegalStateException("A conta ja possui um historico de movimentacoes!");
+        }
+    }
+
+    private void usarHistorico(Historico h) {
+        this.movimentacoes = h;
+        this.historico = h;
+        if (!h.isEmpty()) {
+            agregados.recalcular(h);
+        }
+    }
 
     /**
      * lista as movimentacoes da conta no terminal (sysout) ou mostra um aviso
@@ -82,23 +405,50 @@ public abstract class Conta implements Transacao {
             System.out.println("Nao ha movimentacoes para listar>>>");
         }
 
-        for (Movimentacao m : movimentacoes) {
-            System.out.println(m.toString());
-        }
+        //o historico e percorrido por posicao, sem copia
+        consultarMovimentacoes(FiltroMovimentacao.todas()).forEach(m -> System.out.println(m.toString()));
+    }
+
+    /**
+     * consulta as movimentacoes da conta que atendem a um filtro (ver
+     * ConsultaMovimentacoes)
+     *
+     * @param filtro filtro da consulta (ex: FiltroMovimentacao.todas())
+     *
+     * @return stream preguicosa das movimentacoes, em ordem de registro
+     */
+    public Stream<Movimentacao> consultarMovimentacoes(FiltroMovimentacao filtro) {
+        return ConsultaMovimentacoes.consultar(movimentacoes, filtro, 0);
+    }
+
+    /**
+     * consulta uma pagina das movimentacoes da conta que atendem a um filtro
+     *
+     * @param filtro filtro da consulta
+     *
+     * @param cursor cursor devolvido pela pagina anterior (0 na primeira
+     * pagina)
+     *
+     * @param limite quantidade maxima de movimentacoes da pagina
+     *
+     * @return pagina com as movimentacoes e o cursor da proxima pagina
+     */
+    public PaginaMovimentacoes consultarMovimentacoes(FiltroMovimentacao filtro, int cursor, int limite) {
+        return ConsultaMovimentacoes.paginar(movimentacoes, filtro, cursor, limite);
     }
 
     //===== Getters, setters, construtor e toString()
-    public Conta(Cliente titular, Double saldo, Long id) {
+    public Conta(Cliente titular, double saldo, Long id) {
         this.titular = titular;
-        this.saldo = saldo;
+        this.saldo = Dinheiro.paraCentavos(saldo);
         this.id = id;
-        this.movimentacoes = new ArrayList<>();
+        this.movimentacoes = Collections.synchronizedList(new ArrayList<>());
     }
 
-    public Conta(Cliente titular, Double saldo) {
+    public Conta(Cliente titular, double saldo) {
         this.titular = titular;
-        this.saldo = saldo;
-        this.movimentacoes = new ArrayList<>();
+        this.saldo = Dinheiro.paraCentavos(saldo);
+        this.movimentacoes = Collections.synchronizedList(new ArrayList<>());
     }
 
     @Override
@@ -106,16 +456,24 @@ public abstract class Conta implements Transacao {
         return "Conta{"
                 + "id: " + id
                 + ", titular: " + titular.getNome()
-                + ", saldo: " + saldo
-                + ", movimentacoes: " + movimentacoes
+                + ", saldo: " + Dinheiro.formatar(saldo)
+                + ", movimentacoes: " + movimentacoes.size()
                 + '}';
     }
 
-    public Double getSaldo() {
+    public double getSaldo() {
+        return Dinheiro.paraReais(saldo);
+    }
+
+    public void setSaldo(double saldo) {
+        this.saldo = Dinheiro.paraCentavos(saldo);
+    }
+
+    public long getSaldoCentavos() {
         return saldo;
     }
 
-    public void setSaldo(Double saldo) {
+    public void setSaldoCentavos(long saldo) {
         this.saldo = saldo;
     }
 
@@ -127,6 +485,35 @@ public abstract class Conta implements Transacao {
         this.id = id;
     }
 
+    public ReentrantLock getTrava() {
+        return trava;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public boolean isDescarregada() {
+        return descarregada;
+    }
+
+    /**
+     * marca a conta como retirada da memoria (chamado com a trava da conta,
+     * depois que o seu estado foi gravado no armazem) e fecha os arquivos do
+     * seu historico
+     */
+    public void marcarDescarregada() {
+        this.descarregada = true;
+        Historico h = historico;
+        if (h != null) {
+            h.fechar();
+        }
+    }
+
     public Cliente getTitular() {
         return titular;
     }
@@ -135,11 +522,28 @@ public abstract class Conta implements Transacao {
         this.titular = titular;
     }
 
+    /**
+     * @return movimentacoes da conta. Se a conta usar um historico mapeado ou
+     * circular, a lista e uma visao somente leitura desse historico
+     */
     public List<Movimentacao> getMovimentacoes() {
         return movimentacoes;
     }
 
-    public void setMovimentacoes(List<Movimentacao> movimentacoes) {
+    public Historico getHistorico() {
+        return historico;
+    }
+
+    public synchronized void setMovimentacoes(List<Movimentacao> movimentacoes) {
         this.movimentacoes = movimentacoes;
+        this.historico = null;
+        agregados.recalcular(movimentacoes);
+    }
+
+    /**
+     * @return totais das movimentacoes da conta por dia e por mes
+     */
+    public Agregados getAgregados() {
+        return agregados;
     }
 }
@@ -1,10 +1,7 @@
 package bancodoo.conta;
 
 import bancodoo.cliente.Cliente;
-import bancodoo.exceptions.SaldoInsuficienteException;
-import bancodoo.exceptions.ValorInvalidoException;
-import bancodoo.movimentacao.Movimentacao;
-import java.time.LocalDateTime;
+import bancodoo.movimentacao.TipoMovimentacao;
 
 /**
  * Uma conta corrente com operacoes ilimitadas de saque, deposito e
@@ -20,127 +17,170 @@ public class Corrente extends Conta {
 
     /**
      * Atributo que define o valor limite que pode ser retirado da conta em um
-     * conjunto de transacoes
+     * conjunto de transacoes: a soma dos saques e transferencias das ultimas
+     * 24 horas nao pode ultrapassar o limite (ver JanelaSaques)
      *
      * Obs: a manipulacao desse atributo é responsabilidade da Classse Banco
+     * Obs2: armazenado em centavos (ver classe Dinheiro)
      */
-    private Double limite;
+    private long limite;
+
+    //Retiradas das ultimas 24 horas (criada na primeira retirada)
+    private volatile JanelaSaques janela;
 
     /**
      * saca uma determinada quantia do saldo da conta corrente
      *
-     * @param valor: valor a ser sacado
-     *
-     * @throws SaldoInsuficienteException se o valor for maior que o saldo
+     * @param valor: valor a ser sacado (em centavos)
      *
-     * @throws ValorInvalidoException se o valor do saque for invalido
+     * @return SUCESSO, VALOR_INVALIDO, VALOR_ACIMA_DO_LIMITE,
+     * LIMITE_DIARIO_EXCEDIDO ou SALDO_INSUFICIENTE
      */
     @Override
-    public void sacar(Double valor) throws SaldoInsuficienteException, ValorInvalidoException {
-        if (valor <= 0) {
-            throw new ValorInvalidoException("menor ou igual a zero!");
+    public ResultadoOperacao tentarSacar(long valor) {
+        long saldo_atual = reservarEDebitar(valor);
+        if (saldo_atual < 0) {
+            return falha(saldo_atual);
         }
-
-        if (limite < valor) {
-            throw new ValorInvalidoException("o valor nao pode ser maior que o limite da conta!");
-        }
-
-        if (saldo < valor) {
-            throw new SaldoInsuficienteException("o valor nao pode ser superior ao saldo!");
-        }
-
-        super.saldo -= valor;
-        movimentacoes.add(
-                new Movimentacao("Saque",
-                        valor,
-                        LocalDateTime.now(),
-                        ("Saque na conta corrente de " + super.titular.getNome() + " id: " + super.id),
-                        super.saldo
-                ));
+        registrarMovimentacao(TipoMovimentacao.SAQUE, valor, null, saldo_atual);
+        return ResultadoOperacao.SUCESSO;
     }
 
     /**
-     * deposita um determinado valor na conta
+     * transferencia de um determinado valor para uma conta destinataria 
      *
-     * @param valor valor a ser depositado
+     * @param c conta do destinatario
+     *
+     * @param valor valor a ser transferido (em centavos)
      *
-     * @throws ValorInvalidoException se o valor do deposito for invalido
+     * @return SUCESSO, VALOR_INVALIDO, VALOR_ACIMA_DO_LIMITE,
+     * LIMITE_DIARIO_EXCEDIDO ou SALDO_INSUFICIENTE
      */
     @Override
-    public void depositar(Double valor) throws ValorInvalidoException {
-        if (valor <= 0) {
-            throw new ValorInvalidoException("menor ou igual a zero!");
+    public ResultadoOperacao tentarTransferir(Conta c, long valor) {
+        long saldo_atual = reservarEDebitar(valor);
+        if (saldo_atual < 0) {
+            return falha(saldo_atual);
         }
-
-        super.saldo += valor;
-        super.movimentacoes.add(
-                new Movimentacao("Deposito",
-                        valor,
-                        LocalDateTime.now(),
-                        ("Deposito na conta corrente de " + super.titular.getNome() + " id: " + super.id),
-                        super.saldo
-                ));
+        concluirTransferencia(c, valor, saldo_atual);
+        return ResultadoOperacao.SUCESSO;
     }
 
+    //Codigos de falha devolvidos por reservarEDebitar
+    private static final long VALOR_INVALIDO = -1;
+    private static final long VALOR_ACIMA_DO_LIMITE = -2;
+    private static final long LIMITE_DIARIO_EXCEDIDO = -3;
+    private static final long SALDO_INSUFICIENTE = -4;
+
     /**
-     * transferencia de um determinado valor para uma conta destinataria 
+     * valida o valor de uma retirada, reserva o valor na janela das ultimas 24
+     * horas e debita o saldo. Se o debito falhar, a reserva e devolvida
      *
-     * @param c conta do destinatario
+     * @param valor valor da retirada (em centavos)
      *
-     * @param valor valor a ser transferido
-     *
-     * @throws SaldoInsuficienteException se o valor for maior que o saldo
-     *
-     * @throws ValorInvalidoException se o valor da transacao for invalido
+     * @return saldo apos o debito ou um dos codigos de falha (negativos)
      */
-    @Override
-    public void transferir(Conta c, Double valor) throws SaldoInsuficienteException, ValorInvalidoException {
+    private long reservarEDebitar(long valor) {
         if (valor <= 0) {
-            throw new ValorInvalidoException("menor ou igual a zero!");
+            return VALOR_INVALIDO;
         }
-
         if (limite < valor) {
-            throw new ValorInvalidoException("o valor nao pode ser maior que o limite da conta!");
+            return VALOR_ACIMA_DO_LIMITE;
         }
 
-        if (saldo < valor) {
-            throw new SaldoInsuficienteException("o valor nao pode ser superior ao saldo!");
+        JanelaSaques j = janela();
+        long agora = System.currentTimeMillis();
+        if (!j.reservar(valor, limite, agora)) {
+            return LIMITE_DIARIO_EXCEDIDO;
+        }
+        long saldo_atual = tentarDebitar(valor);
+        if (saldo_atual < 0) {
+            j.liberar(valor, agora);
+            return SALDO_INSUFICIENTE;
         }
+        return saldo_atual;
+    }
 
-        c.saldo += valor;
-        super.saldo -= valor;
-
-        c.movimentacoes.add(
-                new Movimentacao("Recebimento de Transferencia",
-                        valor,
-                        LocalDateTime.now(),
-                        ("Transferencia da conta corrente de id:" + super.id + " para id:" + c.id),
-                        c.saldo
-                )
-        );
-        movimentacoes.add(
-                new Movimentacao("Transferencia",
-                        valor,
-                        LocalDateTime.now(),
-                        ("Transferencia da conta corrente de id:" + super.id + " para id:" + c.id),
-                        super.saldo
-                ));
+    private static ResultadoOperacao falha(long codigo) {
+        if (codigo == VALOR_INVALIDO) {
+            return ResultadoOperacao.VALOR_INVALIDO;
+        }
+        if (codigo == VALOR_ACIMA_DO_LIMITE) {
+            return ResultadoOperacao.VALOR_ACIMA_DO_LIMITE;
+        }
+        return codigo == LIMITE_DIARIO_EXCEDIDO ? ResultadoOperacao.LIMITE_DIARIO_EXCEDIDO : ResultadoOperacao.SALDO_INSUFICIENTE;
+    }
+
+    private JanelaSaques janela() {
+        JanelaSaques j = janela;
+        if (j == null) {
+            synchronized (this) {
+                j = janela;
+                if (j == null) {
+                    j = new JanelaSaques();
+                    janela = j;
+                }
+            }
+        }
+        return j;
+    }
+
+    /**
+     * @return soma dos saques e transferencias das ultimas 24 horas, em
+     * centavos
+     */
+    public long getRetiradoNasUltimas24hCentavos() {
+        JanelaSaques j = janela;
+        return j == null ? 0 : j.getTotal(System.currentTimeMillis());
+    }
+
+    /**
+     * soma uma retirada ja concluida a janela das ultimas 24 horas, sem
+     * verificar o limite (ex: saque ou transferencia reaplicado a partir do
+     * diario, que ja foi validado quando foi registrado)
+     *
+     * @param valor valor retirado (em centavos)
+     *
+     * @param dt_hora data e hora da retirada em milissegundos desde
+     * 1970-01-01 UTC
+     */
+    public void registrarRetirada(long valor, long dt_hora) {
+        janela().registrar(valor, dt_hora);
+    }
+
+    /**
+     * @return estado da janela das ultimas 24 horas (ver JanelaSaques) ou
+     * null se a conta ainda nao fez retiradas
+     */
+    public long[] exportarJanela() {
+        JanelaSaques j = janela;
+        return j == null ? null : j.exportar();
+    }
+
+    /**
+     * restaura a janela das ultimas 24 horas gravada por exportarJanela (ex:
+     * ao carregar a conta do armazem)
+     *
+     * @param estado estado da janela
+     */
+    public void restaurarJanela(long[] estado) {
+        janela().importar(estado);
     }
 
     //===== Construtor, toString, getters e setters
-    public Corrente(Double limite, Cliente titular, Double saldo, Long id) {
+    public Corrente(double limite, Cliente titular, double saldo, Long id) {
         super(titular, saldo, id);
-        this.limite = limite;
+        this.limite = Dinheiro.paraCentavos(limite);
     }
 
-    public Corrente(Double limite, Cliente titular, Double saldo) {
+    public Corrente(double limite, Cliente titular, double saldo) {
         super(titular, saldo);
-        this.limite = limite;
+        this.limite = Dinheiro.paraCentavos(limite);
     }
 
-    public Corrente(Double limite, Double saldo) {
+    public Corrente(double limite, double saldo) {
         super(null, saldo);
-        this.limite = limite;
+        this.limite = Dinheiro.paraCentavos(limite);
     }
 
     @Override
@@ -148,18 +188,22 @@ public class Corrente extends Conta {
         return "Corrente{"
                 + "id: " + id
                 + ", titular: " + titular.getNome()
-                + ", saldo: " + saldo
-                + ", limite: " + limite
-                + ", movimentacoes: " + movimentacoes
+                + ", saldo: " + Dinheiro.formatar(saldo)
+                + ", limite: " + Dinheiro.formatar(limite)
+                + ", movimentacoes: " + movimentacoes.size()
                 + '}';
     }
 
-    public Double getLimite() {
-        return limite;
+    public double getLimite() {
+        return Dinheiro.paraReais(limite);
     }
 
-    public void setLimite(Double limite) {
-        this.limite = limite;
+    public void setLimite(double limite) {
+        this.limite = Dinheiro.paraCentavos(limite);
+    }
+
+    public long getLimiteCentavos() {
+        return limite;
     }
 
 }
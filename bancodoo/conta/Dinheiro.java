@@ -0,0 +1,145 @@
+package bancodoo.conta;
+
+/**
+ * Classe utilitaria para a representacao de valores monetarios em ponto fixo.
+ * Os valores sao armazenados como long em centavos e as taxas (ex: rendimento
+ * mensal) como long em milionesimos, evitando os erros de arredondamento do
+ * double e a alocacao de objetos Double nas operacoes
+ *
+ * @author Vinicius Corbellini
+ */
+public final class Dinheiro {
+
+    //Quantidade de centavos em um real
+    public static final long CENTAVOS_POR_REAL = 100L;
+
+    //Escala das taxas: 1% = 0.01 = 10_000 milionesimos
+    public static final long ESCALA_TAXA = 1_000_000L;
+
+    //Maior valor em reais aceito nas conversoes: acima de 2^53 centavos o
+    //double ja nao representa todos os centavos
+    public static final double MAXIMO_REAIS = (double) (1L << 53) / CENTAVOS_POR_REAL;
+
+    /**
+     * converte um valor em reais para centavos, arredondando para o centavo
+     * mais proximo (em caso de empate, para o par). Nao aloca objetos
+     *
+     * @param reais valor em reais
+     *
+     * @return valor em centavos
+     *
+     * @throws IllegalArgumentException se o valor nao for finito ou estiver
+     * fora de [-MAXIMO_REAIS, MAXIMO_REAIS]
+     */
+    public static long paraCentavos(double reais) {
+        if (!valido(reais)) {
+            throw new IllegalArgumentException("Valor monetario invalido: " + reais);
+        }
+        return (long) Math.rint(reais * CENTAVOS_POR_REAL);
+    }
+
+    /**
+     * converte o valor de uma operacao (deposito, saque ou transferencia)
+     * informado pelo usuario para centavos. Um valor que nao e finito ou esta
+     * fora da faixa aceita vira 0, que as operacoes recusam com
+     * VALOR_INVALIDO (ou ValorInvalidoException)
+     *
+     * @param reais valor em reais
+     *
+     * @return valor em centavos ou 0 se o valor for invalido
+     */
+    public static long valorDaOperacao(double reais) {
+        return valido(reais) ? (long) Math.rint(reais * CENTAVOS_POR_REAL) : 0;
+    }
+
+    /**
+     * @return true se o valor for finito e estiver dentro de [-MAXIMO_REAIS,
+     * MAXIMO_REAIS] (falso para NaN)
+     */
+    private static boolean valido(double reais) {
+        return Math.abs(reais) <= MAXIMO_REAIS;
+    }
+
+    /**
+     * converte um valor em centavos para reais
+     *
+     * @param centavos valor em centavos
+     *
+     * @return valor em reais
+     */
+    public static double paraReais(long centavos) {
+        return centavos / (double) CENTAVOS_POR_REAL;
+    }
+
+    /**
+     * converte uma taxa decimal (EX: 5% = 0.05) para milionesimos
+     *
+     * @param taxa taxa decimal
+     *
+     * @return taxa em milionesimos
+     *
+     * @throws IllegalArgumentException se a taxa nao for finita ou nao couber
+     * em um long
+     */
+    public static long paraMilionesimos(double taxa) {
+        double milionesimos = Math.rint(taxa * ESCALA_TAXA);
+        if (!(Math.abs(milionesimos) < 0x1p63)) {
+            throw new IllegalArgumentException("Taxa invalida: " + taxa);
+        }
+        return (long) milionesimos;
+    }
+
+    /**
+     * converte uma taxa em milionesimos para a sua representacao decimal
+     *
+     * @param taxa taxa em milionesimos
+     *
+     * @return taxa decimal
+     */
+    public static double paraTaxa(long taxa) {
+        return taxa / (double) ESCALA_TAXA;
+    }
+
+    /**
+     * aplica uma taxa sobre um valor, arredondando o resultado para o centavo
+     * mais proximo e, em caso de empate, para o centavo par (arredondamento
+     * bancario). Nao aloca objetos
+     *
+     * @param centavos valor base em centavos
+     *
+     * @param taxa taxa em milionesimos
+     *
+     * @return valor da taxa em centavos
+     *
+     * @throws ArithmeticException se o produto estourar a capacidade do long
+     */
+    public static long aplicarTaxa(long centavos, long taxa) {
+        long produto = Math.multiplyExact(centavos, taxa);
+        long quociente = produto / ESCALA_TAXA;
+        long dobroResto = Math.abs(produto % ESCALA_TAXA) * 2;
+
+        if (dobroResto > ESCALA_TAXA || (dobroResto == ESCALA_TAXA && (quociente & 1) != 0)) {
+            quociente += Long.signum(produto);
+        }
+        return quociente;
+    }
+
+    /**
+     * formata um valor em centavos com duas casas decimais (EX: 123456 ->
+     * "1234.56")
+     *
+     * @param centavos valor em centavos
+     *
+     * @return valor formatado
+     */
+    public static String formatar(long centavos) {
+        long abs = Math.abs(centavos);
+        long resto = abs % CENTAVOS_POR_REAL;
+        return (centavos < 0 ? "-" : "")
+                + (abs / CENTAVOS_POR_REAL)
+                + (resto < 10 ? ".0" : ".") + resto;
+    }
+
+    private Dinheiro() {
+    }
+}
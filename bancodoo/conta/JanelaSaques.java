@@ -0,0 +1,157 @@
+package bancodoo.conta;
+
+import java.util.Arrays;
+
+/**
+ * Classe que soma os valores retirados de uma conta (saques e transferencias)
+ * nas ultimas 24 horas, para a verificacao do limite da conta corrente.
+ *
+ * A janela e dividida em baldes de uma hora guardados em um vetor circular:
+ * cada retirada e somada no balde da sua hora e, quando o relogio avanca, os
+ * baldes que sairam da janela sao zerados e descontados do total. Assim a
+ * verificacao do limite tem custo constante e nao percorre as movimentacoes.
+ *
+ * Obs: a janela considera as 24 horas completas anteriores mais a hora atual,
+ * ou seja, uma retirada deixa de contar entre 24 e 25 horas depois de feita
+ * (nunca antes de 24 horas)
+ *
+ * @author Vinicius Corbellini
+ */
+final class JanelaSaques {
+
+    //Duracao de cada balde, em milissegundos
+    static final long DURACAO_BALDE = 60 * 60 * 1000L;
+
+    //Quantidade de baldes: 24 horas completas + a hora atual
+    static final int BALDES = 25;
+
+    //Soma das retiradas de cada hora, na posicao (hora % BALDES)
+    private final long[] baldes = new long[BALDES];
+
+    //Hora (milissegundos / DURACAO_BALDE) do balde mais recente
+    //(Long.MIN_VALUE antes da primeira retirada)
+    private long hora_atual = Long.MIN_VALUE;
+
+    //Soma de todos os baldes
+    private long total;
+
+    /**
+     * reserva um valor na janela se a soma das retiradas continuar dentro do
+     * limite
+     *
+     * @param valor valor a ser retirado (em centavos)
+     *
+     * @param limite limite da conta (em centavos)
+     *
+     * @param agora data e hora da retirada em milissegundos desde 1970-01-01
+     * UTC
+     *
+     * @return false se o valor ultrapassar o limite
+     */
+    synchronized boolean reservar(long valor, long limite, long agora) {
+        avancar(agora);
+        if (total > limite - valor) {
+            return false;
+        }
+        baldes[posicao(agora)] += valor;
+        total += valor;
+        return true;
+    }
+
+    /**
+     * soma uma retirada ja concluida, sem verificar o limite (ex: retirada
+     * reaplicada a partir do diario). Retiradas que ja sairam da janela sao
+     * ignoradas
+     *
+     * @param valor valor retirado (em centavos)
+     *
+     * @param quando data e hora da retirada
+     */
+    synchronized void registrar(long valor, long quando) {
+        avancar(quando);
+        long hora = Math.floorDiv(quando, DURACAO_BALDE);
+        if (hora > hora_atual - BALDES) {
+            baldes[posicao(quando)] += valor;
+            total += valor;
+        }
+    }
+
+    /**
+     * devolve um valor reservado por uma retirada que nao foi concluida
+     *
+     * @param valor valor reservado (em centavos)
+     *
+     * @param quando data e hora informada na reserva
+     */
+    synchronized void liberar(long valor, long quando) {
+        long hora = Math.floorDiv(quando, DURACAO_BALDE);
+        //o balde ja pode ter saido da janela
+        if (hora > hora_atual - BALDES) {
+            baldes[posicao(quando)] -= valor;
+            total -= valor;
+        }
+    }
+
+    /**
+     * @param agora data e hora da consulta
+     *
+     * @return soma das retiradas dentro da janela (em centavos)
+     */
+    synchronized long getTotal(long agora) {
+        avancar(agora);
+        return total;
+    }
+
+    /**
+     * zera os baldes das horas que sairam da janela ate a hora informada
+     */
+    private void avancar(long agora) {
+        long hora = Math.floorDiv(agora, DURACAO_BALDE);
+        if (hora <= hora_atual) {
+            return;
+        }
+        if (hora_atual == Long.MIN_VALUE || hora - hora_atual >= BALDES) {
+            Arrays.fill(baldes, 0);
+            total = 0;
+        } else {
+            for (long h = hora_atual + 1; h <= hora; h++) {
+                int i = (int) Math.floorMod(h, (long) BALDES);
+                total -= baldes[i];
+                baldes[i] = 0;
+            }
+        }
+        hora_atual = hora;
+    }
+
+    /**
+     * @return estado da janela (hora do balde mais recente seguida dos
+     * baldes), para ser gravado fora da memoria
+     */
+    synchronized long[] exportar() {
+        long[] estado = new long[BALDES + 1];
+        estado[0] = hora_atual;
+        System.arraycopy(baldes, 0, estado, 1, BALDES);
+        return estado;
+    }
+
+    /**
+     * restaura o estado gravado por exportar
+     *
+     * @param estado hora do balde mais recente seguida dos baldes
+     */
+    synchronized void importar(long[] estado) {
+        if (estado.length != BALDES + 1) {
+            throw new IllegalArgumentException("Estado da janela invalido!");
+        }
+        hora_atual = estado[0];
+        total = 0;
+        for (int i = 0; i < BALDES; i++) {
+            baldes[i] = estado[i + 1];
+            total += baldes[i];
+        }
+    }
+
+    private static int posicao(long quando) {
+        return (int) Math.floorMod(Math.floorDiv(quando, DURACAO_BALDE), (long) BALDES);
+    }
+}
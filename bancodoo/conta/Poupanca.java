@@ -1,11 +1,9 @@
 package bancodoo.conta;
 
 import bancodoo.cliente.Cliente;
-import bancodoo.exceptions.LimiteExcedidoException;
-import bancodoo.exceptions.SaldoInsuficienteException;
-import bancodoo.exceptions.ValorInvalidoException;
-import bancodoo.movimentacao.Movimentacao;
-import java.time.LocalDateTime;
+import bancodoo.movimentacao.TipoMovimentacao;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 /**
  * Uma conta com funcoes limitadas de saque, deposito e transferencia que possui
@@ -20,160 +18,143 @@ import java.time.LocalDateTime;
 public class Poupanca extends Conta {
 
     //Limite inteiro de operacoes que a conta poupanca pode realizar
-    private Integer limite_operacoes;
+    private int limite_operacoes;
 
-    //Operacoes realizadas
-    private Integer operacoes;
+    //Operacoes realizadas (atualizado por compare-and-set, ver reservarOperacao)
+    private volatile int operacoes;
 
-    //rendimento mensal representado por um valor decimal (EX: 5% = 0.05)
-    private Double rendimento_mensal;
+    //Acesso atomico ao atributo operacoes
+    private static final VarHandle OPERACOES;
+
+    static {
+        try {
+            OPERACOES = MethodHandles.lookup().findVarHandle(Poupanca.class, "operacoes", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    //rendimento mensal em milionesimos (EX: 5% = 0.05 = 50_000)
+    private long rendimento_mensal;
 
     /**
-     * aplica o rendimento mensal ao saldo da poupanca
+     * aplica o rendimento mensal ao saldo da poupanca. O rendimento e
+     * arredondado para o centavo mais proximo e, em caso de empate, para o
+     * centavo par (ver Dinheiro.aplicarTaxa)
      */
     public void aplicarRendimento() {
-        double valor = rendimento_mensal * saldo;
-
-        super.saldo += valor;
-        movimentacoes.add(
-                new Movimentacao("Rendimento",
-                        valor,
-                        LocalDateTime.now(),
-                        ("Rendimento de poupanca na conta de " + super.titular.getNome() + " id: " + super.id),
-                        super.saldo
-                ));
+        long atual;
+        long valor;
+        do {
+            atual = saldo;
+            valor = Dinheiro.aplicarTaxa(atual, rendimento_mensal);
+        } while (!compararETrocarSaldo(atual, atual + valor));
+
+        registrarMovimentacao(TipoMovimentacao.RENDIMENTO, valor, null, atual + valor);
     }
 
     /**
      * saca uma determinada quantia do saldo da conta poupanca
      *
-     * @param valor: valor a ser sacado
-     *
-     * @throws SaldoInsuficienteException se o valor for maior que o saldo
+     * @param valor: valor a ser sacado (em centavos)
      *
-     * @throws ValorInvalidoException se o valor do saque for invalido
-     *
-     * @throws LimiteExcedidoException se o numero de operacoes realizadas for
-     * => ao limite de operacoes da conta
+     * @return SUCESSO, LIMITE_EXCEDIDO, VALOR_INVALIDO ou SALDO_INSUFICIENTE
      */
     @Override
-    public void sacar(Double valor) throws SaldoInsuficienteException, ValorInvalidoException, LimiteExcedidoException {
-        if (limite_operacoes <= operacoes) {
-            throw new LimiteExcedidoException("saque bloqueado!");
+    public ResultadoOperacao tentarSacar(long valor) {
+        if (!reservarOperacao()) {
+            return ResultadoOperacao.LIMITE_EXCEDIDO;
         }
 
         if (valor <= 0) {
-            throw new ValorInvalidoException("menor ou igual a zero!");
+            liberarOperacao();
+            return ResultadoOperacao.VALOR_INVALIDO;
         }
-
-        if (super.saldo < valor) {
-            throw new SaldoInsuficienteException("o valor nao pode ser superior ao saldo!");
+        long saldo_atual = tentarDebitar(valor);
+        if (saldo_atual < 0) {
+            liberarOperacao();
+            return ResultadoOperacao.SALDO_INSUFICIENTE;
         }
 
-        super.saldo -= valor;
-        operacoes++;
-        super.movimentacoes.add(
-                new Movimentacao("Saque",
-                        valor,
-                        LocalDateTime.now(),
-                        ("Saque na conta poupanca de " + super.titular.getNome() + " id: " + super.id),
-                        super.saldo
-                ));
+        registrarMovimentacao(TipoMovimentacao.SAQUE, valor, null, saldo_atual);
+        return ResultadoOperacao.SUCESSO;
     }
 
     /**
-     * deposita um determinado valor na conta
-     *
-     * @param valor valor a ser depositado
-     *
-     * @throws ValorInvalidoException se o valor do deposito for invalido
-     */
-    @Override
-    public void depositar(Double valor) throws ValorInvalidoException {
-        if (valor <= 0) {
-            throw new ValorInvalidoException("menor ou igual a zero!");
-        }
-
-        super.saldo += valor;
-        super.movimentacoes.add(
-                new Movimentacao("Deposito",
-                        valor,
-                        LocalDateTime.now(),
-                        ("Deposito na conta poupanca de " + super.titular.getNome() + " id: " + super.id),
-                        super.saldo
-                ));
-    }
-
-    /**
-     * transferencia de um determinado valor para uma conta destinataria 
+     * transferencia de um determinado valor para uma conta destinataria
      *
      * @param c conta do destinatario
      *
-     * @param valor valor a ser transferido
+     * @param valor valor a ser transferido (em centavos)
      *
-     * @throws SaldoInsuficienteException se o valor for maior que o saldo
-     *
-     * @throws ValorInvalidoException se o valor da transacao for invalido
-     * 
-     * @throws LimiteExcedidoException se o numero de operacoes realizadas for
-     * => ao limite de operacoes da conta
+     * @return SUCESSO, LIMITE_EXCEDIDO, VALOR_INVALIDO ou SALDO_INSUFICIENTE
      */
     @Override
-    public void transferir(Conta c, Double valor) throws SaldoInsuficienteException, ValorInvalidoException, LimiteExcedidoException {
-        if (limite_operacoes <= operacoes) {
-            throw new LimiteExcedidoException("transferencia bloqueada!");
+    public ResultadoOperacao tentarTransferir(Conta c, long valor) {
+        if (!reservarOperacao()) {
+            return ResultadoOperacao.LIMITE_EXCEDIDO;
         }
 
         if (valor <= 0) {
-            throw new ValorInvalidoException("menor ou igual a zero!");
+            liberarOperacao();
+            return ResultadoOperacao.VALOR_INVALIDO;
         }
-
-        if (super.saldo < valor) {
-            throw new SaldoInsuficienteException("o valor nao pode ser superior ao saldo!");
+        long saldo_atual = tentarDebitar(valor);
+        if (saldo_atual < 0) {
+            liberarOperacao();
+            return ResultadoOperacao.SALDO_INSUFICIENTE;
         }
 
-        super.saldo -= valor;
-        c.saldo += valor;
-        operacoes++;
+        concluirTransferencia(c, valor, saldo_atual);
+        return ResultadoOperacao.SUCESSO;
+    }
 
-        c.movimentacoes.add(
-                new Movimentacao("Recebimento de Transferencia",
-                        valor,
-                        LocalDateTime.now(),
-                        ("Transferencia da conta poupanca de id:" + super.id + " para id:" + c.id),
-                        c.saldo
-                )
-        );
+    /**
+     * reserva uma das operacoes permitidas pela conta. A verificacao do limite
+     * e o incremento do contador sao feitos de forma atomica (compare-and-set),
+     * permitindo saques concorrentes sem travas
+     *
+     * @return false se o numero de operacoes realizadas for => ao limite de
+     * operacoes da conta
+     */
+    private boolean reservarOperacao() {
+        int atual;
+        do {
+            atual = operacoes;
+            if (limite_operacoes <= atual) {
+                return false;
+            }
+        } while (!OPERACOES.compareAndSet(this, atual, atual + 1));
+        return true;
+    }
 
-        super.movimentacoes.add(
-                new Movimentacao("Transferencia",
-                        valor,
-                        LocalDateTime.now(),
-                        ("Transferencia da conta poupanca de id:" + super.id + " para id:" + c.id),
-                        super.saldo
-                ));
+    /**
+     * devolve uma operacao reservada por uma transacao que nao foi concluida
+     */
+    private void liberarOperacao() {
+        OPERACOES.getAndAdd(this, -1);
     }
 
     //===== Construtor, toString, getters e setters
-    public Poupanca(Integer limite_operacoes, Double rendimento_mensal, Cliente titular, Double saldo, Long id) {
+    public Poupanca(int limite_operacoes, double rendimento_mensal, Cliente titular, double saldo, Long id) {
         super(titular, saldo, id);
         this.limite_operacoes = limite_operacoes;
         this.operacoes = 0;
-        this.rendimento_mensal = rendimento_mensal;
+        this.rendimento_mensal = Dinheiro.paraMilionesimos(rendimento_mensal);
     }
 
-    public Poupanca(Integer limite_operacoes, Double rendimento_mensal, Cliente titular, Double saldo) {
+    public Poupanca(int limite_operacoes, double rendimento_mensal, Cliente titular, double saldo) {
         super(titular, saldo);
         this.limite_operacoes = limite_operacoes;
         this.operacoes = 0;
-        this.rendimento_mensal = rendimento_mensal;
+        this.rendimento_mensal = Dinheiro.paraMilionesimos(rendimento_mensal);
     }
 
-    public Poupanca(Integer limite_operacoes, Double rendimento_mensal, Double saldo) {
+    public Poupanca(int limite_operacoes, double rendimento_mensal, double saldo) {
         super(null, saldo);
         this.limite_operacoes = limite_operacoes;
         this.operacoes = 0;
-        this.rendimento_mensal = rendimento_mensal;
+        this.rendimento_mensal = Dinheiro.paraMilionesimos(rendimento_mensal);
     }
 
     @Override
@@ -181,22 +162,22 @@ public class Poupanca extends Conta {
         return "Poupanca{"
                 + "id: " + id
                 + ", titular: " + titular.getNome()
-                + ", saldo: " + saldo
-                + ", movimentacoes: " + movimentacoes
+                + ", saldo: " + Dinheiro.formatar(saldo)
+                + ", movimentacoes: " + movimentacoes.size()
                 + ", limite_operacoes: " + limite_operacoes
                 + ", operacoes: " + operacoes
                 + '}';
     }
 
-    public Integer getLimite_operacoes() {
+    public int getLimite_operacoes() {
         return limite_operacoes;
     }
 
-    public void setLimite_operacoes(Integer limite_operacoes) {
+    public void setLimite_operacoes(int limite_operacoes) {
         this.limite_operacoes = limite_operacoes;
     }
 
-    public Integer getOperacoes() {
+    public int getOperacoes() {
         return operacoes;
     }
 
@@ -204,11 +185,15 @@ public class Poupanca extends Conta {
         this.operacoes = operacoes;
     }
 
-    public Double getRendimento_mensal() {
-        return rendimento_mensal;
+    public double getRendimento_mensal() {
+        return Dinheiro.paraTaxa(rendimento_mensal);
     }
 
-    public void setRendimento_mensal(Double rendimento_mensal) {
-        this.rendimento_mensal = rendimento_mensal;
+    public void setRendimento_mensal(double rendimento_mensal) {
+        this.rendimento_mensal = Dinheiro.paraMilionesimos(rendimento_mensal);
+    }
+
+    public long getRendimentoMilionesimos() {
+        return rendimento_mensal;
     }
 }
@@ -0,0 +1,75 @@
+package bancodoo.conta;
+
+import bancodoo.exceptions.LimiteExcedidoException;
+import bancodoo.exceptions.SaldoInsuficienteException;
+import bancodoo.exceptions.ValorInvalidoException;
+
+/**
+ * Enum que representa o resultado de uma operacao executada sem excecoes (ver
+ * Conta.tentarSacar, Banco.tentarSacar e Banco.executarLote). Cada falha
+ * corresponde a uma das excecoes lancadas pelas operacoes individuais do Banco
+ *
+ * @author Vinicius Corbellini
+ */
+public enum ResultadoOperacao {
+    SUCESSO("Operacao realizada com sucesso"),
+    CLIENTE_NAO_ENCONTRADO("Cliente nao encontrado"),
+    CONTA_NAO_ENCONTRADA("Conta nao encontrada"),
+    SALDO_INSUFICIENTE("Saldo insuficiente"),
+    VALOR_INVALIDO("Valor invalido"),
+    VALOR_ACIMA_DO_LIMITE("Valor acima do limite da conta"),
+    LIMITE_EXCEDIDO("Limite de operacoes excedido"),
+    LIMITE_DIARIO_EXCEDIDO("Limite de retiradas das ultimas 24 horas excedido"),
+    EM_ANDAMENTO("Operacao com a mesma chave de idempotencia ainda em andamento");
+
+    //Mensagem exibida ao usuario
+    private final String mensagem;
+
+    /**
+     * lanca a excecao correspondente a falha de uma operacao de conta (usado
+     * pelos metodos sacar, depositar e transferir, que mantem o comportamento
+     * com excecoes)
+     *
+     * @param bloqueio mensagem da LimiteExcedidoException (ex: "saque
+     * bloqueado!")
+     *
+     * @throws SaldoInsuficienteException se o resultado for SALDO_INSUFICIENTE
+     *
+     * @throws ValorInvalidoException se o resultado for VALOR_INVALIDO ou
+     * VALOR_ACIMA_DO_LIMITE
+     *
+     * @throws LimiteExcedidoException se o resultado for LIMITE_EXCEDIDO ou
+     * LIMITE_DIARIO_EXCEDIDO
+     */
+    public void lancarSeFalhou(String bloqueio) throws SaldoInsuficienteException, ValorInvalidoException, LimiteExcedidoException {
+        switch (this) {
+            case SUCESSO -> {
+            }
+            case SALDO_INSUFICIENTE ->
+                throw new SaldoInsuficienteException("o valor nao pode ser superior ao saldo!");
+            case VALOR_INVALIDO ->
+                throw new ValorInvalidoException("menor ou igual a zero!");
+            case VALOR_ACIMA_DO_LIMITE ->
+                throw new ValorInvalidoException("o valor nao pode ser maior que o limite da conta!");
+            case LIMITE_EXCEDIDO ->
+                throw new LimiteExcedidoException(bloqueio);
+            case LIMITE_DIARIO_EXCEDIDO ->
+                throw new LimiteExcedidoException("o valor ultrapassa o limite de retiradas das ultimas 24 horas!");
+            default ->
+                throw new IllegalStateException("Resultado inesperado em uma operacao de conta: " + this);
+        }
+    }
+
+    //===== Construtor e getters
+    private ResultadoOperacao(String mensagem) {
+        this.mensagem = mensagem;
+    }
+
+    public String getMensagem() {
+        return mensagem;
+    }
+
+    public boolean isSucesso() {
+        return this == SUCESSO;
+    }
+}
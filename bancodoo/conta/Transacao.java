@@ -12,29 +12,29 @@ public interface Transacao {
     /**
      * retirada de dinheiro da conta
      * 
-     * @param valor valor a ser sacado
+     * @param valor valor a ser sacado (em centavos)
      * 
      * @throws Exception
      */
-    public void sacar(Double valor) throws Exception;
+    public void sacar(long valor) throws Exception;
     
     /**
      * insercao de dinheiro na conta
      * 
-     * @param valor valor a ser depositado
+     * @param valor valor a ser depositado (em centavos)
      * 
      * @throws java.lang.Exception
      */
-    public void depositar(Double valor) throws Exception;
+    public void depositar(long valor) throws Exception;
     
     /**
      * transferencia de dinheiro de uma conta para outra
      * 
      * @param c conta de destino da transferencia
      * 
-     * @param valor valor a ser transferido
+     * @param valor valor a ser transferido (em centavos)
      * 
      * @throws Exception
      */
-    public void transferir(Conta c, Double valor) throws Exception;
+    public void transferir(Conta c, long valor) throws Exception;
 }
@@ -9,7 +9,9 @@ package bancodoo.exceptions;
  * 
  * @author Vinicius Corbellini
  */
-public class ClienteNotFoundException extends Exception{
+public class ClienteNotFoundException extends ExcecaoNegocio {
+
+    private static final long serialVersionUID = 1L;
     
     /**
      * Construtor vazio com mensagem padrao da excecao
@@ -0,0 +1,25 @@
+package bancodoo.exceptions;
+
+/**
+ * Superclasse das excecoes personalizadas do sistema. Essas excecoes
+ * representam regras de negocio (ex: saldo insuficiente) e podem ser lancadas
+ * com frequencia, por isso nao capturam a pilha de chamadas (stack trace), que
+ * e a parte mais cara da criacao de uma excecao
+ *
+ * Exigencias do trabalho implementadas por essa classe:
+ * - Heranca
+ * - Tratamento de excecoes (Excecao personalizada)
+ *
+ * @author Vinicius Corbellini
+ */
+public abstract class ExcecaoNegocio extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message mensagem da excecao
+     */
+    protected ExcecaoNegocio(String message) {
+        super(message, null, false, false);
+    }
+}
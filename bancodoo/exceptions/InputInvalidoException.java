@@ -9,7 +9,9 @@ package bancodoo.exceptions;
  * 
  * @author Vinicius Corbellini
  */
-public class InputInvalidoException extends Exception{
+public class InputInvalidoException extends ExcecaoNegocio {
+
+    private static final long serialVersionUID = 1L;
 
     /**
      * Construtor vazio com mensagem padrao da excecao
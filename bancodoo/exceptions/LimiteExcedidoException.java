@@ -9,7 +9,9 @@ package bancodoo.exceptions;
  * 
  * @author Vinicius Corbellini
  */
-public class LimiteExcedidoException extends Exception{
+public class LimiteExcedidoException extends ExcecaoNegocio {
+
+    private static final long serialVersionUID = 1L;
 
     /**
      * Construtor vazio com mensagem padrao da excecao
@@ -9,7 +9,9 @@ package bancodoo.exceptions;
  * 
  * @author Vinicius Corbellini
  */
-public class SaldoInsuficienteException extends Exception{
+public class SaldoInsuficienteException extends ExcecaoNegocio {
+
+    private static final long serialVersionUID = 1L;
     
     /**
      * Construtor vazio com mensagem padrao da excecao
@@ -0,0 +1,222 @@
+package bancodoo.movimentacao;
+
+import bancodoo.conta.Dinheiro;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Classe que mantem os totais das movimentacoes de uma conta por dia e por
+ * mes (quantidade e soma dos valores de cada tipo de movimentacao). Os totais
+ * sao atualizados a cada movimentacao registrada (ver
+ * Conta.registrarMovimentacao), de forma que consultar o total de um dia ou
+ * de um mes nao percorre o historico.
+ *
+ * Apenas os dias e meses com movimentacoes ocupam memoria, em vetores de long
+ * ordenados pela data (sem objetos por dia). Como as movimentacoes sao
+ * registradas em ordem de data, cada registro soma no ultimo dia e no ultimo
+ * mes dos vetores em tempo constante; a consulta de um dia ou mes anterior e
+ * feita por busca binaria.
+ *
+ * @author Vinicius Corbellini
+ */
+public class Agregados {
+
+    //Quantidade de tipos de movimentacao
+    private static final int TIPOS = TipoMovimentacao.values().length;
+
+    //Posicoes de cada dia/mes nos vetores: quantidades em [0, TIPOS) e somas
+    //em [TIPOS, 2 * TIPOS), indexadas por TipoMovimentacao.ordinal()
+    private static final int LARGURA = 2 * TIPOS;
+
+    //Fuso horario usado para separar os dias
+    private final ZoneId fuso;
+
+    //Totais por dia (chave LocalDate.toEpochDay) e por mes (chave ano * 12 +
+    //mes - 1)
+    private final Serie dias = new Serie();
+    private final Serie meses = new Serie();
+
+    //Dia da ultima movimentacao registrada: intervalo [inicio_dia, fim_dia)
+    //em milissegundos e posicoes do dia e do mes nos vetores
+    private long inicio_dia = Long.MAX_VALUE;
+    private long fim_dia = Long.MIN_VALUE;
+    private int dia_atual;
+    private int mes_atual;
+
+    /**
+     * soma uma movimentacao aos totais do seu dia e do seu mes
+     *
+     * @param tipo tipo da movimentacao
+     *
+     * @param valor valor em centavos
+     *
+     * @param dt_hora data e hora em milissegundos desde 1970-01-01 UTC
+     */
+    public synchronized void registrar(TipoMovimentacao tipo, long valor, long dt_hora) {
+        if (dt_hora < inicio_dia || dt_hora >= fim_dia) {
+            trocarDia(dt_hora);
+        }
+        int t = tipo.ordinal();
+        dias.somar(dia_atual, t, valor);
+        meses.somar(mes_atual, t, valor);
+    }
+
+    /**
+     * recalcula todos os totais a partir de um historico (ex: historico
+     * reaberto do disco)
+     *
+     * @param historico movimentacoes da conta
+     */
+    public synchronized void recalcular(List<Movimentacao> historico) {
+        dias.limpar();
+        meses.limpar();
+        inicio_dia = Long.MAX_VALUE;
+        fim_dia = Long.MIN_VALUE;
+        for (int i = 0; i < historico.size(); i++) {
+            Movimentacao m = historico.get(i);
+            registrar(m.getTipo(), m.getValor(), m.getDt_hora());
+        }
+    }
+
+    /**
+     * @param dia dia consultado
+     *
+     * @return totais das movimentacoes do dia
+     */
+    public synchronized Totais getDia(LocalDate dia) {
+        return dias.totais(dia.toEpochDay());
+    }
+
+    /**
+     * @param mes mes consultado
+     *
+     * @return totais das movimentacoes do mes
+     */
+    public synchronized Totais getMes(YearMonth mes) {
+        return meses.totais(chaveMes(mes.getYear(), mes.getMonthValue()));
+    }
+
+    /**
+     * passa a acumular os totais no dia de uma movimentacao
+     */
+    private void trocarDia(long dt_hora) {
+        LocalDate dia = Instant.ofEpochMilli(dt_hora).atZone(fuso).toLocalDate();
+        dia_atual = dias.posicao(dia.toEpochDay());
+        mes_atual = meses.posicao(chaveMes(dia.getYear(), dia.getMonthValue()));
+        inicio_dia = dia.atStartOfDay(fuso).toInstant().toEpochMilli();
+        fim_dia = dia.plusDays(1).atStartOfDay(fuso).toInstant().toEpochMilli();
+    }
+
+    private static long chaveMes(int ano, int mes) {
+        return ano * 12L + mes - 1;
+    }
+
+    /**
+     * Vetores ordenados de chaves (dias ou meses) e dos seus totais
+     */
+    private static final class Serie {
+
+        private long[] chaves = new long[1];
+        private long[] valores = new long[LARGURA];
+        private int tamanho;
+
+        /**
+         * @return posicao da chave nos vetores, incluindo-a se necessario.
+         * Chaves maiores que a ultima (o caso comum) sao incluidas no final
+         */
+        int posicao(long chave) {
+            if (tamanho > 0 && chaves[tamanho - 1] == chave) {
+                return tamanho - 1;
+            }
+            int i = tamanho > 0 && chaves[tamanho - 1] < chave ? -(tamanho + 1) : Arrays.binarySearch(chaves, 0, tamanho, chave);
+            if (i >= 0) {
+                return i;
+            }
+
+            i = -(i + 1);
+            if (tamanho == chaves.length) {
+                chaves = Arrays.copyOf(chaves, tamanho * 2);
+                valores = Arrays.copyOf(valores, tamanho * 2 * LARGURA);
+            }
+            System.arraycopy(chaves, i, chaves, i + 1, tamanho - i);
+            System.arraycopy(valores, i * LARGURA, valores, (i + 1) * LARGURA, (tamanho - i) * LARGURA);
+            chaves[i] = chave;
+            Arrays.fill(valores, i * LARGURA, (i + 1) * LARGURA, 0);
+            tamanho++;
+            return i;
+        }
+
+        void somar(int posicao, int tipo, long valor) {
+            valores[posicao * LARGURA + tipo]++;
+            valores[posicao * LARGURA + TIPOS + tipo] += valor;
+        }
+
+        Totais totais(long chave) {
+            int i = Arrays.binarySearch(chaves, 0, tamanho, chave);
+            return new Totais(i < 0 ? new long[LARGURA] : Arrays.copyOfRange(valores, i * LARGURA, (i + 1) * LARGURA));
+        }
+
+        void limpar() {
+            tamanho = 0;
+        }
+    }
+
+    /**
+     * Copia dos totais de um dia ou de um mes
+     */
+    public static class Totais {
+
+        private final long[] valores;
+
+        Totais(long[] valores) {
+            this.valores = valores;
+        }
+
+        /**
+         * @param tipo tipo da movimentacao
+         *
+         * @return quantidade de movimentacoes do tipo
+         */
+        public long getQuantidade(TipoMovimentacao tipo) {
+            return valores[tipo.ordinal()];
+        }
+
+        /**
+         * @param tipo tipo da movimentacao
+         *
+         * @return soma dos valores das movimentacoes do tipo, em centavos
+         */
+        public long getSoma(TipoMovimentacao tipo) {
+            return valores[TIPOS + tipo.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Totais{");
+            for (TipoMovimentacao t : TipoMovimentacao.values()) {
+                if (t.ordinal() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(t.getRotulo()).append(": ").append(getQuantidade(t))
+                        .append(" (R$").append(Dinheiro.formatar(getSoma(t))).append(")");
+            }
+            return sb.append('}').toString();
+        }
+    }
+
+    //===== Construtores
+    public Agregados() {
+        this(ZoneId.systemDefault());
+    }
+
+    /**
+     * @param fuso fuso horario usado para separar os dias
+     */
+    public Agregados(ZoneId fuso) {
+        this.fuso = fuso;
+    }
+}
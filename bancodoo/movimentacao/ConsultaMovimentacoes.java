@@ -0,0 +1,156 @@
+package bancodoo.movimentacao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Classe utilitaria que executa as consultas de extrato sobre o historico de
+ * uma conta (lista em memoria, historico mapeado ou circular). O historico e
+ * percorrido por posicao, sem copia, de forma que a consulta usa memoria
+ * constante e as primeiras movimentacoes ficam disponiveis imediatamente.
+ * Se o filtro tiver um periodo, as posicoes do inicio e do fim do periodo sao
+ * encontradas por busca binaria na data, e apenas as movimentacoes do periodo
+ * sao lidas.
+ *
+ * O cursor de paginacao e a posicao do historico onde a proxima pagina
+ * comeca. Como as movimentacoes so sao acrescentadas no final, o cursor
+ * continua valido mesmo que novas movimentacoes sejam registradas entre uma
+ * pagina e outra.
+ *
+ * @author Vinicius Corbellini
+ */
+public final class ConsultaMovimentacoes {
+
+    /**
+     * consulta as movimentacoes de um historico que atendem ao filtro
+     *
+     * @param historico movimentacoes da conta (ver Conta.getMovimentacoes)
+     *
+     * @param filtro filtro da consulta
+     *
+     * @param cursor posicao do historico onde a consulta comeca (0 = desde a
+     * mais antiga)
+     *
+     * @return stream sequencial e preguicosa das movimentacoes, em ordem de
+     * registro. Movimentacoes registradas depois da criacao da stream nao sao
+     * incluidas
+     */
+    public static Stream<Movimentacao> consultar(List<Movimentacao> historico, FiltroMovimentacao filtro, int cursor) {
+        int fim = fimDoPeriodo(historico, filtro);
+        int inicio = Math.max(cursor, inicioDoPeriodo(historico, filtro));
+        Spliterator<Movimentacao> s = new Spliterators.AbstractSpliterator<>(Math.max(fim - inicio, 0),
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            private int i = inicio;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super Movimentacao> acao) {
+                while (i < fim) {
+                    Movimentacao m = aceitar(historico, i++, filtro);
+                    if (m != null) {
+                        acao.accept(m);
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+        return StreamSupport.stream(s, false);
+    }
+
+    /**
+     * consulta uma pagina das movimentacoes de um historico que atendem ao
+     * filtro
+     *
+     * @param historico movimentacoes da conta (ver Conta.getMovimentacoes)
+     *
+     * @param filtro filtro da consulta
+     *
+     * @param cursor cursor devolvido pela pagina anterior (0 na primeira
+     * pagina)
+     *
+     * @param limite quantidade maxima de movimentacoes da pagina
+     *
+     * @return pagina com as movimentacoes e o cursor da proxima pagina
+     *
+     * @throws IllegalArgumentException se o cursor for negativo ou o limite
+     * for menor que 1
+     */
+    public static PaginaMovimentacoes paginar(List<Movimentacao> historico, FiltroMovimentacao filtro, int cursor, int limite) {
+        if (cursor < 0 || limite < 1) {
+            throw new IllegalArgumentException("Cursor ou tamanho de pagina invalido!");
+        }
+
+        int fim = fimDoPeriodo(historico, filtro);
+        List<Movimentacao> pagina = new ArrayList<>(Math.min(limite, 1024));
+        int i = Math.max(cursor, inicioDoPeriodo(historico, filtro));
+        while (i < fim && pagina.size() < limite) {
+            Movimentacao m = aceitar(historico, i++, filtro);
+            if (m != null) {
+                pagina.add(m);
+            }
+        }
+        return new PaginaMovimentacoes(pagina, i < fim ? i : PaginaMovimentacoes.FIM);
+    }
+
+    /**
+     * busca binaria pela primeira movimentacao registrada a partir de uma data.
+     * Depende de o historico estar em ordem de data (ver
+     * Conta.registrarMovimentacao)
+     *
+     * @param historico movimentacoes da conta
+     *
+     * @param dt_hora data e hora em milissegundos desde 1970-01-01 UTC
+     *
+     * @return posicao da primeira movimentacao com data >= dt_hora
+     * (historico.size() se nao houver nenhuma)
+     */
+    public static int procurarData(List<Movimentacao> historico, long dt_hora) {
+        if (historico instanceof Historico h) {
+            return h.procurarData(dt_hora);
+        }
+        int inicio = 0;
+        int fim = historico.size();
+        while (inicio < fim) {
+            int meio = (inicio + fim) >>> 1;
+            if (historico.get(meio).getDt_hora() < dt_hora) {
+                inicio = meio + 1;
+            } else {
+                fim = meio;
+            }
+        }
+        return inicio;
+    }
+
+    /**
+     * @return posicao da primeira movimentacao do periodo do filtro
+     */
+    private static int inicioDoPeriodo(List<Movimentacao> historico, FiltroMovimentacao filtro) {
+        return filtro.getInicio() == Long.MIN_VALUE ? 0 : procurarData(historico, filtro.getInicio());
+    }
+
+    /**
+     * @return posicao seguinte a ultima movimentacao do periodo do filtro
+     */
+    private static int fimDoPeriodo(List<Movimentacao> historico, FiltroMovimentacao filtro) {
+        return filtro.getFim() == Long.MAX_VALUE ? historico.size() : procurarData(historico, filtro.getFim());
+    }
+
+    /**
+     * @return a movimentacao da posicao i se ela atender ao filtro ou null
+     */
+    private static Movimentacao aceitar(List<Movimentacao> historico, int i, FiltroMovimentacao filtro) {
+        if (historico instanceof Historico h) {
+            return h.getSeAceita(i, filtro);
+        }
+        Movimentacao m = historico.get(i);
+        return filtro.aceita(m) ? m : null;
+    }
+
+    private ConsultaMovimentacoes() {
+    }
+}
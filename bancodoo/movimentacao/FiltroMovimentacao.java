@@ -0,0 +1,116 @@
+package bancodoo.movimentacao;
+
+import java.util.EnumSet;
+
+/**
+ * Classe que define quais movimentacoes de um historico devem ser devolvidas
+ * por uma consulta de extrato (ver Conta.consultarMovimentacoes). Por padrao o
+ * filtro aceita todas as movimentacoes; cada metodo restringe um criterio e
+ * devolve o proprio filtro, permitindo encadear as chamadas. Ex:
+ *
+ * FiltroMovimentacao.todas().periodo(inicio, fim).tipos(TipoMovimentacao.SAQUE)
+ *
+ * @author Vinicius Corbellini
+ */
+public class FiltroMovimentacao {
+
+    //Periodo [inicio, fim) em milissegundos desde 1970-01-01 UTC
+    private long inicio = Long.MIN_VALUE;
+    private long fim = Long.MAX_VALUE;
+
+    //Tipos aceitos (null = todos)
+    private EnumSet<TipoMovimentacao> tipos;
+
+    //Intervalo de valores aceitos [valor_min, valor_max], em centavos
+    private long valor_min = Long.MIN_VALUE;
+    private long valor_max = Long.MAX_VALUE;
+
+    /**
+     * @return filtro que aceita todas as movimentacoes
+     */
+    public static FiltroMovimentacao todas() {
+        return new FiltroMovimentacao();
+    }
+
+    /**
+     * restringe o filtro as movimentacoes de um periodo
+     *
+     * @param inicio inicio do periodo (inclusivo), em milissegundos desde
+     * 1970-01-01 UTC
+     *
+     * @param fim fim do periodo (exclusivo)
+     *
+     * @return o proprio filtro
+     */
+    public FiltroMovimentacao periodo(long inicio, long fim) {
+        this.inicio = inicio;
+        this.fim = fim;
+        return this;
+    }
+
+    /**
+     * restringe o filtro a alguns tipos de movimentacao
+     *
+     * @param tipos tipos aceitos
+     *
+     * @return o proprio filtro
+     */
+    public FiltroMovimentacao tipos(TipoMovimentacao... tipos) {
+        this.tipos = EnumSet.noneOf(TipoMovimentacao.class);
+        for (TipoMovimentacao t : tipos) {
+            this.tipos.add(t);
+        }
+        return this;
+    }
+
+    /**
+     * restringe o filtro a um intervalo de valores
+     *
+     * @param valor_min menor valor aceito (inclusivo), em centavos
+     *
+     * @param valor_max maior valor aceito (inclusivo), em centavos
+     *
+     * @return o proprio filtro
+     */
+    public FiltroMovimentacao valores(long valor_min, long valor_max) {
+        this.valor_min = valor_min;
+        this.valor_max = valor_max;
+        return this;
+    }
+
+    /**
+     * verifica se uma movimentacao atende ao filtro a partir dos seus
+     * atributos (usado pelos historicos que nao guardam objetos Movimentacao)
+     *
+     * @param tipo tipo da movimentacao
+     *
+     * @param valor valor em centavos
+     *
+     * @param dt_hora data e hora em milissegundos desde 1970-01-01 UTC
+     *
+     * @return true se a movimentacao for aceita
+     */
+    public boolean aceita(TipoMovimentacao tipo, long valor, long dt_hora) {
+        return dt_hora >= inicio && dt_hora < fim
+                && valor >= valor_min && valor <= valor_max
+                && (tipos == null || tipos.contains(tipo));
+    }
+
+    /**
+     * @param m movimentacao
+     *
+     * @return true se a movimentacao for aceita
+     */
+    public boolean aceita(Movimentacao m) {
+        return aceita(m.getTipo(), m.getValor(), m.getDt_hora());
+    }
+
+    //===== Getters
+    public long getInicio() {
+        return inicio;
+    }
+
+    public long getFim() {
+        return fim;
+    }
+}
@@ -0,0 +1,98 @@
+package bancodoo.movimentacao;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Classe abstrata dos historicos de movimentacoes que substituem a lista em
+ * memoria de uma conta (ver Conta.usarHistoricoMapeado e
+ * Conta.usarHistoricoCircular). O historico e uma lista somente leitura, em
+ * ordem de registro (0 = mais antiga); novas movimentacoes sao acrescentadas
+ * pelo metodo acrescentar (ver Conta.registrarMovimentacao).
+ *
+ * Como as movimentacoes sao acrescentadas em ordem de data (ver
+ * Conta.registrarMovimentacao), o historico pode ser consultado por busca
+ * binaria na data (ver procurarData).
+ *
+ * Exigencias do trabalho implementadas por essa classe:
+ * - heranca
+ * - Collections
+ *
+ * @author Vinicius Corbellini
+ */
+public abstract class Historico extends AbstractList<Movimentacao> implements RandomAccess {
+
+    /**
+     * acrescenta uma movimentacao ao final do historico
+     *
+     * @param tipo tipo da movimentacao
+     *
+     * @param valor valor em centavos
+     *
+     * @param dt_hora data e hora em milissegundos desde 1970-01-01 UTC
+     *
+     * @param contraparte id da outra conta de uma transferencia (0 se nao
+     * houver)
+     *
+     * @param origem_poupanca true se a conta de origem for uma poupanca
+     *
+     * @param saldo_atual saldo da conta apos a movimentacao, em centavos
+     *
+     * @return data e hora gravada: dt_hora ou, se for anterior, a data da
+     * ultima movimentacao do historico
+     */
+    public abstract long acrescentar(TipoMovimentacao tipo, long valor, long dt_hora, long contraparte, boolean origem_poupanca, long saldo_atual);
+
+    /**
+     * grava em disco as movimentacoes do historico que ainda nao foram
+     * gravadas (se o historico tiver uma parte em disco)
+     */
+    public abstract void forcar();
+
+    /**
+     * libera os recursos do historico (ex: arquivos abertos) quando a conta
+     * sai da memoria (ver HistoricoArquivo). O historico continua utilizavel e
+     * reabre o que precisar
+     */
+    public void fechar() {
+    }
+
+    /**
+     * devolve a movimentacao de uma posicao somente se ela atender ao filtro
+     * (ver ConsultaMovimentacoes). Os historicos que guardam as movimentacoes
+     * em colunas podem sobrescrever o metodo para verificar o filtro sem
+     * montar o objeto
+     *
+     * @param i posicao da movimentacao (0 = mais antiga)
+     *
+     * @param filtro filtro da consulta
+     *
+     * @return a movimentacao ou null se ela nao atender ao filtro
+     */
+    public Movimentacao getSeAceita(int i, FiltroMovimentacao filtro) {
+        Movimentacao m = get(i);
+        return filtro.aceita(m) ? m : null;
+    }
+
+    /**
+     * busca binaria pela primeira movimentacao registrada a partir de uma data
+     *
+     * @param dt_hora data e hora em milissegundos desde 1970-01-01 UTC
+     *
+     * @return posicao da primeira movimentacao com data >= dt_hora (size() se
+     * nao houver nenhuma)
+     */
+    public int procurarData(long dt_hora) {
+        int inicio = 0;
+        int fim = size();
+        while (inicio < fim) {
+            int meio = (inicio + fim) >>> 1;
+            if (get(meio).getDt_hora() < dt_hora) {
+                inicio = meio + 1;
+            } else {
+                fim = meio;
+            }
+        }
+        return inicio;
+    }
+}
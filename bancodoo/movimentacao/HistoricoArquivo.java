@@ -0,0 +1,241 @@
+package bancodoo.movimentacao;
+
+import bancodoo.conta.Conta;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Classe que armazena o historico de movimentacoes de uma conta em um unico
+ * arquivo, com uma linha de 33 bytes por movimentacao (tipo, valor, data e
+ * hora, conta de contrapartida e saldo apos a movimentacao), usando leituras
+ * e escritas posicionais em vez de mapeamento em memoria.
+ *
+ * E o historico das contas guardadas em um ArmazemClientes, que entram e saem
+ * da memoria o tempo todo: o arquivo e fechado quando a conta sai da memoria
+ * (ver fechar) e reaberto no proximo uso. Os arquivos de um HistoricoMapeado,
+ * ao contrario, so deixam de ser mapeados quando o coletor de lixo descarta o
+ * historico, e o sistema operacional limita a quantidade de mapeamentos por
+ * processo.
+ *
+ * As leituras sao feitas em blocos de LINHAS_POR_LEITURA movimentacoes, de
+ * forma que percorrer o historico em ordem le o arquivo sequencialmente.
+ *
+ * @author Vinicius Corbellini
+ */
+public class HistoricoArquivo extends Historico {
+
+    //Quantidade de movimentacoes lidas do arquivo por vez
+    public static final int LINHAS_POR_LEITURA = 128;
+
+    //Bytes de cada movimentacao: tipo, valor, data, contrapartida e saldo
+    private static final int LINHA = 1 + Long.BYTES * 4;
+
+    //Marca, no codigo do tipo, que a conta de origem da movimentacao e uma
+    //poupanca (mesmo formato do HistoricoMapeado)
+    private static final int ORIGEM_POUPANCA = 0x40;
+
+    //Conta dona do historico (usada para montar as movimentacoes)
+    private final Conta conta;
+
+    private final Path arquivo;
+
+    //Aberto no primeiro uso e fechado por fechar
+    private FileChannel canal;
+
+    //Quantidade de movimentacoes gravadas
+    private volatile int tamanho;
+
+    //Data da ultima movimentacao (Long.MIN_VALUE enquanto nao for lida)
+    private long ultima_data = Long.MIN_VALUE;
+
+    //Ultimo bloco lido: linhas [inicio_leitura, inicio_leitura + linhas_lidas)
+    private final ByteBuffer leitura = ByteBuffer.allocate(LINHAS_POR_LEITURA * LINHA);
+    private int inicio_leitura = -1;
+    private int linhas_lidas;
+
+    /**
+     * acrescenta uma movimentacao ao final do arquivo
+     *
+     * @throws UncheckedIOException se o arquivo nao puder ser gravado
+     */
+    @Override
+    public synchronized long acrescentar(TipoMovimentacao tipo, long valor, long dt_hora, long contraparte, boolean origem_poupanca, long saldo_atual) {
+        int i = tamanho;
+        try {
+            if (i > 0) {
+                //mantem as datas em ordem para a busca binaria
+                if (ultima_data == Long.MIN_VALUE) {
+                    ultima_data = leitura.getLong(linha(i - 1) + 1 + Long.BYTES);
+                }
+                dt_hora = Math.max(dt_hora, ultima_data);
+            }
+
+            ByteBuffer b = ByteBuffer.allocate(LINHA);
+            b.put((byte) (tipo.getCodigo() | (origem_poupanca ? ORIGEM_POUPANCA : 0)));
+            b.putLong(valor);
+            b.putLong(dt_hora);
+            b.putLong(contraparte);
+            b.putLong(saldo_atual);
+            b.flip();
+            long posicao = (long) i * LINHA;
+            FileChannel c = abrir();
+            while (b.hasRemaining()) {
+                posicao += c.write(b, posicao);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Nao foi possivel gravar o historico da conta " + conta.getId(), e);
+        }
+        ultima_data = dt_hora;
+        tamanho = i + 1;
+        return dt_hora;
+    }
+
+    /**
+     * monta a movimentacao de uma posicao a partir da linha do arquivo
+     *
+     * @param i posicao da movimentacao (0 = mais antiga)
+     *
+     * @return movimentacao
+     */
+    @Override
+    public synchronized Movimentacao get(int i) {
+        Objects.checkIndex(i, tamanho);
+        int p = lerLinha(i);
+        int codigo = leitura.get(p);
+        Long id = conta.getId();
+
+        return new Movimentacao(TipoMovimentacao.deCodigo(codigo & ~ORIGEM_POUPANCA),
+                leitura.getLong(p + 1),
+                leitura.getLong(p + 1 + Long.BYTES),
+                id == null ? 0 : id,
+                leitura.getLong(p + 1 + Long.BYTES * 2),
+                (codigo & ORIGEM_POUPANCA) != 0,
+                conta.getTitular(),
+                leitura.getLong(p + 1 + Long.BYTES * 3));
+    }
+
+    /**
+     * verifica o filtro lendo apenas o tipo, o valor e a data da linha
+     */
+    @Override
+    public synchronized Movimentacao getSeAceita(int i, FiltroMovimentacao filtro) {
+        Objects.checkIndex(i, tamanho);
+        int p = lerLinha(i);
+        int codigo = leitura.get(p);
+        if (!filtro.aceita(TipoMovimentacao.deCodigo(codigo & ~ORIGEM_POUPANCA),
+                leitura.getLong(p + 1),
+                leitura.getLong(p + 1 + Long.BYTES))) {
+            return null;
+        }
+        return get(i);
+    }
+
+    @Override
+    public int size() {
+        return tamanho;
+    }
+
+    /**
+     * grava em disco as movimentacoes que ainda estao apenas no cache de
+     * paginas do sistema operacional
+     */
+    @Override
+    public synchronized void forcar() {
+        if (canal == null) {
+            return;
+        }
+        try {
+            canal.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Nao foi possivel gravar o historico da conta " + conta.getId(), e);
+        }
+    }
+
+    /**
+     * fecha o arquivo. O historico continua utilizavel e reabre o arquivo no
+     * proximo uso
+     */
+    @Override
+    public synchronized void fechar() {
+        if (canal == null) {
+            return;
+        }
+        try {
+            canal.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Nao foi possivel fechar o historico da conta " + conta.getId(), e);
+        } finally {
+            canal = null;
+            inicio_leitura = -1;
+        }
+    }
+
+    private FileChannel abrir() throws IOException {
+        if (canal == null) {
+            canal = FileChannel.open(arquivo,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        return canal;
+    }
+
+    private int lerLinha(int i) {
+        try {
+            return linha(i);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Nao foi possivel ler o historico da conta " + conta.getId(), e);
+        }
+    }
+
+    /**
+     * garante que a linha i esta no bloco lido
+     *
+     * @return posicao da linha no bloco
+     */
+    private int linha(int i) throws IOException {
+        if (inicio_leitura < 0 || i < inicio_leitura || i >= inicio_leitura + linhas_lidas) {
+            int n = Math.min(LINHAS_POR_LEITURA, tamanho - i);
+            FileChannel c = abrir();
+            leitura.clear();
+            leitura.limit(n * LINHA);
+            long posicao = (long) i * LINHA;
+            while (leitura.hasRemaining()) {
+                if (c.read(leitura, posicao + leitura.position()) < 0) {
+                    inicio_leitura = -1;
+                    throw new EOFException("Historico incompleto: " + arquivo);
+                }
+            }
+            inicio_leitura = i;
+            linhas_lidas = n;
+        }
+        return (i - inicio_leitura) * LINHA;
+    }
+
+    //===== Construtor
+    /**
+     * abre (ou cria) o historico de uma conta. O arquivo so e aberto no
+     * primeiro uso
+     *
+     * @param arquivo arquivo exclusivo do historico da conta
+     *
+     * @param conta conta dona do historico
+     *
+     * @throws IOException se o diretorio do arquivo nao puder ser criado
+     */
+    public HistoricoArquivo(Path arquivo, Conta conta) throws IOException {
+        Files.createDirectories(arquivo.toAbsolutePath().getParent());
+        this.arquivo = arquivo;
+        this.conta = conta;
+        //uma linha incompleta no fim (gravacao interrompida) e ignorada e
+        //sobrescrita pela proxima movimentacao
+        this.tamanho = Files.exists(arquivo) ? (int) (Files.size(arquivo) / LINHA) : 0;
+    }
+}
@@ -0,0 +1,180 @@
+package bancodoo.movimentacao;
+
+import bancodoo.conta.Conta;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * Classe que mantem em memoria apenas as movimentacoes mais recentes de uma
+ * conta, em um buffer circular de tamanho fixo. Quando o buffer esta cheio, a
+ * movimentacao mais antiga e transferida para um arquivo em disco (um
+ * HistoricoMapeado), de forma que a memoria usada pela conta nao cresce com a
+ * idade da conta.
+ *
+ * A lista enxerga as duas partes como um unico historico: as posicoes
+ * [0, arquivadas) estao no arquivo e as demais no buffer. Assim, percorrer o
+ * historico (ex: Banco.listarMovimentacoes) le o arquivo sob demanda e depois
+ * as movimentacoes em memoria, sem copiar o historico inteiro.
+ *
+ * Obs: o conteudo do buffer so vai para o disco quando e transferido para o
+ * arquivo ou quando o metodo arquivar e chamado (ex: antes de desligar o
+ * sistema)
+ *
+ * @author Vinicius Corbellini
+ */
+public class HistoricoCircular extends Historico {
+
+    //Conta dona do historico (usada para montar as movimentacoes)
+    private final Conta conta;
+
+    //Movimentacoes antigas, em disco
+    private final HistoricoMapeado arquivo;
+
+    //Movimentacoes recentes. A mais antiga fica na posicao inicio
+    private final Movimentacao[] buffer;
+    private int inicio;
+    private int quantidade;
+
+    /**
+     * acrescenta uma movimentacao ao final do historico, transferindo a mais
+     * antiga do buffer para o arquivo se o buffer estiver cheio
+     */
+    @Override
+    public synchronized long acrescentar(TipoMovimentacao tipo, long valor, long dt_hora, long contraparte, boolean origem_poupanca, long saldo_atual) {
+        //mantem as datas em ordem para a busca binaria
+        if (quantidade > 0) {
+            dt_hora = Math.max(dt_hora, buffer[(inicio + quantidade - 1) % buffer.length].getDt_hora());
+        } else if (!arquivo.isEmpty()) {
+            dt_hora = Math.max(dt_hora, arquivo.get(arquivo.size() - 1).getDt_hora());
+        }
+        Long id = conta.getId();
+        Movimentacao m = new Movimentacao(tipo, valor, dt_hora, id == null ? 0 : id,
+                contraparte, origem_poupanca, conta.getTitular(), saldo_atual);
+
+        if (quantidade == buffer.length) {
+            transferirMaisAntiga();
+        }
+        buffer[(inicio + quantidade) % buffer.length] = m;
+        quantidade++;
+        return dt_hora;
+    }
+
+    /**
+     * monta a movimentacao de uma posicao, lendo do arquivo ou do buffer
+     *
+     * @param i posicao da movimentacao (0 = mais antiga)
+     *
+     * @return movimentacao
+     */
+    @Override
+    public synchronized Movimentacao get(int i) {
+        int arquivadas = arquivo.size();
+        Objects.checkIndex(i, arquivadas + quantidade);
+        if (i < arquivadas) {
+            return arquivo.get(i);
+        }
+        return buffer[(inicio + i - arquivadas) % buffer.length];
+    }
+
+    @Override
+    public synchronized int size() {
+        return arquivo.size() + quantidade;
+    }
+
+    /**
+     * busca binaria no buffer ou, se a data for anterior a todas as
+     * movimentacoes em memoria, no arquivo (ver Historico.procurarData)
+     */
+    @Override
+    public synchronized int procurarData(long dt_hora) {
+        int arquivadas = arquivo.size();
+        if (quantidade == 0 || dt_hora <= buffer[inicio].getDt_hora()) {
+            return arquivo.procurarData(dt_hora);
+        }
+
+        int ini = 0;
+        int fim = quantidade;
+        while (ini < fim) {
+            int meio = (ini + fim) >>> 1;
+            if (buffer[(inicio + meio) % buffer.length].getDt_hora() < dt_hora) {
+                ini = meio + 1;
+            } else {
+                fim = meio;
+            }
+        }
+        return arquivadas + ini;
+    }
+
+    /**
+     * @return quantidade de movimentacoes que ja foram transferidas para o
+     * arquivo em disco
+     */
+    public int getArquivadas() {
+        return arquivo.size();
+    }
+
+    /**
+     * @return quantidade maxima de movimentacoes mantidas em memoria
+     */
+    public int getCapacidade() {
+        return buffer.length;
+    }
+
+    /**
+     * transfere todas as movimentacoes do buffer para o arquivo e grava o
+     * arquivo em disco
+     */
+    public synchronized void arquivar() {
+        while (quantidade > 0) {
+            transferirMaisAntiga();
+        }
+        arquivo.forcar();
+    }
+
+    /**
+     * grava em disco as movimentacoes ja transferidas para o arquivo
+     */
+    @Override
+    public void forcar() {
+        arquivo.forcar();
+    }
+
+    /**
+     * grava a movimentacao mais antiga do buffer no arquivo e libera a sua
+     * posicao
+     */
+    private void transferirMaisAntiga() {
+        Movimentacao m = buffer[inicio];
+        arquivo.acrescentar(m.getTipo(), m.getValor(), m.getDt_hora(),
+                m.getContraparte(), m.isOrigem_poupanca(), m.getSaldo_atual());
+        buffer[inicio] = null;
+        inicio = (inicio + 1) % buffer.length;
+        quantidade--;
+    }
+
+    //===== Construtor
+    /**
+     * abre (ou cria) o historico de uma conta. Se o diretorio ja possuir um
+     * arquivo, as movimentacoes gravadas nele sao mantidas no inicio do
+     * historico
+     *
+     * @param diretorio diretorio exclusivo do arquivo da conta
+     *
+     * @param conta conta dona do historico
+     *
+     * @param capacidade quantidade maxima de movimentacoes em memoria
+     *
+     * @throws IOException se o arquivo nao puder ser aberto
+     *
+     * @throws IllegalArgumentException se a capacidade for menor que 1
+     */
+    public HistoricoCircular(Path diretorio, Conta conta, int capacidade) throws IOException {
+        if (capacidade < 1) {
+            throw new IllegalArgumentException("A capacidade do historico deve ser maior que zero!");
+        }
+        this.conta = conta;
+        this.arquivo = new HistoricoMapeado(diretorio, conta);
+        this.buffer = new Movimentacao[capacidade];
+    }
+}
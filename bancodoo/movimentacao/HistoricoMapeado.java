@@ -0,0 +1,273 @@
+package bancodoo.movimentacao;
+
+import bancodoo.conta.Conta;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Classe que armazena o historico de movimentacoes de uma conta fora do heap,
+ * em arquivos mapeados em memoria e organizados em colunas (um arquivo por
+ * atributo: tipo, valor, data e hora, conta de contrapartida e saldo apos a
+ * movimentacao). Cada movimentacao ocupa 33 bytes em disco, sem objetos no
+ * heap.
+ *
+ * A classe tambem e uma lista somente leitura das movimentacoes: cada elemento
+ * e montado sob demanda a partir das colunas, de forma que percorrer o
+ * historico nao exige carrega-lo inteiro na memoria. Novas movimentacoes sao
+ * acrescentadas pelo metodo acrescentar (ver Conta.registrarMovimentacao).
+ *
+ * Os arquivos crescem em blocos de ENTRADAS_POR_BLOCO movimentacoes e o
+ * historico ja gravado e reaberto quando a classe e criada sobre um diretorio
+ * existente.
+ *
+ * @author Vinicius Corbellini
+ */
+public class HistoricoMapeado extends Historico {
+
+    //Quantidade de movimentacoes mapeadas por vez em cada coluna
+    public static final int ENTRADAS_POR_BLOCO = 1 << 16;
+
+    //Marca, no codigo do tipo, que a conta de origem da movimentacao e uma
+    //poupanca (usado para descrever os recebimentos de transferencia)
+    private static final int ORIGEM_POUPANCA = 0x40;
+
+    //Nome do arquivo com a quantidade de movimentacoes gravadas
+    private static final String ARQUIVO_TAMANHO = "tamanho.bin";
+
+    //Conta dona do historico (usada para descrever as movimentacoes)
+    private final Conta conta;
+
+    //Colunas do historico
+    private final Coluna tipos;
+    private final Coluna valores;
+    private final Coluna datas;
+    private final Coluna contrapartes;
+    private final Coluna saldos;
+
+    //Quantidade de movimentacoes gravadas, persistida em ARQUIVO_TAMANHO
+    private final MappedByteBuffer meta;
+
+    //Quantidade de movimentacoes visiveis para leitura. So e incrementada
+    //depois que todas as colunas da movimentacao foram escritas
+    private volatile int tamanho;
+
+    /**
+     * acrescenta uma movimentacao ao final do historico
+     *
+     * @param tipo tipo da movimentacao
+     *
+     * @param valor valor em centavos
+     *
+     * @param dt_hora data e hora em milissegundos desde 1970-01-01 UTC
+     *
+     * @param contraparte id da outra conta de uma transferencia (0 se nao
+     * houver)
+     *
+     * @param origem_poupanca true se a conta de origem for uma poupanca
+     *
+     * @param saldo_atual saldo da conta apos a movimentacao, em centavos
+     *
+     * @throws UncheckedIOException se a coluna nao puder ser aumentada
+     */
+    @Override
+    public synchronized long acrescentar(TipoMovimentacao tipo, long valor, long dt_hora, long contraparte, boolean origem_poupanca, long saldo_atual) {
+        int i = tamanho;
+        if (i > 0) {
+            //mantem as datas em ordem para a busca binaria
+            dt_hora = Math.max(dt_hora, data(i - 1));
+        }
+        try {
+            tipos.garantir(i);
+            valores.garantir(i);
+            datas.garantir(i);
+            contrapartes.garantir(i);
+            saldos.garantir(i);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Nao foi possivel aumentar o historico da conta " + conta.getId(), e);
+        }
+
+        tipos.bloco(i).put(tipos.posicao(i), (byte) (tipo.getCodigo() | (origem_poupanca ? ORIGEM_POUPANCA : 0)));
+        valores.bloco(i).putLong(valores.posicao(i), valor);
+        datas.bloco(i).putLong(datas.posicao(i), dt_hora);
+        contrapartes.bloco(i).putLong(contrapartes.posicao(i), contraparte);
+        saldos.bloco(i).putLong(saldos.posicao(i), saldo_atual);
+
+        meta.putLong(0, i + 1);
+        tamanho = i + 1;
+        return dt_hora;
+    }
+
+    /**
+     * monta a movimentacao de uma posicao a partir das colunas
+     *
+     * @param i posicao da movimentacao (0 = mais antiga)
+     *
+     * @return movimentacao
+     */
+    @Override
+    public Movimentacao get(int i) {
+        Objects.checkIndex(i, tamanho);
+        int codigo = tipos.bloco(i).get(tipos.posicao(i));
+        Long id = conta.getId();
+
+        return new Movimentacao(TipoMovimentacao.deCodigo(codigo & ~ORIGEM_POUPANCA),
+                valores.bloco(i).getLong(valores.posicao(i)),
+                data(i),
+                id == null ? 0 : id,
+                contrapartes.bloco(i).getLong(contrapartes.posicao(i)),
+                (codigo & ORIGEM_POUPANCA) != 0,
+                conta.getTitular(),
+                saldos.bloco(i).getLong(saldos.posicao(i)));
+    }
+
+    /**
+     * verifica o filtro lendo apenas as colunas de tipo, valor e data, de
+     * forma que as movimentacoes recusadas nao criam nenhum objeto
+     */
+    @Override
+    public Movimentacao getSeAceita(int i, FiltroMovimentacao filtro) {
+        Objects.checkIndex(i, tamanho);
+        int codigo = tipos.bloco(i).get(tipos.posicao(i));
+        if (!filtro.aceita(TipoMovimentacao.deCodigo(codigo & ~ORIGEM_POUPANCA),
+                valores.bloco(i).getLong(valores.posicao(i)),
+                data(i))) {
+            return null;
+        }
+        return get(i);
+    }
+
+    /**
+     * busca binaria lendo apenas a coluna de datas (ver Historico.procurarData)
+     */
+    @Override
+    public int procurarData(long dt_hora) {
+        int inicio = 0;
+        int fim = tamanho;
+        while (inicio < fim) {
+            int meio = (inicio + fim) >>> 1;
+            if (data(meio) < dt_hora) {
+                inicio = meio + 1;
+            } else {
+                fim = meio;
+            }
+        }
+        return inicio;
+    }
+
+    private long data(int i) {
+        return datas.bloco(i).getLong(datas.posicao(i));
+    }
+
+    @Override
+    public int size() {
+        return tamanho;
+    }
+
+    /**
+     * grava em disco as movimentacoes que ainda estao apenas no cache de
+     * paginas do sistema operacional
+     */
+    @Override
+    public synchronized void forcar() {
+        tipos.forcar();
+        valores.forcar();
+        datas.forcar();
+        contrapartes.forcar();
+        saldos.forcar();
+        meta.force();
+    }
+
+    //===== Construtor
+    /**
+     * abre (ou cria) o historico de uma conta em um diretorio
+     *
+     * @param diretorio diretorio exclusivo do historico da conta
+     *
+     * @param conta conta dona do historico
+     *
+     * @throws IOException se os arquivos nao puderem ser abertos
+     */
+    public HistoricoMapeado(Path diretorio, Conta conta) throws IOException {
+        Files.createDirectories(diretorio);
+        this.conta = conta;
+
+        try (FileChannel canal = FileChannel.open(diretorio.resolve(ARQUIVO_TAMANHO),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            this.meta = canal.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+        }
+        this.tamanho = (int) meta.getLong(0);
+
+        this.tipos = new Coluna(diretorio.resolve("tipo.col"), Byte.BYTES, tamanho);
+        this.valores = new Coluna(diretorio.resolve("valor.col"), Long.BYTES, tamanho);
+        this.datas = new Coluna(diretorio.resolve("dt_hora.col"), Long.BYTES, tamanho);
+        this.contrapartes = new Coluna(diretorio.resolve("contraparte.col"), Long.BYTES, tamanho);
+        this.saldos = new Coluna(diretorio.resolve("saldo.col"), Long.BYTES, tamanho);
+    }
+
+    /**
+     * Coluna de tamanho fixo gravada em um arquivo mapeado em blocos. O vetor
+     * de blocos e substituido (nunca alterado) quando a coluna cresce, de
+     * forma que os leitores nao precisam de trava
+     */
+    private static final class Coluna {
+
+        private final Path arquivo;
+        private final int largura;
+        private volatile MappedByteBuffer[] blocos;
+
+        Coluna(Path arquivo, int largura, int tamanho) throws IOException {
+            this.arquivo = arquivo;
+            this.largura = largura;
+            this.blocos = new MappedByteBuffer[0];
+            if (tamanho > 0) {
+                garantir(tamanho - 1);
+            }
+        }
+
+        /**
+         * mapeia os blocos necessarios para gravar a posicao informada
+         */
+        void garantir(int i) throws IOException {
+            int necessarios = i / ENTRADAS_POR_BLOCO + 1;
+            MappedByteBuffer[] atuais = blocos;
+            if (necessarios <= atuais.length) {
+                return;
+            }
+
+            MappedByteBuffer[] novos = Arrays.copyOf(atuais, necessarios);
+            long tamanho_bloco = (long) ENTRADAS_POR_BLOCO * largura;
+            try (FileChannel canal = FileChannel.open(arquivo,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                for (int b = atuais.length; b < necessarios; b++) {
+                    novos[b] = canal.map(FileChannel.MapMode.READ_WRITE, b * tamanho_bloco, tamanho_bloco);
+                }
+            }
+            blocos = novos;
+        }
+
+        MappedByteBuffer bloco(int i) {
+            return blocos[i / ENTRADAS_POR_BLOCO];
+        }
+
+        int posicao(int i) {
+            return (i % ENTRADAS_POR_BLOCO) * largura;
+        }
+
+        void forcar() {
+            for (MappedByteBuffer b : blocos) {
+                b.force();
+            }
+        }
+    }
+}
@@ -1,44 +1,109 @@
 package bancodoo.movimentacao;
 
+import bancodoo.cliente.Cliente;
+import bancodoo.conta.Dinheiro;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
 /**
  * Classe que representa uma movimentacao monetaria de uma conta
- * 
- * Exigencias do trabalho implementadas por essa classe: 
+ *
+ * Exigencias do trabalho implementadas por essa classe:
  * - Polimorfismo (toString)
- * 
+ *
+ * Obs: a movimentacao guarda apenas o tipo, os valores e os ids das contas
+ * envolvidas. A descricao (detalhes) e montada somente quando e exibida, de
+ * forma que registrar uma movimentacao nao cria nenhuma String
+ *
  * @author Vinicius Corbellini
  */
 public class Movimentacao {
+    //Formato da data e hora exibida no toString
+    private static final DateTimeFormatter FORMATO = DateTimeFormatter.ofPattern("dd/MM/yyyy hh:mm:ss");
+
     //Tipo da movimentacao. Ex: saque, deposito, etc
-    private String tipo;
-   
-    //valor
-    private Double valor;
-    
-    //Data e hora da transacao
-    private LocalDateTime dt_hora;
-    
-    //Detalhes da movimentacao. Ex: nome do destinatario de uma tranferencia
-    private String detalhes;
-    
-    //Saldo atual da conta
-    private Double saldo_atual;
-
-    
-    //===== Construtor e toString
-    public Movimentacao(String tipo, Double valor, LocalDateTime dt_hora, String detalhes, Double saldo_atual) {
+    private TipoMovimentacao tipo;
+
+    //valor em centavos
+    private long valor;
+
+    //Data e hora da transacao, em milissegundos desde 1970-01-01 UTC
+    private long dt_hora;
+
+    //Id da conta que possui a movimentacao
+    private long conta;
+
+    //Id da outra conta de uma transferencia (0 se nao houver)
+    private long contraparte;
+
+    //true se a conta de origem da movimentacao for uma poupanca (em um
+    //recebimento de transferencia, a origem e a contraparte)
+    private boolean origem_poupanca;
+
+    //Titular da conta (usado apenas na descricao)
+    private Cliente titular;
+
+    //Saldo atual da conta em centavos
+    private long saldo_atual;
+
+    /**
+     * monta a descricao da movimentacao. Ex: nome do destinatario de uma
+     * tranferencia
+     *
+     * @return detalhes da movimentacao
+     */
+    public String getDetalhes() {
+        return tipo.descrever(origem_poupanca ? "poupanca" : "corrente",
+                titular == null ? null : titular.getNome(),
+                conta,
+                contraparte);
+    }
+
+    //===== Construtor, toString e getters
+    public Movimentacao(TipoMovimentacao tipo, long valor, long dt_hora, long conta, long contraparte, boolean origem_poupanca, Cliente titular, long saldo_atual) {
         this.tipo = tipo;
         this.valor = valor;
         this.dt_hora = dt_hora;
-        this.detalhes = detalhes;
+        this.conta = conta;
+        this.contraparte = contraparte;
+        this.origem_poupanca = origem_poupanca;
+        this.titular = titular;
         this.saldo_atual = saldo_atual;
     }
 
     @Override
     public String toString() {
-        return String.format("Movimentacao -> [%s] %s de R$%.2f (%s :: Saldo atual R$%.2f)", dt_hora.format(DateTimeFormatter.ofPattern("dd/MM/yyyy hh:mm:ss")), tipo, valor, detalhes, saldo_atual);
+        LocalDateTime data = LocalDateTime.ofInstant(Instant.ofEpochMilli(dt_hora), ZoneId.systemDefault());
+        return String.format("Movimentacao -> [%s] %s de R$%s (%s :: Saldo atual R$%s)", data.format(FORMATO), tipo.getRotulo(), Dinheiro.formatar(valor), getDetalhes(), Dinheiro.formatar(saldo_atual));
+    }
+
+    public TipoMovimentacao getTipo() {
+        return tipo;
+    }
+
+    public long getValor() {
+        return valor;
+    }
+
+    public long getDt_hora() {
+        return dt_hora;
+    }
+
+    public long getConta() {
+        return conta;
+    }
+
+    public long getContraparte() {
+        return contraparte;
+    }
+
+    public boolean isOrigem_poupanca() {
+        return origem_poupanca;
+    }
+
+    public long getSaldo_atual() {
+        return saldo_atual;
     }
 }
@@ -0,0 +1,41 @@
+package bancodoo.movimentacao;
+
+import java.util.List;
+
+/**
+ * Classe que representa uma pagina de uma consulta de extrato (ver
+ * Conta.consultarMovimentacoes). A pagina guarda as movimentacoes encontradas
+ * e o cursor que deve ser informado para buscar a pagina seguinte
+ *
+ * @author Vinicius Corbellini
+ */
+public class PaginaMovimentacoes {
+
+    //Cursor devolvido quando a consulta chegou ao fim do historico (no
+    //momento da consulta)
+    public static final int FIM = -1;
+
+    //Movimentacoes da pagina, em ordem de registro
+    private final List<Movimentacao> movimentacoes;
+
+    //Posicao do historico onde a proxima pagina comeca (FIM se acabou)
+    private final int proximo_cursor;
+
+    //===== Construtor e getters
+    public PaginaMovimentacoes(List<Movimentacao> movimentacoes, int proximo_cursor) {
+        this.movimentacoes = movimentacoes;
+        this.proximo_cursor = proximo_cursor;
+    }
+
+    public List<Movimentacao> getMovimentacoes() {
+        return movimentacoes;
+    }
+
+    public int getProximo_cursor() {
+        return proximo_cursor;
+    }
+
+    public boolean temProxima() {
+        return proximo_cursor != FIM;
+    }
+}
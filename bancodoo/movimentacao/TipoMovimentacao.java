@@ -0,0 +1,90 @@
+package bancodoo.movimentacao;
+
+/**
+ * Enum que representa os tipos de movimentacao de uma conta. Cada tipo possui
+ * um codigo fixo, usado quando a movimentacao e gravada em disco, e o rotulo
+ * exibido nos extratos
+ *
+ * @author Vinicius Corbellini
+ */
+public enum TipoMovimentacao {
+    SAQUE(1, "Saque"),
+    DEPOSITO(2, "Deposito"),
+    TRANSFERENCIA(3, "Transferencia"),
+    RECEBIMENTO_TRANSFERENCIA(4, "Recebimento de Transferencia"),
+    RENDIMENTO(5, "Rendimento");
+
+    //Codigo gravado em disco (nao depende da ordem das constantes)
+    private final byte codigo;
+
+    //Rotulo exibido nos extratos
+    private final String rotulo;
+
+    //Tipos indexados pelo codigo
+    private static final TipoMovimentacao[] POR_CODIGO = new TipoMovimentacao[6];
+
+    static {
+        for (TipoMovimentacao t : values()) {
+            POR_CODIGO[t.codigo] = t;
+        }
+    }
+
+    /**
+     * monta a descricao de uma movimentacao
+     *
+     * @param tipo_origem tipo da conta que originou a movimentacao ("corrente"
+     * ou "poupanca"). Em um recebimento, e o tipo da conta que transferiu
+     *
+     * @param nome nome do titular da conta
+     *
+     * @param id identificador da conta que possui a movimentacao
+     *
+     * @param contraparte identificador da outra conta de uma transferencia
+     *
+     * @return descricao da movimentacao
+     */
+    public String descrever(String tipo_origem, String nome, long id, long contraparte) {
+        return switch (this) {
+            case SAQUE ->
+                "Saque na conta " + tipo_origem + " de " + nome + " id: " + id;
+            case DEPOSITO ->
+                "Deposito na conta " + tipo_origem + " de " + nome + " id: " + id;
+            case RENDIMENTO ->
+                "Rendimento de poupanca na conta de " + nome + " id: " + id;
+            case TRANSFERENCIA ->
+                "Transferencia da conta " + tipo_origem + " de id:" + id + " para id:" + contraparte;
+            case RECEBIMENTO_TRANSFERENCIA ->
+                "Transferencia da conta " + tipo_origem + " de id:" + contraparte + " para id:" + id;
+        };
+    }
+
+    /**
+     * busca o tipo correspondente a um codigo
+     *
+     * @param codigo codigo gravado em disco
+     *
+     * @return tipo da movimentacao
+     *
+     * @throws IllegalArgumentException se o codigo for desconhecido
+     */
+    public static TipoMovimentacao deCodigo(int codigo) {
+        if (codigo <= 0 || codigo >= POR_CODIGO.length) {
+            throw new IllegalArgumentException("Codigo de movimentacao desconhecido: " + codigo);
+        }
+        return POR_CODIGO[codigo];
+    }
+
+    //===== Construtor e getters
+    private TipoMovimentacao(int codigo, String rotulo) {
+        this.codigo = (byte) codigo;
+        this.rotulo = rotulo;
+    }
+
+    public byte getCodigo() {
+        return codigo;
+    }
+
+    public String getRotulo() {
+        return rotulo;
+    }
+}
@@ -0,0 +1,903 @@
+package bancodoo.persistencia;
+
+import bancodoo.banco.Indice;
+import bancodoo.cliente.Cliente;
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.cliente.PessoaJuridica;
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.conta.Dinheiro;
+import bancodoo.conta.Poupanca;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Armazem local dos clientes e contas do banco em disco, usado quando nem
+ * todos os clientes cabem no heap (ver Banco.usarArmazem e CacheClientes).
+ * Cada cliente e gravado junto com as suas contas em um unico registro no fim
+ * do arquivo clientes.dat (o cliente e as contas se referenciam e sao
+ * carregados sempre juntos):
+ *
+ * [int tamanho][byte tipo][corpo][int crc32]
+ *
+ * onde tamanho conta os bytes de tipo e corpo. Uma nova versao do cliente e
+ * acrescentada a cada gravacao e a versao anterior passa a ser lixo, ate que o
+ * arquivo seja compactado (ver compactar).
+ *
+ * Apenas um indice compacto fica em memoria: a posicao do registro mais
+ * recente de cada documento (identificado por dois hashes de 64 bits do
+ * documento normalizado) e de cada conta (pelo id), em tabelas de
+ * enderecamento aberto com vetores primitivos. O indice e reconstruido ao
+ * abrir o armazem, lendo o arquivo do inicio ao fim.
+ *
+ * O historico de movimentacoes de cada conta fica fora do registro, em um
+ * HistoricoArquivo em historicos/<id>.mov, reaberto quando a conta e
+ * carregada (ver prepararHistorico).
+ *
+ * Obs: as gravacoes nao fazem fsync (ver forcar). A durabilidade de cada
+ * operacao continua sendo responsabilidade do Diario
+ *
+ * @author Vinicius Corbellini
+ */
+public class ArmazemClientes implements Closeable {
+
+    //Nome do arquivo de registros dentro do diretorio do armazem
+    public static final String ARQUIVO = "clientes.dat";
+
+    //Diretorio dos historicos das contas dentro do diretorio do armazem
+    public static final String HISTORICOS = "historicos";
+
+    //Tipos de registro
+    private static final byte CLIENTE = 'C';
+    private static final byte REMOCAO = 'R';
+
+    //Bytes do cabecalho (tamanho + tipo) e do rodape (crc32)
+    private static final int CABECALHO = Integer.BYTES + 1;
+    private static final int RODAPE = Integer.BYTES;
+
+    //O arquivo e compactado quando passa desse tamanho e tem mais lixo do que
+    //registros validos
+    private static final long COMPACTAR_ACIMA = 16L << 20;
+
+    private final Path diretorio;
+    private FileChannel canal;
+
+    //Fim do arquivo (posicao do proximo registro)
+    private long fim;
+
+    //Bytes dos registros validos (a versao mais recente de cada cliente)
+    private long bytes_validos;
+
+    //Posicao, tamanho e numero de contas do registro mais recente de cada
+    //documento
+    private Tabela documentos;
+
+    //Posicao do registro do cliente dono de cada conta
+    private Tabela contas;
+
+    private long num_contas;
+    private long maior_id;
+
+    //Leituras em paralelo; gravacoes e compactacao sao exclusivas
+    private final ReentrantReadWriteLock trava = new ReentrantReadWriteLock();
+
+    //Varreduras (paraCadaDocumento) em andamento, durante as quais a
+    //compactacao automatica e adiada (as posicoes dos registros mudariam)
+    private final AtomicInteger varreduras = new AtomicInteger();
+
+    //===== Gravacao
+    /**
+     * grava a versao atual de um cliente e das suas contas, substituindo a
+     * versao anterior (o estado das contas deve ser lido sob as suas travas
+     * por quem chama)
+     *
+     * @param c cliente a ser gravado
+     *
+     * @throws IOException se o registro nao puder ser gravado
+     */
+    public void gravar(Cliente c) throws IOException {
+        byte[] registro = montarRegistro(c);
+        Conta[] contas_cliente = c.getContas().toArray(new Conta[0]);
+        String doc = Indice.normalizarDocumento(c.getDocumento());
+        long h1 = hash1(doc);
+        long h2 = hash2(doc);
+
+        trava.writeLock().lock();
+        try {
+            long posicao = acrescentar(registro);
+            int i = documentos.procurar(h1, h2);
+            if (i >= 0) {
+                bytes_validos -= documentos.tamanhos[i];
+                num_contas -= documentos.num_contas[i];
+            }
+            documentos.colocar(h1, h2, posicao, registro.length, contas_cliente.length);
+            bytes_validos += registro.length;
+            num_contas += contas_cliente.length;
+            for (Conta conta : contas_cliente) {
+                contas.colocar(conta.getId(), 0, posicao, 0, 0);
+                maior_id = Math.max(maior_id, conta.getId());
+            }
+            compactarSeNecessario();
+        } finally {
+            trava.writeLock().unlock();
+        }
+    }
+
+    /**
+     * remove um cliente (e as suas contas) do armazem
+     *
+     * @param documento documento do cliente
+     *
+     * @throws IOException se o registro de remocao nao puder ser gravado
+     */
+    public void remover(String documento) throws IOException {
+        String doc = Indice.normalizarDocumento(documento);
+        long h1 = hash1(doc);
+        long h2 = hash2(doc);
+        byte[] registro = montarRemocao(doc);
+
+        trava.writeLock().lock();
+        try {
+            int i = documentos.procurar(h1, h2);
+            if (i < 0) {
+                return;
+            }
+            acrescentar(registro);
+            bytes_validos -= documentos.tamanhos[i];
+            num_contas -= documentos.num_contas[i];
+            documentos.remover(h1, h2);
+            compactarSeNecessario();
+        } finally {
+            trava.writeLock().unlock();
+        }
+    }
+
+    /**
+     * grava no disco os registros acrescentados (fsync)
+     *
+     * @throws IOException se o arquivo nao puder ser gravado
+     */
+    public void forcar() throws IOException {
+        trava.readLock().lock();
+        try {
+            canal.force(false);
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    //===== Leitura
+    /**
+     * le um cliente e as suas contas, com os historicos reabertos (ver
+     * prepararHistorico)
+     *
+     * @param documento documento do cliente (normalizado ou nao)
+     *
+     * @return novo objeto com o estado gravado ou null se o documento nao
+     * estiver no armazem
+     *
+     * @throws IOException se o registro nao puder ser lido
+     */
+    public Cliente ler(String documento) throws IOException {
+        return ler(documento, true);
+    }
+
+    /**
+     * le um cliente e as suas contas
+     *
+     * @param documento documento do cliente (normalizado ou nao)
+     *
+     * @param historico true para reabrir os historicos das contas, false para
+     * uma copia apenas com o estado (ex: gravacao de um snapshot)
+     *
+     * @return novo objeto com o estado gravado ou null se o documento nao
+     * estiver no armazem
+     *
+     * @throws IOException se o registro nao puder ser lido
+     */
+    public Cliente ler(String documento, boolean historico) throws IOException {
+        String doc = Indice.normalizarDocumento(documento);
+        ByteBuffer registro;
+        trava.readLock().lock();
+        try {
+            int i = documentos.procurar(hash1(doc), hash2(doc));
+            if (i < 0) {
+                return null;
+            }
+            registro = lerRegistro(documentos.posicoes[i], documentos.tamanhos[i]);
+        } finally {
+            trava.readLock().unlock();
+        }
+        return decodificar(registro, historico);
+    }
+
+    /**
+     * @param id identificador de uma conta
+     *
+     * @return documento do cliente dono da conta ou null se a conta nao
+     * estiver no armazem
+     *
+     * @throws IOException se o registro nao puder ser lido
+     */
+    public String procurarDocumento(long id) throws IOException {
+        trava.readLock().lock();
+        try {
+            int i = contas.procurar(id, 0);
+            if (i < 0) {
+                return null;
+            }
+            String doc = lerDocumento(contas.posicoes[i]);
+            //a conta pode ter sido removida do cliente (ou o cliente removido)
+            //depois desse registro
+            int d = documentos.procurar(hash1(doc), hash2(doc));
+            return d >= 0 ? doc : null;
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    /**
+     * le apenas o documento (normalizado) do registro de uma posicao
+     */
+    private String lerDocumento(long posicao) throws IOException {
+        ByteBuffer cabecalho = ByteBuffer.allocate(CABECALHO + Short.BYTES);
+        lerCompleto(cabecalho, posicao);
+        int tamanho = cabecalho.getShort(CABECALHO) & 0xFFFF;
+        ByteBuffer doc = ByteBuffer.allocate(tamanho);
+        lerCompleto(doc, posicao + CABECALHO + Short.BYTES);
+        return new String(doc.array(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param documento documento (normalizado ou nao)
+     *
+     * @return true se houver um cliente com o documento no armazem
+     */
+    public boolean contem(String documento) {
+        String doc = Indice.normalizarDocumento(documento);
+        trava.readLock().lock();
+        try {
+            return documentos.procurar(hash1(doc), hash2(doc)) >= 0;
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recebe cada documento do armazem
+     */
+    @FunctionalInterface
+    public interface Visitante {
+
+        void visitar(String documento) throws IOException;
+    }
+
+    /**
+     * percorre os documentos de todos os clientes do armazem no inicio da
+     * varredura, em ordem de posicao no arquivo. Apenas as posicoes dos
+     * registros (8 bytes por cliente) ficam em memoria durante a varredura,
+     * e cada documento e entregue uma unica vez, mesmo que o cliente seja
+     * gravado de novo durante a varredura
+     *
+     * Obs: clientes incluidos depois do inicio nao sao visitados e clientes
+     * removidos depois do inicio ainda podem ser (ler devolve null)
+     *
+     * @param visitante recebe cada documento (normalizado)
+     *
+     * @throws IOException se o arquivo nao puder ser lido
+     */
+    public void paraCadaDocumento(Visitante visitante) throws IOException {
+        long[] posicoes;
+        varreduras.incrementAndGet();
+        try {
+            trava.readLock().lock();
+            try {
+                posicoes = new long[documentos.ocupadas];
+                int n = 0;
+                for (int i = 0; i < documentos.chaves1.length; i++) {
+                    if (documentos.chaves1[i] != 0) {
+                        posicoes[n++] = documentos.posicoes[i];
+                    }
+                }
+            } finally {
+                trava.readLock().unlock();
+            }
+            Arrays.sort(posicoes);
+
+            //os registros antigos continuam no arquivo enquanto a compactacao
+            //estiver adiada
+            for (long posicao : posicoes) {
+                String doc;
+                trava.readLock().lock();
+                try {
+                    doc = lerDocumento(posicao);
+                } finally {
+                    trava.readLock().unlock();
+                }
+                visitante.visitar(doc);
+            }
+        } finally {
+            varreduras.decrementAndGet();
+        }
+    }
+
+    /**
+     * le o proximo registro valido (versao mais recente de um cliente) a
+     * partir de uma posicao. A posicao do registro e acrescentada no fim do
+     * buffer devolvido
+     */
+    private ByteBuffer proximoValido(long posicao) throws IOException {
+        ByteBuffer cabecalho = ByteBuffer.allocate(CABECALHO);
+        while (posicao < fim) {
+            cabecalho.clear();
+            lerCompleto(cabecalho, posicao);
+            int tamanho = Integer.BYTES + cabecalho.getInt(0) + RODAPE;
+            if (cabecalho.get(Integer.BYTES) == CLIENTE) {
+                String doc = lerDocumento(posicao);
+                int i = documentos.procurar(hash1(doc), hash2(doc));
+                if (i >= 0 && documentos.posicoes[i] == posicao) {
+                    ByteBuffer registro = ByteBuffer.allocate(tamanho + Long.BYTES);
+                    registro.limit(tamanho);
+                    lerCompleto(registro, posicao);
+                    registro.limit(tamanho + Long.BYTES);
+                    registro.putLong(tamanho, posicao);
+                    registro.position(0);
+                    return registro;
+                }
+            }
+            posicao += tamanho;
+        }
+        return null;
+    }
+
+    /**
+     * passa a guardar as movimentacoes de uma conta no diretorio de
+     * historicos do armazem, para que elas nao se percam quando a conta sair
+     * da memoria. Contas que ja possuem movimentacoes em memoria mantem o
+     * historico em memoria (e o perdem quando saem da memoria)
+     *
+     * @param c conta com identificador
+     *
+     * @throws IOException se o historico nao puder ser aberto
+     */
+    public void prepararHistorico(Conta c) throws IOException {
+        if (c.getHistorico() == null && c.getMovimentacoes().isEmpty()) {
+            c.usarHistoricoArquivo(diretorio.resolve(HISTORICOS).resolve(c.getId() + ".mov"));
+        }
+    }
+
+    //===== Compactacao
+    /**
+     * reescreve o arquivo apenas com a versao mais recente de cada cliente,
+     * trocando-o de forma atomica. Chamado automaticamente nas gravacoes
+     * quando o arquivo tem mais lixo do que registros validos
+     *
+     * @throws IOException se o arquivo nao puder ser reescrito
+     */
+    public void compactar() throws IOException {
+        trava.writeLock().lock();
+        try {
+            Path arquivo = diretorio.resolve(ARQUIVO);
+            Path temporario = diretorio.resolve(ARQUIVO + ".tmp");
+            try (FileChannel novo = FileChannel.open(temporario,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                long posicao = 0;
+                long destino = 0;
+                ByteBuffer registro;
+                while ((registro = proximoValido(posicao)) != null) {
+                    int tamanho = registro.limit() - Long.BYTES;
+                    posicao = registro.getLong(tamanho) + tamanho;
+                    registro.limit(tamanho);
+                    while (registro.hasRemaining()) {
+                        destino += novo.write(registro, destino);
+                    }
+                }
+                novo.force(true);
+            }
+            canal.close();
+            Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            abrir();
+        } finally {
+            trava.writeLock().unlock();
+        }
+    }
+
+    private void compactarSeNecessario() throws IOException {
+        if (fim > COMPACTAR_ACIMA && fim > 2 * bytes_validos && varreduras.get() == 0) {
+            compactar();
+        }
+    }
+
+    /**
+     * abre o arquivo e reconstroi o indice. Um registro incompleto ou
+     * corrompido no fim do arquivo (gravacao interrompida) e descartado
+     */
+    private void abrir() throws IOException {
+        canal = FileChannel.open(diretorio.resolve(ARQUIVO),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        documentos = new Tabela();
+        contas = new Tabela();
+        bytes_validos = 0;
+        num_contas = 0;
+
+        long tamanho_arquivo = canal.size();
+        long posicao = 0;
+        CRC32 crc = new CRC32();
+        ByteBuffer cabecalho = ByteBuffer.allocate(Integer.BYTES);
+        while (posicao + CABECALHO + RODAPE <= tamanho_arquivo) {
+            cabecalho.clear();
+            lerCompleto(cabecalho, posicao);
+            int tamanho = cabecalho.getInt(0);
+            if (tamanho < 1 || posicao + Integer.BYTES + tamanho + RODAPE > tamanho_arquivo) {
+                break;
+            }
+            ByteBuffer registro = ByteBuffer.allocate(Integer.BYTES + tamanho + RODAPE);
+            lerCompleto(registro, posicao);
+            crc.reset();
+            crc.update(registro.array(), Integer.BYTES, tamanho);
+            if ((int) crc.getValue() != registro.getInt(Integer.BYTES + tamanho)) {
+                break;
+            }
+            indexar(registro, posicao);
+            posicao += registro.capacity();
+        }
+        if (posicao < tamanho_arquivo) {
+            canal.truncate(posicao);
+        }
+        fim = posicao;
+    }
+
+    /**
+     * atualiza o indice com um registro lido do arquivo ao abrir o armazem
+     */
+    private void indexar(ByteBuffer registro, long posicao) {
+        byte tipo = registro.get(Integer.BYTES);
+        registro.position(CABECALHO);
+        String doc = texto(registro);
+        long h1 = hash1(doc);
+        long h2 = hash2(doc);
+        int i = documentos.procurar(h1, h2);
+        if (i >= 0) {
+            bytes_validos -= documentos.tamanhos[i];
+            num_contas -= documentos.num_contas[i];
+        }
+        if (tipo == REMOCAO) {
+            documentos.remover(h1, h2);
+            return;
+        }
+
+        //documento original, nome, email, tipo e texto extra
+        pularTexto(registro);
+        pularTexto(registro);
+        pularTexto(registro);
+        registro.get();
+        pularTexto(registro);
+        int n = registro.getInt();
+        documentos.colocar(h1, h2, posicao, registro.capacity(), n);
+        bytes_validos += registro.capacity();
+        num_contas += n;
+        for (int c = 0; c < n; c++) {
+            int inicio = registro.position();
+            long id = registro.getLong(inicio + 1);
+            contas.colocar(id, 0, posicao, 0, 0);
+            maior_id = Math.max(maior_id, id);
+            registro.position(inicio + TAMANHO_CONTA);
+            if (registro.get() != 0) {
+                registro.position(registro.position() + JANELA * Long.BYTES);
+            }
+        }
+    }
+
+    //===== Codificacao dos registros
+    //Bytes fixos de cada conta no registro (tipo, id, saldo, parametro,
+    //limite de operacoes, operacoes e lsn), seguidos de um byte que indica se
+    //a janela de saques (JANELA longs) foi gravada
+    private static final int TAMANHO_CONTA = 1 + Long.BYTES * 3 + Integer.BYTES * 2 + Long.BYTES;
+    private static final int JANELA = 26;
+
+    private static byte[] montarRegistro(Cliente c) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeByte(CLIENTE);
+        escrever(out, Indice.normalizarDocumento(c.getDocumento()));
+        if (c instanceof PessoaFisica pf) {
+            escrever(out, pf.getDocumento());
+            escrever(out, pf.getNome());
+            escrever(out, pf.getEmail());
+            out.writeByte(Diario.PESSOA_FISICA);
+            escrever(out, pf.getTelefone());
+        } else {
+            PessoaJuridica pj = (PessoaJuridica) c;
+            escrever(out, pj.getDocumento());
+            escrever(out, pj.getNome());
+            escrever(out, pj.getEmail());
+            out.writeByte(Diario.PESSOA_JURIDICA);
+            escrever(out, pj.getRazaoSocial());
+        }
+
+        Conta[] contas_cliente = c.getContas().toArray(new Conta[0]);
+        out.writeInt(contas_cliente.length);
+        for (Conta conta : contas_cliente) {
+            long[] janela = null;
+            if (conta instanceof Poupanca p) {
+                out.writeByte(Diario.POUPANCA);
+                out.writeLong(conta.getId());
+                out.writeLong(conta.getSaldoCentavos());
+                out.writeLong(p.getRendimentoMilionesimos());
+                out.writeInt(p.getLimite_operacoes());
+                out.writeInt(p.getOperacoes());
+            } else {
+                Corrente corrente = (Corrente) conta;
+                out.writeByte(Diario.CORRENTE);
+                out.writeLong(conta.getId());
+                out.writeLong(conta.getSaldoCentavos());
+                out.writeLong(corrente.getLimiteCentavos());
+                out.writeInt(0);
+                out.writeInt(0);
+                janela = corrente.exportarJanela();
+            }
+            out.writeLong(conta.getLsn());
+            out.writeBoolean(janela != null);
+            if (janela != null) {
+                for (long v : janela) {
+                    out.writeLong(v);
+                }
+            }
+        }
+        out.writeInt(0);
+        return fechar(bytes.toByteArray());
+    }
+
+    private static byte[] montarRemocao(String doc) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeByte(REMOCAO);
+        escrever(out, doc);
+        out.writeInt(0);
+        return fechar(bytes.toByteArray());
+    }
+
+    /**
+     * preenche o tamanho e o crc32 de um registro montado
+     */
+    private static byte[] fechar(byte[] registro) {
+        int tamanho = registro.length - Integer.BYTES - RODAPE;
+        CRC32 crc = new CRC32();
+        crc.update(registro, Integer.BYTES, tamanho);
+        ByteBuffer b = ByteBuffer.wrap(registro);
+        b.putInt(0, tamanho);
+        b.putInt(registro.length - RODAPE, (int) crc.getValue());
+        return registro;
+    }
+
+    /**
+     * monta o cliente e as contas de um registro
+     *
+     * @param historico true para reabrir os historicos das contas
+     */
+    private Cliente decodificar(ByteBuffer r, boolean historico) throws IOException {
+        r.position(CABECALHO);
+        texto(r);
+        String doc = texto(r);
+        String nome = texto(r);
+        String email = texto(r);
+        byte tipo = r.get();
+        String extra = texto(r);
+        Cliente c = tipo == Diario.PESSOA_FISICA
+                ? new PessoaFisica(doc, extra, nome, email)
+                : new PessoaJuridica(doc, extra, nome, email);
+
+        int n = r.getInt();
+        for (int i = 0; i < n; i++) {
+            byte tipo_conta = r.get();
+            long id = r.getLong();
+            long saldo = r.getLong();
+            long parametro = r.getLong();
+            int limite_operacoes = r.getInt();
+            int operacoes = r.getInt();
+            long lsn = r.getLong();
+
+            Conta conta;
+            if (tipo_conta == Diario.POUPANCA) {
+                Poupanca p = new Poupanca(limite_operacoes, Dinheiro.paraTaxa(parametro), 0);
+                p.setOperacoes(operacoes);
+                conta = p;
+            } else {
+                conta = new Corrente(Dinheiro.paraReais(parametro), 0);
+            }
+            if (r.get() != 0) {
+                long[] janela = new long[JANELA];
+                for (int j = 0; j < JANELA; j++) {
+                    janela[j] = r.getLong();
+                }
+                ((Corrente) conta).restaurarJanela(janela);
+            }
+            conta.setId(id);
+            conta.setSaldoCentavos(saldo);
+            conta.setLsn(lsn);
+            if (historico) {
+                prepararHistorico(conta);
+            }
+            c.adicionarConta(conta);
+        }
+        return c;
+    }
+
+    private static String texto(ByteBuffer r) {
+        int tamanho = r.getShort() & 0xFFFF;
+        String s = new String(r.array(), r.arrayOffset() + r.position(), tamanho, StandardCharsets.UTF_8);
+        r.position(r.position() + tamanho);
+        return s;
+    }
+
+    private static void pularTexto(ByteBuffer r) {
+        int tamanho = r.getShort() & 0xFFFF;
+        r.position(r.position() + tamanho);
+    }
+
+    /**
+     * grava um texto em UTF-8 precedido do seu tamanho (no maximo 65535
+     * bytes)
+     */
+    private static void escrever(DataOutputStream out, String texto) throws IOException {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Texto muito longo para o armazem!");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    //===== Acesso ao arquivo
+    private long acrescentar(byte[] registro) throws IOException {
+        long posicao = fim;
+        ByteBuffer b = ByteBuffer.wrap(registro);
+        while (b.hasRemaining()) {
+            canal.write(b, posicao + b.position());
+        }
+        fim += registro.length;
+        return posicao;
+    }
+
+    private ByteBuffer lerRegistro(long posicao, int tamanho) throws IOException {
+        ByteBuffer registro = ByteBuffer.allocate(tamanho);
+        lerCompleto(registro, posicao);
+        return registro;
+    }
+
+    private void lerCompleto(ByteBuffer b, long posicao) throws IOException {
+        int inicio = b.position();
+        while (b.hasRemaining()) {
+            if (canal.read(b, posicao + b.position() - inicio) < 0) {
+                throw new IOException("Fim inesperado do armazem em " + posicao);
+            }
+        }
+        b.flip();
+    }
+
+    //===== Hashes dos documentos
+    //Dois hashes independentes de 64 bits (FNV-1a e polinomial, com a mistura
+    //final do MurmurHash3) identificam o documento sem guardar a String
+    private static long hash1(String doc) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < doc.length(); i++) {
+            h = (h ^ doc.charAt(i)) * 0x100000001b3L;
+        }
+        return misturar(h);
+    }
+
+    private static long hash2(String doc) {
+        long h = doc.length();
+        for (int i = 0; i < doc.length(); i++) {
+            h = h * 0x9E3779B97F4A7C15L + doc.charAt(i);
+        }
+        return misturar(h);
+    }
+
+    private static long misturar(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Tabela de enderecamento aberto (sondagem linear) com chave de dois longs
+     * (a chave1 nunca e zero) e, para cada chave, a posicao, o tamanho e o
+     * numero de contas de um registro. Dobra de tamanho com 75% de ocupacao
+     */
+    private static final class Tabela {
+
+        private long[] chaves1 = new long[16];
+        private long[] chaves2 = new long[16];
+        private long[] posicoes = new long[16];
+        private int[] tamanhos = new int[16];
+        private int[] num_contas = new int[16];
+        private int ocupadas;
+
+        /**
+         * @return posicao da chave na tabela ou -1
+         */
+        int procurar(long chave1, long chave2) {
+            int mascara = chaves1.length - 1;
+            int i = (int) chave1 & mascara;
+            while (chaves1[i] != 0) {
+                if (chaves1[i] == chave1 && chaves2[i] == chave2) {
+                    return i;
+                }
+                i = (i + 1) & mascara;
+            }
+            return -1;
+        }
+
+        void colocar(long chave1, long chave2, long posicao, int tamanho, int contas) {
+            if ((ocupadas + 1) * 4L > chaves1.length * 3L) {
+                crescer();
+            }
+            int mascara = chaves1.length - 1;
+            int i = (int) chave1 & mascara;
+            while (chaves1[i] != 0 && (chaves1[i] != chave1 || chaves2[i] != chave2)) {
+                i = (i + 1) & mascara;
+            }
+            if (chaves1[i] == 0) {
+                ocupadas++;
+            }
+            chaves1[i] = chave1;
+            chaves2[i] = chave2;
+            posicoes[i] = posicao;
+            tamanhos[i] = tamanho;
+            num_contas[i] = contas;
+        }
+
+        /**
+         * remove uma chave, deslocando para tras as chaves seguintes da mesma
+         * sequencia de sondagem (sem marcas de remocao)
+         */
+        void remover(long chave1, long chave2) {
+            int i = procurar(chave1, chave2);
+            if (i < 0) {
+                return;
+            }
+            int mascara = chaves1.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mascara;
+                if (chaves1[j] == 0) {
+                    break;
+                }
+                int ideal = (int) chaves1[j] & mascara;
+                //move j para i se a posicao ideal de j nao estiver entre i e j
+                if (((j - ideal) & mascara) >= ((j - i) & mascara)) {
+                    mover(j, i);
+                    i = j;
+                }
+            }
+            chaves1[i] = 0;
+            ocupadas--;
+        }
+
+        private void mover(int de, int para) {
+            chaves1[para] = chaves1[de];
+            chaves2[para] = chaves2[de];
+            posicoes[para] = posicoes[de];
+            tamanhos[para] = tamanhos[de];
+            num_contas[para] = num_contas[de];
+        }
+
+        private void crescer() {
+            long[] c1 = chaves1;
+            long[] c2 = chaves2;
+            long[] p = posicoes;
+            int[] t = tamanhos;
+            int[] n = num_contas;
+            int novo = c1.length * 2;
+            chaves1 = new long[novo];
+            chaves2 = new long[novo];
+            posicoes = new long[novo];
+            tamanhos = new int[novo];
+            num_contas = new int[novo];
+            ocupadas = 0;
+            for (int i = 0; i < c1.length; i++) {
+                if (c1[i] != 0) {
+                    colocar(c1[i], c2[i], p[i], t[i], n[i]);
+                }
+            }
+        }
+
+        int getOcupadas() {
+            return ocupadas;
+        }
+    }
+
+    //===== Construtor, getters e close
+    /**
+     * abre (ou cria) o armazem de um diretorio
+     *
+     * @param diretorio diretorio exclusivo do armazem
+     *
+     * @throws IOException se o arquivo nao puder ser aberto ou lido
+     */
+    public ArmazemClientes(Path diretorio) throws IOException {
+        Files.createDirectories(diretorio);
+        this.diretorio = diretorio;
+        abrir();
+    }
+
+    public Path getDiretorio() {
+        return diretorio;
+    }
+
+    public int getNum_clientes() {
+        trava.readLock().lock();
+        try {
+            return documentos.getOcupadas();
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    public long getNum_contas() {
+        trava.readLock().lock();
+        try {
+            return num_contas;
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return maior id de conta ja gravado no armazem (0 se nenhum)
+     */
+    public long getMaiorId() {
+        trava.readLock().lock();
+        try {
+            return maior_id;
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return tamanho do arquivo em bytes (registros validos e lixo)
+     */
+    public long getTamanho() {
+        trava.readLock().lock();
+        try {
+            return fim;
+        } finally {
+            trava.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        trava.writeLock().lock();
+        try {
+            canal.force(true);
+            canal.close();
+        } finally {
+            trava.writeLock().unlock();
+        }
+    }
+}
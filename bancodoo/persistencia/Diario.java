@@ -0,0 +1,661 @@
+package bancodoo.persistencia;
+
+import bancodoo.cliente.Cliente;
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.cliente.PessoaJuridica;
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.conta.Poupanca;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Diario (write-ahead log) das operacoes do banco. Cada operacao e gravada como
+ * um registro binario compacto no fim do segmento atual do diario:
+ *
+ * [int tamanho][long lsn][byte tipo][corpo][int crc32]
+ *
+ * onde tamanho conta os bytes de lsn, tipo e corpo, e o crc32 e calculado
+ * sobre esses mesmos bytes. O lsn (log sequence number) e crescente.
+ *
+ * Os registros sao gravados por uma unica thread escritora que junta todos os
+ * registros pendentes em um lote e faz um unico force() (fsync) por lote
+ * (group commit). Quem registra uma operacao recebe o seu lsn e chama
+ * aguardar(lsn) para esperar ate que ela esteja no disco.
+ *
+ * A espera em aguardar nao usa o monitor do diario: uma thread virtual
+ * bloqueada em Object.wait() prende a thread de plataforma que a executa,
+ * enquanto em LockSupport.park() ela e desmontada, de forma que milhares de
+ * operacoes podem aguardar o mesmo fsync sem ocupar milhares de threads do
+ * sistema operacional. As threads que aguardam ficam em uma fila ordenada pelo
+ * lsn e, a cada lote gravado, apenas as threads cujos registros ja estao no
+ * disco sao acordadas.
+ *
+ * O diario e dividido em segmentos (arquivos diario-<primeiro lsn>.log em um
+ * diretorio). Ao gravar um snapshot, o segmento atual e encerrado (ver
+ * rotacionar) e, depois que o snapshot estiver em disco, os segmentos antigos
+ * sao apagados (ver descartarAte), mantendo o diario pequeno.
+ *
+ * @author Vinicius Corbellini
+ */
+public class Diario implements Closeable {
+
+    //===== Tipos de registro
+    public static final byte CLIENTE_ADICIONADO = 1;
+    public static final byte CLIENTE_REMOVIDO = 2;
+    public static final byte CONTA_ADICIONADA = 3;
+    public static final byte CONTA_REMOVIDA = 4;
+    public static final byte DEPOSITO = 5;
+    public static final byte SAQUE = 6;
+    public static final byte TRANSFERENCIA = 7;
+    public static final byte RENDIMENTO = 8;
+
+    //Tipos de cliente e de conta gravados nos registros
+    public static final byte PESSOA_FISICA = 1;
+    public static final byte PESSOA_JURIDICA = 2;
+    public static final byte CORRENTE = 1;
+    public static final byte POUPANCA = 2;
+
+    //Maior texto (em bytes UTF-8) que cabe no tamanho de 16 bits sem sinal
+    //gravado antes de cada texto
+    public static final int TAMANHO_MAXIMO_TEXTO = 0xFFFF;
+
+    //Bytes do cabecalho (tamanho + lsn + tipo) e do rodape (crc32)
+    static final int CABECALHO = Integer.BYTES + Long.BYTES + 1;
+    static final int RODAPE = Integer.BYTES;
+
+    //Prefixo e sufixo dos arquivos de segmento
+    static final String PREFIXO = "diario-";
+    static final String SUFIXO = ".log";
+
+    //Diretorio com os segmentos do diario
+    private final Path diretorio;
+
+    //Canal do segmento atual (usado apenas pela thread escritora)
+    private FileChannel canal;
+
+    //Primeiro lsn do segmento atual
+    private long inicio_segmento;
+
+    //Ultimo lsn do segmento a ser encerrado (-1 se nao houver rotacao pedida)
+    private long rotacao_pendente;
+
+    //Registros aguardando gravacao (protegido pelo monitor do diario)
+    private final ArrayDeque<ByteBuffer> pendentes;
+
+    //Ultimo lsn distribuido e ultimo lsn gravado em disco
+    private long ultimo_lsn;
+    private volatile long lsn_duravel;
+
+    //Erro da thread escritora, repassado para quem aguarda
+    private volatile IOException erro;
+
+    //Threads aguardando a gravacao, ordenadas pelo lsn (ver aguardar)
+    private final ReentrantLock trava_espera = new ReentrantLock();
+    private final PriorityQueue<Espera> esperas = new PriorityQueue<>(Comparator.comparingLong(e -> e.lsn));
+
+    /**
+     * Thread aguardando a gravacao de um registro
+     */
+    private static final class Espera {
+
+        private final long lsn;
+        private final Thread thread;
+
+        Espera(long lsn, Thread thread) {
+            this.lsn = lsn;
+            this.thread = thread;
+        }
+    }
+
+    private boolean fechado;
+
+    //Thread responsavel pela gravacao e pelo fsync dos lotes
+    private final Thread escritor;
+
+    //===== Registro das operacoes
+    /**
+     * registra a inclusao de um cliente
+     *
+     * @param c cliente adicionado
+     *
+     * @return lsn do registro
+     */
+    public long registrarCliente(Cliente c) {
+        boolean pf = c instanceof PessoaFisica;
+        String extra = pf ? ((PessoaFisica) c).getTelefone() : ((PessoaJuridica) c).getRazaoSocial();
+        byte[][] textos = {utf8(c.getDocumento()), utf8(c.getNome()), utf8(c.getEmail()), utf8(extra)};
+
+        ByteBuffer b = novoRegistro(CLIENTE_ADICIONADO, 1 + tamanho(textos));
+        b.put(pf ? PESSOA_FISICA : PESSOA_JURIDICA);
+        for (byte[] t : textos) {
+            putTexto(b, t);
+        }
+        return enfileirar(b);
+    }
+
+    /**
+     * registra a remocao de um cliente. Os ids das suas contas tambem sao
+     * gravados: um snapshot gravado durante a remocao pode nao ter mais o
+     * cliente, e a recuperacao usa os ids para reconhecer os registros
+     * anteriores dessas contas (ver Recuperacao.reaplicar)
+     *
+     * @param documento documento do cliente removido
+     *
+     * @param contas contas que o cliente possuia (pode ser null)
+     *
+     * @return lsn do registro
+     */
+    public long registrarRemocaoCliente(String documento, List<Conta> contas) {
+        byte[] doc = utf8(documento);
+        Conta[] lista = contas == null ? new Conta[0] : contas.toArray(new Conta[0]);
+        ByteBuffer b = novoRegistro(CLIENTE_REMOVIDO, 2 + doc.length + 4 + 8 * lista.length);
+        putTexto(b, doc);
+        b.putInt(lista.length);
+        for (Conta c : lista) {
+            b.putLong(c.getId());
+        }
+        return enfileirar(b);
+    }
+
+    /**
+     * registra a inclusao de uma conta (ja com o id definido pelo banco)
+     *
+     * @param documento documento do titular
+     *
+     * @param c conta adicionada
+     *
+     * @return lsn do registro
+     */
+    public long registrarConta(String documento, Conta c) {
+        byte[] doc = utf8(documento);
+        ByteBuffer b = novoRegistro(CONTA_ADICIONADA, 2 + doc.length + 1 + 8 + 8 + 8 + 4);
+        putTexto(b, doc);
+        if (c instanceof Poupanca p) {
+            b.put(POUPANCA)
+                    .putLong(c.getId())
+                    .putLong(c.getSaldoCentavos())
+                    .putLong(p.getRendimentoMilionesimos())
+                    .putInt(p.getLimite_operacoes());
+        } else {
+            b.put(CORRENTE)
+                    .putLong(c.getId())
+                    .putLong(c.getSaldoCentavos())
+                    .putLong(((Corrente) c).getLimiteCentavos())
+                    .putInt(0);
+        }
+        return enfileirar(b);
+    }
+
+    /**
+     * registra a remocao de uma conta
+     *
+     * @param id identificador da conta removida
+     *
+     * @return lsn do registro
+     */
+    public long registrarRemocaoConta(Long id) {
+        ByteBuffer b = novoRegistro(CONTA_REMOVIDA, 8);
+        b.putLong(id);
+        return enfileirar(b);
+    }
+
+    /**
+     * registra um deposito
+     *
+     * @param id conta que recebeu o deposito
+     *
+     * @param valor valor depositado (em centavos)
+     *
+     * @param saldo saldo da conta apos o deposito (em centavos)
+     *
+     * @return lsn do registro
+     */
+    public long registrarDeposito(Long id, long valor, long saldo) {
+        return registrarOperacao(DEPOSITO, id, valor, saldo);
+    }
+
+    /**
+     * registra um saque
+     *
+     * @param id conta do saque
+     *
+     * @param valor valor sacado (em centavos)
+     *
+     * @param saldo saldo da conta apos o saque (em centavos)
+     *
+     * @return lsn do registro
+     */
+    public long registrarSaque(Long id, long valor, long saldo) {
+        return registrarOperacao(SAQUE, id, valor, saldo);
+    }
+
+    /**
+     * registra a aplicacao do rendimento em uma poupanca
+     *
+     * @param id conta poupanca
+     *
+     * @param valor rendimento aplicado (em centavos)
+     *
+     * @param saldo saldo da conta apos o rendimento (em centavos)
+     *
+     * @return lsn do registro
+     */
+    public long registrarRendimento(Long id, long valor, long saldo) {
+        return registrarOperacao(RENDIMENTO, id, valor, saldo);
+    }
+
+    /**
+     * registra uma transferencia
+     *
+     * @param origem conta remetente
+     *
+     * @param destino conta destinataria
+     *
+     * @param valor valor transferido (em centavos)
+     *
+     * @param saldo_origem saldo da conta remetente apos a transferencia
+     *
+     * @param saldo_destino saldo da conta destinataria apos a transferencia
+     *
+     * @return lsn do registro
+     */
+    public long registrarTransferencia(Long origem, Long destino, long valor, long saldo_origem, long saldo_destino) {
+        ByteBuffer b = novoRegistro(TRANSFERENCIA, 8 * 6);
+        b.putLong(origem)
+                .putLong(destino)
+                .putLong(valor)
+                .putLong(saldo_origem)
+                .putLong(saldo_destino)
+                .putLong(System.currentTimeMillis());
+        return enfileirar(b);
+    }
+
+    private long registrarOperacao(byte tipo, Long id, long valor, long saldo) {
+        ByteBuffer b = novoRegistro(tipo, 8 * 4);
+        b.putLong(id)
+                .putLong(valor)
+                .putLong(saldo)
+                .putLong(System.currentTimeMillis());
+        return enfileirar(b);
+    }
+
+    /**
+     * bloqueia a thread atual ate que o registro com o lsn informado (e todos
+     * os anteriores) estejam gravados em disco
+     *
+     * @param lsn lsn retornado por um dos metodos registrar
+     *
+     * @throws UncheckedIOException se a gravacao do diario falhar
+     */
+    public void aguardar(long lsn) {
+        if (lsn_duravel < lsn && erro == null) {
+            boolean na_fila;
+            trava_espera.lock();
+            try {
+                na_fila = lsn_duravel < lsn && erro == null;
+                if (na_fila) {
+                    esperas.add(new Espera(lsn, Thread.currentThread()));
+                }
+            } finally {
+                trava_espera.unlock();
+            }
+
+            boolean interrompida = false;
+            while (na_fila && lsn_duravel < lsn && erro == null) {
+                LockSupport.park(this);
+                interrompida |= Thread.interrupted();
+            }
+            if (interrompida) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (lsn_duravel < lsn) {
+            throw new UncheckedIOException("Falha ao gravar o diario", erro);
+        }
+    }
+
+    //===== Segmentos
+    /**
+     * encerra o segmento atual: os registros ja distribuidos ficam nos
+     * segmentos antigos e os proximos registros vao para um novo segmento
+     *
+     * @return ultimo lsn gravado nos segmentos antigos
+     *
+     * @throws UncheckedIOException se a gravacao do diario falhar
+     */
+    public synchronized long rotacionar() {
+        long limite = ultimo_lsn;
+        if (inicio_segmento == limite + 1) {
+            //o segmento atual esta vazio
+            return limite;
+        }
+
+        rotacao_pendente = limite;
+        notifyAll();
+        boolean interrompida = false;
+        while (inicio_segmento != limite + 1 && erro == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrompida = true;
+            }
+        }
+        if (interrompida) {
+            Thread.currentThread().interrupt();
+        }
+        if (erro != null) {
+            throw new UncheckedIOException("Falha ao rotacionar o diario", erro);
+        }
+        return limite;
+    }
+
+    /**
+     * apaga os segmentos antigos que possuem apenas registros com lsn menor ou
+     * igual ao informado (ex: registros ja contidos em um snapshot)
+     *
+     * @param lsn ultimo lsn que pode ser descartado
+     *
+     * @throws IOException se algum segmento nao puder ser apagado
+     */
+    public void descartarAte(long lsn) throws IOException {
+        long atual;
+        synchronized (this) {
+            atual = inicio_segmento;
+        }
+        for (Path segmento : segmentos(diretorio)) {
+            long inicio = inicioSegmento(segmento);
+            if (inicio < atual && inicio <= lsn && proximoInicio(segmento) <= lsn + 1) {
+                Files.delete(segmento);
+            }
+        }
+    }
+
+    /**
+     * lista os segmentos de um diretorio em ordem crescente de lsn
+     *
+     * @param diretorio diretorio do diario
+     *
+     * @return segmentos encontrados (vazio se o diretorio nao existir)
+     *
+     * @throws IOException se o diretorio nao puder ser lido
+     */
+    public static List<Path> segmentos(Path diretorio) throws IOException {
+        List<Path> segmentos = new ArrayList<>();
+        if (!Files.isDirectory(diretorio)) {
+            return segmentos;
+        }
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(diretorio, PREFIXO + "*" + SUFIXO)) {
+            ds.forEach(segmentos::add);
+        }
+        segmentos.sort((a, b) -> Long.compare(inicioSegmento(a), inicioSegmento(b)));
+        return segmentos;
+    }
+
+    /**
+     * @return primeiro lsn de um segmento, obtido pelo nome do arquivo
+     */
+    static long inicioSegmento(Path segmento) {
+        String nome = segmento.getFileName().toString();
+        return Long.parseLong(nome.substring(PREFIXO.length(), nome.length() - SUFIXO.length()));
+    }
+
+    /**
+     * @return primeiro lsn do segmento seguinte, ou Long.MAX_VALUE se o
+     * segmento for o ultimo
+     */
+    private long proximoInicio(Path segmento) throws IOException {
+        long inicio = inicioSegmento(segmento);
+        long proximo = Long.MAX_VALUE;
+        for (Path s : segmentos(diretorio)) {
+            long i = inicioSegmento(s);
+            if (i > inicio && i < proximo) {
+                proximo = i;
+            }
+        }
+        return proximo;
+    }
+
+    private FileChannel abrirSegmento(long inicio) throws IOException {
+        return FileChannel.open(diretorio.resolve(String.format("%s%020d%s", PREFIXO, inicio, SUFIXO)),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    //===== Gravacao em lote (group commit)
+    private ByteBuffer novoRegistro(byte tipo, int corpo) {
+        ByteBuffer b = ByteBuffer.allocate(CABECALHO + corpo + RODAPE);
+        b.putInt(Long.BYTES + 1 + corpo);
+        b.putLong(0L);
+        b.put(tipo);
+        return b;
+    }
+
+    /**
+     * atribui o lsn ao registro e o coloca na fila da thread escritora
+     */
+    private synchronized long enfileirar(ByteBuffer b) {
+        if (fechado) {
+            throw new IllegalStateException("O diario ja foi fechado!");
+        }
+        long lsn = ++ultimo_lsn;
+        b.putLong(Integer.BYTES, lsn);
+        pendentes.add(b);
+        notifyAll();
+        return lsn;
+    }
+
+    /**
+     * laco da thread escritora: espera registros, grava todos os pendentes de
+     * uma vez e faz um unico force() para o lote inteiro. Se houver uma
+     * rotacao pedida, os registros ate o limite da rotacao sao gravados no
+     * segmento atual e os demais no novo segmento
+     */
+    private void escrever() {
+        List<ByteBuffer> lote = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        while (true) {
+            long ate;
+            long limite;
+            synchronized (this) {
+                while (pendentes.isEmpty() && rotacao_pendente < 0 && !fechado) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        //a thread so termina quando o diario for fechado
+                    }
+                }
+                if (pendentes.isEmpty() && rotacao_pendente < 0) {
+                    return;
+                }
+                lote.addAll(pendentes);
+                pendentes.clear();
+                ate = ultimo_lsn;
+                limite = rotacao_pendente;
+            }
+
+            try {
+                for (ByteBuffer b : lote) {
+                    crc.reset();
+                    crc.update(b.array(), Integer.BYTES, b.capacity() - Integer.BYTES - RODAPE);
+                    b.putInt(b.capacity() - RODAPE, (int) crc.getValue());
+                    b.rewind();
+                }
+
+                int i = 0;
+                if (limite >= 0) {
+                    while (i < lote.size() && lote.get(i).getLong(Integer.BYTES) <= limite) {
+                        i++;
+                    }
+                    gravar(lote.subList(0, i));
+                    canal.force(false);
+                    canal.close();
+                    canal = abrirSegmento(limite + 1);
+                }
+                gravar(lote.subList(i, lote.size()));
+                canal.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    erro = e;
+                    notifyAll();
+                }
+                avisarGravacao();
+                return;
+            }
+            lote.clear();
+
+            synchronized (this) {
+                lsn_duravel = ate;
+                if (limite >= 0) {
+                    inicio_segmento = limite + 1;
+                    if (rotacao_pendente == limite) {
+                        rotacao_pendente = -1;
+                    }
+                }
+                notifyAll();
+            }
+            avisarGravacao();
+        }
+    }
+
+    /**
+     * acorda as threads cujos registros ja foram gravados (ou todas, se a
+     * gravacao falhou)
+     */
+    private void avisarGravacao() {
+        trava_espera.lock();
+        try {
+            long duravel = lsn_duravel;
+            boolean falhou = erro != null;
+            while (!esperas.isEmpty() && (falhou || esperas.peek().lsn <= duravel)) {
+                LockSupport.unpark(esperas.poll().thread);
+            }
+        } finally {
+            trava_espera.unlock();
+        }
+    }
+
+    private void gravar(List<ByteBuffer> registros) throws IOException {
+        if (registros.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] buffers = registros.toArray(new ByteBuffer[0]);
+        while (buffers[buffers.length - 1].hasRemaining()) {
+            canal.write(buffers);
+        }
+    }
+
+    //===== Utilitarios de codificacao
+    static byte[] utf8(String s) {
+        return (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param s texto a ser gravado (null e gravado como vazio)
+     *
+     * @return true se o texto em UTF-8 couber em um registro do diario
+     */
+    public static boolean textoCabe(String s) {
+        return s == null || s.length() <= TAMANHO_MAXIMO_TEXTO / 3
+                || utf8(s).length <= TAMANHO_MAXIMO_TEXTO;
+    }
+
+    private static int tamanho(byte[][] textos) {
+        int total = 0;
+        for (byte[] t : textos) {
+            total += 2 + t.length;
+        }
+        return total;
+    }
+
+    /**
+     * grava o tamanho do texto em 16 bits sem sinal e os seus bytes
+     *
+     * @throws IllegalArgumentException se o texto tiver mais de
+     * TAMANHO_MAXIMO_TEXTO bytes (o tamanho seria truncado)
+     */
+    private static void putTexto(ByteBuffer b, byte[] texto) {
+        if (texto.length > TAMANHO_MAXIMO_TEXTO) {
+            throw new IllegalArgumentException("Texto com " + texto.length
+                    + " bytes nao cabe no diario (maximo " + TAMANHO_MAXIMO_TEXTO + ")");
+        }
+        b.putShort((short) texto.length);
+        b.put(texto);
+    }
+
+    //===== Construtor, fechamento e getters
+    /**
+     * abre o diario para acrescentar registros em um novo segmento
+     *
+     * @param diretorio diretorio do diario (criado se nao existir)
+     *
+     * @param ultimo_lsn ultimo lsn presente no diario ou no snapshot (0 se
+     * estiverem vazios), normalmente obtido por Recuperacao
+     *
+     * @throws IOException se o segmento nao puder ser aberto
+     */
+    public Diario(Path diretorio, long ultimo_lsn) throws IOException {
+        Files.createDirectories(diretorio);
+        this.diretorio = diretorio;
+        this.inicio_segmento = ultimo_lsn + 1;
+        this.rotacao_pendente = -1;
+        this.canal = abrirSegmento(inicio_segmento);
+        this.pendentes = new ArrayDeque<>();
+        this.ultimo_lsn = ultimo_lsn;
+        this.lsn_duravel = ultimo_lsn;
+        this.escritor = new Thread(this::escrever, "diario-escritor");
+        this.escritor.setDaemon(true);
+        this.escritor.start();
+    }
+
+    /**
+     * grava os registros pendentes e fecha o arquivo
+     *
+     * @throws IOException se a gravacao ou o fechamento falharem
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            fechado = true;
+            notifyAll();
+        }
+        try {
+            escritor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        canal.close();
+        if (erro != null) {
+            throw erro;
+        }
+    }
+
+    public Path getDiretorio() {
+        return diretorio;
+    }
+
+    public synchronized long getUltimo_lsn() {
+        return ultimo_lsn;
+    }
+
+    public long getLsn_duravel() {
+        return lsn_duravel;
+    }
+}
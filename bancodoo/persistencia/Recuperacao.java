@@ -0,0 +1,364 @@
+package bancodoo.persistencia;
+
+import bancodoo.banco.Banco;
+import bancodoo.cliente.Cliente;
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.cliente.PessoaJuridica;
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.conta.Dinheiro;
+import bancodoo.conta.Poupanca;
+import bancodoo.exceptions.ContaNotFoundException;
+import bancodoo.movimentacao.TipoMovimentacao;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Classe que reconstroi o estado de um Banco a partir do diretorio do seu
+ * diario: carrega o ultimo snapshot (se existir) e reaplica, em ordem, apenas
+ * os registros do diario posteriores a ele
+ *
+ * @author Vinicius Corbellini
+ */
+public class Recuperacao {
+
+    /**
+     * reconstroi o banco a partir do snapshot e do diario e devolve o diario
+     * aberto para novos registros, ja associado ao banco. Um registro
+     * incompleto ou corrompido no fim do diario (ex: queda durante a gravacao)
+     * e descartado
+     *
+     * @param diretorio diretorio do diario (pode nao existir)
+     *
+     * @param banco banco vazio que recebera o estado
+     *
+     * @return diario pronto para acrescentar novos registros
+     *
+     * @throws IOException se os arquivos nao puderem ser lidos ou se algum
+     * registro nao puder ser reaplicado
+     */
+    public static Diario recuperar(Path diretorio, Banco banco) throws IOException {
+        long lsn_snapshot = Snapshot.carregar(diretorio.resolve(Snapshot.ARQUIVO), banco);
+        long ultimo_lsn = Math.max(lsn_snapshot, reaplicar(diretorio, banco, lsn_snapshot));
+        Diario diario = new Diario(diretorio, ultimo_lsn);
+        banco.setDiario(diario);
+        return diario;
+    }
+
+    /**
+     * reaplica no banco os registros validos do diario com lsn maior que o
+     * informado. Os registros que ja estiverem refletidos em uma conta (lsn da
+     * conta maior ou igual ao do registro) sao ignorados para aquela conta.
+     *
+     * Os registros de contas que nao existem no banco sao ignorados se o
+     * diario tambem registrar a remocao da conta (ou do seu cliente): o
+     * snapshot le cada cliente em um momento diferente, entao um cliente ou
+     * conta removido durante a gravacao do snapshot pode nao estar nele,
+     * enquanto as suas operacoes posteriores ao lsn do snapshot continuam no
+     * diario
+     *
+     * @param diretorio diretorio do diario
+     *
+     * @param banco banco que recebera as operacoes
+     *
+     * @param desde lsn a partir do qual os registros sao reaplicados
+     * (exclusivo), normalmente o lsn do snapshot
+     *
+     * @return lsn do ultimo registro lido (0 se o diario estiver vazio)
+     *
+     * @throws IOException se os arquivos nao puderem ser lidos ou se algum
+     * registro nao puder ser reaplicado
+     */
+    public static long reaplicar(Path diretorio, Banco banco, long desde) throws IOException {
+        long ultimo_lsn = 0;
+        Ausentes ausentes = new Ausentes();
+        CRC32 crc = new CRC32();
+        List<Path> segmentos = Diario.segmentos(diretorio);
+
+        for (int i = 0; i < segmentos.size(); i++) {
+            Path segmento = segmentos.get(i);
+            long valido = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmento), 1 << 16))) {
+                while (true) {
+                    int tamanho;
+                    byte[] registro;
+                    int esperado;
+                    try {
+                        tamanho = in.readInt();
+                        if (tamanho < Long.BYTES + 1) {
+                            break;
+                        }
+                        registro = in.readNBytes(tamanho);
+                        if (registro.length < tamanho) {
+                            break;
+                        }
+                        esperado = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+
+                    crc.reset();
+                    crc.update(registro);
+                    if ((int) crc.getValue() != esperado) {
+                        break;
+                    }
+
+                    ByteBuffer r = ByteBuffer.wrap(registro);
+                    long lsn = r.getLong();
+                    if (lsn > desde) {
+                        aplicar(r.get(), r, banco, lsn, ausentes);
+                    }
+                    ultimo_lsn = Math.max(ultimo_lsn, lsn);
+                    valido += Integer.BYTES + tamanho + Diario.RODAPE;
+                }
+            }
+
+            if (valido < Files.size(segmento)) {
+                //descarta o registro incompleto ou corrompido e tudo o que
+                //vier depois dele, que nao pode mais ser reaplicado em ordem
+                try (FileChannel canal = FileChannel.open(segmento, StandardOpenOption.WRITE)) {
+                    canal.truncate(valido);
+                }
+                for (Path seguinte : segmentos.subList(i + 1, segmentos.size())) {
+                    Files.delete(seguinte);
+                }
+                break;
+            }
+        }
+        ausentes.verificar();
+        return ultimo_lsn;
+    }
+
+    /**
+     * reaplica um registro no banco. As operacoes sobre clientes e contas sao
+     * idempotentes (um cliente ja existente nao e adicionado de novo) e as
+     * movimentacoes so sao aplicadas nas contas cujo lsn e menor que o do
+     * registro. As contas que nao existem sao anotadas em ausentes
+     */
+    private static void aplicar(byte tipo, ByteBuffer r, Banco banco, long lsn, Ausentes ausentes) throws IOException {
+        try {
+            switch (tipo) {
+                case Diario.CLIENTE_ADICIONADO -> {
+                    byte tipo_cliente = r.get();
+                    String doc = texto(r);
+                    String nome = texto(r);
+                    String email = texto(r);
+                    String extra = texto(r);
+                    if (!banco.existeCliente(doc)) {
+                        Cliente c = tipo_cliente == Diario.PESSOA_FISICA
+                                ? new PessoaFisica(doc, extra, nome, email)
+                                : new PessoaJuridica(doc, extra, nome, email);
+                        banco.adicionarCliente(c);
+                    }
+                }
+                case Diario.CLIENTE_REMOVIDO -> {
+                    String doc = texto(r);
+                    //registros gravados antes da inclusao dos ids das contas
+                    //terminam no documento
+                    for (int n = r.hasRemaining() ? r.getInt() : 0; n > 0; n--) {
+                        ausentes.removidas.add(r.getLong());
+                    }
+                    if (banco.existeCliente(doc)) {
+                        banco.removerCliente(doc);
+                    }
+                }
+                case Diario.CONTA_ADICIONADA -> {
+                    String doc = texto(r);
+                    byte tipo_conta = r.get();
+                    long id = r.getLong();
+                    double saldo = Dinheiro.paraReais(r.getLong());
+                    long parametro = r.getLong();
+                    int limite_operacoes = r.getInt();
+                    if (!banco.existeCliente(doc)) {
+                        //cliente removido durante a gravacao do snapshot
+                        ausentes.anotar(id, lsn);
+                    } else if (!banco.existeConta(id)) {
+                        Conta c = tipo_conta == Diario.POUPANCA
+                                ? new Poupanca(limite_operacoes, Dinheiro.paraTaxa(parametro), saldo)
+                                : new Corrente(Dinheiro.paraReais(parametro), saldo);
+                        c.setId(id);
+                        c.setLsn(lsn);
+                        banco.restaurarConta(doc, c);
+                    }
+                }
+                case Diario.CONTA_REMOVIDA -> {
+                    long id = r.getLong();
+                    ausentes.removidas.add(id);
+                    if (banco.existeConta(id)) {
+                        Conta c = banco.procurarConta(id);
+                        banco.removerConta(c.getTitular(), c);
+                    }
+                }
+                case Diario.DEPOSITO ->
+                    aplicarMovimentacao(TipoMovimentacao.DEPOSITO, r, banco, lsn, ausentes);
+                case Diario.SAQUE ->
+                    //o saque ja foi validado quando foi registrado; refazer as
+                    //verificacoes (ex: limite das ultimas 24 horas da
+                    //corrente) poderia recusa-lo na recuperacao
+                    aplicarMovimentacao(TipoMovimentacao.SAQUE, r, banco, lsn, ausentes);
+                case Diario.RENDIMENTO ->
+                    aplicarMovimentacao(TipoMovimentacao.RENDIMENTO, r, banco, lsn, ausentes);
+                case Diario.TRANSFERENCIA ->
+                    aplicarTransferencia(r, banco, lsn, ausentes);
+                default ->
+                    throw new IOException("Tipo de registro desconhecido: " + tipo);
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Nao foi possivel reaplicar o registro do diario de lsn " + lsn, e);
+        }
+    }
+
+    /**
+     * reaplica um deposito, saque ou rendimento com o valor, o saldo e a data
+     * registrados no diario, sem refazer a operacao (ex: o rendimento nao e
+     * recalculado)
+     */
+    private static void aplicarMovimentacao(TipoMovimentacao tipo, ByteBuffer r, Banco banco, long lsn, Ausentes ausentes) {
+        Conta c = conta(banco, r.getLong(), lsn, ausentes);
+        long valor = r.getLong();
+        long saldo = r.getLong();
+        long dt_hora = r.getLong();
+        if (c == null || c.getLsn() >= lsn) {
+            return;
+        }
+        if (tipo == TipoMovimentacao.SAQUE) {
+            contarRetirada(c, valor, dt_hora);
+        }
+        c.registrarMovimentacao(tipo, valor, dt_hora, 0, c instanceof Poupanca, saldo);
+        c.setSaldoCentavos(saldo);
+        c.setLsn(lsn);
+    }
+
+    /**
+     * reaplica uma transferencia. Como o snapshot le cada conta em um momento
+     * diferente, ele pode conter apenas um dos lados da transferencia; por
+     * isso cada lado que falta e aplicado separadamente, a partir do saldo
+     * registrado e sem refazer as verificacoes da transferencia. O mesmo vale
+     * quando uma das contas nao existe mais (ver reaplicar)
+     *
+     * Obs: se a conta de origem nao existir mais, o recebimento reaplicado no
+     * destino nao indica se a origem era uma poupanca
+     */
+    private static void aplicarTransferencia(ByteBuffer r, Banco banco, long lsn, Ausentes ausentes) {
+        long id_origem = r.getLong();
+        long id_destino = r.getLong();
+        Conta origem = conta(banco, id_origem, lsn, ausentes);
+        Conta destino = conta(banco, id_destino, lsn, ausentes);
+        long valor = r.getLong();
+        long saldo_origem = r.getLong();
+        long saldo_destino = r.getLong();
+        long dt_hora = r.getLong();
+
+        boolean falta_origem = origem != null && origem.getLsn() < lsn;
+        boolean falta_destino = destino != null && destino.getLsn() < lsn;
+        boolean origem_poupanca = origem instanceof Poupanca;
+
+        if (falta_destino) {
+            destino.registrarMovimentacao(TipoMovimentacao.RECEBIMENTO_TRANSFERENCIA, valor, dt_hora, id_origem, origem_poupanca, saldo_destino);
+        }
+        if (falta_origem) {
+            contarRetirada(origem, valor, dt_hora);
+            origem.registrarMovimentacao(TipoMovimentacao.TRANSFERENCIA, valor, dt_hora, id_destino, origem_poupanca, saldo_origem);
+        }
+
+        if (falta_origem) {
+            origem.setSaldoCentavos(saldo_origem);
+            origem.setLsn(lsn);
+        }
+        if (falta_destino) {
+            destino.setSaldoCentavos(saldo_destino);
+            destino.setLsn(lsn);
+        }
+    }
+
+    /**
+     * busca a conta de um registro
+     *
+     * @return a conta ou null se ela nao existir (anotada em ausentes)
+     */
+    private static Conta conta(Banco banco, long id, long lsn, Ausentes ausentes) {
+        try {
+            return banco.procurarConta(id);
+        } catch (ContaNotFoundException e) {
+            ausentes.anotar(id, lsn);
+            return null;
+        }
+    }
+
+    /**
+     * Contas inexistentes encontradas nos registros reaplicados e contas
+     * removidas pelo diario. A remocao pode ter sido registrada antes ou
+     * depois das operacoes da conta (uma operacao que ja tinha encontrado a
+     * conta pode ser registrada depois da remocao), entao a verificacao e
+     * feita apenas no fim da reaplicacao
+     */
+    private static final class Ausentes {
+
+        //id da conta -> lsn do primeiro registro em que ela nao existia
+        private final Map<Long, Long> contas = new HashMap<>();
+
+        //ids das contas removidas por registros do diario
+        private final Set<Long> removidas = new HashSet<>();
+
+        void anotar(long id, long lsn) {
+            contas.putIfAbsent(id, lsn);
+        }
+
+        /**
+         * @throws IOException se alguma conta inexistente nao tiver sido
+         * removida pelo diario (o registro nao pode ser reaplicado)
+         */
+        void verificar() throws IOException {
+            long primeiro = Long.MAX_VALUE;
+            Long conta = null;
+            for (Map.Entry<Long, Long> e : contas.entrySet()) {
+                if (!removidas.contains(e.getKey()) && e.getValue() < primeiro) {
+                    primeiro = e.getValue();
+                    conta = e.getKey();
+                }
+            }
+            if (conta != null) {
+                throw new IOException("Nao foi possivel reaplicar o registro do diario de lsn " + primeiro,
+                        new ContaNotFoundException(String.valueOf(conta)));
+            }
+        }
+    }
+
+    /**
+     * conta uma retirada reaplicada no limite de operacoes da poupanca ou na
+     * janela das ultimas 24 horas da corrente, com a data registrada no
+     * diario (sem verificar os limites)
+     */
+    private static void contarRetirada(Conta c, long valor, long dt_hora) {
+        if (c instanceof Poupanca p) {
+            p.setOperacoes(p.getOperacoes() + 1);
+        } else if (c instanceof Corrente corrente) {
+            corrente.registrarRetirada(valor, dt_hora);
+        }
+    }
+
+    private static String texto(ByteBuffer r) {
+        byte[] bytes = new byte[r.getShort() & 0xFFFF];
+        r.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Recuperacao() {
+    }
+}
@@ -0,0 +1,314 @@
+package bancodoo.persistencia;
+
+import bancodoo.banco.Banco;
+import bancodoo.cliente.Cliente;
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.cliente.PessoaJuridica;
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.conta.Dinheiro;
+import bancodoo.conta.Poupanca;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Classe que grava e carrega snapshots do estado completo do banco (clientes,
+ * contas, saldos, operacoes das poupancas e contador de ids) em um arquivo
+ * binario compacto no diretorio do diario. As contas correntes levam tambem
+ * a janela de retiradas das ultimas 24 horas (ver Corrente.exportarJanela).
+ *
+ * O snapshot e gravado sem parar as operacoes: antes de comecar, o segmento
+ * atual do diario e encerrado e o seu ultimo lsn e guardado no snapshot. Cada
+ * conta e lida sob a sua trava junto com o lsn do ultimo registro aplicado a
+ * ela, de forma que, na recuperacao, apenas os registros posteriores a cada
+ * conta sao reaplicados. Depois que o snapshot esta em disco, os segmentos
+ * antigos do diario sao apagados.
+ *
+ * Obs: o historico de movimentacoes nao faz parte do snapshot.
+ *
+ * @author Vinicius Corbellini
+ */
+public class Snapshot {
+
+    //Nome do arquivo de snapshot dentro do diretorio do diario
+    public static final String ARQUIVO = "snapshot.bin";
+
+    //Identificacao e versao do formato do arquivo
+    private static final int MAGICA = 0x42444F4F;
+    private static final int VERSAO = 2;
+
+    //Primeira versao com a janela de retiradas das contas correntes
+    private static final int VERSAO_JANELA = 2;
+
+    //Quantidade de longs da janela de retiradas (ver JanelaSaques.exportar)
+    private static final int JANELA = 26;
+
+    //Marcadores dos blocos do arquivo
+    private static final byte CLIENTE = 'C';
+    private static final byte FIM = 'F';
+
+    //Impede que dois snapshots sejam gravados ao mesmo tempo
+    private static final ReentrantLock GRAVANDO = new ReentrantLock();
+
+    /**
+     * grava um snapshot do banco no diretorio do seu diario e descarta os
+     * segmentos do diario que ficaram cobertos por ele. Pode ser chamado
+     * enquanto outras threads operam o banco
+     *
+     * @param banco banco com um diario associado
+     *
+     * @return lsn do diario coberto pelo snapshot
+     *
+     * @throws IOException se o snapshot nao puder ser gravado
+     */
+    public static long gravar(Banco banco) throws IOException {
+        Diario diario = banco.getDiario();
+        if (diario == null) {
+            throw new IllegalStateException("O banco nao possui diario!");
+        }
+
+        GRAVANDO.lock();
+        try {
+            long lsn = diario.rotacionar();
+            gravar(banco, diario.getDiretorio().resolve(ARQUIVO), lsn);
+            diario.descartarAte(lsn);
+            return lsn;
+        } finally {
+            GRAVANDO.unlock();
+        }
+    }
+
+    /**
+     * grava um snapshot do banco em um arquivo, substituindo-o de forma
+     * atomica (o arquivo antigo so e trocado depois que o novo esta em disco)
+     *
+     * @param banco banco a ser gravado
+     *
+     * @param arquivo arquivo de destino
+     *
+     * @param lsn ultimo lsn do diario coberto pelo snapshot
+     *
+     * @throws IOException se o snapshot nao puder ser gravado
+     */
+    public static void gravar(Banco banco, Path arquivo, long lsn) throws IOException {
+        Path temporario = arquivo.resolveSibling(arquivo.getFileName() + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporario,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(canal), 1 << 16));
+            out.writeInt(MAGICA);
+            out.writeInt(VERSAO);
+            out.writeLong(lsn);
+            out.writeLong(banco.getIds());
+
+            //com o armazem, os clientes fora da memoria sao lidos um por vez
+            try {
+                banco.paraCadaCliente(c -> {
+                    try {
+                        gravarCliente(out, c);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.writeByte(FIM);
+            out.flush();
+            canal.force(true);
+        }
+        Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void gravarCliente(DataOutputStream out, Cliente c) throws IOException {
+        out.writeByte(CLIENTE);
+        if (c instanceof PessoaFisica pf) {
+            out.writeByte(Diario.PESSOA_FISICA);
+            out.writeUTF(pf.getDocumento());
+            out.writeUTF(pf.getNome());
+            out.writeUTF(pf.getEmail());
+            out.writeUTF(pf.getTelefone());
+        } else {
+            PessoaJuridica pj = (PessoaJuridica) c;
+            out.writeByte(Diario.PESSOA_JURIDICA);
+            out.writeUTF(pj.getDocumento());
+            out.writeUTF(pj.getNome());
+            out.writeUTF(pj.getEmail());
+            out.writeUTF(pj.getRazaoSocial());
+        }
+
+        Conta[] contas = c.getContas().toArray(new Conta[0]);
+        out.writeInt(contas.length);
+        for (Conta conta : contas) {
+            //le o estado da conta sob a sua trava, junto com o lsn
+            long saldo;
+            int operacoes = 0;
+            long[] janela = null;
+            long lsn;
+            conta.getTrava().lock();
+            try {
+                saldo = conta.getSaldoCentavos();
+                lsn = conta.getLsn();
+                if (conta instanceof Poupanca p) {
+                    operacoes = p.getOperacoes();
+                } else {
+                    janela = ((Corrente) conta).exportarJanela();
+                }
+            } finally {
+                conta.getTrava().unlock();
+            }
+
+            if (conta instanceof Poupanca p) {
+                out.writeByte(Diario.POUPANCA);
+                out.writeLong(conta.getId());
+                out.writeLong(saldo);
+                out.writeLong(p.getRendimentoMilionesimos());
+                out.writeInt(p.getLimite_operacoes());
+            } else {
+                out.writeByte(Diario.CORRENTE);
+                out.writeLong(conta.getId());
+                out.writeLong(saldo);
+                out.writeLong(((Corrente) conta).getLimiteCentavos());
+                out.writeInt(0);
+            }
+            out.writeInt(operacoes);
+            out.writeLong(lsn);
+            out.writeBoolean(janela != null);
+            if (janela != null) {
+                for (long v : janela) {
+                    out.writeLong(v);
+                }
+            }
+        }
+    }
+
+    /**
+     * carrega um snapshot em um banco vazio
+     *
+     * @param arquivo arquivo do snapshot
+     *
+     * @param banco banco que recebera o estado
+     *
+     * @return lsn do diario coberto pelo snapshot (0 se o arquivo nao existir)
+     *
+     * @throws IOException se o arquivo nao puder ser lido ou for invalido
+     */
+    public static long carregar(Path arquivo, Banco banco) throws IOException {
+        if (!Files.exists(arquivo)) {
+            return 0;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(arquivo), 1 << 16))) {
+            int versao = in.readInt() == MAGICA ? in.readInt() : -1;
+            if (versao < 1 || versao > VERSAO) {
+                throw new IOException("Arquivo de snapshot invalido: " + arquivo);
+            }
+            long lsn = in.readLong();
+            long maior_id = in.readLong();
+
+            while (in.readByte() == CLIENTE) {
+                carregarCliente(in, banco, versao);
+            }
+            banco.restaurarIds(maior_id);
+            return lsn;
+        }
+    }
+
+    private static void carregarCliente(DataInputStream in, Banco banco, int versao) throws IOException {
+        byte tipo = in.readByte();
+        String doc = in.readUTF();
+        String nome = in.readUTF();
+        String email = in.readUTF();
+        String extra = in.readUTF();
+        Cliente c = tipo == Diario.PESSOA_FISICA
+                ? new PessoaFisica(doc, extra, nome, email)
+                : new PessoaJuridica(doc, extra, nome, email);
+
+        try {
+            banco.adicionarCliente(c);
+            int num_contas = in.readInt();
+            for (int i = 0; i < num_contas; i++) {
+                byte tipo_conta = in.readByte();
+                long id = in.readLong();
+                double saldo = Dinheiro.paraReais(in.readLong());
+                long parametro = in.readLong();
+                int limite_operacoes = in.readInt();
+                int operacoes = in.readInt();
+                long lsn = in.readLong();
+                long[] janela = null;
+                if (versao >= VERSAO_JANELA && in.readBoolean()) {
+                    janela = new long[JANELA];
+                    for (int j = 0; j < JANELA; j++) {
+                        janela[j] = in.readLong();
+                    }
+                }
+
+                Conta conta;
+                if (tipo_conta == Diario.POUPANCA) {
+                    Poupanca p = new Poupanca(limite_operacoes, Dinheiro.paraTaxa(parametro), saldo);
+                    p.setOperacoes(operacoes);
+                    conta = p;
+                } else {
+                    Corrente corrente = new Corrente(Dinheiro.paraReais(parametro), saldo);
+                    if (janela != null) {
+                        corrente.restaurarJanela(janela);
+                    }
+                    conta = corrente;
+                }
+                conta.setId(id);
+                conta.setLsn(lsn);
+                banco.restaurarConta(doc, conta);
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Snapshot inconsistente no cliente " + doc, e);
+        }
+    }
+
+    /**
+     * agenda a gravacao periodica de snapshots em uma thread de fundo
+     *
+     * @param banco banco com um diario associado
+     *
+     * @param intervalo intervalo entre os snapshots
+     *
+     * @param unidade unidade do intervalo
+     *
+     * @return executor responsavel pelos snapshots (use shutdown() para parar)
+     */
+    public static ScheduledExecutorService agendar(Banco banco, long intervalo, TimeUnit unidade) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                gravar(banco);
+            } catch (IOException | UncheckedIOException e) {
+                //o proximo snapshot sera tentado no proximo intervalo
+                System.out.println("Erro ao gravar snapshot -> " + e.getMessage());
+            }
+        }, intervalo, intervalo, unidade);
+        return executor;
+    }
+
+    private Snapshot() {
+    }
+}
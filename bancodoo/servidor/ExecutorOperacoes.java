@@ -0,0 +1,172 @@
+package bancodoo.servidor;
+
+import bancodoo.banco.Banco;
+import bancodoo.conta.ResultadoOperacao;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Classe que executa as operacoes de saque, deposito e transferencia do banco
+ * de forma assincrona, cada operacao em uma thread virtual (ou, se
+ * configurado ou se a JVM nao suportar threads virtuais, em um pool fixo de
+ * threads de plataforma).
+ *
+ * Com diario, cada operacao fica bloqueada na trava da conta e na gravacao do
+ * registro em disco (ver Banco e Diario.aguardar). Em threads virtuais, a
+ * operacao bloqueada e desmontada da thread de plataforma, entao milhares de
+ * operacoes podem aguardar o mesmo fsync ao mesmo tempo e entrar no mesmo lote
+ * do diario. Em um pool de plataforma, no maximo uma operacao por thread do
+ * pool fica em andamento e as demais esperam na fila.
+ *
+ * As operacoes usam as versoes sem excecoes do banco (tentarSacar etc.) e o
+ * futuro e completado com o ResultadoOperacao.
+ *
+ * @author Vinicius Corbellini
+ */
+public class ExecutorOperacoes implements AutoCloseable {
+
+    //Tamanho padrao do pool de threads de plataforma
+    public static final int THREADS_PLATAFORMA = 256;
+
+    private final Banco banco;
+    private final ExecutorService executor;
+    private final boolean virtual;
+
+    //Operacoes enviadas e ainda nao concluidas
+    private final AtomicInteger em_andamento = new AtomicInteger();
+
+    /**
+     * saca um valor de uma conta
+     *
+     * @param document documento do cliente
+     *
+     * @param id identificador da conta
+     *
+     * @param amount valor a ser sacado
+     *
+     * @return futuro completado com SUCESSO ou o motivo da falha
+     */
+    public CompletableFuture<ResultadoOperacao> sacar(String document, Long id, double amount) {
+        return enviar(() -> banco.tentarSacar(document, id, amount));
+    }
+
+    /**
+     * deposita um valor em uma conta
+     *
+     * @param document documento do cliente
+     *
+     * @param id identificador da conta
+     *
+     * @param amount valor a ser depositado
+     *
+     * @return futuro completado com SUCESSO ou o motivo da falha
+     */
+    public CompletableFuture<ResultadoOperacao> depositar(String document, Long id, double amount) {
+        return enviar(() -> banco.tentarDepositar(document, id, amount));
+    }
+
+    /**
+     * transfere um valor entre duas contas
+     *
+     * @param doc_remet documento do remetente
+     *
+     * @param doc_dest documento do destinatario
+     *
+     * @param id_remet identificador do remetente
+     *
+     * @param id_dest identificador do destinatario
+     *
+     * @param amount valor a ser transferido
+     *
+     * @return futuro completado com SUCESSO ou o motivo da falha
+     */
+    public CompletableFuture<ResultadoOperacao> transferir(String doc_remet, String doc_dest, Long id_remet, Long id_dest, double amount) {
+        return enviar(() -> banco.tentarTransferir(doc_remet, doc_dest, id_remet, id_dest, amount));
+    }
+
+    /**
+     * envia a operacao ao executor. Se o executor recusar a operacao (por
+     * exemplo, depois de close), o futuro e completado com a
+     * RejectedExecutionException e a operacao nao fica contada em andamento
+     */
+    private CompletableFuture<ResultadoOperacao> enviar(Supplier<ResultadoOperacao> operacao) {
+        em_andamento.incrementAndGet();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return operacao.get();
+                } finally {
+                    em_andamento.decrementAndGet();
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            em_andamento.decrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @return true se as operacoes rodam em threads virtuais
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * @return operacoes enviadas e ainda nao concluidas (em execucao ou na
+     * fila do pool)
+     */
+    public int getEm_andamento() {
+        return em_andamento.get();
+    }
+
+    /**
+     * para de aceitar operacoes e espera as operacoes enviadas terminarem (o
+     * progresso pode ser acompanhado por getEm_andamento)
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                //continua esperando
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //===== Construtores
+    /**
+     * @param banco banco das operacoes
+     *
+     * @param modo tipo de thread (ver Executores.Modo)
+     *
+     * @param threads_plataforma tamanho do pool quando as operacoes rodam em
+     * threads de plataforma
+     *
+     * @throws IllegalStateException se o modo for VIRTUAL e a JVM nao
+     * suportar threads virtuais
+     */
+    public ExecutorOperacoes(Banco banco, Executores.Modo modo, int threads_plataforma) {
+        this.banco = banco;
+        this.virtual = modo == Executores.Modo.VIRTUAL
+                || (modo == Executores.Modo.AUTOMATICO && Executores.suportaThreadsVirtuais());
+        this.executor = Executores.criar(modo, threads_plataforma);
+    }
+
+    /**
+     * usa threads virtuais se a JVM suportar ou o modo informado na
+     * propriedade de sistema bancodoo.threads (automatico, virtual ou
+     * plataforma)
+     *
+     * @param banco banco das operacoes
+     */
+    public ExecutorOperacoes(Banco banco) {
+        this(banco, Executores.Modo.de(System.getProperty("bancodoo.threads")), THREADS_PLATAFORMA);
+    }
+}
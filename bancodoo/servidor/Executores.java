@@ -0,0 +1,109 @@
+package bancodoo.servidor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Classe utilitaria que cria os executores das requisicoes. Em Java 21 ou
+ * superior, cada tarefa roda em uma thread virtual, de forma que milhares de
+ * conexoes bloqueadas (ex: esperando o diario gravar em disco) nao ocupam
+ * milhares de threads do sistema operacional. Em versoes anteriores, as
+ * tarefas rodam em um pool fixo de threads de plataforma.
+ *
+ * Obs: o projeto compila com --release 17, por isso o metodo
+ * Executors.newVirtualThreadPerTaskExecutor e procurado em tempo de execucao
+ *
+ * @author Vinicius Corbellini
+ */
+public final class Executores {
+
+    //Executors.newVirtualThreadPerTaskExecutor (null antes do Java 21)
+    private static final MethodHandle POR_TAREFA_VIRTUAL = procurarPorTarefaVirtual();
+
+    /**
+     * Tipo de thread usado pelos executores
+     */
+    public enum Modo {
+        //threads virtuais se a JVM suportar, senao pool de plataforma
+        AUTOMATICO,
+        //sempre threads virtuais (falha se a JVM nao suportar)
+        VIRTUAL,
+        //sempre pool fixo de threads de plataforma
+        PLATAFORMA;
+
+        /**
+         * @param nome nome do modo, sem diferenciar maiusculas (ex: o valor
+         * da propriedade de sistema bancodoo.threads)
+         *
+         * @return modo correspondente ou AUTOMATICO se o nome for null
+         *
+         * @throws IllegalArgumentException se o nome for invalido
+         */
+        public static Modo de(String nome) {
+            return nome == null ? AUTOMATICO : valueOf(nome.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * @return true se a JVM suportar threads virtuais
+     */
+    public static boolean suportaThreadsVirtuais() {
+        return POR_TAREFA_VIRTUAL != null;
+    }
+
+    /**
+     * cria um executor que roda cada tarefa em uma nova thread virtual ou, se
+     * a JVM nao suportar threads virtuais, em um pool fixo de threads de
+     * plataforma
+     *
+     * @param threads_plataforma tamanho do pool usado quando nao ha threads
+     * virtuais
+     *
+     * @return executor das tarefas
+     */
+    public static ExecutorService porTarefa(int threads_plataforma) {
+        return criar(Modo.AUTOMATICO, threads_plataforma);
+    }
+
+    /**
+     * cria um executor com o tipo de thread informado
+     *
+     * @param modo tipo de thread
+     *
+     * @param threads_plataforma tamanho do pool de threads de plataforma
+     * (modo PLATAFORMA ou AUTOMATICO sem threads virtuais)
+     *
+     * @return executor das tarefas
+     *
+     * @throws IllegalStateException se o modo for VIRTUAL e a JVM nao
+     * suportar threads virtuais
+     */
+    public static ExecutorService criar(Modo modo, int threads_plataforma) {
+        if (modo == Modo.PLATAFORMA || (modo == Modo.AUTOMATICO && POR_TAREFA_VIRTUAL == null)) {
+            return Executors.newFixedThreadPool(threads_plataforma);
+        }
+        if (POR_TAREFA_VIRTUAL == null) {
+            throw new IllegalStateException("A JVM nao suporta threads virtuais (Java 21 ou superior)!");
+        }
+        try {
+            return (ExecutorService) POR_TAREFA_VIRTUAL.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Nao foi possivel criar o executor de threads virtuais!", e);
+        }
+    }
+
+    private static MethodHandle procurarPorTarefaVirtual() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private Executores() {
+    }
+}
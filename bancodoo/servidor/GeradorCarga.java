@@ -0,0 +1,378 @@
+package bancodoo.servidor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Programa que gera carga no ServidorBanco e relata a latencia das
+ * requisicoes. Cada conexao e mantida aberta (keep-alive) por uma thread
+ * virtual que envia as suas requisicoes em sequencia: 40% depositos, 40%
+ * saques, 15% transferencias e 5% consultas de extrato, sobre contas
+ * correntes criadas no inicio do teste.
+ *
+ * Ao final, imprime a vazao e os percentis (p50, p90, p99, p99.9 e maximo) da
+ * latencia de todas as requisicoes, medida do envio ate a leitura completa da
+ * resposta.
+ *
+ * Uso: GeradorCarga [host] [porta] [conexoes] [requisicoes_por_conexao]
+ * [contas]
+ *
+ * @author Vinicius Corbellini
+ */
+public class GeradorCarga {
+
+    //Padrao do id devolvido por POST /contas
+    private static final Pattern ID = Pattern.compile("\"id\":(\\d+)");
+
+    private final String host;
+    private final int porta;
+
+    //Documento e id de cada conta criada para o teste
+    private final List<String> documentos = new ArrayList<>();
+    private final List<Long> ids = new ArrayList<>();
+
+    //Contadores das respostas
+    private final AtomicLong erros = new AtomicLong();
+    private final AtomicLong recusadas = new AtomicLong();
+    private final AtomicLong reconexoes = new AtomicLong();
+
+    /**
+     * Conexao HTTP/1.1 persistente com o servidor
+     */
+    private static final class Conexao implements AutoCloseable {
+
+        private final String host;
+        private final int porta;
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        //Corpo da ultima resposta
+        private String corpo;
+
+        Conexao(String host, int porta) throws IOException {
+            this.host = host;
+            this.porta = porta;
+            abrir();
+        }
+
+        private void abrir() throws IOException {
+            socket = new Socket(host, porta);
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        /**
+         * envia uma requisicao e le a resposta completa
+         *
+         * @return status da resposta
+         */
+        int enviar(String metodo, String caminho, String json) throws IOException {
+            byte[] corpo_req = json == null ? new byte[0] : json.getBytes(StandardCharsets.UTF_8);
+            StringBuilder sb = new StringBuilder(128)
+                    .append(metodo).append(' ').append(caminho).append(" HTTP/1.1\r\n")
+                    .append("Host: ").append(host).append("\r\n");
+            if (json != null) {
+                sb.append("Content-Type: application/json\r\n")
+                        .append("Content-Length: ").append(corpo_req.length).append("\r\n");
+            }
+            out.write(sb.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII));
+            out.write(corpo_req);
+            out.flush();
+            return lerResposta();
+        }
+
+        private int lerResposta() throws IOException {
+            String status = lerLinha();
+            int tamanho = 0;
+            String linha;
+            while (!(linha = lerLinha()).isEmpty()) {
+                int dois_pontos = linha.indexOf(':');
+                if (dois_pontos > 0 && linha.substring(0, dois_pontos).trim().equalsIgnoreCase("Content-Length")) {
+                    tamanho = Integer.parseInt(linha.substring(dois_pontos + 1).trim());
+                }
+            }
+            corpo = new String(in.readNBytes(tamanho), StandardCharsets.UTF_8);
+            return Integer.parseInt(status.substring(9, 12));
+        }
+
+        private String lerLinha() throws IOException {
+            StringBuilder sb = new StringBuilder(64);
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c == -1) {
+                    throw new EOFException("Conexao fechada pelo servidor");
+                }
+                if (c != '\r') {
+                    sb.append((char) c);
+                }
+            }
+            return sb.toString();
+        }
+
+        void reabrir() throws IOException {
+            close();
+            abrir();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * cria os clientes e as contas correntes usados no teste
+     *
+     * @param contas quantidade de contas
+     */
+    public void preparar(int contas) throws IOException {
+        String prefixo = "carga-" + System.nanoTime() + "-";
+        try (Conexao c = new Conexao(host, porta)) {
+            for (int i = 0; i < contas; i++) {
+                String doc = prefixo + i;
+                verificar(c, c.enviar("POST", "/clientes", "{\"tipo\":\"PF\",\"documento\":\"" + doc
+                        + "\",\"nome\":\"Cliente " + i + "\",\"email\":\"c" + i + "@banco\",\"telefone\":\"0000\"}"));
+                verificar(c, c.enviar("POST", "/contas", "{\"documento\":\"" + doc
+                        + "\",\"tipo\":\"corrente\",\"saldo\":1000000,\"limite\":1000000000}"));
+                Matcher m = ID.matcher(c.corpo);
+                if (!m.find()) {
+                    throw new IOException("Resposta sem id: " + c.corpo);
+                }
+                documentos.add(doc);
+                ids.add(Long.parseLong(m.group(1)));
+            }
+        }
+    }
+
+    /**
+     * executa o teste de carga
+     *
+     * @param conexoes quantidade de conexoes simultaneas
+     *
+     * @param requisicoes requisicoes enviadas por conexao
+     *
+     * @return latencias de todas as requisicoes, em nanossegundos, e duracao
+     * total do teste
+     */
+    public Relatorio executar(int conexoes, int requisicoes) throws InterruptedException {
+        long[][] latencias = new long[conexoes][];
+        CountDownLatch conectadas = new CountDownLatch(conexoes);
+        CountDownLatch largada = new CountDownLatch(1);
+        CountDownLatch terminadas = new CountDownLatch(conexoes);
+
+        ExecutorService executor = Executores.porTarefa(conexoes);
+        for (int t = 0; t < conexoes; t++) {
+            final int thread = t;
+            executor.execute(() -> {
+                try {
+                    latencias[thread] = executarConexao(thread, requisicoes, conectadas, largada);
+                } catch (Exception e) {
+                    erros.incrementAndGet();
+                    latencias[thread] = new long[0];
+                } finally {
+                    terminadas.countDown();
+                }
+            });
+        }
+
+        conectadas.await();
+        long inicio = System.nanoTime();
+        largada.countDown();
+        terminadas.await();
+        long duracao = System.nanoTime() - inicio;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        int total = 0;
+        for (long[] l : latencias) {
+            total += l.length;
+        }
+        long[] todas = new long[total];
+        int pos = 0;
+        for (long[] l : latencias) {
+            System.arraycopy(l, 0, todas, pos, l.length);
+            pos += l.length;
+        }
+        Arrays.sort(todas);
+        return new Relatorio(todas, duracao, conexoes, erros.get(), recusadas.get(), reconexoes.get());
+    }
+
+    /**
+     * abre uma conexao e envia as suas requisicoes depois da largada
+     *
+     * @return latencia de cada requisicao respondida
+     */
+    private long[] executarConexao(int thread, int requisicoes, CountDownLatch conectadas, CountDownLatch largada) throws Exception {
+        Conexao c;
+        try {
+            c = new Conexao(host, porta);
+        } finally {
+            conectadas.countDown();
+        }
+
+        try (c) {
+            largada.await();
+            SplittableRandom r = new SplittableRandom(thread);
+            long[] latencias = new long[requisicoes];
+            int n = 0;
+            for (int i = 0; i < requisicoes; i++) {
+                int conta = r.nextInt(ids.size());
+                int sorteio = r.nextInt(100);
+                String metodo = "POST";
+                String caminho;
+                String json = null;
+                if (sorteio < 40) {
+                    caminho = "/depositos";
+                    json = operacao(conta, r);
+                } else if (sorteio < 80) {
+                    caminho = "/saques";
+                    json = operacao(conta, r);
+                } else if (sorteio < 95) {
+                    caminho = "/transferencias";
+                    int destino = r.nextInt(ids.size());
+                    json = "{\"documento_remetente\":\"" + documentos.get(conta) + "\",\"conta_remetente\":" + ids.get(conta)
+                            + ",\"documento_destinatario\":\"" + documentos.get(destino) + "\",\"conta_destinatario\":" + ids.get(destino)
+                            + ",\"valor\":" + valor(r) + "}";
+                } else {
+                    metodo = "GET";
+                    caminho = "/extrato?documento=" + documentos.get(conta) + "&conta=" + ids.get(conta) + "&limite=20";
+                }
+
+                long t0 = System.nanoTime();
+                int status;
+                try {
+                    status = c.enviar(metodo, caminho, json);
+                } catch (IOException e) {
+                    //conexao ociosa fechada pelo servidor: reconecta e repete
+                    reconexoes.incrementAndGet();
+                    c.reabrir();
+                    t0 = System.nanoTime();
+                    status = c.enviar(metodo, caminho, json);
+                }
+                latencias[n++] = System.nanoTime() - t0;
+
+                if (status == 422) {
+                    recusadas.incrementAndGet();
+                } else if (status != 200) {
+                    erros.incrementAndGet();
+                }
+            }
+            return Arrays.copyOf(latencias, n);
+        }
+    }
+
+    private String operacao(int conta, SplittableRandom r) {
+        return "{\"documento\":\"" + documentos.get(conta) + "\",\"conta\":" + ids.get(conta) + ",\"valor\":" + valor(r) + "}";
+    }
+
+    private static String valor(SplittableRandom r) {
+        return (1 + r.nextInt(100)) + "." + (10 + r.nextInt(90));
+    }
+
+    private static void verificar(Conexao c, int status) throws IOException {
+        if (status != 201) {
+            throw new IOException("Falha ao preparar o teste (" + status + "): " + c.corpo);
+        }
+    }
+
+    /**
+     * Resultado de um teste de carga
+     */
+    public static class Relatorio {
+
+        //Latencias em nanossegundos, em ordem crescente
+        private final long[] latencias;
+        private final long duracao_ns;
+        private final int conexoes;
+        private final long erros;
+        private final long recusadas;
+        private final long reconexoes;
+
+        Relatorio(long[] latencias, long duracao_ns, int conexoes, long erros, long recusadas, long reconexoes) {
+            this.latencias = latencias;
+            this.duracao_ns = duracao_ns;
+            this.conexoes = conexoes;
+            this.erros = erros;
+            this.recusadas = recusadas;
+            this.reconexoes = reconexoes;
+        }
+
+        /**
+         * @param p percentil (ex: 99.0)
+         *
+         * @return latencia do percentil em nanossegundos
+         */
+        public long getPercentil(double p) {
+            if (latencias.length == 0) {
+                return 0;
+            }
+            int i = (int) Math.ceil(p / 100.0 * latencias.length) - 1;
+            return latencias[Math.max(0, Math.min(i, latencias.length - 1))];
+        }
+
+        public long getRequisicoes() {
+            return latencias.length;
+        }
+
+        public double getRequisicoesPorSegundo() {
+            return duracao_ns == 0 ? 0 : latencias.length * 1e9 / duracao_ns;
+        }
+
+        public long getErros() {
+            return erros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Conexoes: %d | requisicoes: %d em %.2f s (%.0f req/s)%n"
+                    + "Recusadas (422): %d | erros: %d | reconexoes: %d%n"
+                    + "Latencia (ms): p50 %.3f | p90 %.3f | p99 %.3f | p99.9 %.3f | max %.3f",
+                    conexoes, latencias.length, duracao_ns / 1e9, getRequisicoesPorSegundo(),
+                    recusadas, erros, reconexoes,
+                    getPercentil(50) / 1e6, getPercentil(90) / 1e6, getPercentil(99) / 1e6,
+                    getPercentil(99.9) / 1e6, getPercentil(100) / 1e6);
+        }
+    }
+
+    //===== Construtor
+    public GeradorCarga(String host, int porta) {
+        this.host = host;
+        this.porta = porta;
+    }
+
+    /**
+     * @param args [host] [porta] [conexoes] [requisicoes_por_conexao] [contas]
+     */
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int porta = args.length > 1 ? Integer.parseInt(args[1]) : ServidorBanco.PORTA_PADRAO;
+        int conexoes = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int requisicoes = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        int contas = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+
+        GeradorCarga gerador = new GeradorCarga(host, porta);
+        System.out.println("Criando " + contas + " contas...");
+        gerador.preparar(contas);
+        System.out.println("Enviando " + requisicoes + " requisicoes em cada uma das " + conexoes + " conexoes"
+                + (Executores.suportaThreadsVirtuais() ? " (threads virtuais)..." : " (threads de plataforma)..."));
+        System.out.println(gerador.executar(conexoes, requisicoes));
+    }
+}
@@ -0,0 +1,196 @@
+package bancodoo.servidor;
+
+import bancodoo.exceptions.InputInvalidoException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Classe utilitaria que le e escreve o JSON usado pelo servidor. As
+ * requisicoes sao objetos simples (sem objetos ou vetores aninhados), por isso
+ * cada campo e lido como texto e convertido pelo tratador da requisicao.
+ *
+ * @author Vinicius Corbellini
+ */
+final class Json {
+
+    /**
+     * le um objeto JSON sem objetos ou vetores aninhados
+     *
+     * @param texto objeto JSON (ex: {"documento": "123", "valor": 10.5})
+     *
+     * @return campos do objeto (campos null sao ignorados)
+     *
+     * @throws InputInvalidoException se o texto nao for um objeto valido
+     */
+    static Map<String, String> lerObjeto(String texto) throws InputInvalidoException {
+        Map<String, String> campos = new HashMap<>();
+        Leitor l = new Leitor(texto);
+        l.esperar('{');
+        if (l.proximo() == '}') {
+            l.i++;
+            l.verificarFim();
+            return campos;
+        }
+
+        while (true) {
+            l.esperar('"');
+            String nome = l.lerTexto();
+            l.esperar(':');
+            if (l.proximo() == '"') {
+                l.i++;
+                campos.put(nome, l.lerTexto());
+            } else {
+                String literal = l.lerLiteral();
+                if (!literal.equals("null")) {
+                    campos.put(nome, literal);
+                }
+            }
+
+            char c = l.proximo();
+            l.i++;
+            if (c == '}') {
+                l.verificarFim();
+                return campos;
+            }
+            if (c != ',') {
+                throw new InputInvalidoException("JSON invalido!");
+            }
+        }
+    }
+
+    /**
+     * @param s texto
+     *
+     * @return texto entre aspas, com os caracteres especiais escapados
+     */
+    static String texto(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Posicao da leitura de um texto JSON
+     */
+    private static final class Leitor {
+
+        private final String s;
+        private int i;
+
+        Leitor(String s) {
+            this.s = s;
+        }
+
+        /**
+         * @return proximo caractere que nao e espaco (sem avancar)
+         */
+        char proximo() throws InputInvalidoException {
+            while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+                i++;
+            }
+            if (i == s.length()) {
+                throw new InputInvalidoException("JSON incompleto!");
+            }
+            return s.charAt(i);
+        }
+
+        void esperar(char c) throws InputInvalidoException {
+            if (proximo() != c) {
+                throw new InputInvalidoException("JSON invalido: esperado '" + c + "' na posicao " + i);
+            }
+            i++;
+        }
+
+        void verificarFim() throws InputInvalidoException {
+            while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+                i++;
+            }
+            if (i < s.length()) {
+                throw new InputInvalidoException("JSON invalido: texto apos o objeto!");
+            }
+        }
+
+        /**
+         * le um texto cuja aspa de abertura ja foi lida
+         */
+        String lerTexto() throws InputInvalidoException {
+            StringBuilder sb = new StringBuilder();
+            while (i < s.length()) {
+                char c = s.charAt(i++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (i == s.length()) {
+                    break;
+                }
+                char e = s.charAt(i++);
+                switch (e) {
+                    case '"', '\\', '/' -> sb.append(e);
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'u' -> {
+                        if (i + 4 > s.length()) {
+                            throw new InputInvalidoException("JSON invalido: escape incompleto!");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw new InputInvalidoException("JSON invalido: escape invalido!");
+                        }
+                        i += 4;
+                    }
+                    default -> throw new InputInvalidoException("JSON invalido: escape invalido!");
+                }
+            }
+            throw new InputInvalidoException("JSON incompleto!");
+        }
+
+        /**
+         * le um numero, true, false ou null
+         */
+        String lerLiteral() throws InputInvalidoException {
+            proximo();
+            int inicio = i;
+            while (i < s.length()) {
+                char c = s.charAt(i);
+                if (c == ',' || c == '}' || Character.isWhitespace(c)) {
+                    break;
+                }
+                if (c == '{' || c == '[' || c == '"') {
+                    throw new InputInvalidoException("JSON invalido: apenas campos simples sao aceitos!");
+                }
+                i++;
+            }
+            if (i == inicio) {
+                throw new InputInvalidoException("JSON invalido: valor ausente!");
+            }
+            return s.substring(inicio, i);
+        }
+    }
+
+    private Json() {
+    }
+}
@@ -0,0 +1,380 @@
+package bancodoo.servidor;
+
+import bancodoo.banco.Banco;
+import bancodoo.cliente.Cliente;
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.cliente.PessoaJuridica;
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.conta.Dinheiro;
+import bancodoo.conta.Poupanca;
+import bancodoo.conta.ResultadoOperacao;
+import bancodoo.exceptions.ClienteNotFoundException;
+import bancodoo.exceptions.ContaNotFoundException;
+import bancodoo.exceptions.InputInvalidoException;
+import bancodoo.movimentacao.FiltroMovimentacao;
+import bancodoo.movimentacao.Movimentacao;
+import bancodoo.movimentacao.PaginaMovimentacoes;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Classe que expoe as operacoes do banco em um servidor HTTP local, com
+ * requisicoes e respostas em JSON. E a alternativa ao menu do terminal (Main)
+ * para acessar o banco a partir de outros programas ou de varios clientes ao
+ * mesmo tempo.
+ *
+ * Rotas:
+ * - POST /clientes: {"tipo": "PF" ou "PJ", "documento", "nome", "email",
+ * "telefone" (PF) ou "razao_social" (PJ)}
+ * - POST /contas: {"documento", "tipo": "corrente" ou "poupanca", "saldo",
+ * "limite" (corrente) ou "limite_operacoes" e "rendimento" (poupanca)}
+ * - POST /saques e /depositos: {"documento", "conta", "valor"}
+ * - POST /transferencias: {"documento_remetente", "conta_remetente",
+ * "documento_destinatario", "conta_destinatario", "valor"}
+ * - GET /extrato?documento=&conta=[&cursor=&limite=&inicio=&fim=]: uma pagina
+ * do extrato (ver Banco.consultarMovimentacoes), com o cursor da proxima
+ * pagina
+ *
+ * Saques, depositos e transferencias usam as operacoes sem excecoes do banco
+ * (tentarSacar etc.) e respondem {"resultado": ResultadoOperacao}, com status
+ * 200 (sucesso), 404 (cliente ou conta nao encontrados) ou 422 (operacao
+ * recusada). Entradas invalidas respondem 400 com {"erro": mensagem}.
+ *
+ * Essas operacoes aceitam o cabecalho Idempotency-Key (ou o campo "chave"):
+ * o reenvio com a mesma chave responde o resultado original sem executar a
+ * operacao de novo, ou 409 se a operacao original ainda estiver em andamento
+ * (ver ChavesIdempotencia).
+ *
+ * Cada requisicao e tratada em uma thread virtual (ver Executores), de forma
+ * que requisicoes bloqueadas na gravacao do diario nao impedem o atendimento
+ * das demais conexoes.
+ *
+ * @author Vinicius Corbellini
+ */
+public class ServidorBanco {
+
+    public static final int PORTA_PADRAO = 8080;
+
+    //Tamanho do pool de threads quando a JVM nao suporta threads virtuais
+    public static final int THREADS_PLATAFORMA = 256;
+
+    //Conexoes pendentes aceitas pelo sistema operacional antes do accept
+    public static final int BACKLOG = 4096;
+
+    //Quantidade maxima de movimentacoes por pagina do extrato
+    public static final int LIMITE_PAGINA = 1000;
+
+    //Tamanho padrao de uma pagina do extrato
+    public static final int PAGINA_PADRAO = 100;
+
+    private final Banco banco;
+    private final HttpServer servidor;
+    private final ExecutorService executor;
+
+    /**
+     * Trata uma requisicao a partir dos seus parametros (campos do JSON e da
+     * query string)
+     */
+    @FunctionalInterface
+    private interface Tratador {
+
+        Resposta tratar(Map<String, String> parametros) throws Exception;
+    }
+
+    /**
+     * Status e corpo (JSON) de uma resposta
+     */
+    private static final class Resposta {
+
+        private final int status;
+        private final String corpo;
+
+        Resposta(int status, String corpo) {
+            this.status = status;
+            this.corpo = corpo;
+        }
+    }
+
+    /**
+     * comeca a aceitar conexoes
+     */
+    public void iniciar() {
+        servidor.start();
+    }
+
+    /**
+     * para de aceitar conexoes e encerra o executor das requisicoes
+     *
+     * @param espera_s tempo maximo, em segundos, para as requisicoes em
+     * andamento terminarem
+     */
+    public void parar(int espera_s) {
+        servidor.stop(espera_s);
+        executor.shutdown();
+    }
+
+    /**
+     * @return porta em que o servidor esta escutando
+     */
+    public int getPorta() {
+        return servidor.getAddress().getPort();
+    }
+
+    //===== Rotas
+    private Resposta adicionarCliente(Map<String, String> p) throws InputInvalidoException {
+        String tipo = texto(p, "tipo");
+        String documento = texto(p, "documento");
+        String nome = texto(p, "nome");
+        String email = texto(p, "email");
+
+        Cliente c = switch (tipo.toUpperCase()) {
+            case "PF" -> new PessoaFisica(documento, texto(p, "telefone"), nome, email);
+            case "PJ" -> new PessoaJuridica(documento, texto(p, "razao_social"), nome, email);
+            default -> throw new InputInvalidoException("tipo invalido de cliente!");
+        };
+        banco.adicionarCliente(c);
+        return new Resposta(201, "{\"documento\":" + Json.texto(c.getDocumento()) + "}");
+    }
+
+    private Resposta adicionarConta(Map<String, String> p) throws InputInvalidoException, ClienteNotFoundException {
+        String documento = texto(p, "documento");
+        double saldo = numero(p, "saldo");
+
+        Conta c = switch (texto(p, "tipo").toLowerCase()) {
+            case "corrente" -> new Corrente(numero(p, "limite"), saldo);
+            case "poupanca" -> new Poupanca(inteiro(p, "limite_operacoes"), numero(p, "rendimento"), saldo);
+            default -> throw new InputInvalidoException("tipo invalido de conta!");
+        };
+        banco.adicionarConta(documento, c);
+        return new Resposta(201, "{\"id\":" + c.getId() + "}");
+    }
+
+    private Resposta sacar(Map<String, String> p) throws InputInvalidoException {
+        return resultado(banco.tentarSacar(texto(p, "documento"), longo(p, "conta"), numero(p, "valor"), p.get("chave")));
+    }
+
+    private Resposta depositar(Map<String, String> p) throws InputInvalidoException {
+        return resultado(banco.tentarDepositar(texto(p, "documento"), longo(p, "conta"), numero(p, "valor"), p.get("chave")));
+    }
+
+    private Resposta transferir(Map<String, String> p) throws InputInvalidoException {
+        return resultado(banco.tentarTransferir(texto(p, "documento_remetente"), texto(p, "documento_destinatario"),
+                longo(p, "conta_remetente"), longo(p, "conta_destinatario"), numero(p, "valor"), p.get("chave")));
+    }
+
+    private Resposta extrato(Map<String, String> p) throws InputInvalidoException, ClienteNotFoundException, ContaNotFoundException {
+        int cursor = p.containsKey("cursor") ? inteiro(p, "cursor") : 0;
+        int limite = p.containsKey("limite") ? inteiro(p, "limite") : PAGINA_PADRAO;
+        if (cursor < 0 || limite < 1 || limite > LIMITE_PAGINA) {
+            throw new InputInvalidoException("Cursor ou tamanho de pagina invalido!");
+        }
+        long inicio = p.containsKey("inicio") ? longo(p, "inicio") : Long.MIN_VALUE;
+        long fim = p.containsKey("fim") ? longo(p, "fim") : Long.MAX_VALUE;
+
+        PaginaMovimentacoes pagina = banco.consultarMovimentacoes(texto(p, "documento"), longo(p, "conta"),
+                FiltroMovimentacao.todas().periodo(inicio, fim), cursor, limite);
+
+        StringBuilder sb = new StringBuilder(64 + pagina.getMovimentacoes().size() * 128);
+        sb.append("{\"movimentacoes\":[");
+        boolean primeira = true;
+        for (Movimentacao m : pagina.getMovimentacoes()) {
+            if (!primeira) {
+                sb.append(',');
+            }
+            primeira = false;
+            sb.append("{\"tipo\":\"").append(m.getTipo().name())
+                    .append("\",\"valor\":").append(Dinheiro.formatar(m.getValor()))
+                    .append(",\"dt_hora\":").append(m.getDt_hora())
+                    .append(",\"contraparte\":").append(m.getContraparte())
+                    .append(",\"saldo_atual\":").append(Dinheiro.formatar(m.getSaldo_atual()))
+                    .append('}');
+        }
+        sb.append("],\"proximo_cursor\":").append(pagina.getProximo_cursor()).append('}');
+        return new Resposta(200, sb.toString());
+    }
+
+    private static Resposta resultado(ResultadoOperacao r) {
+        int status = switch (r) {
+            case SUCESSO -> 200;
+            case CLIENTE_NAO_ENCONTRADO, CONTA_NAO_ENCONTRADA -> 404;
+            case EM_ANDAMENTO -> 409;
+            default -> 422;
+        };
+        return new Resposta(status, "{\"resultado\":\"" + r.name() + "\"}");
+    }
+
+    //===== Tratamento das requisicoes
+    /**
+     * monta o tratador HTTP de uma rota: le os parametros, chama o tratador e
+     * converte as excecoes nas respostas de erro
+     */
+    private static HttpHandler rota(String metodo, Tratador tratador) {
+        return troca -> {
+            Resposta r;
+            try {
+                if (!troca.getRequestMethod().equals(metodo)) {
+                    r = erro(405, "Metodo nao permitido, use " + metodo);
+                } else {
+                    r = tratador.tratar(lerParametros(troca));
+                }
+            } catch (ClienteNotFoundException | ContaNotFoundException e) {
+                r = erro(404, e.getMessage());
+            } catch (InputInvalidoException | IllegalArgumentException e) {
+                r = erro(400, e.getMessage());
+            } catch (Exception e) {
+                System.out.println("Erro no servidor -> " + e);
+                r = erro(500, "Erro interno!");
+            }
+            responder(troca, r);
+        };
+    }
+
+    /**
+     * le os parametros da query string, do corpo JSON (se houver) e a chave
+     * de idempotencia do cabecalho Idempotency-Key (como o parametro "chave")
+     */
+    private static Map<String, String> lerParametros(HttpExchange troca) throws IOException, InputInvalidoException {
+        Map<String, String> parametros = new HashMap<>();
+        String query = troca.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String par : query.split("&")) {
+                int igual = par.indexOf('=');
+                if (igual > 0) {
+                    parametros.put(URLDecoder.decode(par.substring(0, igual), StandardCharsets.UTF_8),
+                            URLDecoder.decode(par.substring(igual + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        byte[] corpo = troca.getRequestBody().readAllBytes();
+        if (corpo.length > 0) {
+            parametros.putAll(Json.lerObjeto(new String(corpo, StandardCharsets.UTF_8)));
+        }
+        String chave = troca.getRequestHeaders().getFirst("Idempotency-Key");
+        if (chave != null) {
+            parametros.put("chave", chave);
+        }
+        return parametros;
+    }
+
+    private static void responder(HttpExchange troca, Resposta r) throws IOException {
+        try {
+            byte[] corpo = r.corpo.getBytes(StandardCharsets.UTF_8);
+            troca.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            troca.sendResponseHeaders(r.status, corpo.length);
+            try (OutputStream out = troca.getResponseBody()) {
+                out.write(corpo);
+            }
+        } finally {
+            troca.close();
+        }
+    }
+
+    private static Resposta erro(int status, String mensagem) {
+        return new Resposta(status, "{\"erro\":" + Json.texto(String.valueOf(mensagem)) + "}");
+    }
+
+    //===== Leitura dos parametros
+    private static String texto(Map<String, String> p, String nome) throws InputInvalidoException {
+        String valor = p.get(nome);
+        if (valor == null) {
+            throw new InputInvalidoException("Campo obrigatorio ausente: " + nome);
+        }
+        return valor;
+    }
+
+    private static double numero(Map<String, String> p, String nome) throws InputInvalidoException {
+        try {
+            return Double.parseDouble(texto(p, nome));
+        } catch (NumberFormatException e) {
+            throw new InputInvalidoException("Numero invalido: " + nome);
+        }
+    }
+
+    private static long longo(Map<String, String> p, String nome) throws InputInvalidoException {
+        try {
+            return Long.parseLong(texto(p, nome));
+        } catch (NumberFormatException e) {
+            throw new InputInvalidoException("Numero inteiro invalido: " + nome);
+        }
+    }
+
+    private static int inteiro(Map<String, String> p, String nome) throws InputInvalidoException {
+        try {
+            return Integer.parseInt(texto(p, nome));
+        } catch (NumberFormatException e) {
+            throw new InputInvalidoException("Numero inteiro invalido: " + nome);
+        }
+    }
+
+    //===== Construtor
+    /**
+     * @param banco banco exposto pelo servidor (pode ter diario)
+     *
+     * @param porta porta local (0 = qualquer porta livre)
+     *
+     * @param executor executor das requisicoes (ver Executores.porTarefa)
+     *
+     * @throws IOException se a porta nao puder ser aberta
+     */
+    public ServidorBanco(Banco banco, int porta, ExecutorService executor) throws IOException {
+        this.banco = banco;
+        this.executor = executor;
+        this.servidor = HttpServer.create(new InetSocketAddress(porta), BACKLOG);
+        servidor.createContext("/clientes", rota("POST", this::adicionarCliente));
+        servidor.createContext("/contas", rota("POST", this::adicionarConta));
+        servidor.createContext("/saques", rota("POST", this::sacar));
+        servidor.createContext("/depositos", rota("POST", this::depositar));
+        servidor.createContext("/transferencias", rota("POST", this::transferir));
+        servidor.createContext("/extrato", rota("GET", this::extrato));
+        servidor.setExecutor(executor);
+    }
+
+    /**
+     * usa threads virtuais se a JVM suportar ou o modo informado na
+     * propriedade de sistema bancodoo.threads (ver Executores.Modo)
+     *
+     * @param banco banco exposto pelo servidor
+     *
+     * @param porta porta local (0 = qualquer porta livre)
+     *
+     * @throws IOException se a porta nao puder ser aberta
+     */
+    public ServidorBanco(Banco banco, int porta) throws IOException {
+        this(banco, porta, Executores.criar(Executores.Modo.de(System.getProperty("bancodoo.threads")), THREADS_PLATAFORMA));
+    }
+
+    /**
+     * inicia o servidor com um banco vazio
+     *
+     * @param args [porta]
+     *
+     * @throws IOException se a porta nao puder ser aberta
+     */
+    public static void main(String[] args) throws IOException {
+        //o servidor HTTP do JDK fecha as conexoes ociosas acima desse limite
+        //(padrao 200), o que obrigaria os clientes a reconectar, e grava os
+        //cabecalhos e o corpo da resposta separadamente: sem TCP_NODELAY, o
+        //corpo espera o ACK atrasado do cliente (~40 ms por requisicao)
+        System.setProperty("sun.net.httpserver.maxIdleConnections",
+                System.getProperty("sun.net.httpserver.maxIdleConnections", "100000"));
+        System.setProperty("sun.net.httpserver.nodelay",
+                System.getProperty("sun.net.httpserver.nodelay", "true"));
+        int porta = args.length > 0 ? Integer.parseInt(args[0]) : PORTA_PADRAO;
+        ServidorBanco s = new ServidorBanco(new Banco(), porta);
+        s.iniciar();
+        System.out.println("Servidor do banco escutando na porta " + s.getPorta()
+                + (s.executor instanceof ThreadPoolExecutor ? " (pool de " + THREADS_PLATAFORMA + " threads)" : " (threads virtuais)"));
+    }
+}
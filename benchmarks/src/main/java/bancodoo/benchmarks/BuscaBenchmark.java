@@ -0,0 +1,96 @@
+package bancodoo.benchmarks;
+
+import bancodoo.cliente.Cliente;
+import bancodoo.conta.Conta;
+import bancodoo.exceptions.ClienteNotFoundException;
+import bancodoo.exceptions.ContaNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks das buscas de clientes (por documento) e de contas (por id)
+ * pelos indices do banco, comparadas com a varredura de uma lista de clientes
+ * (como o Banco fazia antes dos indices) sobre os mesmos clientes
+ *
+ * @author Vinicius Corbellini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class BuscaBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int clientes;
+
+    @Param({"1", "16"})
+    int particoes;
+
+    private Cenarios.Cenario cenario;
+    private List<Cliente> lista;
+    private int[] indices;
+    private int proximo;
+
+    @Setup
+    public void montar() throws Exception {
+        cenario = Cenarios.montar(clientes, particoes);
+        indices = Cenarios.sequencia(clientes);
+        lista = new ArrayList<>(clientes);
+        for (String doc : cenario.documentos) {
+            lista.add(cenario.banco.procurarCliente(doc));
+        }
+    }
+
+    private int indice() {
+        return indices[proximo++ & (Cenarios.TAMANHO_SEQUENCIA - 1)];
+    }
+
+    @Benchmark
+    public Cliente procurarCliente() throws ClienteNotFoundException {
+        return cenario.banco.procurarCliente(cenario.documentos[indice()]);
+    }
+
+    @Benchmark
+    public Conta procurarConta() throws ContaNotFoundException {
+        return cenario.banco.procurarConta(cenario.correntes[indice()]);
+    }
+
+    //===== Linha de base: varredura da lista de clientes
+    @Benchmark
+    public Cliente procurarClienteNaLista() throws ClienteNotFoundException {
+        String documento = cenario.documentos[indice()];
+        for (Cliente c : lista) {
+            if (c.getDocumento().equalsIgnoreCase(documento)) {
+                return c;
+            }
+        }
+        throw new ClienteNotFoundException();
+    }
+
+    @Benchmark
+    public Conta procurarContaNaLista() throws ContaNotFoundException {
+        Long id = cenario.correntes[indice()];
+        for (Cliente c : lista) {
+            for (Conta conta : c.getContas()) {
+                if (conta.getId().equals(id)) {
+                    return conta;
+                }
+            }
+        }
+        throw new ContaNotFoundException();
+    }
+}
@@ -0,0 +1,118 @@
+package bancodoo.benchmarks;
+
+import bancodoo.banco.Banco;
+import bancodoo.banco.CacheClientes;
+import bancodoo.cliente.Cliente;
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.persistencia.ArmazemClientes;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark de depositos em um banco com ArmazemClientes, com CLIENTES
+ * clientes e apenas "capacidade" deles em memoria (ver CacheClientes):
+ *
+ * - uniforme: todos os clientes tem a mesma chance de serem usados
+ * - concentrada: 90% das operacoes usam 10% dos clientes
+ *
+ * Com capacidade = CLIENTES todos os clientes ficam em memoria e o custo
+ * medido e apenas o das travas e do historico em arquivo. Ao final sao
+ * impressas as metricas do cache (taxa de acertos e descartes).
+ *
+ * @author Vinicius Corbellini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CacheBenchmark {
+
+    //Quantidade de clientes do armazem
+    static final int CLIENTES = 100_000;
+
+    //Indices pre-calculados (potencia de 2). Maior que a sequencia dos
+    //Cenarios para que os clientes usados nao caibam todos no cache
+    static final int TAMANHO_SEQUENCIA = 1 << 20;
+
+    @Param({"1000", "10000", "100000"})
+    int capacidade;
+
+    @Param({"uniforme", "concentrada"})
+    String distribuicao;
+
+    private Banco banco;
+    private ArmazemClientes armazem;
+    private Path diretorio;
+    private String[] documentos;
+    private Long[] correntes;
+    private int[] indices;
+    private int proximo;
+
+    @Setup
+    public void montar() throws Exception {
+        diretorio = Files.createTempDirectory("bench-cache");
+        armazem = new ArmazemClientes(diretorio);
+        banco = new Banco(16);
+        banco.usarArmazem(armazem, capacidade);
+
+        documentos = new String[CLIENTES];
+        correntes = new Long[CLIENTES];
+        List<Cliente> lote = new ArrayList<>(CLIENTES);
+        for (int i = 0; i < CLIENTES; i++) {
+            documentos[i] = String.format("%011d", i);
+            lote.add(new PessoaFisica(documentos[i], "4899999" + i, "Cliente " + i, "cliente" + i + "@email.com"));
+        }
+        banco.adicionarClientes(lote);
+        for (int i = 0; i < CLIENTES; i++) {
+            Conta corrente = new Corrente(Cenarios.SALDO_INICIAL, Cenarios.SALDO_INICIAL);
+            banco.adicionarConta(documentos[i], corrente);
+            correntes[i] = corrente.getId();
+        }
+
+        SplittableRandom r = new SplittableRandom(42);
+        indices = new int[TAMANHO_SEQUENCIA];
+        for (int i = 0; i < indices.length; i++) {
+            boolean quente = distribuicao.equals("concentrada") && r.nextInt(10) < 9;
+            indices[i] = r.nextInt(quente ? CLIENTES / 10 : CLIENTES);
+        }
+    }
+
+    @TearDown
+    public void desmontar() throws Exception {
+        CacheClientes cache = banco.getCache();
+        System.out.println();
+        System.out.println(cache);
+        armazem.close();
+        try (Stream<Path> arquivos = Files.walk(diretorio)) {
+            arquivos.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Object depositar() {
+        int i = indices[proximo++ & (TAMANHO_SEQUENCIA - 1)];
+        return banco.tentarDepositar(documentos[i], correntes[i], 0.01);
+    }
+}
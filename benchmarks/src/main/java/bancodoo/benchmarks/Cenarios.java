@@ -0,0 +1,111 @@
+package bancodoo.benchmarks;
+
+import bancodoo.banco.Banco;
+import bancodoo.cliente.Cliente;
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.conta.Poupanca;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Classe utilitaria que monta os bancos usados pelos benchmarks: clientes
+ * pessoa fisica, cada um com uma conta corrente e uma poupanca com saldo alto o
+ * suficiente para que nenhuma operacao falhe por falta de saldo
+ *
+ * @author Vinicius Corbellini
+ */
+final class Cenarios {
+
+    //Quantidade de indices pseudoaleatorios pre-calculados (potencia de 2)
+    static final int TAMANHO_SEQUENCIA = 1 << 12;
+
+    //Saldo inicial de cada conta, em reais
+    static final double SALDO_INICIAL = 1_000_000_000.0;
+
+    /**
+     * Banco montado para um benchmark e os documentos e ids das suas contas,
+     * na ordem de criacao
+     */
+    static final class Cenario {
+
+        final Banco banco;
+        final String[] documentos;
+        final Long[] correntes;
+        final Long[] poupancas;
+
+        Cenario(Banco banco, String[] documentos, Long[] correntes, Long[] poupancas) {
+            this.banco = banco;
+            this.documentos = documentos;
+            this.correntes = correntes;
+            this.poupancas = poupancas;
+        }
+    }
+
+    /**
+     * monta um banco com a quantidade informada de clientes
+     *
+     * @param clientes quantidade de clientes
+     *
+     * @param particoes quantidade de particoes do banco
+     *
+     * @return cenario montado
+     */
+    static Cenario montar(int clientes, int particoes) throws Exception {
+        Banco banco = new Banco(particoes);
+        String[] documentos = new String[clientes];
+        Long[] correntes = new Long[clientes];
+        Long[] poupancas = new Long[clientes];
+
+        List<Cliente> lote = new ArrayList<>(clientes);
+        for (int i = 0; i < clientes; i++) {
+            documentos[i] = String.format("%011d", i);
+            lote.add(new PessoaFisica(documentos[i], "4899999" + i, "Cliente " + i, "cliente" + i + "@email.com"));
+        }
+        banco.adicionarClientes(lote);
+
+        for (int i = 0; i < clientes; i++) {
+            Conta corrente = new Corrente(SALDO_INICIAL, SALDO_INICIAL);
+            Conta poupanca = new Poupanca(Integer.MAX_VALUE, 0.005, SALDO_INICIAL);
+            banco.adicionarConta(documentos[i], corrente);
+            banco.adicionarConta(documentos[i], poupanca);
+            correntes[i] = corrente.getId();
+            poupancas[i] = poupanca.getId();
+        }
+        return new Cenario(banco, documentos, correntes, poupancas);
+    }
+
+    /**
+     * gera uma sequencia fixa de indices pseudoaleatorios em [0, limite), para
+     * que os benchmarks nao medam o custo do gerador de numeros aleatorios
+     *
+     * @param limite limite superior (exclusivo)
+     *
+     * @return sequencia com TAMANHO_SEQUENCIA indices
+     */
+    static int[] sequencia(int limite) {
+        SplittableRandom r = new SplittableRandom(42);
+        int[] indices = new int[TAMANHO_SEQUENCIA];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = r.nextInt(limite);
+        }
+        return indices;
+    }
+
+    /**
+     * descarta o historico de movimentacoes de todas as contas do cenario
+     * (chamado entre as iteracoes dos benchmarks que movimentam as contas,
+     * para que o historico nao cresca sem limite)
+     */
+    static void limparHistorico(Cenario cenario) throws Exception {
+        for (int i = 0; i < cenario.documentos.length; i++) {
+            cenario.banco.procurarConta(cenario.correntes[i]).getMovimentacoes().clear();
+            cenario.banco.procurarConta(cenario.poupancas[i]).getMovimentacoes().clear();
+        }
+    }
+
+    private Cenarios() {
+    }
+}
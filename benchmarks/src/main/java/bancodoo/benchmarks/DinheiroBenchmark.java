@@ -0,0 +1,147 @@
+package bancodoo.benchmarks;
+
+import bancodoo.conta.Dinheiro;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks da aritmetica de saldos em centavos (long, ver Dinheiro)
+ * comparada com a representacao anterior das contas, com saldo, limite e
+ * rendimento em objetos Double. Cada operacao de uma versao repete as
+ * verificacoes e contas da outra, sem historico, para medir apenas o custo da
+ * representacao (inclusive a alocacao dos Double, visivel com -prof gc)
+ *
+ * @author Vinicius Corbellini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DinheiroBenchmark {
+
+    //Quantidade de contas de cada versao (potencia de 2)
+    private static final int CONTAS = 1024;
+
+    //Valor de cada transferencia
+    private static final double VALOR = 0.01;
+    private static final long VALOR_CENTAVOS = Dinheiro.paraCentavos(VALOR);
+
+    //Rendimento mensal da poupanca
+    private static final double RENDIMENTO = 0.005;
+
+    /**
+     * Conta como era antes do Dinheiro: cada alteracao do saldo aloca um
+     * novo Double
+     */
+    static final class ContaDouble {
+
+        Double saldo;
+        Double limite;
+        Double rendimento_mensal;
+
+        ContaDouble(Double saldo, Double limite, Double rendimento_mensal) {
+            this.saldo = saldo;
+            this.limite = limite;
+            this.rendimento_mensal = rendimento_mensal;
+        }
+    }
+
+    /**
+     * Conta com os valores em centavos e a taxa em milionesimos
+     */
+    static final class ContaCentavos {
+
+        long saldo;
+        long limite;
+        long rendimento;
+
+        ContaCentavos(long saldo, long limite, long rendimento) {
+            this.saldo = saldo;
+            this.limite = limite;
+            this.rendimento = rendimento;
+        }
+    }
+
+    private ContaDouble[] doubles;
+    private ContaCentavos[] centavos;
+    private int[] indices;
+    private int proximo;
+
+    @Setup
+    public void montar() {
+        doubles = new ContaDouble[CONTAS];
+        centavos = new ContaCentavos[CONTAS];
+        for (int i = 0; i < CONTAS; i++) {
+            doubles[i] = new ContaDouble(Cenarios.SALDO_INICIAL, Cenarios.SALDO_INICIAL, RENDIMENTO);
+            centavos[i] = new ContaCentavos(Dinheiro.paraCentavos(Cenarios.SALDO_INICIAL),
+                    Dinheiro.paraCentavos(Cenarios.SALDO_INICIAL),
+                    Dinheiro.paraMilionesimos(RENDIMENTO));
+        }
+        indices = Cenarios.sequencia(CONTAS);
+    }
+
+    private int indice() {
+        return indices[proximo++ & (Cenarios.TAMANHO_SEQUENCIA - 1)];
+    }
+
+    //===== Transferencias (Corrente.transferir)
+    @Benchmark
+    public Double transferirDouble() {
+        int i = indice();
+        ContaDouble origem = doubles[i];
+        ContaDouble destino = doubles[(i + 1) & (CONTAS - 1)];
+        Double valor = VALOR;
+        if (origem.limite < valor || origem.saldo < valor) {
+            return null;
+        }
+        destino.saldo += valor;
+        origem.saldo -= valor;
+        return origem.saldo;
+    }
+
+    @Benchmark
+    public long transferirCentavos() {
+        int i = indice();
+        ContaCentavos origem = centavos[i];
+        ContaCentavos destino = centavos[(i + 1) & (CONTAS - 1)];
+        long valor = VALOR_CENTAVOS;
+        if (origem.limite < valor || origem.saldo < valor) {
+            return -1;
+        }
+        destino.saldo += valor;
+        origem.saldo -= valor;
+        return origem.saldo;
+    }
+
+    //===== Rendimento (Poupanca.aplicarRendimento)
+    @Benchmark
+    public Double aplicarRendimentoDouble() {
+        ContaDouble c = doubles[indice()];
+        double valor = c.rendimento_mensal * c.saldo;
+        c.saldo += valor;
+        //mantem o saldo estavel entre as iteracoes
+        c.saldo -= valor;
+        return c.saldo;
+    }
+
+    @Benchmark
+    public long aplicarRendimentoCentavos() {
+        ContaCentavos c = centavos[indice()];
+        long valor = Dinheiro.aplicarTaxa(c.saldo, c.rendimento);
+        c.saldo += valor;
+        //mantem o saldo estavel entre as iteracoes
+        c.saldo -= valor;
+        return c.saldo;
+    }
+}
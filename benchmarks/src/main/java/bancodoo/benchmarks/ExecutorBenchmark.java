@@ -0,0 +1,119 @@
+package bancodoo.benchmarks;
+
+import bancodoo.persistencia.Diario;
+import bancodoo.servidor.ExecutorOperacoes;
+import bancodoo.servidor.Executores;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark da vazao do ExecutorOperacoes com EM_ANDAMENTO operacoes enviadas
+ * de uma vez (saques, depositos e transferencias em contas aleatorias), em
+ * threads virtuais ou em pools de threads de plataforma, com o banco apenas
+ * em memoria ou com diario (cada operacao espera o fsync do seu lote).
+ *
+ * Obs: o modo virtual exige Java 21 ou superior. O consumo de memoria com as
+ * operacoes em andamento e medido pelo programa MemoriaExecutores
+ *
+ * @author Vinicius Corbellini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ExecutorBenchmark {
+
+    //Operacoes enviadas a cada invocacao
+    static final int EM_ANDAMENTO = 10_000;
+
+    //Quantidade de clientes do cenario
+    static final int CLIENTES = 10_000;
+
+    //virtual ou plataforma-<threads>
+    @Param({"virtual", "plataforma-256", "plataforma-10000"})
+    String executor;
+
+    @Param({"memoria", "diario"})
+    String persistencia;
+
+    private Cenarios.Cenario cenario;
+    private int[] indices;
+    private int proximo;
+    private ExecutorOperacoes operacoes;
+    private Diario diario;
+    private Path diretorio;
+
+    @Setup
+    public void montar() throws Exception {
+        cenario = Cenarios.montar(CLIENTES, 16);
+        indices = Cenarios.sequencia(CLIENTES);
+        if (persistencia.equals("diario")) {
+            diretorio = Files.createTempDirectory("bench-executor");
+            diario = new Diario(diretorio, 0);
+            cenario.banco.setDiario(diario);
+        }
+        operacoes = criar(cenario, executor);
+    }
+
+    @TearDown
+    public void desmontar() throws Exception {
+        operacoes.close();
+        if (diario != null) {
+            cenario.banco.setDiario(null);
+            diario.close();
+            try (Stream<Path> arquivos = Files.walk(diretorio)) {
+                arquivos.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EM_ANDAMENTO)
+    public void operacoes() {
+        CompletableFuture<?>[] futuros = new CompletableFuture<?>[EM_ANDAMENTO];
+        for (int i = 0; i < EM_ANDAMENTO; i++) {
+            int o = indices[proximo++ & (Cenarios.TAMANHO_SEQUENCIA - 1)];
+            String doc = cenario.documentos[o];
+            Long id = cenario.correntes[o];
+            futuros[i] = switch (i % 3) {
+                case 0 -> operacoes.sacar(doc, id, 0.01);
+                case 1 -> operacoes.depositar(doc, id, 0.01);
+                default -> {
+                    int d = (o + 1) % CLIENTES;
+                    yield operacoes.transferir(doc, cenario.documentos[d], id, cenario.correntes[d], 0.01);
+                }
+            };
+        }
+        CompletableFuture.allOf(futuros).join();
+    }
+
+    /**
+     * cria o executor descrito por "virtual" ou "plataforma-<threads>"
+     */
+    static ExecutorOperacoes criar(Cenarios.Cenario cenario, String executor) {
+        if (executor.equals("virtual")) {
+            return new ExecutorOperacoes(cenario.banco, Executores.Modo.VIRTUAL, 1);
+        }
+        int threads = Integer.parseInt(executor.substring(executor.indexOf('-') + 1));
+        return new ExecutorOperacoes(cenario.banco, Executores.Modo.PLATAFORMA, threads);
+    }
+}
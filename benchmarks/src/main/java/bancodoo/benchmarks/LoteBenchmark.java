@@ -0,0 +1,72 @@
+package bancodoo.benchmarks;
+
+import bancodoo.banco.Operacao;
+import bancodoo.conta.ResultadoOperacao;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark de um lote de depositos (ex: folha de pagamento) executado por
+ * Banco.executarLote, comparado com as mesmas operacoes feitas uma a uma por
+ * Banco.depositar
+ *
+ * @author Vinicius Corbellini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LoteBenchmark {
+
+    @Param({"100000"})
+    int clientes;
+
+    @Param({"1000", "10000"})
+    int tamanho_lote;
+
+    private Cenarios.Cenario cenario;
+    private List<Operacao> lote;
+
+    @Setup
+    public void montar() throws Exception {
+        cenario = Cenarios.montar(clientes, 16);
+        int[] indices = Cenarios.sequencia(clientes);
+        lote = new ArrayList<>(tamanho_lote);
+        for (int i = 0; i < tamanho_lote; i++) {
+            int c = indices[i & (Cenarios.TAMANHO_SEQUENCIA - 1)];
+            lote.add(Operacao.deposito(cenario.documentos[c], cenario.correntes[c], 1.0));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void limpar() throws Exception {
+        Cenarios.limparHistorico(cenario);
+    }
+
+    @Benchmark
+    public ResultadoOperacao[] executarLote() {
+        return cenario.banco.executarLote(lote);
+    }
+
+    @Benchmark
+    public void depositarUmAUm() throws Exception {
+        for (Operacao op : lote) {
+            cenario.banco.depositar(op.getDocumento(), op.getId(), 1.0);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package bancodoo.benchmarks;
+
+import bancodoo.conta.Conta;
+import bancodoo.persistencia.Diario;
+import bancodoo.servidor.ExecutorOperacoes;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Programa que mede o consumo de memoria do ExecutorOperacoes com
+ * ExecutorBenchmark.EM_ANDAMENTO saques em andamento ao mesmo tempo (um por
+ * conta, com diario). As travas de todas as contas sao seguradas pela thread
+ * principal, de forma que as operacoes ficam bloqueadas ate que todas tenham
+ * comecado (ou, no pool de plataforma, ate que todas as threads do pool
+ * estejam ocupadas). Entao sao medidos o heap usado, a memoria residente do
+ * processo (Linux) e a quantidade de threads de plataforma, e as travas sao
+ * liberadas para medir o tempo ate a ultima operacao terminar.
+ *
+ * Uso (uma execucao por executor, para que as medicoes nao se misturem):
+ * java -cp benchmarks.jar bancodoo.benchmarks.MemoriaExecutores
+ * virtual|plataforma-256|plataforma-10000
+ *
+ * @author Vinicius Corbellini
+ */
+public class MemoriaExecutores {
+
+    public static void main(String[] args) throws Exception {
+        String executor = args.length > 0 ? args[0] : "virtual";
+        int n = ExecutorBenchmark.EM_ANDAMENTO;
+
+        Cenarios.Cenario cenario = Cenarios.montar(n, 16);
+        Conta[] contas = new Conta[n];
+        for (int i = 0; i < n; i++) {
+            contas[i] = cenario.banco.procurarConta(cenario.correntes[i]);
+        }
+        Path diretorio = Files.createTempDirectory("memoria-executor");
+        Diario diario = new Diario(diretorio, 0);
+        cenario.banco.setDiario(diario);
+        ExecutorOperacoes operacoes = ExecutorBenchmark.criar(cenario, executor);
+
+        MemoryMXBean memoria = ManagementFactory.getMemoryMXBean();
+        long heap_inicial = heapUsado(memoria);
+        long rss_inicial = rss();
+        int threads_iniciais = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        for (Conta c : contas) {
+            c.getTrava().lock();
+        }
+        CompletableFuture<?>[] futuros = new CompletableFuture<?>[n];
+        for (int i = 0; i < n; i++) {
+            futuros[i] = operacoes.sacar(cenario.documentos[i], cenario.correntes[i], 0.01);
+        }
+
+        //espera todas as operacoes que podem executar ficarem bloqueadas
+        int esperadas = operacoes.isVirtual() ? n : Math.min(n, Integer.parseInt(executor.substring(executor.indexOf('-') + 1)));
+        while (bloqueadas(contas) < esperadas) {
+            Thread.sleep(10);
+        }
+
+        long heap = heapUsado(memoria) - heap_inicial;
+        long rss = rss() - rss_inicial;
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threads_iniciais;
+
+        long inicio = System.nanoTime();
+        for (Conta c : contas) {
+            c.getTrava().unlock();
+        }
+        CompletableFuture.allOf(futuros).join();
+        long duracao = System.nanoTime() - inicio;
+
+        System.out.printf("Executor: %s | operacoes em andamento: %d (bloqueadas: %d, na fila: %d)%n",
+                executor, n, esperadas, n - esperadas);
+        System.out.printf("Heap usado: +%.1f MB | memoria residente: +%.1f MB | threads de plataforma: +%d%n",
+                heap / 1e6, rss / 1e6, threads);
+        System.out.printf("Conclusao das %d operacoes (com diario): %.1f ms (%.0f ops/s)%n",
+                n, duracao / 1e6, n * 1e9 / duracao);
+
+        operacoes.close();
+        cenario.banco.setDiario(null);
+        diario.close();
+        try (Stream<Path> arquivos = Files.walk(diretorio)) {
+            arquivos.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * @return quantidade de threads esperando as travas das contas
+     */
+    private static int bloqueadas(Conta[] contas) {
+        int total = 0;
+        for (Conta c : contas) {
+            total += c.getTrava().getQueueLength();
+        }
+        return total;
+    }
+
+    private static long heapUsado(MemoryMXBean memoria) {
+        System.gc();
+        return memoria.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return memoria residente do processo em bytes (0 fora do Linux)
+     */
+    private static long rss() throws Exception {
+        Path status = Path.of("/proc/self/status");
+        if (!Files.exists(status)) {
+            return 0;
+        }
+        List<String> linhas = Files.readAllLines(status);
+        for (String l : linhas) {
+            if (l.startsWith("VmRSS:")) {
+                return Long.parseLong(l.replaceAll("[^0-9]", "")) * 1024;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,168 @@
+package bancodoo.benchmarks;
+
+import bancodoo.banco.MotorSequencial;
+import bancodoo.banco.Operacao;
+import bancodoo.persistencia.Diario;
+import bancodoo.servidor.ExecutorOperacoes;
+import bancodoo.servidor.Executores;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark da vazao do MotorSequencial comparado ao caminho com travas do
+ * Banco, executando LOTE operacoes pre-montadas (saques, depositos e
+ * transferencias em contas aleatorias) por invocacao:
+ *
+ * - motor: todas as operacoes sao publicadas no anel e a invocacao espera a
+ * conclusao da ultima
+ * - travas: as operacoes sao executadas uma a uma pela thread do benchmark
+ * (Banco.tentarSacar etc.)
+ * - travas-virtual: as operacoes sao enviadas ao mesmo tempo pelo
+ * ExecutorOperacoes (threads virtuais no Java 21)
+ *
+ * com o banco apenas em memoria ou com diario.
+ *
+ * Obs: o historico das contas e descartado a cada iteracao para que o
+ * consumo de memoria nao cresca durante a medicao
+ *
+ * @author Vinicius Corbellini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class MotorBenchmark {
+
+    //Operacoes por invocacao
+    static final int LOTE = 4096;
+
+    //Quantidade de clientes do cenario
+    static final int CLIENTES = 10_000;
+
+    @Param({"motor", "travas", "travas-virtual"})
+    String caminho;
+
+    @Param({"memoria", "diario"})
+    String persistencia;
+
+    private Cenarios.Cenario cenario;
+    private Operacao[] operacoes;
+    private MotorSequencial motor;
+    private ExecutorOperacoes executor;
+    private Diario diario;
+    private Path diretorio;
+
+    @Setup
+    public void montar() throws Exception {
+        cenario = Cenarios.montar(CLIENTES, 16);
+        if (persistencia.equals("diario")) {
+            diretorio = Files.createTempDirectory("bench-motor");
+            diario = new Diario(diretorio, 0);
+            cenario.banco.setDiario(diario);
+        }
+
+        int[] indices = Cenarios.sequencia(CLIENTES);
+        operacoes = new Operacao[LOTE];
+        for (int i = 0; i < LOTE; i++) {
+            int o = indices[i & (Cenarios.TAMANHO_SEQUENCIA - 1)];
+            int d = (o + 1) % CLIENTES;
+            String doc = cenario.documentos[o];
+            Long id = cenario.correntes[o];
+            operacoes[i] = switch (i % 3) {
+                case 0 -> Operacao.saque(doc, id, 0.01);
+                case 1 -> Operacao.deposito(doc, id, 0.01);
+                default -> Operacao.transferencia(doc, cenario.documentos[d], id, cenario.correntes[d], 0.01);
+            };
+        }
+
+        switch (caminho) {
+            case "motor" -> motor = new MotorSequencial(cenario.banco);
+            case "travas-virtual" -> executor = new ExecutorOperacoes(cenario.banco, Executores.Modo.AUTOMATICO, ExecutorOperacoes.THREADS_PLATAFORMA);
+            default -> {
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void limpar() throws Exception {
+        Cenarios.limparHistorico(cenario);
+    }
+
+    @TearDown
+    public void desmontar() throws Exception {
+        if (motor != null) {
+            motor.close();
+        }
+        if (executor != null) {
+            executor.close();
+        }
+        if (diario != null) {
+            cenario.banco.setDiario(null);
+            diario.close();
+            try (Stream<Path> arquivos = Files.walk(diretorio)) {
+                arquivos.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOTE)
+    public void operacoes() {
+        switch (caminho) {
+            case "motor" -> {
+                long ultima = 0;
+                for (Operacao op : operacoes) {
+                    ultima = motor.publicar(op);
+                }
+                motor.aguardar(ultima);
+            }
+            case "travas" -> {
+                for (Operacao op : operacoes) {
+                    executarComTravas(op);
+                }
+            }
+            default -> {
+                CompletableFuture<?>[] futuros = new CompletableFuture<?>[LOTE];
+                for (int i = 0; i < LOTE; i++) {
+                    Operacao op = operacoes[i];
+                    futuros[i] = switch (op.getTipo()) {
+                        case SAQUE -> executor.sacar(op.getDocumento(), op.getId(), 0.01);
+                        case DEPOSITO -> executor.depositar(op.getDocumento(), op.getId(), 0.01);
+                        case TRANSFERENCIA -> executor.transferir(op.getDocumento(), op.getDocumento_destino(),
+                                op.getId(), op.getId_destino(), 0.01);
+                    };
+                }
+                CompletableFuture.allOf(futuros).join();
+            }
+        }
+    }
+
+    private void executarComTravas(Operacao op) {
+        switch (op.getTipo()) {
+            case SAQUE -> cenario.banco.tentarSacar(op.getDocumento(), op.getId(), 0.01);
+            case DEPOSITO -> cenario.banco.tentarDepositar(op.getDocumento(), op.getId(), 0.01);
+            case TRANSFERENCIA -> cenario.banco.tentarTransferir(op.getDocumento(), op.getDocumento_destino(),
+                    op.getId(), op.getId_destino(), 0.01);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package bancodoo.benchmarks;
+
+import bancodoo.banco.Banco;
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.conta.Corrente;
+import bancodoo.movimentacao.FiltroMovimentacao;
+import bancodoo.movimentacao.TipoMovimentacao;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks do historico de movimentacoes: listagem do extrato de uma conta
+ * (Banco.listarMovimentacoes), consulta da primeira pagina do extrato, extrato
+ * de um mes em uma conta com dez anos de historico e registro de novas
+ * movimentacoes, com o historico no heap, mapeado em memoria ou circular
+ * (ultimas CAPACIDADE_CIRCULAR movimentacoes em memoria e as demais em disco).
+ *
+ * Para medir a alocacao por movimentacao, execute com o profiler de GC:
+ * java -jar benchmarks/target/benchmarks.jar MovimentacaoBenchmark.registrar -prof gc
+ *
+ * @author Vinicius Corbellini
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class MovimentacaoBenchmark {
+
+    //Movimentacoes mantidas em memoria pelo historico circular
+    private static final int CAPACIDADE_CIRCULAR = 1024;
+
+    //Movimentacoes por pagina na consulta paginada
+    private static final int TAMANHO_PAGINA = 100;
+
+    /**
+     * conta com um historico de tamanho fixo, usada na listagem
+     */
+    @State(Scope.Benchmark)
+    public static class Extrato {
+
+        @Param({"100", "10000", "1000000"})
+        int historico;
+
+        @Param({"heap", "mapeado", "circular"})
+        String armazenamento;
+
+        Banco banco;
+        Corrente conta;
+        Path diretorio;
+        PrintStream saida;
+
+        @Setup
+        public void montar() throws Exception {
+            banco = new Banco();
+            diretorio = Files.createTempDirectory("historico");
+            conta = criarConta(banco, armazenamento, diretorio);
+            for (int i = 0; i < historico; i++) {
+                conta.depositar(1);
+            }
+
+            //o extrato e impresso no sysout, que e descartado durante a medicao
+            saida = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+
+        @TearDown
+        public void desmontar() throws IOException {
+            System.setOut(saida);
+            apagar(diretorio);
+        }
+    }
+
+    /**
+     * conta recriada a cada iteracao, usada no registro de movimentacoes
+     */
+    @State(Scope.Benchmark)
+    public static class Registro {
+
+        @Param({"heap", "mapeado", "circular"})
+        String armazenamento;
+
+        Corrente conta;
+        Path diretorio;
+
+        @Setup(Level.Iteration)
+        public void montar() throws Exception {
+            diretorio = Files.createTempDirectory("historico");
+            conta = criarConta(new Banco(), armazenamento, diretorio);
+        }
+
+        @TearDown(Level.Iteration)
+        public void desmontar() throws IOException {
+            conta = null;
+            apagar(diretorio);
+        }
+    }
+
+    /**
+     * conta com dez anos de movimentacoes, usada no extrato de um periodo
+     */
+    @State(Scope.Benchmark)
+    public static class Periodo {
+
+        @Param({"heap", "mapeado", "circular"})
+        String armazenamento;
+
+        Corrente conta;
+        Path diretorio;
+        long inicio_mes;
+        long fim_mes;
+
+        @Setup
+        public void montar() throws Exception {
+            diretorio = Files.createTempDirectory("historico");
+            conta = criarConta(new Banco(), armazenamento, diretorio);
+
+            //1 milhao de movimentacoes distribuidas em dez anos
+            long inicio = LocalDate.of(2015, 1, 1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            long passo = TimeUnit.DAYS.toMillis(3650) / 1_000_000;
+            for (int i = 0; i < 1_000_000; i++) {
+                conta.registrarMovimentacao(TipoMovimentacao.DEPOSITO, 1, inicio + i * passo, null, i);
+            }
+            inicio_mes = LocalDate.of(2020, 6, 1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            fim_mes = LocalDate.of(2020, 7, 1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        }
+
+        @TearDown
+        public void desmontar() throws IOException {
+            apagar(diretorio);
+        }
+    }
+
+    @Benchmark
+    public long extratoDeUmMes(Periodo p) {
+        return p.conta.consultarMovimentacoes(FiltroMovimentacao.todas().periodo(p.inicio_mes, p.fim_mes)).count();
+    }
+
+    @Benchmark
+    public long extratoDeUmMesSemBusca(Periodo p) {
+        //percorre o historico inteiro comparando as datas
+        return p.conta.consultarMovimentacoes(FiltroMovimentacao.todas())
+                .filter(m -> m.getDt_hora() >= p.inicio_mes && m.getDt_hora() < p.fim_mes)
+                .count();
+    }
+
+    @Benchmark
+    public void listarMovimentacoes(Extrato e) {
+        e.banco.listarMovimentacoes(e.conta);
+    }
+
+    @Benchmark
+    public int consultarPrimeiraPagina(Extrato e) {
+        //o custo da primeira pagina nao depende do tamanho do historico
+        return e.conta.consultarMovimentacoes(FiltroMovimentacao.todas(), 0, TAMANHO_PAGINA).getMovimentacoes().size();
+    }
+
+    @Benchmark
+    public long registrar(Registro r) throws Exception {
+        r.conta.depositar(1);
+        return r.conta.getSaldoCentavos();
+    }
+
+    private static Corrente criarConta(Banco banco, String armazenamento, Path diretorio) throws Exception {
+        banco.adicionarCliente(new PessoaFisica("00000000000", "48999999999", "Cliente", "cliente@email.com"));
+        Corrente conta = new Corrente(Cenarios.SALDO_INICIAL, Cenarios.SALDO_INICIAL);
+        if (armazenamento.equals("mapeado")) {
+            conta.usarHistoricoMapeado(diretorio);
+        } else if (armazenamento.equals("circular")) {
+            conta.usarHistoricoCircular(diretorio, CAPACIDADE_CIRCULAR);
+        }
+        banco.adicionarConta("00000000000", conta);
+        return conta;
+    }
+
+    private static void apagar(Path diretorio) throws IOException {
+        try (Stream<Path> arquivos = Files.walk(diretorio)) {
+            for (Path p : arquivos.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
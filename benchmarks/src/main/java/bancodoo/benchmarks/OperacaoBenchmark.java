@@ -0,0 +1,105 @@
+package bancodoo.benchmarks;
+
+import bancodoo.conta.Corrente;
+import bancodoo.conta.Poupanca;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks das operacoes que alteram saldo: transferencia pelo Banco
+ * (inclusive com varias threads disputando as mesmas contas), saque direto na
+ * conta corrente e aplicacao de rendimento na poupanca.
+ *
+ * Obs: o historico das contas e descartado a cada iteracao para que o
+ * consumo de memoria nao cresca durante a medicao
+ *
+ * @author Vinicius Corbellini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class OperacaoBenchmark {
+
+    @Param({"1000", "100000"})
+    int clientes;
+
+    private Cenarios.Cenario cenario;
+    private int[] indices;
+    private Corrente corrente;
+    private Poupanca poupanca;
+    private long saldo_poupanca;
+
+    /**
+     * posicao de cada thread na sequencia de indices
+     */
+    @State(Scope.Thread)
+    public static class Posicao {
+
+        int proximo;
+    }
+
+    @Setup
+    public void montar() throws Exception {
+        cenario = Cenarios.montar(clientes, 16);
+        indices = Cenarios.sequencia(clientes);
+        corrente = (Corrente) cenario.banco.procurarConta(cenario.correntes[0]);
+        poupanca = (Poupanca) cenario.banco.procurarConta(cenario.poupancas[0]);
+        saldo_poupanca = poupanca.getSaldoCentavos();
+    }
+
+    @Setup(Level.Iteration)
+    public void limpar() throws Exception {
+        Cenarios.limparHistorico(cenario);
+    }
+
+    @Benchmark
+    public void transferir(Posicao p) throws Exception {
+        transferirEntreClientes(p);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void transferirConcorrente(Posicao p) throws Exception {
+        transferirEntreClientes(p);
+    }
+
+    private void transferirEntreClientes(Posicao p) throws Exception {
+        int origem = indices[p.proximo++ & (Cenarios.TAMANHO_SEQUENCIA - 1)];
+        int destino = indices[p.proximo++ & (Cenarios.TAMANHO_SEQUENCIA - 1)];
+        if (origem == destino) {
+            destino = (destino + 1) % clientes;
+        }
+        cenario.banco.transferir(cenario.documentos[origem], cenario.documentos[destino],
+                cenario.correntes[origem], cenario.correntes[destino], 0.01);
+    }
+
+    @Benchmark
+    public long sacar() throws Exception {
+        corrente.sacar(1);
+        return corrente.getSaldoCentavos();
+    }
+
+    @Benchmark
+    public long aplicarRendimento() {
+        poupanca.aplicarRendimento();
+        long saldo = poupanca.getSaldoCentavos();
+        //volta ao saldo inicial para que os juros compostos nao estourem o long
+        poupanca.setSaldoCentavos(saldo_poupanca);
+        return saldo;
+    }
+}
@@ -0,0 +1,58 @@
+package bancodoo.benchmarks;
+
+import bancodoo.conta.ResultadoOperacao;
+import bancodoo.exceptions.SaldoInsuficienteException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks de operacoes recusadas por saldo insuficiente, comparando o
+ * caminho com excecoes (Banco.sacar) com o caminho que devolve um
+ * ResultadoOperacao (Banco.tentarSacar)
+ *
+ * @author Vinicius Corbellini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RecusaBenchmark {
+
+    //Valor maior que o saldo de qualquer conta do cenario, em reais
+    private static final double VALOR_ACIMA_DO_SALDO = Cenarios.SALDO_INICIAL * 10;
+
+    private Cenarios.Cenario cenario;
+
+    @Setup
+    public void montar() throws Exception {
+        //a poupanca do cenario nao tem limite de operacoes, entao o saque e
+        //recusado apenas pela verificacao do saldo
+        cenario = Cenarios.montar(1000, 16);
+    }
+
+    @Benchmark
+    public Object sacarComExcecao() throws Exception {
+        try {
+            cenario.banco.sacar(cenario.documentos[0], cenario.poupancas[0], VALOR_ACIMA_DO_SALDO);
+            return null;
+        } catch (SaldoInsuficienteException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public ResultadoOperacao sacarComResultado() {
+        return cenario.banco.tentarSacar(cenario.documentos[0], cenario.poupancas[0], VALOR_ACIMA_DO_SALDO);
+    }
+}
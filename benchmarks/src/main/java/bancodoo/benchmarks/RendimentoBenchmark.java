@@ -0,0 +1,74 @@
+package bancodoo.benchmarks;
+
+import bancodoo.banco.RendimentoMensal;
+import bancodoo.conta.Conta;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark do processamento de rendimento mensal de todas as poupancas do
+ * banco (RendimentoMensal), parametrizado pela quantidade de clientes e pelo
+ * numero de threads do pool
+ *
+ * Obs: os saldos e o historico das contas voltam ao estado inicial a cada
+ * iteracao, para que os juros compostos nao estourem o long
+ *
+ * @author Vinicius Corbellini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RendimentoBenchmark {
+
+    @Param({"10000", "1000000"})
+    int clientes;
+
+    @Param({"1", "4"})
+    int threads;
+
+    private Cenarios.Cenario cenario;
+    private ForkJoinPool pool;
+    private RendimentoMensal rendimento;
+
+    @Setup
+    public void montar() throws Exception {
+        cenario = Cenarios.montar(clientes, 16);
+        pool = new ForkJoinPool(threads);
+        rendimento = new RendimentoMensal(cenario.banco, pool);
+    }
+
+    @Setup(Level.Iteration)
+    public void restaurar() throws Exception {
+        Cenarios.limparHistorico(cenario);
+        for (Long id : cenario.poupancas) {
+            Conta c = cenario.banco.procurarConta(id);
+            c.setSaldo(Cenarios.SALDO_INICIAL);
+        }
+    }
+
+    @TearDown
+    public void desmontar() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public RendimentoMensal.Resultado aplicarRendimento() {
+        return rendimento.executar();
+    }
+}
@@ -0,0 +1,110 @@
+package bancodoo.benchmarks;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark de disputa por uma unica conta muito usada: todas as threads
+ * depositam e sacam do mesmo saldo. Compara o laco de compare-and-set usado
+ * pela Conta (ver Conta.creditar e Conta.tentarDebitar) com as mesmas
+ * operacoes protegidas por synchronized e por uma ReentrantLock (a trava das
+ * contas no Banco). Cada versao faz as mesmas verificacoes (saldo nunca
+ * negativo) sem historico, para medir apenas a atualizacao do saldo.
+ *
+ * A quantidade de threads e definida com -t (padrao: 8)
+ *
+ * @author Vinicius Corbellini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class SaldoBenchmark {
+
+    //Valor de cada deposito e saque, em centavos
+    private static final long VALOR = 100;
+
+    //Saldo inicial, em centavos (o saque nunca falha)
+    private static final long SALDO_INICIAL = 1_000_000_000L;
+
+    private static final VarHandle SALDO;
+
+    static {
+        try {
+            SALDO = MethodHandles.lookup().findVarHandle(SaldoBenchmark.class, "saldo_cas", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile long saldo_cas = SALDO_INICIAL;
+    private long saldo_sincronizado = SALDO_INICIAL;
+    private long saldo_travado = SALDO_INICIAL;
+    private final Object monitor = new Object();
+    private final ReentrantLock trava = new ReentrantLock();
+
+    //===== Compare-and-set (Conta)
+    @Benchmark
+    public long compareAndSet() {
+        SALDO.getAndAdd(this, VALOR);
+        long atual;
+        do {
+            atual = saldo_cas;
+            if (atual < VALOR) {
+                return -1;
+            }
+        } while (!SALDO.compareAndSet(this, atual, atual - VALOR));
+        return atual - VALOR;
+    }
+
+    //===== synchronized
+    @Benchmark
+    public long sincronizado() {
+        synchronized (monitor) {
+            saldo_sincronizado += VALOR;
+        }
+        synchronized (monitor) {
+            if (saldo_sincronizado < VALOR) {
+                return -1;
+            }
+            saldo_sincronizado -= VALOR;
+            return saldo_sincronizado;
+        }
+    }
+
+    //===== ReentrantLock
+    @Benchmark
+    public long travado() {
+        trava.lock();
+        try {
+            saldo_travado += VALOR;
+        } finally {
+            trava.unlock();
+        }
+        trava.lock();
+        try {
+            if (saldo_travado < VALOR) {
+                return -1;
+            }
+            saldo_travado -= VALOR;
+            return saldo_travado;
+        } finally {
+            trava.unlock();
+        }
+    }
+}
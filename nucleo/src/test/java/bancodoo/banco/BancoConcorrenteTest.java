@@ -0,0 +1,183 @@
+package bancodoo.banco;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.conta.Dinheiro;
+import bancodoo.conta.Poupanca;
+import bancodoo.exceptions.ExcecaoNegocio;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes de estresse das operacoes do banco executadas por varias threads ao
+ * mesmo tempo: o dinheiro total deve ser conservado e as travas das contas
+ * (obtidas em ordem de id) nao podem entrar em deadlock
+ *
+ * @author Vinicius Corbellini
+ */
+class BancoConcorrenteTest {
+
+    private static final int THREADS = 64;
+    private static final int OPERACOES_POR_THREAD = 2_000;
+    private static final int CLIENTES = 32;
+    private static final double SALDO_INICIAL = 1_000.0;
+
+    //Tempo maximo de execucao; passar dele indica um deadlock
+    private static final long TEMPO_MAXIMO_S = 120;
+
+    private Banco banco;
+    private final List<String> documentos = new ArrayList<>();
+    private final List<Long> contas = new ArrayList<>();
+
+    //Conta -> documento do titular (mesma posicao em contas)
+    private final List<String> titulares = new ArrayList<>();
+
+    @BeforeEach
+    void montar() throws Exception {
+        banco = new Banco(8);
+        for (int i = 0; i < CLIENTES; i++) {
+            String doc = String.format("%011d", i);
+            banco.adicionarCliente(new PessoaFisica(doc, "4899999" + i, "Cliente " + i, "cliente" + i + "@email.com"));
+            documentos.add(doc);
+
+            //poucas contas com saldo baixo: muita disputa pelas mesmas travas
+            //e varias operacoes recusadas por saldo insuficiente
+            Conta corrente = new Corrente(1_000_000.0, SALDO_INICIAL);
+            Conta poupanca = new Poupanca(Integer.MAX_VALUE, 0.005, SALDO_INICIAL);
+            banco.adicionarConta(doc, corrente);
+            banco.adicionarConta(doc, poupanca);
+            for (Conta c : List.of(corrente, poupanca)) {
+                contas.add(c.getId());
+                titulares.add(doc);
+            }
+        }
+    }
+
+    @Test
+    void transferenciasConcorrentesConservamOTotal() throws Exception {
+        long antes = total();
+
+        executar(r -> {
+            int origem = r.nextInt(contas.size());
+            int destino = (origem + 1 + r.nextInt(contas.size() - 1)) % contas.size();
+            banco.transferir(titulares.get(origem), titulares.get(destino),
+                    contas.get(origem), contas.get(destino), 1 + r.nextInt(300));
+            return 0;
+        });
+
+        assertEquals(antes, total());
+        verificarSaldosNaoNegativos();
+    }
+
+    @Test
+    void saquesDepositosETransferenciasConcorrentesFechamOTotal() throws Exception {
+        long antes = total();
+        AtomicLong liquido = new AtomicLong();
+
+        executar(r -> {
+            int i = r.nextInt(contas.size());
+            long valor = Dinheiro.paraCentavos(1 + r.nextInt(300));
+            switch (r.nextInt(3)) {
+                case 0 -> {
+                    banco.depositar(titulares.get(i), contas.get(i), Dinheiro.paraReais(valor));
+                    return valor;
+                }
+                case 1 -> {
+                    banco.sacar(titulares.get(i), contas.get(i), Dinheiro.paraReais(valor));
+                    return -valor;
+                }
+                default -> {
+                    int destino = (i + 1 + r.nextInt(contas.size() - 1)) % contas.size();
+                    banco.transferir(titulares.get(i), titulares.get(destino),
+                            contas.get(i), contas.get(destino), Dinheiro.paraReais(valor));
+                    return 0;
+                }
+            }
+        }, liquido);
+
+        assertEquals(antes + liquido.get(), total());
+        verificarSaldosNaoNegativos();
+    }
+
+    //===== Utilitarios
+    /**
+     * Operacao aleatoria executada por uma thread
+     */
+    private interface Operacao {
+
+        /**
+         * @return quanto a operacao somou ao total do banco, em centavos
+         */
+        long executar(SplittableRandom r) throws ExcecaoNegocio;
+    }
+
+    private void executar(Operacao operacao) throws Exception {
+        executar(operacao, new AtomicLong());
+    }
+
+    /**
+     * executa OPERACOES_POR_THREAD operacoes em cada uma das THREADS threads,
+     * todas liberadas ao mesmo tempo. As operacoes recusadas (ex: saldo
+     * insuficiente) nao alteram o total
+     *
+     * @param liquido soma do que as operacoes bem sucedidas acrescentaram ao
+     * total do banco
+     */
+    private void executar(Operacao operacao, AtomicLong liquido) throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch largada = new CountDownLatch(1);
+            List<Future<?>> tarefas = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                SplittableRandom r = new SplittableRandom(t);
+                tarefas.add(threads.submit(() -> {
+                    largada.await();
+                    for (int i = 0; i < OPERACOES_POR_THREAD; i++) {
+                        try {
+                            liquido.addAndGet(operacao.executar(r));
+                        } catch (ExcecaoNegocio e) {
+                            //operacao recusada
+                        }
+                    }
+                    return null;
+                }));
+            }
+            largada.countDown();
+            threads.shutdown();
+            assertTrue(threads.awaitTermination(TEMPO_MAXIMO_S, TimeUnit.SECONDS),
+                    "As operacoes nao terminaram (deadlock?)");
+            for (Future<?> f : tarefas) {
+                f.get();
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private long total() throws Exception {
+        long total = 0;
+        for (Long id : contas) {
+            total += banco.procurarConta(id).getSaldoCentavos();
+        }
+        return total;
+    }
+
+    private void verificarSaldosNaoNegativos() throws Exception {
+        for (Long id : contas) {
+            assertTrue(banco.procurarConta(id).getSaldoCentavos() >= 0, "Saldo negativo na conta " + id);
+        }
+    }
+}
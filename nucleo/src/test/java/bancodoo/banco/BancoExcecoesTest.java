@@ -0,0 +1,160 @@
+package bancodoo.banco;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.conta.Dinheiro;
+import bancodoo.conta.ResultadoOperacao;
+import bancodoo.exceptions.ContaNotFoundException;
+import bancodoo.exceptions.ExcecaoNegocio;
+import bancodoo.exceptions.ValorInvalidoException;
+import bancodoo.persistencia.ArmazemClientes;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Testes das excecoes lancadas por depositar, sacar e transferir com os
+ * clientes em um armazem em disco, em que a conta pode ser removida entre a
+ * busca e a trava da operacao
+ *
+ * @author Vinicius Corbellini
+ */
+class BancoExcecoesTest {
+
+    private static final String ANA = "11111111111";
+    private static final String BRUNO = "22222222222";
+
+    @TempDir
+    Path diretorio;
+
+    private ArmazemClientes armazem;
+    private Banco banco;
+    private Conta conta_ana;
+    private Conta conta_bruno;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void montar() throws Exception {
+        armazem = new ArmazemClientes(diretorio);
+        banco = new Banco();
+        banco.usarArmazem(armazem, CacheClientes.CAPACIDADE_PADRAO);
+        banco.adicionarCliente(new PessoaFisica(ANA, "48999990001", "Ana", "ana@email.com"));
+        banco.adicionarCliente(new PessoaFisica(BRUNO, "48999990002", "Bruno", "bruno@email.com"));
+        banco.adicionarConta(ANA, new Corrente(1_000.0, 100.0));
+        banco.adicionarConta(BRUNO, new Corrente(1_000.0, 100.0));
+        conta_ana = banco.procurarCliente(ANA).getContas().get(0);
+        conta_bruno = banco.procurarCliente(BRUNO).getContas().get(0);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void fechar() throws Exception {
+        executor.shutdownNow();
+        armazem.close();
+    }
+
+    @Test
+    void depositoInvalidoLancaValorInvalido() throws Exception {
+        Long id = conta_ana.getId();
+        assertThrows(ValorInvalidoException.class, () -> banco.depositar(ANA, id, 0.0));
+        assertEquals(Dinheiro.paraCentavos(100.0), banco.procurarConta(id).getSaldoCentavos());
+    }
+
+    @Test
+    void valoresNaoFinitosOuForaDaFaixaLancamValorInvalido() throws Exception {
+        Long id_ana = conta_ana.getId();
+        Long id_bruno = conta_bruno.getId();
+        for (double valor : new double[]{Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 1e300}) {
+            assertThrows(ValorInvalidoException.class, () -> banco.depositar(ANA, id_ana, valor));
+            assertThrows(ValorInvalidoException.class, () -> banco.sacar(ANA, id_ana, valor));
+            assertThrows(ValorInvalidoException.class,
+                    () -> banco.transferir(ANA, BRUNO, id_ana, id_bruno, valor));
+
+            assertEquals(ResultadoOperacao.VALOR_INVALIDO, banco.tentarDepositar(ANA, id_ana, valor));
+            assertEquals(ResultadoOperacao.VALOR_INVALIDO, banco.tentarSacar(ANA, id_ana, valor));
+            assertEquals(ResultadoOperacao.VALOR_INVALIDO,
+                    banco.tentarTransferir(ANA, BRUNO, id_ana, id_bruno, valor));
+
+            ResultadoOperacao[] r = banco.executarLote(List.of(
+                    bancodoo.banco.Operacao.deposito(ANA, id_ana, valor),
+                    bancodoo.banco.Operacao.saque(ANA, id_ana, valor),
+                    bancodoo.banco.Operacao.transferencia(ANA, BRUNO, id_ana, id_bruno, valor)));
+            for (ResultadoOperacao resultado : r) {
+                assertEquals(ResultadoOperacao.VALOR_INVALIDO, resultado);
+            }
+        }
+        assertEquals(Dinheiro.paraCentavos(100.0), banco.procurarConta(id_ana).getSaldoCentavos());
+        assertEquals(Dinheiro.paraCentavos(100.0), banco.procurarConta(id_bruno).getSaldoCentavos());
+    }
+
+    @Test
+    void contaRemovidaDuranteODepositoLancaContaNotFound() throws Exception {
+        Long id = conta_ana.getId();
+        verificarContaRemovidaDurante(() -> banco.depositar(ANA, id, 10.0));
+    }
+
+    @Test
+    void contaRemovidaDuranteOSaqueLancaContaNotFound() throws Exception {
+        Long id = conta_ana.getId();
+        verificarContaRemovidaDurante(() -> banco.sacar(ANA, id, 10.0));
+    }
+
+    @Test
+    void contaRemovidaDuranteATransferenciaLancaContaNotFound() throws Exception {
+        Long id_ana = conta_ana.getId();
+        Long id_bruno = conta_bruno.getId();
+        verificarContaRemovidaDurante(() -> banco.transferir(ANA, BRUNO, id_ana, id_bruno, 10.0));
+        assertEquals(Dinheiro.paraCentavos(100.0), banco.procurarConta(id_bruno).getSaldoCentavos());
+    }
+
+    //===== Utilitarios
+    /**
+     * Operacao do banco executada em outra thread
+     */
+    private interface Operacao {
+
+        void executar() throws ExcecaoNegocio;
+    }
+
+    /**
+     * segura a trava da conta da Ana enquanto a operacao a encontra e espera
+     * pela trava, remove a conta e libera a trava. A operacao deve lancar
+     * ContaNotFoundException
+     */
+    private void verificarContaRemovidaDurante(Operacao operacao) throws Exception {
+        ReentrantLock trava = conta_ana.getTrava();
+        trava.lock();
+        Future<?> f;
+        try {
+            f = executor.submit(() -> {
+                operacao.executar();
+                return null;
+            });
+            long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (!trava.hasQueuedThreads()) {
+                assertTrue(System.nanoTime() < limite, "A operacao nao chegou a trava da conta");
+                Thread.sleep(1);
+            }
+            banco.removerConta(ANA, conta_ana.getId());
+        } finally {
+            trava.unlock();
+        }
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> f.get(30, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof ContaNotFoundException, String.valueOf(e.getCause()));
+    }
+}
@@ -0,0 +1,230 @@
+package bancodoo.banco;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.conta.Dinheiro;
+import bancodoo.conta.Poupanca;
+import bancodoo.conta.ResultadoOperacao;
+import bancodoo.persistencia.Diario;
+import bancodoo.persistencia.Recuperacao;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Testes das operacoes em lote (Banco.executarLote): um resultado por
+ * operacao na ordem do lote, sem excecoes, e o mesmo resultado da execucao
+ * das operacoes uma a uma (os depositos e saques sao agrupados por conta e
+ * cada transferencia e uma barreira para as suas duas contas)
+ *
+ * @author Vinicius Corbellini
+ */
+class BancoLoteTest {
+
+    private static final String ANA = "11111111111";
+    private static final String BRUNO = "22222222222";
+
+    private Banco banco;
+    private Conta corrente_ana;
+    private Conta poupanca_ana;
+    private Conta corrente_bruno;
+
+    @BeforeEach
+    void montar() throws Exception {
+        banco = new Banco(4);
+        montar(banco);
+    }
+
+    private void montar(Banco b) throws Exception {
+        b.adicionarCliente(new PessoaFisica(ANA, "48999990001", "Ana", "ana@email.com"));
+        b.adicionarCliente(new PessoaFisica(BRUNO, "48999990002", "Bruno", "bruno@email.com"));
+        corrente_ana = new Corrente(1_000.0, 0.0);
+        poupanca_ana = new Poupanca(2, 0.005, 100.0);
+        corrente_bruno = new Corrente(1_000.0, 100.0);
+        b.adicionarConta(ANA, corrente_ana);
+        b.adicionarConta(ANA, poupanca_ana);
+        b.adicionarConta(BRUNO, corrente_bruno);
+    }
+
+    @Test
+    void falhasSaoDevolvidasPorOperacaoNaOrdemDoLote() {
+        ResultadoOperacao[] r = banco.executarLote(List.of(
+                Operacao.deposito(ANA, corrente_ana.getId(), 0),
+                Operacao.deposito("99999999999", corrente_ana.getId(), 10),
+                Operacao.deposito(ANA, 999_999L, 10),
+                Operacao.deposito(BRUNO, corrente_ana.getId(), 10),
+                Operacao.saque(BRUNO, corrente_bruno.getId(), 500),
+                Operacao.saque(BRUNO, corrente_bruno.getId(), 5_000),
+                Operacao.transferencia(ANA, BRUNO, corrente_ana.getId(), 999_999L, 10),
+                Operacao.deposito(BRUNO, corrente_bruno.getId(), 10)));
+
+        assertArrayEquals(new ResultadoOperacao[]{
+            ResultadoOperacao.VALOR_INVALIDO,
+            ResultadoOperacao.CLIENTE_NAO_ENCONTRADO,
+            ResultadoOperacao.CONTA_NAO_ENCONTRADA,
+            ResultadoOperacao.CONTA_NAO_ENCONTRADA,
+            ResultadoOperacao.SALDO_INSUFICIENTE,
+            ResultadoOperacao.VALOR_ACIMA_DO_LIMITE,
+            ResultadoOperacao.CONTA_NAO_ENCONTRADA,
+            ResultadoOperacao.SUCESSO}, r);
+        assertEquals(Dinheiro.paraCentavos(110.0), corrente_bruno.getSaldoCentavos());
+        assertEquals(0, corrente_ana.getSaldoCentavos());
+    }
+
+    @Test
+    void depositosESaquesDeUmaContaSeguemAOrdemDoLote() {
+        ResultadoOperacao[] r = banco.executarLote(List.of(
+                Operacao.saque(ANA, corrente_ana.getId(), 40),
+                Operacao.deposito(BRUNO, corrente_bruno.getId(), 1),
+                Operacao.deposito(ANA, corrente_ana.getId(), 50),
+                Operacao.saque(ANA, corrente_ana.getId(), 40),
+                Operacao.saque(ANA, corrente_ana.getId(), 40)));
+
+        assertArrayEquals(new ResultadoOperacao[]{
+            ResultadoOperacao.SALDO_INSUFICIENTE,
+            ResultadoOperacao.SUCESSO,
+            ResultadoOperacao.SUCESSO,
+            ResultadoOperacao.SUCESSO,
+            ResultadoOperacao.SALDO_INSUFICIENTE}, r);
+        assertEquals(Dinheiro.paraCentavos(10.0), corrente_ana.getSaldoCentavos());
+        assertEquals(2, corrente_ana.getMovimentacoes().size());
+    }
+
+    @Test
+    void transferenciaSegueAOrdemDoLoteNasSuasContas() throws Exception {
+        //a transferencia usa o deposito feito antes dela e o saque usa a
+        //transferencia
+        Conta sem_saldo = new Corrente(1_000.0, 0.0);
+        banco.adicionarConta(BRUNO, sem_saldo);
+        ResultadoOperacao[] r = banco.executarLote(List.of(
+                Operacao.deposito(ANA, corrente_ana.getId(), 100),
+                Operacao.transferencia(ANA, BRUNO, corrente_ana.getId(), sem_saldo.getId(), 100),
+                Operacao.saque(BRUNO, sem_saldo.getId(), 100)));
+
+        assertArrayEquals(new ResultadoOperacao[]{
+            ResultadoOperacao.SUCESSO,
+            ResultadoOperacao.SUCESSO,
+            ResultadoOperacao.SUCESSO}, r);
+        assertEquals(0, corrente_ana.getSaldoCentavos());
+        assertEquals(0, sem_saldo.getSaldoCentavos());
+    }
+
+    @Test
+    void transferenciaAntesDoDepositoNaoUsaODeposito() {
+        ResultadoOperacao[] r = banco.executarLote(List.of(
+                Operacao.transferencia(ANA, BRUNO, corrente_ana.getId(), corrente_bruno.getId(), 30),
+                Operacao.deposito(ANA, corrente_ana.getId(), 30)));
+
+        assertArrayEquals(new ResultadoOperacao[]{ResultadoOperacao.SALDO_INSUFICIENTE, ResultadoOperacao.SUCESSO}, r);
+        assertEquals(Dinheiro.paraCentavos(30.0), corrente_ana.getSaldoCentavos());
+        assertEquals(Dinheiro.paraCentavos(100.0), corrente_bruno.getSaldoCentavos());
+    }
+
+    @Test
+    void limiteDeOperacoesDaPoupancaValeDentroDoLote() {
+        //o saque e a transferencia ocupam as duas operacoes permitidas
+        ResultadoOperacao[] r = banco.executarLote(List.of(
+                Operacao.saque(ANA, poupanca_ana.getId(), 1),
+                Operacao.transferencia(ANA, BRUNO, poupanca_ana.getId(), corrente_bruno.getId(), 1),
+                Operacao.saque(ANA, poupanca_ana.getId(), 1)));
+
+        assertArrayEquals(new ResultadoOperacao[]{
+            ResultadoOperacao.SUCESSO,
+            ResultadoOperacao.SUCESSO,
+            ResultadoOperacao.LIMITE_EXCEDIDO}, r);
+        assertEquals(Dinheiro.paraCentavos(98.0), poupanca_ana.getSaldoCentavos());
+    }
+
+    @Test
+    void loteTemOMesmoResultadoDasOperacoesUmaAUma() throws Exception {
+        Banco um_a_um = new Banco(4);
+        Conta[] contas_lote = {corrente_ana, poupanca_ana, corrente_bruno};
+        montar(um_a_um);
+        Conta[] contas_um_a_um = {corrente_ana, poupanca_ana, corrente_bruno};
+        List<Operacao> lote = loteAleatorio(contas_lote, 11);
+
+        ResultadoOperacao[] r = banco.executarLote(lote);
+
+        for (int i = 0; i < lote.size(); i++) {
+            Operacao op = lote.get(i);
+            double valor = Dinheiro.paraReais(op.getValorCentavos());
+            int a = indice(contas_lote, op.getId());
+            ResultadoOperacao esperado = switch (op.getTipo()) {
+                case DEPOSITO ->
+                    um_a_um.tentarDepositar(op.getDocumento(), contas_um_a_um[a].getId(), valor);
+                case SAQUE ->
+                    um_a_um.tentarSacar(op.getDocumento(), contas_um_a_um[a].getId(), valor);
+                case TRANSFERENCIA ->
+                    um_a_um.tentarTransferir(op.getDocumento(), op.getDocumento_destino(),
+                    contas_um_a_um[a].getId(), contas_um_a_um[indice(contas_lote, op.getId_destino())].getId(), valor);
+            };
+            assertEquals(esperado, r[i], "Operacao " + i);
+        }
+        for (int c = 0; c < contas_lote.length; c++) {
+            assertEquals(contas_um_a_um[c].getSaldoCentavos(), contas_lote[c].getSaldoCentavos());
+        }
+    }
+
+    @Test
+    void loteComDiarioEReaplicadoNaRecuperacao(@TempDir Path diretorio) throws Exception {
+        Banco com_diario = new Banco(4);
+        Diario diario = new Diario(diretorio, 0);
+        com_diario.setDiario(diario);
+        montar(com_diario);
+        Long[] ids = {corrente_ana.getId(), poupanca_ana.getId(), corrente_bruno.getId()};
+
+        com_diario.executarLote(loteAleatorio(new Conta[]{corrente_ana, poupanca_ana, corrente_bruno}, 7));
+        diario.close();
+
+        Banco recuperado = new Banco(4);
+        Recuperacao.recuperar(diretorio, recuperado).close();
+        for (Long id : ids) {
+            Conta original = com_diario.procurarConta(id);
+            Conta reaplicada = recuperado.procurarConta(id);
+            assertEquals(original.getSaldoCentavos(), reaplicada.getSaldoCentavos());
+            assertEquals(original.getMovimentacoes().size(), reaplicada.getMovimentacoes().size());
+        }
+    }
+
+    //===== Utilitarios
+    /**
+     * monta um lote aleatorio de depositos, saques e transferencias entre as
+     * contas (a segunda pertence ao mesmo cliente da primeira)
+     */
+    private static List<Operacao> loteAleatorio(Conta[] contas, long semente) {
+        String[] docs = {ANA, ANA, BRUNO};
+        SplittableRandom rnd = new SplittableRandom(semente);
+        List<Operacao> lote = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            int a = rnd.nextInt(contas.length);
+            int b = rnd.nextInt(contas.length);
+            double valor = 1 + rnd.nextInt(50);
+            lote.add(switch (rnd.nextInt(3)) {
+                case 0 ->
+                    Operacao.deposito(docs[a], contas[a].getId(), valor);
+                case 1 ->
+                    Operacao.saque(docs[a], contas[a].getId(), valor);
+                default ->
+                    Operacao.transferencia(docs[a], docs[b], contas[a].getId(), contas[b].getId(), valor);
+            });
+        }
+        return lote;
+    }
+
+    private static int indice(Conta[] contas, Long id) {
+        for (int i = 0; i < contas.length; i++) {
+            if (contas[i].getId().equals(id)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Conta " + id);
+    }
+}
@@ -0,0 +1,198 @@
+package bancodoo.banco;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.conta.Dinheiro;
+import bancodoo.conta.ResultadoOperacao;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes das chaves de idempotencia: o reenvio de uma operacao com a mesma
+ * chave devolve o resultado original sem executa-la de novo, e as chaves
+ * vencidas ou alem da capacidade sao esquecidas
+ *
+ * @author Vinicius Corbellini
+ */
+class ChavesIdempotenciaTest {
+
+    private static final String ANA = "11111111111";
+    private static final String BRUNO = "22222222222";
+
+    //Capacidade com o menor limite por geracao de cada segmento (8 chaves)
+    private static final int CAPACIDADE = 1024;
+    private static final int LIMITE_POR_GERACAO = 8;
+
+    //===== ChavesIdempotencia
+    @Test
+    void reenvioDevolveEmAndamentoEDepoisOResultadoOriginal() {
+        ChavesIdempotencia chaves = new ChavesIdempotencia();
+        long chave = ChavesIdempotencia.calcular(ANA, "pedido-1");
+
+        assertNull(chaves.reservar(chave));
+        assertEquals(ResultadoOperacao.EM_ANDAMENTO, chaves.reservar(chave));
+        chaves.concluir(chave, ResultadoOperacao.SALDO_INSUFICIENTE);
+        assertEquals(ResultadoOperacao.SALDO_INSUFICIENTE, chaves.reservar(chave));
+
+        assertEquals(1, chaves.getNovas());
+        assertEquals(2, chaves.getReenvios());
+    }
+
+    @Test
+    void chaveLiberadaExecutaAOperacaoDeNovo() {
+        ChavesIdempotencia chaves = new ChavesIdempotencia();
+        long chave = ChavesIdempotencia.calcular(ANA, "pedido-1");
+
+        assertNull(chaves.reservar(chave));
+        chaves.liberar(chave);
+        assertNull(chaves.reservar(chave));
+        assertEquals(ResultadoOperacao.EM_ANDAMENTO, chaves.reservar(chave));
+    }
+
+    @Test
+    void chaveVencidaEEsquecida() throws Exception {
+        ChavesIdempotencia chaves = new ChavesIdempotencia(CAPACIDADE, 20);
+        long chave = ChavesIdempotencia.calcular(ANA, "pedido-1");
+
+        assertNull(chaves.reservar(chave));
+        chaves.concluir(chave, ResultadoOperacao.SUCESSO);
+        assertEquals(ResultadoOperacao.SUCESSO, chaves.reservar(chave));
+        Thread.sleep(50);
+        assertNull(chaves.reservar(chave));
+    }
+
+    @Test
+    void chavesAlemDaCapacidadeSaoEsquecidas() {
+        ChavesIdempotencia chaves = new ChavesIdempotencia(CAPACIDADE, ChavesIdempotencia.VALIDADE_PADRAO_MS);
+        long primeira = ChavesIdempotencia.calcular(ANA, "pedido-0");
+        long ultima = 0;
+        for (int i = 0; i < 100 * CAPACIDADE; i++) {
+            ultima = ChavesIdempotencia.calcular(ANA, "pedido-" + i);
+            assertNull(chaves.reservar(ultima));
+            chaves.concluir(ultima, ResultadoOperacao.SUCESSO);
+        }
+
+        assertNull(chaves.reservar(primeira));
+        assertEquals(ResultadoOperacao.SUCESSO, chaves.reservar(ultima));
+    }
+
+    @Test
+    void operacaoEmAndamentoNaoEEsquecidaQuandoAsGeracoesGiram() {
+        ChavesIdempotencia chaves = new ChavesIdempotencia(CAPACIDADE, ChavesIdempotencia.VALIDADE_PADRAO_MS);
+        //chaves do mesmo segmento (mesmos bits altos)
+        long em_andamento = 1;
+        long concluida = 2;
+        assertNull(chaves.reservar(em_andamento));
+        assertNull(chaves.reservar(concluida));
+        chaves.concluir(concluida, ResultadoOperacao.SUCESSO);
+
+        //enche a geracao atual e a anterior varias vezes
+        for (long k = 3; k < 3 + 10 * LIMITE_POR_GERACAO; k++) {
+            assertNull(chaves.reservar(k));
+            chaves.concluir(k, ResultadoOperacao.SUCESSO);
+        }
+
+        assertEquals(ResultadoOperacao.EM_ANDAMENTO, chaves.reservar(em_andamento));
+        assertNull(chaves.reservar(concluida));
+    }
+
+    @Test
+    void chaveValeApenasParaOClienteQueAEnviou() {
+        assertEquals(ChavesIdempotencia.calcular("111.111.111-11", "pedido-1"),
+                ChavesIdempotencia.calcular(ANA, "pedido-1"));
+        assertNotEquals(ChavesIdempotencia.calcular(ANA, "pedido-1"),
+                ChavesIdempotencia.calcular(BRUNO, "pedido-1"));
+        assertNotEquals(ChavesIdempotencia.calcular(ANA, "pedido-1"),
+                ChavesIdempotencia.calcular(ANA, "pedido-2"));
+        assertNotEquals(0, ChavesIdempotencia.calcular("", ""));
+    }
+
+    //===== Banco
+    @Test
+    void reenvioDaTransferenciaNaoDebitaDuasVezes() throws Exception {
+        Banco banco = new Banco();
+        Conta[] contas = montar(banco);
+        Long ana = contas[0].getId();
+        Long bruno = contas[1].getId();
+
+        assertEquals(ResultadoOperacao.SUCESSO, banco.tentarTransferir(ANA, BRUNO, ana, bruno, 30.0, "pedido-1"));
+        assertEquals(ResultadoOperacao.SUCESSO, banco.tentarTransferir(ANA, BRUNO, ana, bruno, 30.0, "pedido-1"));
+        assertEquals(Dinheiro.paraCentavos(70.0), contas[0].getSaldoCentavos());
+        assertEquals(Dinheiro.paraCentavos(130.0), contas[1].getSaldoCentavos());
+
+        //a mesma chave de outro cliente e outra operacao
+        assertEquals(ResultadoOperacao.SUCESSO, banco.tentarTransferir(BRUNO, ANA, bruno, ana, 30.0, "pedido-1"));
+        assertEquals(Dinheiro.paraCentavos(100.0), contas[0].getSaldoCentavos());
+
+        //uma falha tambem e lembrada
+        assertEquals(ResultadoOperacao.SALDO_INSUFICIENTE, banco.tentarSacar(ANA, ana, 500.0, "pedido-2"));
+        banco.depositar(ANA, ana, 1_000.0);
+        assertEquals(ResultadoOperacao.SALDO_INSUFICIENTE, banco.tentarSacar(ANA, ana, 500.0, "pedido-2"));
+        assertEquals(Dinheiro.paraCentavos(1_100.0), contas[0].getSaldoCentavos());
+    }
+
+    @Test
+    void reenviosConcorrentesDepositamUmaVez() throws Exception {
+        Banco banco = new Banco();
+        Conta ana = montar(banco)[0];
+        int threads = 8;
+        int chaves = 1_000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch largada = new CountDownLatch(1);
+            List<Future<?>> tarefas = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                tarefas.add(executor.submit(() -> {
+                    largada.await();
+                    for (int i = 0; i < chaves; i++) {
+                        ResultadoOperacao r = banco.tentarDepositar(ANA, ana.getId(), 1.0, "deposito-" + i);
+                        assertTrue(r == ResultadoOperacao.SUCESSO || r == ResultadoOperacao.EM_ANDAMENTO, r.toString());
+                    }
+                    return null;
+                }));
+            }
+            largada.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+            for (Future<?> f : tarefas) {
+                f.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(Dinheiro.paraCentavos(100.0 + chaves), ana.getSaldoCentavos());
+        assertEquals(chaves, ana.getMovimentacoes().size());
+        assertEquals(chaves, banco.getIdempotencia().getNovas());
+        assertEquals((long) (threads - 1) * chaves, banco.getIdempotencia().getReenvios());
+    }
+
+    //===== Utilitarios
+    /**
+     * adiciona Ana e Bruno, cada um com uma conta corrente com R$100
+     *
+     * @return conta da Ana e conta do Bruno
+     */
+    private static Conta[] montar(Banco banco) throws Exception {
+        banco.adicionarCliente(new PessoaFisica(ANA, "48999990001", "Ana", "ana@email.com"));
+        banco.adicionarCliente(new PessoaFisica(BRUNO, "48999990002", "Bruno", "bruno@email.com"));
+        Conta ana = new Corrente(1_000.0, 100.0);
+        Conta bruno = new Corrente(1_000.0, 100.0);
+        banco.adicionarConta(ANA, ana);
+        banco.adicionarConta(BRUNO, bruno);
+        return new Conta[]{ana, bruno};
+    }
+}
@@ -0,0 +1,52 @@
+package bancodoo.conta;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes das conversoes de reais e taxas para inteiros (Dinheiro)
+ *
+ * @author Vinicius Corbellini
+ */
+class DinheiroTest {
+
+    private static final double[] INVALIDOS = {
+        Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 1e300, -1e300
+    };
+
+    @Test
+    void converteReaisParaOCentavoMaisProximo() {
+        assertEquals(0, Dinheiro.paraCentavos(0.0));
+        assertEquals(1, Dinheiro.paraCentavos(0.01));
+        assertEquals(1234, Dinheiro.paraCentavos(12.34));
+        assertEquals(-1234, Dinheiro.paraCentavos(-12.34));
+        assertEquals(10, Dinheiro.paraCentavos(0.1));
+        assertEquals(30, Dinheiro.paraCentavos(0.1 + 0.2));
+        assertEquals(12, Dinheiro.paraCentavos(0.125));
+        assertEquals(14, Dinheiro.paraCentavos(0.135));
+        assertEquals(100_000_000_000L, Dinheiro.paraCentavos(1e9));
+        assertEquals(1L << 53, Dinheiro.paraCentavos(Dinheiro.MAXIMO_REAIS));
+    }
+
+    @Test
+    void valoresNaoFinitosOuForaDaFaixaSaoRecusados() {
+        for (double valor : INVALIDOS) {
+            assertThrows(IllegalArgumentException.class, () -> Dinheiro.paraCentavos(valor));
+            assertEquals(0, Dinheiro.valorDaOperacao(valor));
+        }
+        assertThrows(IllegalArgumentException.class, () -> Dinheiro.paraCentavos(Math.nextUp(Dinheiro.MAXIMO_REAIS)));
+        assertEquals(1234, Dinheiro.valorDaOperacao(12.34));
+    }
+
+    @Test
+    void converteTaxasParaMilionesimos() {
+        assertEquals(10_000, Dinheiro.paraMilionesimos(0.01));
+        assertEquals(5_000, Dinheiro.paraMilionesimos(0.005));
+        assertEquals(1, Dinheiro.paraMilionesimos(0.000001));
+        for (double taxa : new double[]{Double.NaN, Double.POSITIVE_INFINITY, 1e300}) {
+            assertThrows(IllegalArgumentException.class, () -> Dinheiro.paraMilionesimos(taxa));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package bancodoo.movimentacao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Testes dos totais por dia e por mes mantidos pela conta (Agregados): uma
+ * movimentacao registrada com data anterior a da ultima e gravada com a data
+ * da ultima, e os totais devem usar a mesma data gravada no historico
+ *
+ * @author Vinicius Corbellini
+ */
+class AgregadosTest {
+
+    private static final LocalDate ONTEM = LocalDate.of(2024, 1, 31);
+    private static final LocalDate HOJE = LocalDate.of(2024, 2, 1);
+
+    @TempDir
+    Path diretorio;
+
+    @Test
+    void movimentacaoComDataAnteriorContaNoDiaGravadoNaLista() {
+        verificarDataAjustada(conta());
+    }
+
+    @Test
+    void movimentacaoComDataAnteriorContaNoDiaGravadoNoHistoricoMapeado() throws Exception {
+        Conta c = conta();
+        c.usarHistoricoMapeado(diretorio);
+        verificarDataAjustada(c);
+    }
+
+    @Test
+    void movimentacaoComDataAnteriorContaNoDiaGravadoNoHistoricoCircular() throws Exception {
+        Conta c = conta();
+        c.usarHistoricoCircular(diretorio, 1);
+        verificarDataAjustada(c);
+    }
+
+    @Test
+    void movimentacaoComDataAnteriorContaNoDiaGravadoNoHistoricoArquivo() throws Exception {
+        Conta c = conta();
+        c.usarHistoricoArquivo(diretorio.resolve("historico.dat"));
+        verificarDataAjustada(c);
+    }
+
+    //===== Utilitarios
+    private static Conta conta() {
+        Conta c = new Corrente(1_000.0, 0.0);
+        c.setId(1L);
+        return c;
+    }
+
+    /**
+     * registra um deposito hoje e outro com data de ontem (ex: relogio
+     * atrasado) e compara os totais com os do historico gravado
+     */
+    private static void verificarDataAjustada(Conta c) {
+        c.registrarMovimentacao(TipoMovimentacao.DEPOSITO, 100, meioDia(HOJE), 0, false, 100);
+        c.registrarMovimentacao(TipoMovimentacao.DEPOSITO, 50, meioDia(ONTEM), 0, false, 150);
+
+        assertEquals(meioDia(HOJE), c.getMovimentacoes().get(1).getDt_hora());
+        Agregados a = c.getAgregados();
+        assertEquals(2, a.getDia(HOJE).getQuantidade(TipoMovimentacao.DEPOSITO));
+        assertEquals(150, a.getDia(HOJE).getSoma(TipoMovimentacao.DEPOSITO));
+        assertEquals(0, a.getDia(ONTEM).getQuantidade(TipoMovimentacao.DEPOSITO));
+        assertEquals(0, a.getMes(YearMonth.from(ONTEM)).getQuantidade(TipoMovimentacao.DEPOSITO));
+
+        //os mesmos totais de quando o historico e reaberto
+        Agregados recalculados = new Agregados();
+        recalculados.recalcular(c.getMovimentacoes());
+        assertEquals(recalculados.getDia(HOJE).toString(), a.getDia(HOJE).toString());
+        assertEquals(recalculados.getMes(YearMonth.from(HOJE)).toString(), a.getMes(YearMonth.from(HOJE)).toString());
+    }
+
+    private static long meioDia(LocalDate dia) {
+        return dia.atTime(12, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
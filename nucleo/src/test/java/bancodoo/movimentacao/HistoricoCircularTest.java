@@ -0,0 +1,131 @@
+package bancodoo.movimentacao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.conta.ResultadoOperacao;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Testes do historico em duas partes (HistoricoCircular): as movimentacoes
+ * mais recentes ficam no buffer em memoria e as mais antigas passam para o
+ * arquivo em disco, sem mudar a ordem do historico
+ *
+ * @author Vinicius Corbellini
+ */
+class HistoricoCircularTest {
+
+    private static final int CAPACIDADE = 100;
+    private static final int DEPOSITOS = 20_000;
+
+    @TempDir
+    Path diretorio;
+
+    @Test
+    void movimentacoesAlemDaCapacidadeVaoParaOArquivo() throws Exception {
+        Conta conta = contaComDepositos(diretorio, DEPOSITOS);
+        HistoricoCircular h = (HistoricoCircular) conta.getHistorico();
+
+        assertEquals(CAPACIDADE, h.getCapacidade());
+        assertEquals(DEPOSITOS, h.size());
+        assertEquals(DEPOSITOS - CAPACIDADE, h.getArquivadas());
+        verificarDepositos(conta.getMovimentacoes(), DEPOSITOS);
+    }
+
+    @Test
+    void historicoMenorQueACapacidadeFicaEmMemoria() throws Exception {
+        Conta conta = contaComDepositos(diretorio, CAPACIDADE);
+        HistoricoCircular h = (HistoricoCircular) conta.getHistorico();
+
+        assertEquals(0, h.getArquivadas());
+        verificarDepositos(conta.getMovimentacoes(), CAPACIDADE);
+    }
+
+    @Test
+    void arquivoReabertoMantemTodasAsMovimentacoes() throws Exception {
+        Conta conta = contaComDepositos(diretorio, DEPOSITOS);
+        ((HistoricoCircular) conta.getHistorico()).arquivar();
+        assertEquals(DEPOSITOS, ((HistoricoCircular) conta.getHistorico()).getArquivadas());
+
+        Conta reaberta = new Corrente(1_000.0, 0.0);
+        reaberta.setId(conta.getId());
+        reaberta.usarHistoricoCircular(diretorio, CAPACIDADE);
+        HistoricoCircular h = (HistoricoCircular) reaberta.getHistorico();
+
+        assertEquals(DEPOSITOS, h.getArquivadas());
+        verificarDepositos(reaberta.getMovimentacoes(), DEPOSITOS);
+
+        //as novas movimentacoes continuam depois das arquivadas
+        reaberta.tentarDepositar(DEPOSITOS + 1);
+        assertEquals(DEPOSITOS + 1, h.size());
+        assertEquals(DEPOSITOS + 1, h.get(DEPOSITOS).getValor());
+    }
+
+    @Test
+    void procurarDataEncontraMovimentacoesNasDuasPartes() throws Exception {
+        Conta conta = contaComDepositos(diretorio, DEPOSITOS);
+        Historico h = conta.getHistorico();
+
+        for (int i : new int[]{0, 1, DEPOSITOS / 2, DEPOSITOS - CAPACIDADE - 1,
+            DEPOSITOS - CAPACIDADE, DEPOSITOS - 1}) {
+            long dt_hora = h.get(i).getDt_hora();
+            int p = h.procurarData(dt_hora);
+            assertTrue(p <= i);
+            assertEquals(dt_hora, h.get(p).getDt_hora());
+            assertTrue(p == 0 || h.get(p - 1).getDt_hora() < dt_hora);
+        }
+        assertEquals(DEPOSITOS, h.procurarData(h.get(DEPOSITOS - 1).getDt_hora() + 1));
+    }
+
+    @Test
+    void capacidadeInvalidaOuContaComMovimentacoesSaoRecusadas() {
+        Conta conta = new Corrente(1_000.0, 0.0);
+        conta.setId(1L);
+        assertThrows(IllegalArgumentException.class, () -> conta.usarHistoricoCircular(diretorio, 0));
+
+        conta.tentarDepositar(1);
+        assertThrows(IllegalStateException.class, () -> conta.usarHistoricoCircular(diretorio, CAPACIDADE));
+    }
+
+    //===== Utilitarios
+    /**
+     * cria uma conta com historico circular e faz depositos de 1, 2, ...,
+     * quantidade centavos
+     */
+    private static Conta contaComDepositos(Path diretorio, int quantidade) throws Exception {
+        Conta conta = new Corrente(1_000.0, 0.0);
+        conta.setId(1L);
+        conta.usarHistoricoCircular(diretorio, CAPACIDADE);
+        for (int i = 1; i <= quantidade; i++) {
+            assertEquals(ResultadoOperacao.SUCESSO, conta.tentarDepositar(i));
+        }
+        return conta;
+    }
+
+    /**
+     * verifica se o historico tem os depositos de contaComDepositos na ordem
+     * em que foram feitos, com datas em ordem crescente
+     */
+    private static void verificarDepositos(List<Movimentacao> movimentacoes, int quantidade) {
+        assertEquals(quantidade, movimentacoes.size());
+        long saldo = 0;
+        long dt_hora = Long.MIN_VALUE;
+        int i = 0;
+        for (Movimentacao m : movimentacoes) {
+            i++;
+            saldo += i;
+            assertEquals(TipoMovimentacao.DEPOSITO, m.getTipo());
+            assertEquals(i, m.getValor());
+            assertEquals(saldo, m.getSaldo_atual());
+            assertTrue(m.getDt_hora() >= dt_hora);
+            dt_hora = m.getDt_hora();
+        }
+        assertEquals(quantidade, i);
+    }
+}
@@ -0,0 +1,251 @@
+package bancodoo.persistencia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import bancodoo.banco.Banco;
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.conta.Dinheiro;
+import bancodoo.conta.Poupanca;
+import bancodoo.conta.ResultadoOperacao;
+import bancodoo.exceptions.InputInvalidoException;
+import bancodoo.movimentacao.Agregados;
+import bancodoo.movimentacao.Movimentacao;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Testes da recuperacao de um banco a partir de um snapshot e do diario,
+ * com clientes e contas removidos enquanto o snapshot era gravado (o
+ * snapshot rotaciona o diario no lsn L e so depois percorre os clientes)
+ *
+ * @author Vinicius Corbellini
+ */
+class RecuperacaoTest {
+
+    private static final String ANA = "11111111111";
+    private static final String BRUNO = "22222222222";
+
+    @TempDir
+    Path diretorio;
+
+    private Banco banco;
+    private Diario diario;
+    private Conta conta_ana;
+    private Conta conta_bruno;
+
+    @BeforeEach
+    void montar() throws Exception {
+        banco = new Banco();
+        diario = new Diario(diretorio, 0);
+        banco.setDiario(diario);
+        banco.adicionarCliente(new PessoaFisica(ANA, "48999990001", "Ana", "ana@email.com"));
+        banco.adicionarCliente(new PessoaFisica(BRUNO, "48999990002", "Bruno", "bruno@email.com"));
+        conta_ana = new Corrente(10_000.0, 100.0);
+        conta_bruno = new Corrente(10_000.0, 100.0);
+        banco.adicionarConta(ANA, conta_ana);
+        banco.adicionarConta(BRUNO, conta_bruno);
+    }
+
+    @AfterEach
+    void fechar() throws IOException {
+        diario.close();
+    }
+
+    @Test
+    void clienteRemovidoDuranteOSnapshotNaoImpedeARecuperacao() throws Exception {
+        banco.depositar(ANA, conta_ana.getId(), 10.0);
+        long lsn = diario.rotacionar();
+        banco.depositar(ANA, conta_ana.getId(), 20.0);
+        banco.depositar(BRUNO, conta_bruno.getId(), 5.0);
+        banco.removerCliente(ANA);
+        gravarSnapshot(lsn);
+
+        Banco recuperado = recuperar();
+
+        assertFalse(recuperado.existeCliente(ANA));
+        assertFalse(recuperado.existeConta(conta_ana.getId()));
+        assertEquals(Dinheiro.paraCentavos(105.0), recuperado.procurarConta(conta_bruno.getId()).getSaldoCentavos());
+    }
+
+    @Test
+    void contaRemovidaDuranteOSnapshotNaoImpedeARecuperacao() throws Exception {
+        long lsn = diario.rotacionar();
+        banco.transferir(ANA, BRUNO, conta_ana.getId(), conta_bruno.getId(), 30.0);
+        banco.depositar(ANA, conta_ana.getId(), 1.0);
+        banco.removerConta(ANA, conta_ana.getId());
+        gravarSnapshot(lsn);
+
+        Banco recuperado = recuperar();
+
+        assertTrue(recuperado.existeCliente(ANA));
+        assertFalse(recuperado.existeConta(conta_ana.getId()));
+        assertEquals(Dinheiro.paraCentavos(130.0), recuperado.procurarConta(conta_bruno.getId()).getSaldoCentavos());
+    }
+
+    @Test
+    void operacaoPosteriorARemocaoDoClienteEIgnorada() throws Exception {
+        //operacao que encontrou a conta antes da remocao, mas foi registrada
+        //depois dela
+        long lsn = diario.rotacionar();
+        banco.removerCliente(ANA);
+        diario.aguardar(diario.registrarDeposito(conta_ana.getId(), 100, conta_ana.getSaldoCentavos() + 100));
+        gravarSnapshot(lsn);
+
+        Banco recuperado = recuperar();
+
+        assertFalse(recuperado.existeConta(conta_ana.getId()));
+    }
+
+    @Test
+    void contaInexistenteQueNaoFoiRemovidaFazARecuperacaoFalhar() throws Exception {
+        long lsn = diario.rotacionar();
+        banco.depositar(ANA, conta_ana.getId(), 20.0);
+        //snapshot sem a conta da Ana, sem que o diario a remova
+        Banco sem_ana = new Banco();
+        sem_ana.adicionarCliente(new PessoaFisica(BRUNO, "48999990002", "Bruno", "bruno@email.com"));
+        Snapshot.gravar(sem_ana, diretorio.resolve(Snapshot.ARQUIVO), lsn);
+        diario.descartarAte(lsn);
+        diario.close();
+
+        IOException e = assertThrows(IOException.class, () -> Recuperacao.recuperar(diretorio, new Banco()));
+        assertEquals("Nao foi possivel reaplicar o registro do diario de lsn " + (lsn + 1), e.getMessage());
+    }
+
+    @Test
+    void datasEAgregadosDasMovimentacoesSobrevivemARecuperacao() throws Exception {
+        Poupanca poupanca_ana = new Poupanca(10, 0.01, 100.0);
+        banco.adicionarConta(ANA, poupanca_ana);
+        banco.depositar(ANA, conta_ana.getId(), 10.0);
+        banco.sacar(ANA, conta_ana.getId(), 5.0);
+        banco.transferir(ANA, BRUNO, conta_ana.getId(), conta_bruno.getId(), 3.0);
+        banco.aplicarRendimento();
+        banco.depositar(BRUNO, conta_bruno.getId(), 1.0);
+        diario.close();
+
+        //as datas reaplicadas devem ser as do diario, nao as da recuperacao
+        Thread.sleep(50);
+        long inicio_recuperacao = System.currentTimeMillis();
+        Banco recuperado = recuperar();
+
+        for (Conta original : List.of(conta_ana, conta_bruno, poupanca_ana)) {
+            Conta reaplicada = recuperado.procurarConta(original.getId());
+            List<Movimentacao> antes = original.getMovimentacoes();
+            List<Movimentacao> depois = reaplicada.getMovimentacoes();
+            assertEquals(antes.size(), depois.size());
+            for (int i = 0; i < antes.size(); i++) {
+                Movimentacao a = antes.get(i);
+                Movimentacao d = depois.get(i);
+                assertEquals(a.getTipo(), d.getTipo());
+                assertEquals(a.getValor(), d.getValor());
+                assertEquals(a.getSaldo_atual(), d.getSaldo_atual());
+                //o diario grava a data logo depois da movimentacao
+                assertTrue(d.getDt_hora() >= a.getDt_hora() && d.getDt_hora() < inicio_recuperacao,
+                        "Data reaplicada fora do intervalo: " + d.getDt_hora());
+                verificarMesmosTotais(original.getAgregados(), reaplicada.getAgregados(), d.getDt_hora());
+            }
+        }
+    }
+
+    @Test
+    void limiteDasUltimas24HorasSobreviveAoDiario() throws Exception {
+        Conta corrente = correnteNoLimite(false);
+        diario.close();
+
+        Banco recuperado = recuperar();
+
+        assertEquals(ResultadoOperacao.LIMITE_DIARIO_EXCEDIDO, recuperado.tentarSacar(ANA, corrente.getId(), 1.0));
+        assertEquals(ResultadoOperacao.LIMITE_DIARIO_EXCEDIDO,
+                recuperado.tentarTransferir(ANA, BRUNO, corrente.getId(), conta_bruno.getId(), 1.0));
+    }
+
+    @Test
+    void limiteDasUltimas24HorasSobreviveAoSnapshot() throws Exception {
+        Conta corrente = correnteNoLimite(true);
+        diario.close();
+
+        Banco recuperado = recuperar();
+
+        assertEquals(ResultadoOperacao.LIMITE_DIARIO_EXCEDIDO, recuperado.tentarSacar(ANA, corrente.getId(), 1.0));
+        //o deposito nao libera o limite
+        recuperado.depositar(ANA, corrente.getId(), 100.0);
+        assertEquals(ResultadoOperacao.LIMITE_DIARIO_EXCEDIDO, recuperado.tentarSacar(ANA, corrente.getId(), 1.0));
+    }
+
+    @Test
+    void textoGrandeDemaisERecusadoAntesDeChegarAoDiario() throws Exception {
+        String cabe = "\u00e3".repeat(Diario.TAMANHO_MAXIMO_TEXTO / 2);
+        String nao_cabe = "a".repeat(Diario.TAMANHO_MAXIMO_TEXTO + 1);
+        PessoaFisica grande = new PessoaFisica("33333333333", "48999990003", nao_cabe, "carla@email.com");
+
+        assertThrows(InputInvalidoException.class, () -> banco.adicionarCliente(grande));
+        assertFalse(banco.existeCliente("33333333333"));
+        assertThrows(IllegalArgumentException.class, () -> diario.registrarCliente(grande));
+
+        banco.adicionarCliente(new PessoaFisica("44444444444", "48999990004", cabe, "davi@email.com"));
+        diario.close();
+
+        Banco recuperado = recuperar();
+
+        assertFalse(recuperado.existeCliente("33333333333"));
+        assertEquals(cabe, recuperado.procurarCliente("44444444444").getNome());
+        assertEquals(Dinheiro.paraCentavos(100.0), recuperado.procurarConta(conta_ana.getId()).getSaldoCentavos());
+    }
+
+    //===== Utilitarios
+    /**
+     * cria uma corrente com limite de R$50 e retira o limite inteiro (saque e
+     * transferencia)
+     *
+     * @param snapshot true para gravar um snapshot entre o saque e a
+     * transferencia (a janela do saque vem do snapshot e a da transferencia
+     * do diario)
+     */
+    private Conta correnteNoLimite(boolean snapshot) throws Exception {
+        Conta corrente = new Corrente(50.0, 1_000.0);
+        banco.adicionarConta(ANA, corrente);
+        banco.sacar(ANA, corrente.getId(), 30.0);
+        if (snapshot) {
+            Snapshot.gravar(banco);
+        }
+        banco.transferir(ANA, BRUNO, corrente.getId(), conta_bruno.getId(), 20.0);
+        assertEquals(ResultadoOperacao.LIMITE_DIARIO_EXCEDIDO, banco.tentarSacar(ANA, corrente.getId(), 1.0));
+        return corrente;
+    }
+
+    private static void verificarMesmosTotais(Agregados esperados, Agregados obtidos, long dt_hora) {
+        LocalDate dia = Instant.ofEpochMilli(dt_hora).atZone(ZoneId.systemDefault()).toLocalDate();
+        assertEquals(esperados.getDia(dia).toString(), obtidos.getDia(dia).toString());
+        assertEquals(esperados.getMes(YearMonth.from(dia)).toString(), obtidos.getMes(YearMonth.from(dia)).toString());
+    }
+
+    /**
+     * grava o snapshot como Snapshot.gravar(banco), mas com o lsn obtido
+     * antes das ultimas operacoes (rotacao feita antes de percorrer os
+     * clientes)
+     */
+    private void gravarSnapshot(long lsn) throws IOException {
+        Snapshot.gravar(banco, diretorio.resolve(Snapshot.ARQUIVO), lsn);
+        diario.descartarAte(lsn);
+        diario.close();
+    }
+
+    private Banco recuperar() throws IOException {
+        Banco recuperado = new Banco();
+        diario = Recuperacao.recuperar(diretorio, recuperado);
+        return recuperado;
+    }
+}
@@ -0,0 +1,45 @@
+package bancodoo.servidor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import bancodoo.banco.Banco;
+import bancodoo.cliente.PessoaFisica;
+import bancodoo.conta.Conta;
+import bancodoo.conta.Corrente;
+import bancodoo.conta.ResultadoOperacao;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Testes do envio de operacoes ao executor antes e depois do fechamento
+ *
+ * @author Vinicius Corbellini
+ */
+class ExecutorOperacoesTest {
+
+    private static final String ANA = "11111111111";
+
+    @Test
+    void operacaoRecusadaDepoisDoFechamentoNaoFicaEmAndamento() throws Exception {
+        Banco banco = new Banco();
+        banco.adicionarCliente(new PessoaFisica(ANA, "48999990001", "Ana", "ana@email.com"));
+        Conta conta = new Corrente(1_000.0, 100.0);
+        banco.adicionarConta(ANA, conta);
+
+        ExecutorOperacoes executor = new ExecutorOperacoes(banco, Executores.Modo.PLATAFORMA, 2);
+        assertEquals(ResultadoOperacao.SUCESSO,
+                executor.depositar(ANA, conta.getId(), 10.0).get(30, TimeUnit.SECONDS));
+        executor.close();
+
+        CompletableFuture<ResultadoOperacao> f = executor.sacar(ANA, conta.getId(), 10.0);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> f.get(30, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RejectedExecutionException, String.valueOf(e.getCause()));
+        assertEquals(0, executor.getEm_andamento());
+        assertEquals(11_000, banco.procurarConta(conta.getId()).getSaldoCentavos());
+    }
+}